@@ -107,7 +107,7 @@ public class GetOccurrences extends HttpWutup{
     
     private String generateHttpCallWithParametersToGetOccurrences(GeoPoint center, int radius) {
         
-        String httpCallFormat = ADDRESS_OF_OCCURRENCES + "?center=%s,%s&radius=%s";
+        String httpCallFormat = ADDRESS_OF_OCCURRENCES + "?center=%s,%s&radius=%s&sort=distance";
         
         double latitude = microDegreesToDegrees(center.getLatitudeE6());
         double longitude = microDegreesToDegrees(center.getLongitudeE6());
@@ -26,7 +26,7 @@ var loadPageFunctionality = function(baseUrl, user) {
 
         generateOccurrenceURL = function (center, radius, start, end) {
             return baseUrl + ':8080/wutup/occurrences?page=0&pageSize=20&center=' + center.lat() + ',' + center.lng() + '&radius=' + (radius <= 100 ? radius : 100) + '&start=' + start.getTime() +
-                '&end=' + end.getTime();
+                '&end=' + end.getTime() + '&window=overlap&sort=distance';
         },
         
 	    generateAttendeeByOccurrenceUrl = function (occurrence) {
@@ -0,0 +1,17 @@
+package edu.lmu.cs.wutup.ws.cache;
+
+/**
+ * What the DAOs tell the caches above them: that an entity is changing, so nothing built from its current state may
+ * be served once the change commits.
+ */
+public interface EntityInvalidator {
+
+    enum Kind {
+        EVENT, VENUE, USER, OCCURRENCE
+    }
+
+    /**
+     * Marks the entity as changed by the current transaction, taking effect when it commits.
+     */
+    void invalidate(Kind kind, int id);
+}
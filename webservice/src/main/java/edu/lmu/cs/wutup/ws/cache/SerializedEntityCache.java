@@ -0,0 +1,183 @@
+package edu.lmu.cs.wutup.ws.cache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Objects;
+
+import edu.lmu.cs.wutup.ws.dao.util.TransactionCallbacks;
+
+/**
+ * The serialized form of single events, venues, users and occurrences, as last sent in answer to a lookup by id, so
+ * that popular ones are sent again without querying the database or serializing anything. Entries are evicted least
+ * recently used first once together they take up more than <code>maxBytes</code>.
+ *
+ * An entry also names the entities whose fields it includes, such as the venue of an occurrence. The DAOs invalidate
+ * an entity after every transaction that changes or deletes it, which drops its entry and every entry naming it. An
+ * entry serialized from what was read before an invalidation is refused, so a lookup racing with a write cannot put
+ * back what the write replaced.
+ */
+@Component
+public class SerializedEntityCache implements EntityInvalidator {
+
+    static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final Map<Key, Set<Key>> dependents = new HashMap<Key, Set<Key>>();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bytes = 0;
+    private long invalidations = 0;
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public static Key key(Kind kind, int id) {
+        return new Key(kind, id);
+    }
+
+    /**
+     * Returns the serialized entity, or null if it is not cached.
+     */
+    public synchronized byte[] get(Kind kind, int id) {
+        Entry entry = entries.get(key(kind, id));
+        return entry != null ? entry.bytes : null;
+    }
+
+    /**
+     * Returns a stamp to take before reading an entity from the database and to hand back when caching it.
+     */
+    public synchronized long stamp() {
+        return invalidations;
+    }
+
+    /**
+     * Caches the serialized entity, unless something was invalidated since the stamp was taken. The dependencies are
+     * the other entities it includes.
+     */
+    public synchronized void put(Kind kind, int id, byte[] serialized, long stamp, Key... dependencies) {
+        if (stamp != invalidations || serialized.length > maxBytes) {
+            return;
+        }
+        Key key = key(kind, id);
+        remove(key);
+        entries.put(key, new Entry(serialized, dependencies));
+        bytes += serialized.length;
+        for (Key dependency : dependencies) {
+            Set<Key> keys = dependents.get(dependency);
+            if (keys == null) {
+                keys = new HashSet<Key>();
+                dependents.put(dependency, keys);
+            }
+            keys.add(key);
+        }
+        evict();
+    }
+
+    /**
+     * Drops the entity, and every entry that includes it, once the current transaction commits.
+     */
+    @Override
+    public void invalidate(Kind kind, int id) {
+        final Key key = key(kind, id);
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                synchronized (SerializedEntityCache.this) {
+                    invalidations++;
+                    removeWithDependents(key);
+                }
+            }
+        });
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void removeWithDependents(Key key) {
+        remove(key);
+        Set<Key> keys = dependents.remove(key);
+        if (keys != null) {
+            for (Key dependent : keys) {
+                removeWithDependents(dependent);
+            }
+        }
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            forget(key, entry);
+        }
+    }
+
+    private void evict() {
+        for (Iterator<Map.Entry<Key, Entry>> i = entries.entrySet().iterator(); bytes > maxBytes && i.hasNext();) {
+            Map.Entry<Key, Entry> eldest = i.next();
+            i.remove();
+            forget(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void forget(Key key, Entry entry) {
+        bytes -= entry.bytes.length;
+        for (Key dependency : entry.dependencies) {
+            Set<Key> keys = dependents.get(dependency);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    dependents.remove(dependency);
+                }
+            }
+        }
+    }
+
+    /**
+     * An entity, by kind and id.
+     */
+    public static final class Key {
+        private final Kind kind;
+        private final int id;
+
+        private Key(Kind kind, int id) {
+            this.kind = kind;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = Key.class.cast(obj);
+            return kind == other.kind && id == other.id;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("kind", kind).add("id", id).toString();
+        }
+    }
+
+    private static final class Entry {
+        final byte[] bytes;
+        final Key[] dependencies;
+
+        Entry(byte[] bytes, Key[] dependencies) {
+            this.bytes = bytes;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package edu.lmu.cs.wutup.ws.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Every user has a calendar version that is bumped whenever anything in their calendar feed may have changed, so that
+ * polling calendar clients can be told "not modified" from the user row alone. The DAOs that write attendance,
+ * occurrences, events and venues call these before or after their own statements.
+ */
+public class CalendarVersionUtils {
+
+    private static final String BUMP = "update user set calendarVersion = calendarVersion + 1, "
+            + "calendarUpdated = current_timestamp() where ";
+    private static final String BUMP_USER_SQL = BUMP + "id = ?";
+    private static final String BUMP_OCCURRENCE_ATTENDEES_SQL = BUMP
+            + "id in (select userId from attendee where occurrenceId = ?)";
+    private static final String BUMP_EVENT_ATTENDEES_SQL = BUMP + "id in (select a.userId from attendee a "
+            + "join occurrence o on a.occurrenceId = o.id where o.eventId = ?)";
+    private static final String BUMP_VENUE_ATTENDEES_SQL = BUMP + "id in (select a.userId from attendee a "
+            + "join occurrence o on a.occurrenceId = o.id where o.venueId = ?)";
+
+    public static void bumpUser(JdbcTemplate jdbcTemplate, int userId) {
+        jdbcTemplate.update(BUMP_USER_SQL, userId);
+    }
+
+    public static void bumpUsers(JdbcTemplate jdbcTemplate, Collection<Integer> userIds) {
+        List<Object[]> rows = new ArrayList<Object[]>(userIds.size());
+        for (Integer userId : userIds) {
+            rows.add(new Object[]{userId});
+        }
+        jdbcTemplate.batchUpdate(BUMP_USER_SQL, rows);
+    }
+
+    public static void bumpAttendeesOfOccurrence(JdbcTemplate jdbcTemplate, int occurrenceId) {
+        jdbcTemplate.update(BUMP_OCCURRENCE_ATTENDEES_SQL, occurrenceId);
+    }
+
+    public static void bumpAttendeesOfEvent(JdbcTemplate jdbcTemplate, int eventId) {
+        jdbcTemplate.update(BUMP_EVENT_ATTENDEES_SQL, eventId);
+    }
+
+    public static void bumpAttendeesAtVenue(JdbcTemplate jdbcTemplate, int venueId) {
+        jdbcTemplate.update(BUMP_VENUE_ATTENDEES_SQL, venueId);
+    }
+}
@@ -16,6 +16,11 @@ import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator;
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrenceFilterIndex;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrenceIntervalTree;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrencePyramid;
 import edu.lmu.cs.wutup.ws.dao.util.QueryBuilder;
 import edu.lmu.cs.wutup.ws.exception.EventExistsException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchEventException;
@@ -27,18 +32,26 @@ import edu.lmu.cs.wutup.ws.model.User;
 @Repository
 public class EventDaoJdbcImpl implements EventDao {
 
-    private static final String SELECT_COMMENT = "select ec.*, u.* from event_comment ec join user u on (ec.authorId = u.id)";
-    private static final String PAGINATION = "limit ? offset ?";
     private static final String CREATE_SQL = "insert into event (name, description, ownerId) values (?,?,?)";
     private static final String UPDATE_SQL = "update event set name=ifnull(?, name), description=ifnull(?, description) where id=?";
     private static final String DELETE_SQL = "delete from event where id=?";
     private static final String COUNT_SQL = "select count(*) from event";
-    private static final String FIND_COMMENTS_SQL = SELECT_COMMENT
-            + " where ec.subjectId = ? order by ec.timestamp asc " + PAGINATION;
 
     @Autowired
     JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    OccurrencePyramid occurrencePyramid;
+
+    @Autowired
+    OccurrenceIntervalTree occurrenceTree;
+
+    @Autowired
+    OccurrenceFilterIndex occurrenceFilter;
+
+    @Autowired
+    EntityInvalidator entityInvalidator;
+
     @Override
     public int createEvent(Event e) {
         PreparedStatementCreatorFactory factory = new PreparedStatementCreatorFactory(CREATE_SQL, new int[]{
@@ -63,6 +76,9 @@ public class EventDaoJdbcImpl implements EventDao {
         if (rowsUpdated == 0) {
             throw new NoSuchEventException();
         }
+        CalendarVersionUtils.bumpAttendeesOfEvent(jdbcTemplate, e.getId());
+        OccurrenceSearchUtils.refreshEvent(jdbcTemplate, e.getId());
+        entityInvalidator.invalidate(Kind.EVENT, e.getId());
     }
 
     @Override
@@ -82,11 +98,10 @@ public class EventDaoJdbcImpl implements EventDao {
         if (name != null) {
             query.like("e.name", "name", name);
         }
-        if (owners != null) {
-            for (int i = 0; i < owners.size(); i++) {
-                query.orWhere("e.ownerId = :id" + i, owners.get(i));
-            }
+        if (owners != null && !owners.isEmpty()) {
+            query.whereIn("e.ownerId", owners);
         }
+        query.whereAfter("e.id", pagination != null ? pagination.cursor : null);
 
         return jdbcTemplate.query(query.addPagination(pagination).order("e.id").build(), query.getParametersArray(), eventRowMapper);
     }
@@ -103,10 +118,15 @@ public class EventDaoJdbcImpl implements EventDao {
     
     @Override
     public void deleteEvent(int id) {
+        CalendarVersionUtils.bumpAttendeesOfEvent(jdbcTemplate, id);
         int rowsUpdated = jdbcTemplate.update(DELETE_SQL, id);
         if (rowsUpdated == 0) {
             throw new NoSuchEventException();
         }
+        occurrencePyramid.removeEvent(id);
+        occurrenceTree.invalidate();
+        occurrenceFilter.removeEvent(id);
+        entityInvalidator.invalidate(Kind.EVENT, id);
     }
 
     @Override
@@ -131,8 +151,14 @@ public class EventDaoJdbcImpl implements EventDao {
 
     @Override
     public List<Comment> findComments(int eventId, PaginationData pagination) {
-        return CommentDaoUtils.findCommentableObjectComments(jdbcTemplate, FIND_COMMENTS_SQL, new Object[]{eventId,
-                pagination.pageSize, pagination.pageSize * pagination.pageNumber}, null);
+        QueryBuilder query = new QueryBuilder().select("ec.*", "u.*")
+                .from("event_comment ec")
+                .joinOn("user u", "ec.authorId = u.id")
+                .where("ec.subjectId = :subjectId", eventId)
+                .whereAfter("ec.timestamp", "ec.id", pagination.cursor, false)
+                .order("ec.timestamp, ec.id")
+                .addPagination(pagination);
+        return CommentDaoUtils.findCommentableObjectComments(jdbcTemplate, query.build(), query.getParametersArray(), null);
     }
 
     @Override
@@ -5,15 +5,36 @@ import java.util.List;
 
 import org.joda.time.Interval;
 
+import edu.lmu.cs.wutup.ws.model.Attendance;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
+import edu.lmu.cs.wutup.ws.model.CalendarVersion;
 import edu.lmu.cs.wutup.ws.model.Circle;
 import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+import edu.lmu.cs.wutup.ws.model.OccurrenceCluster;
+import edu.lmu.cs.wutup.ws.model.OccurrenceFacets;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
+import edu.lmu.cs.wutup.ws.model.Recurrence;
 import edu.lmu.cs.wutup.ws.model.User;
 
 public interface EventOccurrenceDao extends CommentDao {
 
+    /**
+     * Receives occurrences one at a time, as they are read.
+     */
+    interface OccurrenceVisitor {
+        void visit(EventOccurrence occurrence);
+    }
+
     int createEventOccurrence(EventOccurrence e);
 
+    /**
+     * Creates those of the occurrences whose event, venue and series exist and whose series instance has not already
+     * been replaced, setting their ids. Returns, in order, null for each occurrence created and, for each one that was
+     * not, the exception that creating it alone would have thrown.
+     */
+    List<RuntimeException> createEventOccurrences(List<EventOccurrence> occurrences);
+
     void updateEventOccurrence(EventOccurrence e);
 
     void deleteEventOccurrence(int id);
@@ -24,13 +45,43 @@ public interface EventOccurrenceDao extends CommentDao {
     
     List<EventOccurrence> findEventOccurrenceByProperties(Integer parentEventId, Integer venueId, Timestamp start, Timestamp end);
 
-    List<EventOccurrence> findEventOccurrences(Integer attendee, Circle circle,
-            Interval interval, List<Integer> eventId, Integer venueId, PaginationData pagination);
+    List<EventOccurrence> findEventOccurrences(Integer attendee, Circle circle, Interval interval,
+            IntervalMode intervalMode, List<Integer> eventId, Integer venueId, PaginationData pagination);
+
+    List<EventOccurrence> findEventOccurrencesByDistance(Integer attendee, Circle circle, Interval interval,
+            IntervalMode intervalMode, List<Integer> eventId, Integer venueId, PaginationData pagination);
+
+    /**
+     * Counts the occurrences that match the search, including expanded instances of recurring series, by venue,
+     * event, category and day.
+     */
+    OccurrenceFacets findFacets(Integer attendee, Circle circle, Interval interval, IntervalMode intervalMode,
+            List<Integer> eventId, Integer venueId);
+
+    List<OccurrenceCluster> findClusters(BoundingBox box, int zoom);
+
+    int createRecurrence(Recurrence r);
+
+    Recurrence findRecurrenceById(int id);
+
+    void deleteRecurrence(int id);
+
+    CalendarVersion findCalendarVersion(int userId);
+
+    void visitAttendedOccurrences(int userId, OccurrenceVisitor visitor);
 
     int findNumberOfEventOccurrences();
 
     void registerAttendeeForEventOccurrence(int eventOccurrenceId, int attendeeId);
 
+    /**
+     * Registers each user for each occurrence of the pairs. Returns, in order, null for each pair registered and, for
+     * each one that was not, the exception that registering it alone would have thrown: AttendeeExistsException for a
+     * pair already registered (or repeated in the list) and NoSuchAttendeeOrOccurrenceException for a pair whose user
+     * or occurrence does not exist.
+     */
+    List<RuntimeException> registerAttendees(List<Attendance> attendances);
+
     void unregisterAttendeeForEventOccurrence(int eventOccurrenceId, int attendeeId);
 
 }
@@ -1,73 +1,314 @@
 package edu.lmu.cs.wutup.ws.dao;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
+import org.joda.time.LocalDate;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator;
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
+import edu.lmu.cs.wutup.ws.dao.index.CompressedBitmap;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrenceFilterIndex;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrenceIntervalTree;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrencePyramid;
+import edu.lmu.cs.wutup.ws.dao.util.Haversine;
 import edu.lmu.cs.wutup.ws.dao.util.QueryBuilder;
 import edu.lmu.cs.wutup.ws.exception.AttendeeExistsException;
 import edu.lmu.cs.wutup.ws.exception.EventOccurrenceExistsException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchAttendeeOrOccurrenceException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchEventOccurrenceException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchRecurrenceException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchResourceException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchUserException;
+import edu.lmu.cs.wutup.ws.model.Attendance;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
+import edu.lmu.cs.wutup.ws.model.CalendarVersion;
 import edu.lmu.cs.wutup.ws.model.Circle;
+import edu.lmu.cs.wutup.ws.model.Cursor;
 import edu.lmu.cs.wutup.ws.model.Comment;
 import edu.lmu.cs.wutup.ws.model.Event;
 import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+import edu.lmu.cs.wutup.ws.model.OccurrenceCluster;
+import edu.lmu.cs.wutup.ws.model.OccurrenceFacets;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
+import edu.lmu.cs.wutup.ws.model.Recurrence;
+import edu.lmu.cs.wutup.ws.model.RecurrenceRule;
 import edu.lmu.cs.wutup.ws.model.User;
 import edu.lmu.cs.wutup.ws.model.Venue;
 
 @Repository
 public class EventOccurrenceDaoJdbcImpl implements EventOccurrenceDao {
 
-    private static final String CREATE_OCCURRENCE_SQL = "insert into occurrence (eventId,venueId,start,end) values (?,?,?,?)";
+    private static final String CREATE_OCCURRENCE_SQL = "insert into occurrence "
+            + "(eventId,venueId,start,end,recurrenceId,recurrenceStart) values (?,?,?,?,?,?)";
+    private static final int[] CREATE_OCCURRENCE_TYPES = new int[]{Types.INTEGER, Types.INTEGER, Types.TIMESTAMP,
+            Types.TIMESTAMP, Types.INTEGER, Types.TIMESTAMP};
     private static final String UPDATE_OCCURRENCE_SQL = "update occurrence set venueid=ifnull(?, venueid), "
             + "eventid=ifnull(?, eventid), start=ifnull(?, start), end=ifnull(?, end) where id=?";
     private static final String DELETE_OCCURRENCE_SQL = "delete from occurrence where id=?";
 
+    static final int MAX_INTERVAL_CANDIDATES = 1000;
+    static final int CALENDAR_FETCH_SIZE = 100;
+    private static final String FIND_CALENDAR_VERSION_SQL = "select calendarVersion, calendarUpdated from user "
+            + "where id=?";
+
+    private static final String CREATE_RECURRENCE_SQL = "insert into recurrence "
+            + "(eventId,venueId,start,end,rule,lastEnd) values (?,?,?,?,?,?)";
+    private static final String DELETE_RECURRENCE_SQL = "delete from recurrence where id=?";
+    private static final String FIND_REPLACED_INSTANCES_SQL = "select recurrenceStart from occurrence "
+            + "where recurrenceId=? and recurrenceStart between ? and ?";
+    static final int MAX_EXPANDED_INSTANCES = 1000;
+
     private static final String CREATE_ATTENDEE_SQL = "insert into attendee (occurrenceId,userId) values (?,?)";
     private static final String DELETE_ATTENDEE_SQL = "delete from attendee where occurrenceId=? and userId=?";
 
     @Autowired
     JdbcTemplate jdbcTemplate;
 
+    /**
+     * Whether the driver reports a generated key for every row of a batch, or null until a batch has been tried.
+     */
+    private volatile Boolean batchKeysSupported;
+
+    @Autowired
+    OccurrencePyramid occurrencePyramid;
+
+    @Autowired
+    OccurrenceIntervalTree occurrenceTree;
+
+    @Autowired
+    OccurrenceFilterIndex occurrenceFilter;
+
+    @Autowired
+    EntityInvalidator entityInvalidator;
+
     @Override
     public int createEventOccurrence(EventOccurrence e) {
-        Integer venueId = e.getVenue() != null ? e.getVenue().getId() : null;
-        Integer eventId = e.getEvent() != null ? e.getEvent().getId() : null;
-        Timestamp start = e.getStart() != null ? new Timestamp(e.getStart().getMillis()) : null;
-        Timestamp end = e.getEnd() != null ? new Timestamp(e.getEnd().getMillis()) : null;
-        PreparedStatementCreatorFactory factory = new PreparedStatementCreatorFactory(CREATE_OCCURRENCE_SQL, new int[]{
-                Types.INTEGER, Types.INTEGER, Types.TIMESTAMP, Types.TIMESTAMP});
+        PreparedStatementCreatorFactory factory = new PreparedStatementCreatorFactory(CREATE_OCCURRENCE_SQL,
+                CREATE_OCCURRENCE_TYPES);
         factory.setReturnGeneratedKeys(true);
         factory.setGeneratedKeysColumnNames(new String[]{"id"});
-        PreparedStatementCreator creator = factory.newPreparedStatementCreator(new Object[]{eventId, venueId, start, end});
+        PreparedStatementCreator creator = factory.newPreparedStatementCreator(insertParameters(e));
         KeyHolder keyHolder = new GeneratedKeyHolder();
         try {
             jdbcTemplate.update(creator, keyHolder);
             e.setId((Integer) keyHolder.getKey());
+            OccurrenceSearchUtils.refreshOccurrence(jdbcTemplate, e.getId());
+            reindex(e.getId());
             return e.getId();
         } catch (DuplicateKeyException ex) {
             throw new EventOccurrenceExistsException();
         }
     }
 
+    /**
+     * Looks up the events, venues, series and replaced instances the occurrences refer to with one query each, then
+     * inserts those that can be created through a single prepared statement.
+     */
+    @Override
+    public List<RuntimeException> createEventOccurrences(List<EventOccurrence> occurrences) {
+        Set<Integer> eventIds = new HashSet<Integer>();
+        Set<Integer> venueIds = new HashSet<Integer>();
+        Set<Integer> seriesIds = new HashSet<Integer>();
+        for (EventOccurrence e : occurrences) {
+            addIdOf(eventIds, e.getEvent() != null ? e.getEvent().getId() : null);
+            addIdOf(venueIds, e.getVenue() != null ? e.getVenue().getId() : null);
+            addIdOf(seriesIds, e.getRecurrenceId());
+        }
+        Set<Integer> events = findExistingIds("event", eventIds);
+        Set<Integer> venues = findExistingIds("venue", venueIds);
+        Set<Integer> series = findExistingIds("recurrence", seriesIds);
+        Set<String> replacedInstances = findReplacedInstances(series);
+
+        List<RuntimeException> failures = new ArrayList<RuntimeException>(occurrences.size());
+        List<EventOccurrence> creatable = new ArrayList<EventOccurrence>(occurrences.size());
+        for (EventOccurrence e : occurrences) {
+            RuntimeException failure = null;
+            if ((e.getEvent() != null && e.getEvent().getId() != null && !events.contains(e.getEvent().getId()))
+                    || (e.getVenue() != null && e.getVenue().getId() != null && !venues.contains(e.getVenue().getId()))
+                    || (e.getRecurrenceId() != null && !series.contains(e.getRecurrenceId()))) {
+                failure = new NoSuchResourceException();
+            } else if (e.getRecurrenceId() != null && e.getRecurrenceStart() != null
+                    && !replacedInstances.add(e.getRecurrenceId() + "@" + e.getRecurrenceStart().getMillis())) {
+                failure = new EventOccurrenceExistsException();
+            }
+            failures.add(failure);
+            if (failure == null) {
+                creatable.add(e);
+            }
+        }
+
+        List<Integer> ids = insertAll(creatable);
+        for (int i = 0; i < ids.size(); i++) {
+            creatable.get(i).setId(ids.get(i));
+        }
+        OccurrenceSearchUtils.refreshOccurrences(jdbcTemplate, ids);
+        reindex(ids);
+        return failures;
+    }
+
+    private static void addIdOf(Set<Integer> ids, Integer id) {
+        if (id != null) {
+            ids.add(id);
+        }
+    }
+
+    private Set<Integer> findExistingIds(String table, Set<Integer> ids) {
+        if (ids.isEmpty()) {
+            return ids;
+        }
+        QueryBuilder query = new QueryBuilder().select("id").from(table).whereIn("id", ids);
+        return new HashSet<Integer>(jdbcTemplate.queryForList(query.build(), query.getParametersArray(),
+                Integer.class));
+    }
+
+    /**
+     * Returns the instances of the series already replaced by stored occurrences, as series id "@" instance start.
+     */
+    private Set<String> findReplacedInstances(Set<Integer> seriesIds) {
+        final Set<String> replaced = new HashSet<String>();
+        if (!seriesIds.isEmpty()) {
+            QueryBuilder query = new QueryBuilder().select("recurrenceId", "recurrenceStart").from("occurrence")
+                    .whereIn("recurrenceId", seriesIds);
+            jdbcTemplate.query(query.build(), query.getParametersArray(), new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    replaced.add(rs.getInt("recurrenceId") + "@" + rs.getTimestamp("recurrenceStart").getTime());
+                }
+            });
+        }
+        return replaced;
+    }
+
+    /**
+     * Inserts the occurrences through one prepared statement and returns their generated ids, in order.
+     */
+    private List<Integer> insertAll(final List<EventOccurrence> occurrences) {
+        if (occurrences.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            return jdbcTemplate.execute(new ConnectionCallback<List<Integer>>() {
+                public List<Integer> doInConnection(Connection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepareStatement(CREATE_OCCURRENCE_SQL,
+                            new String[]{"id"});
+                    try {
+                        return insertAll(connection, statement, occurrences);
+                    } finally {
+                        JdbcUtils.closeStatement(statement);
+                    }
+                }
+            });
+        } catch (DuplicateKeyException e) {
+            throw new EventOccurrenceExistsException();
+        } catch (DataIntegrityViolationException e) {
+            throw new NoSuchResourceException();
+        }
+    }
+
+    /**
+     * Sends the rows in one JDBC batch when the driver reports a generated key for every row of a batch. Not all do
+     * (H2 1.3 reports only the last), so the first batch is tried under a savepoint, and if its keys come back short
+     * it is rolled back, the rows are sent one at a time, and batches are not tried again. Outside a transaction there
+     * is no savepoint to fall back to, so rows are sent one at a time until a batch has been seen to work.
+     */
+    private List<Integer> insertAll(Connection connection, PreparedStatement statement,
+            List<EventOccurrence> occurrences) throws SQLException {
+        Boolean batchable = batchKeysSupported;
+        if (occurrences.size() > 1 && !Boolean.FALSE.equals(batchable)
+                && (batchable != null || !connection.getAutoCommit())) {
+            Savepoint savepoint = batchable == null ? connection.setSavepoint() : null;
+            for (EventOccurrence e : occurrences) {
+                setInsertParameters(statement, e);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            List<Integer> keys = generatedKeys(statement);
+            if (keys.size() == occurrences.size()) {
+                if (savepoint != null) {
+                    connection.releaseSavepoint(savepoint);
+                }
+                batchKeysSupported = true;
+                return keys;
+            } else if (savepoint == null) {
+                throw new IllegalStateException(String.format("Got %d keys for a batch of %d occurrences",
+                        keys.size(), occurrences.size()));
+            }
+            connection.rollback(savepoint);
+            batchKeysSupported = false;
+        }
+        List<Integer> keys = new ArrayList<Integer>(occurrences.size());
+        for (EventOccurrence e : occurrences) {
+            setInsertParameters(statement, e);
+            statement.executeUpdate();
+            keys.addAll(generatedKeys(statement));
+        }
+        return keys;
+    }
+
+    private static List<Integer> generatedKeys(Statement statement) throws SQLException {
+        List<Integer> keys = new ArrayList<Integer>();
+        ResultSet rs = statement.getGeneratedKeys();
+        try {
+            while (rs.next()) {
+                keys.add(rs.getInt(1));
+            }
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+        }
+        return keys;
+    }
+
+    private static Object[] insertParameters(EventOccurrence e) {
+        Integer venueId = e.getVenue() != null ? e.getVenue().getId() : null;
+        Integer eventId = e.getEvent() != null ? e.getEvent().getId() : null;
+        Timestamp start = e.getStart() != null ? new Timestamp(e.getStart().getMillis()) : null;
+        Timestamp end = e.getEnd() != null ? new Timestamp(e.getEnd().getMillis()) : null;
+        Timestamp recurrenceStart = e.getRecurrenceStart() != null ? new Timestamp(e.getRecurrenceStart().getMillis())
+                : null;
+        return new Object[]{eventId, venueId, start, end, e.getRecurrenceId(), recurrenceStart};
+    }
+
+    private static void setInsertParameters(PreparedStatement statement, EventOccurrence e) throws SQLException {
+        Object[] parameters = insertParameters(e);
+        for (int i = 0; i < parameters.length; i++) {
+            StatementCreatorUtils.setParameterValue(statement, i + 1, CREATE_OCCURRENCE_TYPES[i], parameters[i]);
+        }
+    }
+
     @Override
     public void updateEventOccurrence(EventOccurrence e) {
         Integer venueId = e.getVenue() != null ? e.getVenue().getId() : null;
@@ -78,14 +319,54 @@ public class EventOccurrenceDaoJdbcImpl implements EventOccurrenceDao {
         if (rowsUpdated == 0) {
             throw new NoSuchEventOccurrenceException();
         }
+        CalendarVersionUtils.bumpAttendeesOfOccurrence(jdbcTemplate, e.getId());
+        OccurrenceSearchUtils.refreshOccurrence(jdbcTemplate, e.getId());
+        reindex(e.getId());
+        entityInvalidator.invalidate(Kind.OCCURRENCE, e.getId());
     }
 
     @Override
     public void deleteEventOccurrence(int id) {
+        CalendarVersionUtils.bumpAttendeesOfOccurrence(jdbcTemplate, id);
         int rowsUpdated = jdbcTemplate.update(DELETE_OCCURRENCE_SQL, id);
         if (rowsUpdated == 0) {
             throw new NoSuchEventOccurrenceException();
         }
+        occurrencePyramid.remove(id);
+        occurrenceTree.remove(id);
+        occurrenceFilter.remove(id);
+        entityInvalidator.invalidate(Kind.OCCURRENCE, id);
+    }
+
+    /**
+     * Tells the cluster pyramid, the interval tree and the filter where and when the occurrence, as written by the
+     * current transaction, takes place.
+     */
+    private void reindex(int id) {
+        reindex(Collections.singletonList(id));
+    }
+
+    private void reindex(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        QueryBuilder query = new QueryBuilder()
+                .select("o.id", "o.eventId", "o.venueId", "o.start", "o.end", "v.latitude", "v.longitude")
+                .from("occurrence o left join venue v on o.venueId = v.id")
+                .whereIn("o.id", ids);
+        jdbcTemplate.query(query.build(), query.getParametersArray(), new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                int id = rs.getInt("id");
+                Double latitude = (Double) rs.getObject("latitude");
+                Double longitude = (Double) rs.getObject("longitude");
+                occurrencePyramid.put(id, rs.getInt("eventId"), rs.getInt("venueId"), latitude, longitude);
+                Timestamp start = rs.getTimestamp("start");
+                Timestamp end = rs.getTimestamp("end");
+                occurrenceTree.put(id, start != null ? start.getTime() : null, end != null ? end.getTime() : null);
+                occurrenceFilter.put(id, (Integer) rs.getObject("eventId"), (Integer) rs.getObject("venueId"), start,
+                        end, latitude, longitude);
+            }
+        });
     }
 
     @Override
@@ -122,24 +403,365 @@ public class EventOccurrenceDaoJdbcImpl implements EventOccurrenceDao {
         }
     }
     
+    /**
+     * Finds the requested page of matching occurrences in order of id. When the search has a time window and recurring
+     * series could have instances in it, those instances, which have no id, come after all the stored occurrences,
+     * ordered by series and then by start, so a cursor left by an instance carries the series and the start. Whether
+     * any series match changes neither the order of the stored occurrences nor what a cursor means. The matches are
+     * found by the filter, and only the occurrences on the page are read from the database.
+     */
     @Override
     public List<EventOccurrence> findEventOccurrences(Integer attendee, Circle circle, Interval interval,
-            List<Integer> eventIds, Integer venueId, PaginationData pagination) {
-        QueryBuilder query = getSelectQuery().whereCircle(circle)
-                .where("o.venueid = :venueid", venueId)
-                .whereInterval(interval);
-        
-        if (eventIds != null) {
-            for (int i = 0; i < eventIds.size(); i++) {
-                query.orWhere("o.eventid = :eventid" + i, eventIds.get(i));
+            IntervalMode intervalMode, List<Integer> eventIds, Integer venueId, PaginationData pagination) {
+        CompressedBitmap matches = findMatches(attendee, circle, interval, intervalMode, eventIds, venueId);
+        int offset = pagination.pageNumber * pagination.pageSize;
+        int limit = offset + pagination.pageSize;
+        List<Integer> ids = firstById(matches, pagination.cursor, limit);
+        List<EventOccurrence> occurrences = findEventOccurrencesInOrder(ids.subList(Math.min(offset, ids.size()),
+                ids.size()));
+        if (ids.size() < limit) {
+            List<Recurrence> series = findRecurrences(attendee, circle, interval, eventIds, venueId);
+            if (!series.isEmpty()) {
+                List<EventOccurrence> instances = expandRecurrences(series, interval, intervalMode,
+                        limit - ids.size(), null, pagination.cursor);
+                Collections.sort(instances, ID_ORDER);
+                int skipped = Math.max(0, offset - ids.size());
+                occurrences.addAll(instances.subList(Math.min(skipped, instances.size()),
+                        Math.min(instances.size(), limit - ids.size())));
             }
         }
-        if (attendee != null) {
-            query.joinOn("attendee a", "o.id = a.occurrenceId").where("a.userId = :attendeeId", attendee);
+        return occurrences;
+    }
+
+    /**
+     * Returns the smallest ids of the matches, up to the limit, after the cursor if there is one. Every stored
+     * occurrence comes before the instances of series, so there are none after a cursor left by an instance.
+     */
+    private static List<Integer> firstById(CompressedBitmap matches, Cursor after, int limit) {
+        List<Integer> ids = new ArrayList<Integer>();
+        if (after != null && after.instance) {
+            return ids;
         }
+        for (Iterator<Integer> i = matches.iterator(); i.hasNext() && ids.size() < limit;) {
+            int id = i.next();
+            if (after == null || id > after.id) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
 
-        return jdbcTemplate.query(query.addPagination(pagination).order("o.id").build(), query.getParametersArray(),
-                eventOccurrenceRowMapper);
+    /**
+     * Finds the requested page of matching occurrences, closest to the center of the circle first, with ties broken by
+     * id so that pages never overlap. Only the ids and locations of the matches are read; a bounded heap keeps the
+     * closest ones up to the end of the page, and just the occurrences on the page are then loaded in full.
+     */
+    @Override
+    public List<EventOccurrence> findEventOccurrencesByDistance(Integer attendee, Circle circle, Interval interval,
+            IntervalMode intervalMode, List<Integer> eventIds, Integer venueId, PaginationData pagination) {
+        List<Recurrence> series = findRecurrences(attendee, circle, interval, eventIds, venueId);
+        if (series.isEmpty()) {
+            return findStoredOccurrencesByDistance(attendee, circle, interval, intervalMode, eventIds, venueId,
+                    pagination.cursor, pagination.pageNumber * pagination.pageSize, pagination.pageSize);
+        }
+
+        // Every instance of a series is as far away as its venue, so merging the closest of each suffices
+        int limit = (pagination.pageNumber + 1) * pagination.pageSize;
+        List<EventOccurrence> occurrences = findStoredOccurrencesByDistance(attendee, circle, interval, intervalMode,
+                eventIds, venueId, pagination.cursor, 0, limit);
+        occurrences.addAll(expandRecurrences(series, interval, intervalMode, limit, circle, pagination.cursor));
+        Collections.sort(occurrences, DISTANCE_ORDER);
+        return page(occurrences, pagination);
+    }
+
+    private List<EventOccurrence> findStoredOccurrencesByDistance(Integer attendee, Circle circle, Interval interval,
+            IntervalMode intervalMode, List<Integer> eventIds, Integer venueId, Cursor cursor, int offset,
+            int count) {
+        CompressedBitmap matches = findMatches(attendee, circle, interval, intervalMode, eventIds, venueId);
+        final int limit = offset + count;
+        final RankedOccurrence after = rankedAfter(cursor);
+        final double centerLatitude = circle.centerLatitude;
+        final double centerLongitude = circle.centerLongitude;
+        final PriorityQueue<RankedOccurrence> closest = new PriorityQueue<RankedOccurrence>(limit + 1,
+                Collections.reverseOrder(RANKED_OCCURRENCE_ORDER));
+        occurrenceFilter.visit(matches, new OccurrenceFilterIndex.RowVisitor() {
+            public void visit(int id, int eventId, int venueId, long start, long end, double latitude,
+                    double longitude) {
+                RankedOccurrence candidate = new RankedOccurrence(id, Haversine.distanceInMiles(centerLatitude,
+                        latitude, centerLongitude, longitude));
+                if (after != null && RANKED_OCCURRENCE_ORDER.compare(candidate, after) <= 0) {
+                    return;
+                } else if (closest.size() < limit) {
+                    closest.add(candidate);
+                } else if (RANKED_OCCURRENCE_ORDER.compare(candidate, closest.peek()) < 0) {
+                    closest.poll();
+                    closest.add(candidate);
+                }
+            }
+        });
+
+        List<RankedOccurrence> ranked = new ArrayList<RankedOccurrence>(closest);
+        Collections.sort(ranked, RANKED_OCCURRENCE_ORDER);
+        if (ranked.size() <= offset) {
+            return new ArrayList<EventOccurrence>();
+        }
+        ranked = ranked.subList(offset, ranked.size());
+
+        List<Integer> ids = new ArrayList<Integer>(ranked.size());
+        for (RankedOccurrence r : ranked) {
+            ids.add(r.id);
+        }
+        Map<Integer, EventOccurrence> occurrencesById = findEventOccurrencesById(ids);
+        List<EventOccurrence> occurrences = new ArrayList<EventOccurrence>(ranked.size());
+        for (RankedOccurrence r : ranked) {
+            EventOccurrence o = occurrencesById.get(r.id);
+            if (o != null) {
+                o.setDistance(r.distance);
+                occurrences.add(o);
+            }
+        }
+        return occurrences;
+    }
+
+    /**
+     * Reads the occurrences with the given ids, in the same order. Any that have gone since they were matched are
+     * left out.
+     */
+    private List<EventOccurrence> findEventOccurrencesInOrder(List<Integer> ids) {
+        Map<Integer, EventOccurrence> occurrencesById = findEventOccurrencesById(ids);
+        List<EventOccurrence> occurrences = new ArrayList<EventOccurrence>(ids.size());
+        for (int id : ids) {
+            EventOccurrence o = occurrencesById.get(id);
+            if (o != null) {
+                occurrences.add(o);
+            }
+        }
+        return occurrences;
+    }
+
+    private Map<Integer, EventOccurrence> findEventOccurrencesById(List<Integer> ids) {
+        Map<Integer, EventOccurrence> occurrencesById = new HashMap<Integer, EventOccurrence>();
+        if (!ids.isEmpty()) {
+            QueryBuilder query = getSelectQuery().whereIn("o.id", ids);
+            for (EventOccurrence o : jdbcTemplate.query(query.build(), query.getParametersArray(),
+                    eventOccurrenceRowMapper)) {
+                occurrencesById.put(o.getId(), o);
+            }
+        }
+        return occurrencesById;
+    }
+
+    /**
+     * Returns the rank just after which a page of stored occurrences continues, or null to start at the closest.
+     * Stored occurrences come before instances at the same distance, so after an instance the page continues with
+     * the stored occurrences that are farther away.
+     */
+    private static RankedOccurrence rankedAfter(Cursor cursor) {
+        if (cursor == null || cursor.distance == null) {
+            return null;
+        }
+        return new RankedOccurrence(cursor.instance ? Integer.MAX_VALUE : cursor.id, cursor.distance);
+    }
+
+    /**
+     * Finds the ids of the stored occurrences that match the search. A time window is first looked up in the interval
+     * tree, whose matches, when there are few enough to list, stand in for the window in the filter.
+     */
+    private CompressedBitmap findMatches(Integer attendee, Circle circle, Interval interval, IntervalMode intervalMode,
+            List<Integer> eventIds, Integer venueId) {
+        List<Integer> inWindow = null;
+        if (interval != null) {
+            inWindow = occurrenceTree.findOccurrences(interval, intervalMode, MAX_INTERVAL_CANDIDATES);
+        }
+        return occurrenceFilter.findOccurrences(attendee, circle, inWindow == null ? interval : null, intervalMode,
+                eventIds, venueId, inWindow);
+    }
+
+    /**
+     * Finds the recurring series that could have instances in the window and otherwise match the search. Instances
+     * are only expanded within a window, and have no attendees, so there are none to find without a window or when
+     * searching by attendee.
+     */
+    private List<Recurrence> findRecurrences(Integer attendee, Circle circle, Interval interval,
+            List<Integer> eventIds, Integer venueId) {
+        if (interval == null || attendee != null) {
+            return new ArrayList<Recurrence>();
+        }
+        QueryBuilder query = getRecurrenceQuery().whereCircle(circle)
+                .where("r.venueId = :venueId", venueId)
+                .whereIn("r.eventId", eventIds)
+                .where("r.start < :windowEnd", new Timestamp(interval.getEndMillis()))
+                .where("(r.lastEnd is null or r.lastEnd > :windowStart)", new Timestamp(interval.getStartMillis()));
+        return jdbcTemplate.query(query.build(), query.getParametersArray(), recurrenceRowMapper);
+    }
+
+    /**
+     * Expands the first instances of each series, up to the limit, that match the window, leaving out those that have
+     * been replaced by stored occurrences. The replacements are found by the ordinary occurrence search. Given a
+     * circle, each instance gets its distance from the center. Given a cursor, only the instances that come after it,
+     * in the order of the search, are expanded.
+     */
+    private List<EventOccurrence> expandRecurrences(List<Recurrence> series, Interval interval,
+            IntervalMode intervalMode, int limit, Circle circle, Cursor after) {
+        Comparator<EventOccurrence> order = circle != null ? DISTANCE_ORDER : ID_ORDER;
+        EventOccurrence probe = after != null && (circle == null || after.distance != null) ? occurrenceAt(after)
+                : null;
+        List<EventOccurrence> instances = new ArrayList<EventOccurrence>();
+        for (Recurrence r : series) {
+            Double distance = circle != null ? Haversine.distanceInMiles(circle.centerLatitude,
+                    r.getVenue().getLatitude(), circle.centerLongitude, r.getVenue().getLongitude()) : null;
+            long duration = r.getEnd().getMillis() - r.getStart().getMillis();
+            long from = interval.getStartMillis() - (intervalMode == IntervalMode.OVERLAP ? duration : 0);
+            if (probe != null && probe.getStart() != null && after.instance
+                    && (circle != null ? distance.equals(after.distance) : r.getId().equals(after.id))) {
+                // Instances starting before the cursor, at its distance or in its series, come before it
+                from = Math.max(from, probe.getStart().getMillis());
+            }
+            DateTime to = interval.getEnd();
+            Set<Long> replaced = new HashSet<Long>(jdbcTemplate.query(FIND_REPLACED_INSTANCES_SQL, new Object[]{
+                    r.getId(), new Timestamp(from), new Timestamp(to.getMillis())}, instantRowMapper));
+            int wanted = Math.min(limit, MAX_EXPANDED_INSTANCES) + replaced.size() + (probe != null ? 1 : 0);
+            RecurrenceRule rule = RecurrenceRule.parse(r.getRule());
+            for (DateTime start : rule.startsBetween(r.getStart(), new DateTime(from), to, wanted)) {
+                long end = start.getMillis() + duration;
+                if (!replaced.contains(start.getMillis()) && OccurrenceIntervalTree.matches(start.getMillis(), end,
+                        interval.getStartMillis(), interval.getEndMillis(), intervalMode)) {
+                    EventOccurrence instance = new EventOccurrence(null, r.getEvent(), r.getVenue(), start,
+                            new DateTime(end));
+                    instance.setRecurrenceId(r.getId());
+                    instance.setRecurrenceStart(start);
+                    instance.setDistance(distance);
+                    if (probe == null || order.compare(instance, probe) > 0) {
+                        instances.add(instance);
+                    }
+                }
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Returns a stand-in for the occurrence the cursor was taken from, to compare instances with.
+     */
+    private static EventOccurrence occurrenceAt(Cursor cursor) {
+        EventOccurrence o = new EventOccurrence(cursor.instance ? null : cursor.id, null, null,
+                cursor.time != null ? new DateTime(cursor.time) : null, null);
+        o.setRecurrenceId(cursor.instance ? cursor.id : null);
+        o.setDistance(cursor.distance);
+        return o;
+    }
+
+    private static List<EventOccurrence> page(List<EventOccurrence> occurrences, PaginationData pagination) {
+        int offset = pagination.pageNumber * pagination.pageSize;
+        if (occurrences.size() <= offset) {
+            return new ArrayList<EventOccurrence>();
+        }
+        return new ArrayList<EventOccurrence>(occurrences.subList(offset,
+                Math.min(occurrences.size(), offset + pagination.pageSize)));
+    }
+
+    @Override
+    public int createRecurrence(Recurrence r) {
+        DateTime lastStart = RecurrenceRule.parse(r.getRule()).lastStart(r.getStart());
+        Timestamp lastEnd = lastStart != null
+                ? new Timestamp(lastStart.getMillis() + r.getEnd().getMillis() - r.getStart().getMillis())
+                : null;
+        PreparedStatementCreatorFactory factory = new PreparedStatementCreatorFactory(CREATE_RECURRENCE_SQL, new int[]{
+                Types.INTEGER, Types.INTEGER, Types.TIMESTAMP, Types.TIMESTAMP, Types.VARCHAR, Types.TIMESTAMP});
+        factory.setReturnGeneratedKeys(true);
+        factory.setGeneratedKeysColumnNames(new String[]{"id"});
+        PreparedStatementCreator creator = factory.newPreparedStatementCreator(new Object[]{r.getEvent().getId(),
+                r.getVenue().getId(), new Timestamp(r.getStart().getMillis()), new Timestamp(r.getEnd().getMillis()),
+                r.getRule(), lastEnd});
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        try {
+            jdbcTemplate.update(creator, keyHolder);
+        } catch (DataIntegrityViolationException e) {
+            throw new NoSuchResourceException();
+        }
+        r.setId((Integer) keyHolder.getKey());
+        return r.getId();
+    }
+
+    @Override
+    public Recurrence findRecurrenceById(int id) {
+        QueryBuilder query = getRecurrenceQuery().where("r.id = :id", id);
+        try {
+            return jdbcTemplate.queryForObject(query.build(), query.getParametersArray(), recurrenceRowMapper);
+        } catch (IncorrectResultSizeDataAccessException e) {
+            throw new NoSuchRecurrenceException();
+        }
+    }
+
+    @Override
+    public void deleteRecurrence(int id) {
+        int rowsUpdated = jdbcTemplate.update(DELETE_RECURRENCE_SQL, id);
+        if (rowsUpdated == 0) {
+            throw new NoSuchRecurrenceException();
+        }
+    }
+
+    /**
+     * Counts the matches in one pass over the filter's bitmap and the expanded instances, of which there are at most
+     * MAX_EXPANDED_INSTANCES per series, then spreads the counts of the events over their categories with one more
+     * query.
+     */
+    @Override
+    public OccurrenceFacets findFacets(Integer attendee, Circle circle, Interval interval, IntervalMode intervalMode,
+            List<Integer> eventIds, Integer venueId) {
+        final OccurrenceFacets facets = new OccurrenceFacets();
+        occurrenceFilter.visit(findMatches(attendee, circle, interval, intervalMode, eventIds, venueId),
+                new OccurrenceFilterIndex.RowVisitor() {
+            public void visit(int id, int eventId, int venueId, long start, long end, double latitude,
+                    double longitude) {
+                count(facets, venueId != OccurrenceFilterIndex.NO_ID ? venueId : null,
+                        eventId != OccurrenceFilterIndex.NO_ID ? eventId : null,
+                        start != OccurrenceFilterIndex.NO_TIME ? start : null);
+            }
+        });
+        List<Recurrence> series = findRecurrences(attendee, circle, interval, eventIds, venueId);
+        if (!series.isEmpty()) {
+            for (EventOccurrence instance : expandRecurrences(series, interval, intervalMode, MAX_EXPANDED_INSTANCES,
+                    null, null)) {
+                count(facets, instance.getVenue().getId(), instance.getEvent().getId(),
+                        instance.getStart().getMillis());
+            }
+        }
+
+        if (!facets.getEvents().isEmpty()) {
+            QueryBuilder query = new QueryBuilder().select("eventId", "categoryId").from("event_category")
+                    .whereIn("eventId", facets.getEvents().keySet());
+            jdbcTemplate.query(query.build(), query.getParametersArray(), new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    increment(facets.getCategories(), rs.getInt("categoryId"),
+                            facets.getEvents().get(rs.getInt("eventId")));
+                }
+            });
+        }
+        return facets;
+    }
+
+    private static void count(OccurrenceFacets facets, Integer venueId, Integer eventId, Long start) {
+        facets.setTotal(facets.getTotal() + 1);
+        if (venueId != null) {
+            increment(facets.getVenues(), venueId, 1);
+        }
+        if (eventId != null) {
+            increment(facets.getEvents(), eventId, 1);
+        }
+        if (start != null) {
+            increment(facets.getDays(), new LocalDate(start).toString(), 1);
+        }
+    }
+
+    private static <K> void increment(Map<K, Integer> counts, K key, int amount) {
+        Integer count = counts.get(key);
+        counts.put(key, count != null ? count + amount : amount);
+    }
+
+    @Override
+    public List<OccurrenceCluster> findClusters(BoundingBox box, int zoom) {
+        return occurrencePyramid.findClusters(box, zoom);
     }
 
     public int findNumberOfEventOccurrences() {
@@ -150,7 +772,8 @@ public class EventOccurrenceDaoJdbcImpl implements EventOccurrenceDao {
     public List<User> findAttendeesByEventOccurrenceId(int id, PaginationData pagination) {
         QueryBuilder query = new QueryBuilder().from("attendee a")
                 .joinOn("user u", "a.userId = u.id")
-                .where("a.occurrenceId = :oId", id);
+                .where("a.occurrenceId = :oId", id)
+                .whereAfter("u.id", pagination.cursor);
         return jdbcTemplate.query(query.addPagination(pagination).order("u.id").build(), query.getParametersArray(), userRowMapper);
     }
 
@@ -160,9 +783,74 @@ public class EventOccurrenceDaoJdbcImpl implements EventOccurrenceDao {
             jdbcTemplate.update(CREATE_ATTENDEE_SQL, eventOccurrenceId, attendeeId);
         } catch (DuplicateKeyException ex) {
             throw new AttendeeExistsException();
-        } catch (DataAccessException e) {
+        } catch (DataIntegrityViolationException e) {
             throw new NoSuchAttendeeOrOccurrenceException();
         }
+        CalendarVersionUtils.bumpUser(jdbcTemplate, attendeeId);
+        occurrenceFilter.addAttendee(eventOccurrenceId, attendeeId);
+    }
+
+    /**
+     * Looks up the occurrences, users and existing registrations with one query each, then inserts the new pairs and
+     * bumps the calendars of their users with one batch each.
+     */
+    @Override
+    public List<RuntimeException> registerAttendees(List<Attendance> attendances) {
+        Set<Integer> occurrenceIds = new HashSet<Integer>();
+        Set<Integer> userIds = new HashSet<Integer>();
+        for (Attendance a : attendances) {
+            occurrenceIds.add(a.occurrenceId);
+            userIds.add(a.userId);
+        }
+        Set<Integer> occurrences = findExistingIds("occurrence", occurrenceIds);
+        Set<Integer> users = findExistingIds("user", userIds);
+        Set<Attendance> registered = findRegistrations(occurrences, users);
+
+        List<RuntimeException> failures = new ArrayList<RuntimeException>(attendances.size());
+        List<Object[]> rows = new ArrayList<Object[]>();
+        List<Attendance> added = new ArrayList<Attendance>();
+        Set<Integer> bumped = new HashSet<Integer>();
+        for (Attendance a : attendances) {
+            RuntimeException failure = null;
+            if (!occurrences.contains(a.occurrenceId) || !users.contains(a.userId)) {
+                failure = new NoSuchAttendeeOrOccurrenceException();
+            } else if (!registered.add(a)) {
+                failure = new AttendeeExistsException();
+            } else {
+                rows.add(new Object[]{a.occurrenceId, a.userId});
+                added.add(a);
+                bumped.add(a.userId);
+            }
+            failures.add(failure);
+        }
+
+        if (!rows.isEmpty()) {
+            try {
+                jdbcTemplate.batchUpdate(CREATE_ATTENDEE_SQL, rows);
+            } catch (DuplicateKeyException ex) {
+                throw new AttendeeExistsException();
+            } catch (DataIntegrityViolationException e) {
+                throw new NoSuchAttendeeOrOccurrenceException();
+            }
+            CalendarVersionUtils.bumpUsers(jdbcTemplate, bumped);
+            occurrenceFilter.addAttendees(added);
+        }
+        return failures;
+    }
+
+    private Set<Attendance> findRegistrations(Set<Integer> occurrenceIds, Set<Integer> userIds) {
+        final Set<Attendance> registrations = new HashSet<Attendance>();
+        if (!occurrenceIds.isEmpty() && !userIds.isEmpty()) {
+            QueryBuilder query = new QueryBuilder().select("occurrenceId", "userId").from("attendee")
+                    .whereIn("occurrenceId", occurrenceIds)
+                    .whereIn("userId", userIds);
+            jdbcTemplate.query(query.build(), query.getParametersArray(), new RowCallbackHandler() {
+                public void processRow(ResultSet rs) throws SQLException {
+                    registrations.add(new Attendance(rs.getInt("occurrenceId"), rs.getInt("userId")));
+                }
+            });
+        }
+        return registrations;
     }
 
     @Override
@@ -171,6 +859,51 @@ public class EventOccurrenceDaoJdbcImpl implements EventOccurrenceDao {
         if (rowsUpdated == 0) {
             throw new NoSuchAttendeeOrOccurrenceException();
         }
+        CalendarVersionUtils.bumpUser(jdbcTemplate, attendeeId);
+        occurrenceFilter.removeAttendee(eventOccurrenceId, attendeeId);
+    }
+
+    @Override
+    public CalendarVersion findCalendarVersion(final int userId) {
+        try {
+            return jdbcTemplate.queryForObject(FIND_CALENDAR_VERSION_SQL, new Object[]{userId},
+                    new RowMapper<CalendarVersion>() {
+                        public CalendarVersion mapRow(ResultSet rs, int rowNum) throws SQLException {
+                            return new CalendarVersion(userId, rs.getInt("calendarVersion"),
+                                    new DateTime(rs.getTimestamp("calendarUpdated")));
+                        }
+                    });
+        } catch (IncorrectResultSizeDataAccessException e) {
+            throw new NoSuchUserException();
+        }
+    }
+
+    /**
+     * Reads the user's occurrences through a forward-only, read-only cursor, handing each to the visitor as soon as it
+     * is mapped, so that a feed of any length can be written without holding it in memory.
+     */
+    @Override
+    public void visitAttendedOccurrences(int userId, final OccurrenceVisitor visitor) {
+        final QueryBuilder query = getSelectQuery().joinOn("attendee a", "o.id = a.occurrenceId")
+                .where("a.userId = :attendeeId", userId)
+                .order("o.start, o.id");
+        PreparedStatementCreator creator = new PreparedStatementCreator() {
+            public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+                PreparedStatement statement = connection.prepareStatement(query.build(),
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(CALENDAR_FETCH_SIZE);
+                Object[] parameters = query.getParametersArray();
+                for (int i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                return statement;
+            }
+        };
+        jdbcTemplate.query(creator, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                visitor.visit(eventOccurrenceRowMapper.mapRow(rs, 0));
+            }
+        });
     }
 
     /* Begins the Comment Methods */
@@ -195,7 +928,8 @@ public class EventOccurrenceDaoJdbcImpl implements EventOccurrenceDao {
                 .from("occurrence_comment oc")
                 .joinOn("user u", "oc.authorId = u.id")
                 .where("oc.subjectId = :subjectId", eventId)
-                .order("oc.timestamp desc")
+                .whereAfter("oc.timestamp", "oc.id", pagination.cursor, true)
+                .order("oc.timestamp desc, oc.id")
                 .addPagination(pagination);
         return CommentDaoUtils.findCommentableObjectComments(jdbcTemplate, query.build(), query.getParametersArray(), null);
     }
@@ -205,6 +939,24 @@ public class EventOccurrenceDaoJdbcImpl implements EventOccurrenceDao {
         return CommentDaoUtils.findMaxKeyValueForComments(jdbcTemplate, "occurrence");
     }
 
+    private static RowMapper<Long> instantRowMapper = new RowMapper<Long>() {
+        public Long mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return rs.getTimestamp(1).getTime();
+        }
+    };
+
+    private static RowMapper<Recurrence> recurrenceRowMapper = new RowMapper<Recurrence>() {
+        public Recurrence mapRow(ResultSet rs, int rowNum) throws SQLException {
+            User user = new User(rs.getInt("userId"), rs.getString("firstName"), rs.getString("lastName"),
+                    rs.getString("email"), rs.getString("nickname"), rs.getString("facebookId"));
+            Event event = new Event(rs.getInt("eventId"), rs.getString("eventName"), rs.getString("description"), user);
+            Venue venue = new Venue(rs.getInt("venueId"), rs.getString("venueName"), rs.getString("address"),
+                    rs.getDouble("latitude"), rs.getDouble("longitude"), null);
+            return new Recurrence(rs.getInt("id"), event, venue, new DateTime(rs.getTimestamp("start")),
+                    new DateTime(rs.getTimestamp("end")), rs.getString("rule"));
+        }
+    };
+
     private RowMapper<EventOccurrence> eventOccurrenceRowMapper = new RowMapper<EventOccurrence>() {
         public EventOccurrence mapRow(ResultSet rs, int rowNum) throws SQLException {
             int occurrenceId = rs.getInt("id");
@@ -228,7 +980,11 @@ public class EventOccurrenceDaoJdbcImpl implements EventOccurrenceDao {
             User user = new User(userId, firstName, lastName, email, nickname, facebookId);
             Event event = new Event(eventId, eventName, description, user);
             Venue venue = new Venue(venueId, venueName, address, latitude, longitude, null);
-            return new EventOccurrence(occurrenceId, event, venue, start, end);
+            EventOccurrence occurrence = new EventOccurrence(occurrenceId, event, venue, start, end);
+            occurrence.setRecurrenceId((Integer) rs.getObject("recurrenceId"));
+            Timestamp recurrenceStart = rs.getTimestamp("recurrenceStart");
+            occurrence.setRecurrenceStart(recurrenceStart != null ? new DateTime(recurrenceStart) : null);
+            return occurrence;
         }
     };
 
@@ -240,13 +996,96 @@ public class EventOccurrenceDaoJdbcImpl implements EventOccurrenceDao {
         }
     };
 
+    /**
+     * Reads occurrences, with their venues, events and event owners, from the occurrence_search table, which is kept
+     * up to date by OccurrenceSearchUtils.
+     */
     private QueryBuilder getSelectQuery() {
-        return new QueryBuilder().select("o.id", "o.start", "o.end", "o.venueId", "v.name as venueName", "v.address",
-                "v.latitude", "v.longitude", "o.eventId", "e.name as eventName", "e.description", "address",
-                "u.id as userId", "u.firstName", "u.lastName", "u.email", "u.nickname", "u.sessionId", "u.facebookId")
-                .from("occurrence o")
-                .joinOn("venue v", "o.venueId = v.id")
-                .joinOn("event e", "o.eventId = e.id")
+        return getSearchQuery().select("o.id", "o.start", "o.end", "o.venueId", "o.venueName", "o.address",
+                "o.latitude", "o.longitude", "o.eventId", "o.eventName", "o.description", "o.ownerId as userId",
+                "o.ownerFirstName as firstName", "o.ownerLastName as lastName", "o.ownerEmail as email",
+                "o.ownerNickname as nickname", "o.ownerFacebookId as facebookId", "o.recurrenceId",
+                "o.recurrenceStart");
+    }
+
+    private QueryBuilder getRecurrenceQuery() {
+        return new QueryBuilder().select("r.id", "r.start", "r.end", "r.rule", "r.venueId", "v.name as venueName",
+                "v.address", "v.latitude", "v.longitude", "r.eventId", "e.name as eventName", "e.description",
+                "u.id as userId", "u.firstName", "u.lastName", "u.email", "u.nickname", "u.facebookId")
+                .from("recurrence r")
+                .joinOn("venue v", "r.venueId = v.id")
+                .joinOn("event e", "r.eventId = e.id")
                 .joinOn("user u", "e.ownerId = u.id");
     }
+
+    private QueryBuilder getSearchQuery() {
+        return new QueryBuilder().from("occurrence_search o");
+    }
+
+    /**
+     * An occurrence id with its distance from the center of a search.
+     */
+    private static class RankedOccurrence {
+        final int id;
+        final double distance;
+
+        RankedOccurrence(int id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Orders occurrences by start, then stored occurrences by id, then expanded instances by series.
+     */
+    private static final Comparator<EventOccurrence> START_ORDER = new Comparator<EventOccurrence>() {
+        public int compare(EventOccurrence a, EventOccurrence b) {
+            long aStart = a.getStart() != null ? a.getStart().getMillis() : Long.MIN_VALUE;
+            long bStart = b.getStart() != null ? b.getStart().getMillis() : Long.MIN_VALUE;
+            int result = aStart < bStart ? -1 : (aStart == bStart ? 0 : 1);
+            return result != 0 ? result : STORED_FIRST_ORDER.compare(a, b);
+        }
+    };
+
+    /**
+     * Orders occurrences by distance, then stored occurrences by id, as the stored ones were chosen, then expanded
+     * instances by start and series.
+     */
+    private static final Comparator<EventOccurrence> DISTANCE_ORDER = new Comparator<EventOccurrence>() {
+        public int compare(EventOccurrence a, EventOccurrence b) {
+            int result = Double.compare(a.getDistance(), b.getDistance());
+            if (result != 0 || a.getId() != null || b.getId() != null) {
+                return result != 0 ? result : STORED_FIRST_ORDER.compare(a, b);
+            }
+            return START_ORDER.compare(a, b);
+        }
+    };
+
+    private static final Comparator<EventOccurrence> STORED_FIRST_ORDER = new Comparator<EventOccurrence>() {
+        public int compare(EventOccurrence a, EventOccurrence b) {
+            if (a.getId() != null && b.getId() != null) {
+                return a.getId().compareTo(b.getId());
+            } else if (a.getId() != null || b.getId() != null) {
+                return a.getId() != null ? -1 : 1;
+            }
+            return a.getRecurrenceId().compareTo(b.getRecurrenceId());
+        }
+    };
+
+    /**
+     * Orders stored occurrences by id, then expanded instances by series and start.
+     */
+    private static final Comparator<EventOccurrence> ID_ORDER = new Comparator<EventOccurrence>() {
+        public int compare(EventOccurrence a, EventOccurrence b) {
+            int result = STORED_FIRST_ORDER.compare(a, b);
+            return result != 0 || a.getId() != null ? result : a.getStart().compareTo(b.getStart());
+        }
+    };
+
+    private static final Comparator<RankedOccurrence> RANKED_OCCURRENCE_ORDER = new Comparator<RankedOccurrence>() {
+        public int compare(RankedOccurrence a, RankedOccurrence b) {
+            int result = Double.compare(a.distance, b.distance);
+            return result != 0 ? result : (a.id < b.id ? -1 : (a.id == b.id ? 0 : 1));
+        }
+    };
 }
@@ -0,0 +1,22 @@
+package edu.lmu.cs.wutup.ws.dao;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import edu.lmu.cs.wutup.ws.model.FacebookSync;
+
+public interface FacebookSyncDao {
+
+    FacebookSync findSync(int userId);
+
+    List<FacebookSync> findSyncsBefore(DateTime time);
+
+    void saveAccessToken(int userId, String accessToken);
+
+    void saveLastSynced(int userId, DateTime lastSynced);
+
+    void saveFailedAttempt(int userId, DateTime attempted);
+
+    void forgetAccessToken(int userId);
+}
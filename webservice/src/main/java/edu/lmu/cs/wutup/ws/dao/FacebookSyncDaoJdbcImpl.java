@@ -0,0 +1,91 @@
+package edu.lmu.cs.wutup.ws.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import edu.lmu.cs.wutup.ws.model.FacebookSync;
+
+/**
+ * Keeps, for each user who has synchronized their Facebook events, the access token to synchronize them again with,
+ * the watermark the next synchronization starts from, and how many tries have failed since it last moved. Saving a new
+ * token starts the count again. A forgotten token leaves the user out of the synchronizations due until a new one is
+ * saved.
+ */
+@Repository
+public class FacebookSyncDaoJdbcImpl implements FacebookSyncDao {
+
+    private static final String SELECT_SQL = "select userId, accessToken, lastSynced, lastAttempted, failedAttempts "
+            + "from facebook_sync";
+    private static final String FIND_SQL = SELECT_SQL + " where userId=?";
+    private static final String FIND_BEFORE_SQL = SELECT_SQL
+            + " where accessToken is not null and (lastSynced is null or lastSynced<?) order by userId";
+    private static final String UPDATE_TOKEN_SQL = "update facebook_sync set accessToken=?, failedAttempts=0 "
+            + "where userId=?";
+    private static final String CREATE_SQL = "insert into facebook_sync (userId, accessToken) values (?,?)";
+    private static final String UPDATE_LAST_SYNCED_SQL = "update facebook_sync set lastSynced=?, lastAttempted=?, "
+            + "failedAttempts=0 where userId=?";
+    private static final String FORGET_TOKEN_SQL = "update facebook_sync set accessToken=null where userId=?";
+    private static final String UPDATE_FAILED_SQL = "update facebook_sync set lastAttempted=?, "
+            + "failedAttempts=failedAttempts+1 where userId=?";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Override
+    public FacebookSync findSync(int userId) {
+        List<FacebookSync> syncs = jdbcTemplate.query(FIND_SQL, new Object[]{userId}, syncRowMapper);
+        return syncs.isEmpty() ? null : syncs.get(0);
+    }
+
+    @Override
+    public List<FacebookSync> findSyncsBefore(DateTime time) {
+        return jdbcTemplate.query(FIND_BEFORE_SQL, new Object[]{new Timestamp(time.getMillis())}, syncRowMapper);
+    }
+
+    @Override
+    public void saveAccessToken(int userId, String accessToken) {
+        int rowsUpdated = jdbcTemplate.update(UPDATE_TOKEN_SQL, accessToken, userId);
+        if (rowsUpdated == 0) {
+            try {
+                jdbcTemplate.update(CREATE_SQL, userId, accessToken);
+            } catch (DuplicateKeyException e) {
+                jdbcTemplate.update(UPDATE_TOKEN_SQL, accessToken, userId);
+            }
+        }
+    }
+
+    @Override
+    public void saveLastSynced(int userId, DateTime lastSynced) {
+        Timestamp time = new Timestamp(lastSynced.getMillis());
+        jdbcTemplate.update(UPDATE_LAST_SYNCED_SQL, time, time, userId);
+    }
+
+    @Override
+    public void saveFailedAttempt(int userId, DateTime attempted) {
+        jdbcTemplate.update(UPDATE_FAILED_SQL, new Timestamp(attempted.getMillis()), userId);
+    }
+
+    @Override
+    public void forgetAccessToken(int userId) {
+        jdbcTemplate.update(FORGET_TOKEN_SQL, userId);
+    }
+
+    private static RowMapper<FacebookSync> syncRowMapper = new RowMapper<FacebookSync>() {
+        public FacebookSync mapRow(ResultSet rs, int rowNum) throws SQLException {
+            Timestamp lastSynced = rs.getTimestamp("lastSynced");
+            Timestamp lastAttempted = rs.getTimestamp("lastAttempted");
+            return new FacebookSync(rs.getInt("userId"), rs.getString("accessToken"),
+                    lastSynced != null ? new DateTime(lastSynced) : null,
+                    lastAttempted != null ? new DateTime(lastAttempted) : null, rs.getInt("failedAttempts"));
+        }
+    };
+}
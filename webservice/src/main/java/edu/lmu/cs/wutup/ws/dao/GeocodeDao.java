@@ -0,0 +1,12 @@
+package edu.lmu.cs.wutup.ws.dao;
+
+import org.joda.time.DateTime;
+
+import edu.lmu.cs.wutup.ws.model.GeocodeResponse;
+
+public interface GeocodeDao {
+
+    GeocodeResponse findResponse(String key, DateTime now);
+
+    void saveResponse(String key, GeocodeResponse response);
+}
@@ -0,0 +1,56 @@
+package edu.lmu.cs.wutup.ws.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import edu.lmu.cs.wutup.ws.model.GeocodeResponse;
+
+/**
+ * Keeps geocoder responses, by the lookup they answer, until they expire. Expired rows are skipped when reading and
+ * overwritten when the lookup is made again.
+ */
+@Repository
+public class GeocodeDaoJdbcImpl implements GeocodeDao {
+
+    private static final String FIND_SQL = "select response, expires from geocode_response where cacheKey=? and expires>?";
+    private static final String UPDATE_SQL = "update geocode_response set response=?, expires=? where cacheKey=?";
+    private static final String CREATE_SQL = "insert into geocode_response (cacheKey, response, expires) values (?,?,?)";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Override
+    public GeocodeResponse findResponse(String key, DateTime now) {
+        List<GeocodeResponse> responses = jdbcTemplate.query(FIND_SQL, new Object[]{key,
+                new Timestamp(now.getMillis())}, responseRowMapper);
+        return responses.isEmpty() ? null : responses.get(0);
+    }
+
+    @Override
+    public void saveResponse(String key, GeocodeResponse response) {
+        Timestamp expires = new Timestamp(response.expires.getMillis());
+        int rowsUpdated = jdbcTemplate.update(UPDATE_SQL, response.body, expires, key);
+        if (rowsUpdated == 0) {
+            try {
+                jdbcTemplate.update(CREATE_SQL, key, response.body, expires);
+            } catch (DuplicateKeyException e) {
+                // Saved by a concurrent lookup in the meantime; either response will do
+            }
+        }
+    }
+
+    private static RowMapper<GeocodeResponse> responseRowMapper = new RowMapper<GeocodeResponse>() {
+        public GeocodeResponse mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new GeocodeResponse(rs.getString("response"), new DateTime(rs.getTimestamp("expires")));
+        }
+    };
+}
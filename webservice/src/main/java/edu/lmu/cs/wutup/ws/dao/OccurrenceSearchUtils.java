@@ -0,0 +1,70 @@
+package edu.lmu.cs.wutup.ws.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Occurrence searches read the occurrence_search table, which holds a copy of each occurrence together with its venue,
+ * event and event owner, so that a search reads one table rather than joining four. The DAOs that write those tables
+ * call these after their own statements, in the same transaction, to rewrite the rows the change touches from the
+ * source tables. Deleted occurrences take their rows with them through the foreign key.
+ */
+public class OccurrenceSearchUtils {
+
+    private static final String REFRESH = "insert into occurrence_search (id, eventId, venueId, start, end, "
+            + "recurrenceId, recurrenceStart, venueName, address, latitude, longitude, x, y, z, "
+            + "eventName, description, ownerId, ownerFirstName, ownerLastName, ownerEmail, ownerNickname, "
+            + "ownerFacebookId) "
+            + "select o.id, o.eventId, o.venueId, o.start, o.end, o.recurrenceId, "
+            + "o.recurrenceStart, v.name, v.address, v.latitude, v.longitude, v.x, v.y, v.z, e.name, e.description, "
+            + "u.id, u.firstName, u.lastName, u.email, u.nickname, u.facebookId "
+            + "from occurrence o join venue v on o.venueId = v.id join event e on o.eventId = e.id "
+            + "join user u on e.ownerId = u.id where ";
+    private static final String CLEAR = "delete from occurrence_search where ";
+
+    private static final String CLEAR_OCCURRENCE_SQL = CLEAR + "id = ?";
+    private static final String REFRESH_OCCURRENCE_SQL = REFRESH + "o.id = ?";
+    private static final String CLEAR_EVENT_SQL = CLEAR + "eventId = ?";
+    private static final String REFRESH_EVENT_SQL = REFRESH + "o.eventId = ?";
+    private static final String CLEAR_VENUE_SQL = CLEAR + "venueId = ?";
+    private static final String REFRESH_VENUE_SQL = REFRESH + "o.venueId = ?";
+    private static final String CLEAR_OWNER_SQL = CLEAR + "ownerId = ?";
+    private static final String REFRESH_OWNER_SQL = REFRESH + "u.id = ?";
+
+    public static void refreshOccurrence(JdbcTemplate jdbcTemplate, int occurrenceId) {
+        jdbcTemplate.update(CLEAR_OCCURRENCE_SQL, occurrenceId);
+        jdbcTemplate.update(REFRESH_OCCURRENCE_SQL, occurrenceId);
+    }
+
+    /**
+     * Refreshes many occurrences with one batch for the deletes and one for the inserts.
+     */
+    public static void refreshOccurrences(JdbcTemplate jdbcTemplate, Collection<Integer> occurrenceIds) {
+        List<Object[]> rows = new ArrayList<Object[]>(occurrenceIds.size());
+        for (Integer id : occurrenceIds) {
+            rows.add(new Object[]{id});
+        }
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(CLEAR_OCCURRENCE_SQL, rows);
+            jdbcTemplate.batchUpdate(REFRESH_OCCURRENCE_SQL, rows);
+        }
+    }
+
+    public static void refreshEvent(JdbcTemplate jdbcTemplate, int eventId) {
+        jdbcTemplate.update(CLEAR_EVENT_SQL, eventId);
+        jdbcTemplate.update(REFRESH_EVENT_SQL, eventId);
+    }
+
+    public static void refreshVenue(JdbcTemplate jdbcTemplate, int venueId) {
+        jdbcTemplate.update(CLEAR_VENUE_SQL, venueId);
+        jdbcTemplate.update(REFRESH_VENUE_SQL, venueId);
+    }
+
+    public static void refreshOwner(JdbcTemplate jdbcTemplate, int userId) {
+        jdbcTemplate.update(CLEAR_OWNER_SQL, userId);
+        jdbcTemplate.update(REFRESH_OWNER_SQL, userId);
+    }
+}
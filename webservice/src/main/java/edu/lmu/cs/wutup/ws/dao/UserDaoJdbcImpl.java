@@ -16,6 +16,8 @@ import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator;
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
 import edu.lmu.cs.wutup.ws.dao.util.QueryBuilder;
 import edu.lmu.cs.wutup.ws.exception.NoSuchUserException;
 import edu.lmu.cs.wutup.ws.exception.UserExistsException;
@@ -36,6 +38,9 @@ public class UserDaoJdbcImpl implements UserDao {
     @Autowired
     JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    EntityInvalidator entityInvalidator;
+
     @Override
     public void createUser(User u) {
         try {
@@ -90,6 +95,8 @@ public class UserDaoJdbcImpl implements UserDao {
         if (rowsUpdated == 0) {
             throw new NoSuchUserException();
         }
+        OccurrenceSearchUtils.refreshOwner(jdbcTemplate, u.getId());
+        entityInvalidator.invalidate(Kind.USER, u.getId());
     }
 
     @Override
@@ -103,6 +110,7 @@ public class UserDaoJdbcImpl implements UserDao {
         if (rowsUpdated == 0) {
             throw new NoSuchUserException();
         }
+        entityInvalidator.invalidate(Kind.USER, id);
     }
 
     @Override
@@ -122,7 +130,8 @@ public class UserDaoJdbcImpl implements UserDao {
         QueryBuilder builder = new QueryBuilder().select("*")
                 .from("(select v.* from venue_comment v union select o.* from occurrence_comment o union select e.* from event_comment e)")
                 .where("authorId = :userId", author.getId())
-                .order("timestamp desc")
+                .whereAfter("timestamp", "id", pagination.cursor, true)
+                .order("timestamp desc, id")
                 .addPagination(pagination);
         return CommentDaoUtils.findCommentableObjectComments(jdbcTemplate, builder.build(),
                 builder.getParametersArray(), author);
@@ -13,6 +13,8 @@ public interface VenueDao extends CommentDao {
 
     List<Venue> findVenues(String name, Integer eventId, Circle circle, PaginationData pagination);
 
+    List<Venue> findNearestVenues(double latitude, double longitude, int k);
+
     Venue findVenueById(int id);
 
     Venue findVenueByName(String name);
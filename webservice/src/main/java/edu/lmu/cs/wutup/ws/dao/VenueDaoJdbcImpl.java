@@ -4,6 +4,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,6 +19,14 @@ import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator;
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrenceFilterIndex;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrencePyramid;
+import edu.lmu.cs.wutup.ws.dao.index.VenueGridIndex;
+import edu.lmu.cs.wutup.ws.dao.index.VenueRTree;
+import edu.lmu.cs.wutup.ws.dao.index.VenueRTree.Neighbor;
+import edu.lmu.cs.wutup.ws.dao.util.Haversine;
 import edu.lmu.cs.wutup.ws.dao.util.QueryBuilder;
 import edu.lmu.cs.wutup.ws.exception.NoSuchVenueException;
 import edu.lmu.cs.wutup.ws.exception.VenueExistsException;
@@ -29,19 +38,40 @@ import edu.lmu.cs.wutup.ws.model.Venue;
 @Repository
 public class VenueDaoJdbcImpl implements VenueDao {
 
-    private static final String CREATE_SQL = "insert into venue (id, name, address, latitude, longitude) values (?,?,?,?,?)";
-    private static final String CREATE_WITH_AUTO_GENERATE_ID = "insert into venue (name, address, latitude, longitude) values (?,?,?,?)";
+    private static final String CREATE_SQL = "insert into venue (id, name, address, latitude, longitude, x, y, z) "
+            + "values (?,?,?,?,?,?,?,?)";
+    private static final String CREATE_WITH_AUTO_GENERATE_ID = "insert into venue (name, address, latitude, longitude, "
+            + "x, y, z) values (?,?,?,?,?,?,?)";
     private static final String UPDATE_SQL = "update venue set name=ifnull(?, name), address=ifnull(?, address), "
-            + "latitude=ifnull(?, latitude), longitude=ifnull(?, longitude) where id=?";
+            + "latitude=ifnull(?, latitude), longitude=ifnull(?, longitude), x=ifnull(?, x), y=ifnull(?, y), "
+            + "z=ifnull(?, z) where id=?";
     private static final String DELETE_SQL = "delete from venue where id=?";
     private static final String COUNT_SQL = "select count(*) from venue";
     private static final String ADD_PROPERTY = "insert into venue_property(venueId, key, value) values(?,?,?)";
     private static final String UPDATE_PROPERTY_VALUE = "update venue_property set value=? where venueId=? and key=?";
     private static final String DELETE_PROPERTY = "delete from venue_property where venueId=? and key=?";
 
+    // Beyond this many candidates an id restriction costs more than it saves
+    static final int MAX_CIRCLE_CANDIDATES = 1000;
+
     @Autowired
     JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    VenueGridIndex venueIndex;
+
+    @Autowired
+    VenueRTree venueTree;
+
+    @Autowired
+    OccurrencePyramid occurrencePyramid;
+
+    @Autowired
+    OccurrenceFilterIndex occurrenceFilter;
+
+    @Autowired
+    EntityInvalidator entityInvalidator;
+
     @Override
     public void createVenue(Venue v) {
         try {
@@ -50,9 +80,12 @@ public class VenueDaoJdbcImpl implements VenueDao {
                 createVenueWithGeneratedId(v, keyHolder);
                 v.setId(keyHolder.getKey().intValue());
             } else {
+                double[] unitVector = unitVectorOf(v.getLatitude(), v.getLongitude());
                 jdbcTemplate.update(CREATE_SQL, v.getId(), v.getName(), v.getAddress(), v.getLatitude(),
-                        v.getLongitude());
+                        v.getLongitude(), component(unitVector, 0), component(unitVector, 1), component(unitVector, 2));
             }
+            venueIndex.put(v.getId(), v.getLatitude(), v.getLongitude());
+            venueTree.put(v.getId(), v.getLatitude(), v.getLongitude());
         } catch (DuplicateKeyException ex) {
             throw new VenueExistsException();
         }
@@ -60,11 +93,29 @@ public class VenueDaoJdbcImpl implements VenueDao {
 
     @Override
     public void updateVenue(Venue loc) {
-        int rowsUpdated = jdbcTemplate.update(UPDATE_SQL, loc.getName(), loc.getAddress(), loc.getLatitude(),
-                loc.getLongitude(), loc.getId());
+        Double latitude = loc.getLatitude();
+        Double longitude = loc.getLongitude();
+        if (latitude != null ^ longitude != null) {
+            // The unit vector depends on both coordinates, so fill in the one being kept
+            Venue existing = findVenueById(loc.getId());
+            latitude = latitude != null ? latitude : existing.getLatitude();
+            longitude = longitude != null ? longitude : existing.getLongitude();
+        }
+        double[] unitVector = unitVectorOf(latitude, longitude);
+        int rowsUpdated = jdbcTemplate.update(UPDATE_SQL, loc.getName(), loc.getAddress(), latitude, longitude,
+                component(unitVector, 0), component(unitVector, 1), component(unitVector, 2), loc.getId());
         if (rowsUpdated == 0) {
             throw new NoSuchVenueException();
         }
+        CalendarVersionUtils.bumpAttendeesAtVenue(jdbcTemplate, loc.getId());
+        OccurrenceSearchUtils.refreshVenue(jdbcTemplate, loc.getId());
+        if (latitude != null && longitude != null) {
+            venueIndex.put(loc.getId(), latitude, longitude);
+            venueTree.put(loc.getId(), latitude, longitude);
+            occurrencePyramid.moveVenue(loc.getId(), latitude, longitude);
+            occurrenceFilter.moveVenue(loc.getId(), latitude, longitude);
+        }
+        entityInvalidator.invalidate(Kind.VENUE, loc.getId());
     }
 
     @Override
@@ -73,6 +124,9 @@ public class VenueDaoJdbcImpl implements VenueDao {
         if (rowsUpdated == 0) {
             throw new NoSuchVenueException();
         }
+        venueIndex.remove(venueId);
+        venueTree.remove(venueId);
+        entityInvalidator.invalidate(Kind.VENUE, venueId);
     }
 
     @Override
@@ -100,7 +154,7 @@ public class VenueDaoJdbcImpl implements VenueDao {
         QueryBuilder builder = new QueryBuilder().select("v.*").from("venue v");
 
         if (pagination != null) {
-            builder.addPagination(pagination);
+            builder.whereAfter("v.id", pagination.cursor).addPagination(pagination);
         }
 
         if (name != null) {
@@ -113,10 +167,40 @@ public class VenueDaoJdbcImpl implements VenueDao {
         }
 
         if (circle != null) {
-            builder.where(createCircleSearchClause(circle), circle.radius);
+            List<Integer> candidates = venueIndex.findCandidates(circle, MAX_CIRCLE_CANDIDATES);
+            if (candidates != null && candidates.isEmpty()) {
+                return new ArrayList<Venue>();
+            }
+            builder.whereIn("v.id", candidates);
+            builder.whereCircle(circle);
         }
 
-        return jdbcTemplate.query(builder.build(), builder.getParametersArray(), venueRowMapper);
+        return jdbcTemplate.query(builder.order("v.id").build(), builder.getParametersArray(), venueRowMapper);
+    }
+
+    @Override
+    public List<Venue> findNearestVenues(double latitude, double longitude, int k) {
+        List<Neighbor> neighbors = venueTree.findNearest(latitude, longitude, k);
+        List<Integer> venueIds = new ArrayList<Integer>(neighbors.size());
+        for (Neighbor neighbor : neighbors) {
+            venueIds.add(neighbor.venueId);
+        }
+
+        QueryBuilder builder = new QueryBuilder().select("v.*").from("venue v").whereIn("v.id", venueIds);
+        Map<Integer, Venue> venuesById = new HashMap<Integer, Venue>();
+        for (Venue v : jdbcTemplate.query(builder.build(), builder.getParametersArray(), venueRowMapper)) {
+            venuesById.put(v.getId(), v);
+        }
+
+        List<Venue> venues = new ArrayList<Venue>(neighbors.size());
+        for (Neighbor neighbor : neighbors) {
+            Venue v = venuesById.get(neighbor.venueId);
+            if (v != null) {
+                v.setDistance(neighbor.distance);
+                venues.add(v);
+            }
+        }
+        return venues;
     }
 
     @Override
@@ -146,7 +230,8 @@ public class VenueDaoJdbcImpl implements VenueDao {
             .from("venue_comment vc")
             .joinOn("user u", "vc.authorId = u.id")
             .where("vc.subjectId=:subjectId", venueId)
-            .order("vc.timestamp")
+            .whereAfter("vc.timestamp", "vc.id", pagination.cursor, false)
+            .order("vc.timestamp, vc.id")
             .addPagination(pagination);
         return CommentDaoUtils.findCommentableObjectComments(jdbcTemplate, query.build(), query.getParametersArray(), null);
     }
@@ -161,6 +246,7 @@ public class VenueDaoJdbcImpl implements VenueDao {
         final String address = v.getAddress();
         final Double latitude = v.getLatitude();
         final Double longitude = v.getLongitude();
+        final double[] unitVector = unitVectorOf(latitude, longitude);
         jdbcTemplate.update(new PreparedStatementCreator() {
             public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
                 PreparedStatement ps = connection.prepareStatement(CREATE_WITH_AUTO_GENERATE_ID, new String[]{"id"});
@@ -168,6 +254,9 @@ public class VenueDaoJdbcImpl implements VenueDao {
                 ps.setString(2, address);
                 ps.setDouble(3, latitude);
                 ps.setDouble(4, longitude);
+                ps.setObject(5, component(unitVector, 0));
+                ps.setObject(6, component(unitVector, 1));
+                ps.setObject(7, component(unitVector, 2));
                 return ps;
             }
         }, keyHolder);
@@ -206,9 +295,20 @@ public class VenueDaoJdbcImpl implements VenueDao {
         }
     }
 
-    private static String createCircleSearchClause(Circle c) {
-        return "get_distance_miles(v.latitude, " + c.centerLatitude + ", v.longitude, " + c.centerLongitude
-                + ") <= :radius";
+    /**
+     * Returns the point on the unit sphere for a venue location, or null for a venue without one. Circle searches
+     * compare against these stored vectors rather than evaluating the distance function per row.
+     */
+    private static double[] unitVectorOf(Double latitude, Double longitude) {
+        if (latitude == null || longitude == null) {
+            return null;
+        }
+        return new double[]{Haversine.unitX(latitude, longitude), Haversine.unitY(latitude, longitude),
+                Haversine.unitZ(latitude)};
+    }
+
+    private static Double component(double[] vector, int index) {
+        return vector == null ? null : vector[index];
     }
 
     private static RowMapper<Venue> venueRowMapper = new RowMapper<Venue>() {
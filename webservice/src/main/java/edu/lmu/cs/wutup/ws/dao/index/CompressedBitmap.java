@@ -0,0 +1,445 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A compressed set of non-negative ints, laid out after Roaring bitmaps. Values are grouped by their upper 16 bits,
+ * and each group keeps its lower 16 bits in whichever container is smaller: a sorted array while the group has at most
+ * 4096 values, a 65536-bit bitmap beyond that. Sparse sets of ids then cost two bytes per value and dense ones one bit,
+ * and intersections and unions work a container at a time.
+ *
+ * Bitmaps are not thread-safe. The results of <code>and</code> and <code>or</code> share nothing with their operands.
+ */
+public final class CompressedBitmap implements Iterable<Integer> {
+
+    static final int ARRAY_LIMIT = 4096;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size = 0;
+
+    /**
+     * Returns a bitmap holding the given values.
+     */
+    public static CompressedBitmap of(Collection<Integer> values) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the values in both bitmaps.
+     */
+    public static CompressedBitmap and(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0) {
+                    result.append(a.keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the values in either bitmap.
+     */
+    public static CompressedBitmap or(CompressedBitmap a, CompressedBitmap b) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the values in any of the bitmaps.
+     */
+    public static CompressedBitmap or(Collection<CompressedBitmap> bitmaps) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (CompressedBitmap bitmap : bitmaps) {
+            result = or(result, bitmap);
+        }
+        return result;
+    }
+
+    public CompressedBitmap copy() {
+        return or(this, new CompressedBitmap());
+    }
+
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        int i = indexOf(key);
+        if (i < 0) {
+            i = -i - 1;
+            insert(i, key, new ArrayContainer());
+        }
+        containers[i] = containers[i].add((char) value);
+    }
+
+    public void remove(int value) {
+        int i = indexOf((char) (value >>> 16));
+        if (i >= 0) {
+            containers[i] = containers[i].remove((char) value);
+            if (containers[i].cardinality() == 0) {
+                System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+                System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+                containers[--size] = null;
+            }
+        }
+    }
+
+    public boolean contains(int value) {
+        int i = indexOf((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterates over the values in ascending order.
+     */
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+            private int container = 0;
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (container < size) {
+                    int low = containers[container].next(from);
+                    if (low >= 0) {
+                        return low;
+                    }
+                    container++;
+                    from = 0;
+                }
+                return -1;
+            }
+
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            public Integer next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                int value = keys[container] << 16 | next;
+                next = advance(next + 1);
+                return value;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void append(char key, Container container) {
+        insert(size, key, container);
+    }
+
+    private void insert(int i, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+            containers = Arrays.copyOf(containers, 2 * size);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = container;
+        size++;
+    }
+
+    /**
+     * The lower 16 bits of the values sharing one key. Adding and removing may replace the container with one of the
+     * other kind, so callers keep whatever is returned.
+     */
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        /**
+         * Returns the smallest value at least as large as the given one, or -1 if there is none.
+         */
+        abstract int next(int from);
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                return toBitmap().add(value);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, 2 * cardinality)));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        Container remove(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        Container and(Container other) {
+            char[] result = new char[cardinality];
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        Container or(Container other) {
+            if (!(other instanceof ArrayContainer)) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            if (cardinality + array.cardinality > ARRAY_LIMIT) {
+                return toBitmap().or(array);
+            }
+            char[] result = new char[Math.max(4, cardinality + array.cardinality)];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    result[count++] = values[i++];
+                } else if (i == cardinality || values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(4, cardinality)), cardinality);
+        }
+
+        int next(int from) {
+            if (from > Character.MAX_VALUE) {
+                return -1;
+            }
+            int i = Arrays.binarySearch(values, 0, cardinality, (char) from);
+            i = i >= 0 ? i : -i - 1;
+            return i < cardinality ? values[i] : -1;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer() {
+            this(new long[1 << 10], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        int cardinality() {
+            return cardinality;
+        }
+
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        Container add(char value) {
+            if (!contains(value)) {
+                words[value >>> 6] |= 1L << value;
+                cardinality++;
+            }
+            return this;
+        }
+
+        Container remove(char value) {
+            if (contains(value)) {
+                words[value >>> 6] &= ~(1L << value);
+                cardinality--;
+                if (cardinality <= ARRAY_LIMIT) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        Container and(Container other) {
+            if (!(other instanceof BitmapContainer)) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] result = new long[words.length];
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                result[i] = words[i] & otherWords[i];
+                count += Long.bitCount(result[i]);
+            }
+            BitmapContainer bitmap = new BitmapContainer(result, count);
+            return count > ARRAY_LIMIT ? bitmap : bitmap.toArray();
+        }
+
+        Container or(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (other instanceof BitmapContainer) {
+                long[] otherWords = ((BitmapContainer) other).words;
+                result.cardinality = 0;
+                for (int i = 0; i < words.length; i++) {
+                    result.words[i] |= otherWords[i];
+                    result.cardinality += Long.bitCount(result.words[i]);
+                }
+            } else {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) {
+                    result.add(array.values[i]);
+                }
+            }
+            return result;
+        }
+
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        int next(int from) {
+            int i = from >>> 6;
+            if (i >= words.length) {
+                return -1;
+            }
+            long word = words[i] & (-1L << from);
+            while (word == 0) {
+                if (++i == words.length) {
+                    return -1;
+                }
+                word = words[i];
+            }
+            return i << 6 | Long.numberOfTrailingZeros(word);
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[Math.max(4, cardinality)];
+            int count = 0;
+            for (int value = next(0); value >= 0; value = next(value + 1)) {
+                values[count++] = (char) value;
+            }
+            return new ArrayContainer(values, count);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+
+/**
+ * Occurrences are bucketed by the local calendar days they take place on, numbered from January 1, 1970, so that a
+ * time window only has to look at the occurrences in the buckets of the days it reaches, however long the history. An
+ * occurrence goes in the bucket of every day from the one it starts on to the one it ends on, unless that spans more
+ * than <code>MAX_DAY_SPAN</code> days, in which case it is long and kept apart to be checked against every window.
+ */
+final class DayBuckets {
+
+    static final int MAX_DAY_SPAN = 31;
+
+    private static final LocalDate EPOCH = new LocalDate(1970, 1, 1);
+
+    /**
+     * Returns the bucket for the day containing the given instant, in the default time zone.
+     */
+    static int dayOf(long millis) {
+        return Days.daysBetween(EPOCH, new LocalDate(millis)).getDays();
+    }
+
+    /**
+     * Tells whether an occurrence from the first day to the last is too long to go in the bucket of every day.
+     */
+    static boolean isLong(int firstDay, int lastDay) {
+        return lastDay - firstDay >= MAX_DAY_SPAN;
+    }
+}
@@ -0,0 +1,406 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import java.util.Arrays;
+
+import edu.lmu.cs.wutup.ws.dao.util.Haversine;
+
+/**
+ * The stored occurrences as columns of primitives, one row per occurrence, in order of id, so that filters can run
+ * over them in tight loops without touching an object per occurrence. A missing event or venue is NO_ID, a missing
+ * time NO_TIME and missing coordinates NaN. Next to the coordinates each row holds the point's unit vector, worked out
+ * once when the row is written, so that circle filters need no trigonometry per row.
+ *
+ * Rows are kept in pages of <code>PAGE_ROWS</code>, either on the heap or in direct buffers outside of it. A snapshot
+ * shares its pages with the columns it was taken from, which copy a shared page before writing to it, so a snapshot
+ * never changes and can be read without locking while the columns go on changing.
+ *
+ * New occurrences nearly always have the largest id and are appended. Removed rows are only marked until there are
+ * enough of them to squeeze out. Columns that are not snapshots are not thread-safe.
+ */
+final class OccurrenceColumns {
+
+    static final int NO_ID = Integer.MIN_VALUE;
+    static final long NO_TIME = Long.MIN_VALUE;
+    static final int PAGE_BITS = 12;
+    static final int PAGE_ROWS = 1 << PAGE_BITS;
+    static final int MIN_COMPACTION_THRESHOLD = 64;
+
+    private final boolean offHeap;
+    private Page[] pages;
+    private boolean[] owned;
+    private int size;
+    private int live;
+
+    OccurrenceColumns(boolean offHeap) {
+        this(offHeap, new Page[4], 0, 0);
+    }
+
+    private OccurrenceColumns(boolean offHeap, Page[] pages, int size, int live) {
+        this.offHeap = offHeap;
+        this.pages = pages;
+        this.owned = new boolean[pages.length];
+        this.size = size;
+        this.live = live;
+    }
+
+    /**
+     * Returns the number of rows, including removed ones; rows are numbered from 0 up to this.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of occurrences.
+     */
+    int live() {
+        return live;
+    }
+
+    boolean isLive(int row) {
+        return !pageOf(row).isRemoved(row & (PAGE_ROWS - 1));
+    }
+
+    Page pageOf(int row) {
+        return pages[row >>> PAGE_BITS];
+    }
+
+    int id(int row) {
+        return pageOf(row).id(row & (PAGE_ROWS - 1));
+    }
+
+    int eventId(int row) {
+        return pageOf(row).eventId(row & (PAGE_ROWS - 1));
+    }
+
+    int venueId(int row) {
+        return pageOf(row).venueId(row & (PAGE_ROWS - 1));
+    }
+
+    long start(int row) {
+        return pageOf(row).start(row & (PAGE_ROWS - 1));
+    }
+
+    long end(int row) {
+        return pageOf(row).end(row & (PAGE_ROWS - 1));
+    }
+
+    double latitude(int row) {
+        return pageOf(row).latitude(row & (PAGE_ROWS - 1));
+    }
+
+    double longitude(int row) {
+        return pageOf(row).longitude(row & (PAGE_ROWS - 1));
+    }
+
+    double x(int row) {
+        return pageOf(row).x(row & (PAGE_ROWS - 1));
+    }
+
+    double y(int row) {
+        return pageOf(row).y(row & (PAGE_ROWS - 1));
+    }
+
+    double z(int row) {
+        return pageOf(row).z(row & (PAGE_ROWS - 1));
+    }
+
+    /**
+     * Returns the row of the occurrence, or -1 if there is none.
+     */
+    int rowOf(int id) {
+        int row = search(id);
+        return row >= 0 && isLive(row) ? row : -1;
+    }
+
+    /**
+     * Returns columns that share these pages and never change. Writing to these columns afterwards copies the pages
+     * it touches.
+     */
+    OccurrenceColumns snapshot() {
+        Arrays.fill(owned, false);
+        return new OccurrenceColumns(offHeap, pages.clone(), size, live);
+    }
+
+    /**
+     * Adds or replaces the occurrence, returning its row.
+     */
+    int put(int id, int eventId, int venueId, long start, long end, double latitude, double longitude) {
+        int row = search(id);
+        if (row < 0) {
+            row = insert(-row - 1, id);
+            live++;
+            size++;
+        } else if (!isLive(row)) {
+            live++;
+        }
+        writable(row).set(row & (PAGE_ROWS - 1), id, eventId, venueId, start, end, latitude, longitude,
+                Haversine.unitX(latitude, longitude), Haversine.unitY(latitude, longitude), Haversine.unitZ(latitude));
+        return row;
+    }
+
+    void moveTo(int row, double latitude, double longitude) {
+        writable(row).setLocation(row & (PAGE_ROWS - 1), latitude, longitude, Haversine.unitX(latitude, longitude),
+                Haversine.unitY(latitude, longitude), Haversine.unitZ(latitude));
+    }
+
+    void remove(int id) {
+        int row = rowOf(id);
+        if (row >= 0) {
+            writable(row).setRemoved(row & (PAGE_ROWS - 1));
+            live--;
+            if (size - live > Math.max(MIN_COMPACTION_THRESHOLD, size / 8)) {
+                compact();
+            }
+        }
+    }
+
+    void clear() {
+        pages = new Page[4];
+        owned = new boolean[4];
+        size = 0;
+        live = 0;
+    }
+
+    private int search(int id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = id(middle);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Makes room for a row, returning where it goes.
+     */
+    private int insert(int row, int id) {
+        if (row < size) {
+            // Squeezing out the removed rows first leaves fewer rows to move up
+            compact();
+            row = -search(id) - 1;
+            for (int moved = size; moved > row; moved--) {
+                copyRow(moved - 1, moved);
+            }
+        } else {
+            writable(row);
+        }
+        return row;
+    }
+
+    private void compact() {
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if (isLive(row)) {
+                if (kept != row) {
+                    copyRow(row, kept);
+                }
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    private void copyRow(int from, int to) {
+        Page source = pageOf(from);
+        int i = from & (PAGE_ROWS - 1);
+        writable(to).set(to & (PAGE_ROWS - 1), source.id(i), source.eventId(i), source.venueId(i), source.start(i),
+                source.end(i), source.latitude(i), source.longitude(i), source.x(i), source.y(i), source.z(i));
+    }
+
+    /**
+     * Returns the page of the row, allocating it or copying it out of the last snapshot first if need be.
+     */
+    private Page writable(int row) {
+        int index = row >>> PAGE_BITS;
+        if (index == pages.length) {
+            pages = Arrays.copyOf(pages, 2 * pages.length);
+            owned = Arrays.copyOf(owned, pages.length);
+        }
+        if (pages[index] == null) {
+            pages[index] = offHeap ? new OffHeapPage() : new HeapPage();
+            owned[index] = true;
+        } else if (!owned[index]) {
+            pages[index] = pages[index].copy();
+            owned[index] = true;
+        }
+        return pages[index];
+    }
+
+    /**
+     * <code>PAGE_ROWS</code> rows of the columns.
+     */
+    abstract static class Page {
+
+        abstract int id(int i);
+
+        abstract int eventId(int i);
+
+        abstract int venueId(int i);
+
+        abstract long start(int i);
+
+        abstract long end(int i);
+
+        abstract double latitude(int i);
+
+        abstract double longitude(int i);
+
+        abstract double x(int i);
+
+        abstract double y(int i);
+
+        abstract double z(int i);
+
+        abstract boolean isRemoved(int i);
+
+        /**
+         * Fills the row in, which also marks it as not removed.
+         */
+        abstract void set(int i, int id, int eventId, int venueId, long start, long end, double latitude,
+                double longitude, double x, double y, double z);
+
+        abstract void setLocation(int i, double latitude, double longitude, double x, double y, double z);
+
+        abstract void setRemoved(int i);
+
+        abstract Page copy();
+    }
+
+    /**
+     * A page kept as arrays on the heap.
+     */
+    static final class HeapPage extends Page {
+        private final int[] ids;
+        private final int[] eventIds;
+        private final int[] venueIds;
+        private final long[] starts;
+        private final long[] ends;
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final double[] xs;
+        private final double[] ys;
+        private final double[] zs;
+        private final boolean[] removed;
+
+        HeapPage() {
+            this(new int[PAGE_ROWS], new int[PAGE_ROWS], new int[PAGE_ROWS], new long[PAGE_ROWS],
+                    new long[PAGE_ROWS], new double[PAGE_ROWS], new double[PAGE_ROWS], new double[PAGE_ROWS],
+                    new double[PAGE_ROWS], new double[PAGE_ROWS], new boolean[PAGE_ROWS]);
+        }
+
+        private HeapPage(int[] ids, int[] eventIds, int[] venueIds, long[] starts, long[] ends, double[] latitudes,
+                double[] longitudes, double[] xs, double[] ys, double[] zs, boolean[] removed) {
+            this.ids = ids;
+            this.eventIds = eventIds;
+            this.venueIds = venueIds;
+            this.starts = starts;
+            this.ends = ends;
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+            this.xs = xs;
+            this.ys = ys;
+            this.zs = zs;
+            this.removed = removed;
+        }
+
+        @Override
+        int id(int i) {
+            return ids[i];
+        }
+
+        @Override
+        int eventId(int i) {
+            return eventIds[i];
+        }
+
+        @Override
+        int venueId(int i) {
+            return venueIds[i];
+        }
+
+        @Override
+        long start(int i) {
+            return starts[i];
+        }
+
+        @Override
+        long end(int i) {
+            return ends[i];
+        }
+
+        @Override
+        double latitude(int i) {
+            return latitudes[i];
+        }
+
+        @Override
+        double longitude(int i) {
+            return longitudes[i];
+        }
+
+        @Override
+        double x(int i) {
+            return xs[i];
+        }
+
+        @Override
+        double y(int i) {
+            return ys[i];
+        }
+
+        @Override
+        double z(int i) {
+            return zs[i];
+        }
+
+        @Override
+        boolean isRemoved(int i) {
+            return removed[i];
+        }
+
+        @Override
+        void set(int i, int id, int eventId, int venueId, long start, long end, double latitude, double longitude,
+                double x, double y, double z) {
+            ids[i] = id;
+            eventIds[i] = eventId;
+            venueIds[i] = venueId;
+            starts[i] = start;
+            ends[i] = end;
+            latitudes[i] = latitude;
+            longitudes[i] = longitude;
+            xs[i] = x;
+            ys[i] = y;
+            zs[i] = z;
+            removed[i] = false;
+        }
+
+        @Override
+        void setLocation(int i, double latitude, double longitude, double x, double y, double z) {
+            latitudes[i] = latitude;
+            longitudes[i] = longitude;
+            xs[i] = x;
+            ys[i] = y;
+            zs[i] = z;
+        }
+
+        @Override
+        void setRemoved(int i) {
+            removed[i] = true;
+        }
+
+        @Override
+        Page copy() {
+            return new HeapPage(ids.clone(), eventIds.clone(), venueIds.clone(), starts.clone(), ends.clone(),
+                    latitudes.clone(), longitudes.clone(), xs.clone(), ys.clone(), zs.clone(), removed.clone());
+        }
+    }
+}
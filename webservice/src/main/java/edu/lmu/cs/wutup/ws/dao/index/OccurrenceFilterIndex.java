@@ -0,0 +1,853 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.joda.time.Interval;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import edu.lmu.cs.wutup.ws.dao.util.Haversine;
+import edu.lmu.cs.wutup.ws.dao.util.TransactionCallbacks;
+import edu.lmu.cs.wutup.ws.model.Attendance;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
+import edu.lmu.cs.wutup.ws.model.Circle;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+
+/**
+ * An in-memory faceted filter over the stored occurrences. For every event, venue, attendee, day and geographic cell
+ * it keeps a compressed bitmap of the ids of the occurrences belonging to it, so that any combination of search
+ * filters is answered by intersecting the bitmaps of the filters, after taking the union of those of the values within
+ * each filter. Days and cells only narrow a window or circle down; the candidates they leave are then checked exactly
+ * against the times and coordinates kept for every occurrence in primitive columns.
+ *
+ * An occurrence is filed under the days of <code>DayBuckets</code> it takes place on, unless it is long, in which case
+ * it is kept with the other long occurrences and checked against every window. Cells are those of the cluster pyramid
+ * at <code>CELL_LEVEL</code>, about twenty kilometers across. When a window or circle leaves more than one in
+ * <code>SCAN_FRACTION</code> occurrences as candidates, the columns are scanned instead, in chunks of
+ * <code>SCAN_CHUNK</code> rows spread over the scan executor if there is one.
+ *
+ * Searches read an immutable snapshot of the filter without locking. Changes from the occurrence, event and venue
+ * DAOs are applied after the writing transaction commits, by a single writer thread that applies whatever changes
+ * have queued up and then publishes a new snapshot; the committing thread waits for that, so it sees its own writes.
+ * Bitmaps and pages of columns are copied only when first changed after a snapshot, so snapshots share the rest.
+ * With <code>offHeap</code> set, as in the offheap profile, the columns are kept outside of the heap.
+ *
+ * The filter is loaded from the database at startup, or on first use if that fails.
+ */
+@Component
+public class OccurrenceFilterIndex {
+
+    public static final int NO_ID = OccurrenceColumns.NO_ID;
+    public static final long NO_TIME = OccurrenceColumns.NO_TIME;
+
+    static final int CELL_LEVEL = 8;
+    static final int SCAN_FRACTION = 8;
+    static final int SCAN_CHUNK = 2 * OccurrenceColumns.PAGE_ROWS;
+    static final long DEFAULT_APPLY_WAIT_MILLIS = 5000;
+
+    private static final String LOAD_SQL = "select id, eventId, venueId, start, end, latitude, longitude "
+            + "from occurrence_search order by id";
+    private static final String LOAD_ATTENDEES_SQL = "select occurrenceId, userId from attendee";
+
+    private static final Logger logger = Logger.getLogger(OccurrenceFilterIndex.class);
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired(required = false)
+    @Qualifier("scanExecutor")
+    AsyncTaskExecutor scanExecutor;
+
+    private boolean offHeap = false;
+    private long applyWaitMillis = DEFAULT_APPLY_WAIT_MILLIS;
+
+    // The working copy of the filter, changed only by whoever holds the write lock: the writer thread, or a loader
+    private final Lock writeLock = new ReentrantLock();
+    private OccurrenceColumns columns;
+    private final Map<Integer, Set<Integer>> attendeesByOccurrence = new HashMap<Integer, Set<Integer>>();
+    private final Map<Integer, CompressedBitmap> byEvent = new HashMap<Integer, CompressedBitmap>();
+    private final Map<Integer, CompressedBitmap> byVenue = new HashMap<Integer, CompressedBitmap>();
+    private final Map<Integer, CompressedBitmap> byAttendee = new HashMap<Integer, CompressedBitmap>();
+    private final Map<Integer, CompressedBitmap> byDay = new HashMap<Integer, CompressedBitmap>();
+    private final Map<Long, CompressedBitmap> byCell = new HashMap<Long, CompressedBitmap>();
+    private CompressedBitmap longOccurrences;
+    private CompressedBitmap all;
+    private final Set<CompressedBitmap> unpublished = Collections.newSetFromMap(
+            new IdentityHashMap<CompressedBitmap, Boolean>());
+    private boolean loaded = false;
+
+    private volatile Snapshot snapshot;
+    private final BlockingQueue<Change> changes = new LinkedBlockingQueue<Change>();
+    private Thread writer;
+    private boolean closed = false;
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void setScanExecutor(AsyncTaskExecutor scanExecutor) {
+        this.scanExecutor = scanExecutor;
+    }
+
+    /**
+     * Keeps the columns in direct buffers rather than on the heap. Takes effect when the filter is next loaded.
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Sets how long a committing thread waits for its change to show in searches before giving up and leaving the
+     * writer thread to catch up.
+     */
+    public void setApplyWaitMillis(long applyWaitMillis) {
+        this.applyWaitMillis = applyWaitMillis;
+    }
+
+    /**
+     * Builds the filter as the application starts, so that the first search does not have to wait for it.
+     */
+    @PostConstruct
+    public void preload() {
+        try {
+            current();
+        } catch (DataAccessException e) {
+            logger.warn("Occurrence filter not loaded at startup, will load on first use", e);
+        }
+    }
+
+    /**
+     * Stops the writer thread once it has applied the changes already queued. Later changes are applied by the
+     * threads committing them.
+     */
+    @PreDestroy
+    public synchronized void shutdown() {
+        closed = true;
+        if (writer != null) {
+            writer.interrupt();
+        }
+    }
+
+    /**
+     * Returns the ids of the occurrences that pass every given filter; null filters are left out. The candidates, if
+     * not null, are ids already known to be the only ones that can match, such as those the interval tree found for a
+     * window. An empty list of event ids matches nothing. The bitmap returned may belong to the filter, so it must
+     * not be changed.
+     */
+    public CompressedBitmap findOccurrences(Integer attendee, Circle circle, Interval interval,
+            IntervalMode intervalMode, List<Integer> eventIds, Integer venueId, Collection<Integer> candidates) {
+        Snapshot s = current();
+        CompressedBitmap matches = s.all;
+        if (candidates != null) {
+            matches = CompressedBitmap.and(matches, CompressedBitmap.of(candidates));
+        }
+        if (eventIds != null) {
+            matches = CompressedBitmap.and(matches, union(s.byEvent, eventIds));
+        }
+        if (venueId != null) {
+            matches = CompressedBitmap.and(matches, bitmapOf(s.byVenue, venueId));
+        }
+        if (attendee != null) {
+            matches = CompressedBitmap.and(matches, bitmapOf(s.byAttendee, attendee));
+        }
+        if (interval != null && !matches.isEmpty()) {
+            matches = within(s, matches, new IntervalFilter(interval, intervalMode), daysOf(s, interval));
+        }
+        if (circle != null && !matches.isEmpty()) {
+            matches = within(s, matches, new CircleFilter(circle), cellsOf(s, circle));
+        }
+        return matches;
+    }
+
+    /**
+     * Hands the visitor what is known about each of the given occurrences, in order of id, skipping those no longer in
+     * the filter.
+     */
+    public void visit(CompressedBitmap occurrenceIds, RowVisitor visitor) {
+        OccurrenceColumns snapshotColumns = current().columns;
+        for (int id : occurrenceIds) {
+            int row = snapshotColumns.rowOf(id);
+            if (row >= 0) {
+                OccurrenceColumns.Page page = snapshotColumns.pageOf(row);
+                int i = row & (OccurrenceColumns.PAGE_ROWS - 1);
+                visitor.visit(id, page.eventId(i), page.venueId(i), page.start(i), page.end(i), page.latitude(i),
+                        page.longitude(i));
+            }
+        }
+    }
+
+    /**
+     * Records what an occurrence belongs to, and when and where it takes place, once the current transaction commits.
+     * Its attendees are kept.
+     */
+    public void put(final int occurrenceId, Integer eventId, Integer venueId, Timestamp start, Timestamp end,
+            Double latitude, Double longitude) {
+        final int event = idOf(eventId);
+        final int venue = idOf(venueId);
+        final long startTime = timeOf(start);
+        final long endTime = timeOf(end);
+        final double lat = coordinateOf(latitude);
+        final double lon = coordinateOf(longitude);
+        applyAfterCommit(new Runnable() {
+            public void run() {
+                int row = columns.rowOf(occurrenceId);
+                if (row >= 0) {
+                    unfile(row);
+                }
+                file(columns.put(occurrenceId, event, venue, startTime, endTime, lat, lon));
+            }
+        });
+    }
+
+    /**
+     * Forgets an occurrence, along with its attendees, once the current transaction commits.
+     */
+    public void remove(final int occurrenceId) {
+        applyAfterCommit(new Runnable() {
+            public void run() {
+                forget(occurrenceId);
+            }
+        });
+    }
+
+    /**
+     * Forgets every occurrence of the event once the current transaction commits; the database removes them along
+     * with the event.
+     */
+    public void removeEvent(final int eventId) {
+        applyAfterCommit(new Runnable() {
+            public void run() {
+                if (byEvent.containsKey(eventId)) {
+                    for (int id : byEvent.get(eventId).copy()) {
+                        forget(id);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves every occurrence at the venue to its new location once the current transaction commits.
+     */
+    public void moveVenue(final int venueId, Double latitude, Double longitude) {
+        final double lat = coordinateOf(latitude);
+        final double lon = coordinateOf(longitude);
+        applyAfterCommit(new Runnable() {
+            public void run() {
+                if (byVenue.containsKey(venueId)) {
+                    for (int id : byVenue.get(venueId).copy()) {
+                        int row = columns.rowOf(id);
+                        unfile(row);
+                        columns.moveTo(row, lat, lon);
+                        file(row);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the attendees of occurrences once the current transaction commits.
+     */
+    public void addAttendees(final Collection<Attendance> attendances) {
+        applyAfterCommit(new Runnable() {
+            public void run() {
+                for (Attendance a : attendances) {
+                    attend(a.occurrenceId, a.userId);
+                }
+            }
+        });
+    }
+
+    public void addAttendee(int occurrenceId, int userId) {
+        addAttendees(Collections.singletonList(new Attendance(occurrenceId, userId)));
+    }
+
+    /**
+     * Forgets an attendee of an occurrence once the current transaction commits.
+     */
+    public void removeAttendee(final int occurrenceId, final int userId) {
+        applyAfterCommit(new Runnable() {
+            public void run() {
+                Set<Integer> attendees = attendeesByOccurrence.get(occurrenceId);
+                if (attendees != null && attendees.remove(userId)) {
+                    removeFrom(byAttendee, userId, occurrenceId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the latest snapshot, loading the filter first if need be.
+     */
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        writeLock.lock();
+        try {
+            if (!loaded) {
+                clear();
+                jdbcTemplate.query(LOAD_SQL, new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        file(columns.put(rs.getInt("id"), idOf((Integer) rs.getObject("eventId")),
+                                idOf((Integer) rs.getObject("venueId")), timeOf(rs.getTimestamp("start")),
+                                timeOf(rs.getTimestamp("end")), coordinateOf((Double) rs.getObject("latitude")),
+                                coordinateOf((Double) rs.getObject("longitude"))));
+                    }
+                });
+                jdbcTemplate.query(LOAD_ATTENDEES_SQL, new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        attend(rs.getInt("occurrenceId"), rs.getInt("userId"));
+                    }
+                });
+                loaded = true;
+                publish();
+            }
+            return snapshot;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Has the change applied once the current transaction commits, and waits up to <code>applyWaitMillis</code> for
+     * the snapshot showing it, so that a stalled writer thread holds up searches that should see the change rather
+     * than every write. Changes made before the filter is loaded are dropped, as loading reads them from the database.
+     */
+    private void applyAfterCommit(final Runnable update) {
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                Change change = new Change(update);
+                if (!enqueue(change)) {
+                    applyAll(Collections.singletonList(change));
+                }
+                try {
+                    if (!change.applied.await(applyWaitMillis, TimeUnit.MILLISECONDS)) {
+                        logger.warn("Occurrence filter writer is behind; a change will show in searches once it "
+                                + "catches up");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues the change for the writer thread, starting it if need be, unless the filter has been shut down.
+     */
+    private synchronized boolean enqueue(Change change) {
+        if (closed) {
+            return false;
+        }
+        changes.add(change);
+        if (writer == null) {
+            writer = new Thread(new Runnable() {
+                public void run() {
+                    List<Change> batch = new ArrayList<Change>();
+                    while (!Thread.currentThread().isInterrupted()) {
+                        try {
+                            batch.add(changes.take());
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                        changes.drainTo(batch);
+                        applyAll(batch);
+                        batch.clear();
+                    }
+                    changes.drainTo(batch);
+                    applyAll(batch);
+                }
+            }, "occurrence-filter-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        return true;
+    }
+
+    private void applyAll(List<Change> batch) {
+        writeLock.lock();
+        try {
+            if (loaded) {
+                for (Change change : batch) {
+                    try {
+                        change.update.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Could not apply a change to the occurrence filter", e);
+                    }
+                }
+                publish();
+            }
+        } finally {
+            writeLock.unlock();
+            for (Change change : batch) {
+                change.applied.countDown();
+            }
+        }
+    }
+
+    private void publish() {
+        snapshot = new Snapshot(columns.snapshot(), new HashMap<Integer, CompressedBitmap>(byEvent),
+                new HashMap<Integer, CompressedBitmap>(byVenue), new HashMap<Integer, CompressedBitmap>(byAttendee),
+                new HashMap<Integer, CompressedBitmap>(byDay), new HashMap<Long, CompressedBitmap>(byCell),
+                longOccurrences, all);
+        unpublished.clear();
+    }
+
+    /**
+     * Drops whatever a failed load left behind.
+     */
+    private void clear() {
+        columns = new OccurrenceColumns(offHeap);
+        attendeesByOccurrence.clear();
+        byEvent.clear();
+        byVenue.clear();
+        byAttendee.clear();
+        byDay.clear();
+        byCell.clear();
+        longOccurrences = new CompressedBitmap();
+        all = new CompressedBitmap();
+        unpublished.clear();
+        unpublished.add(longOccurrences);
+        unpublished.add(all);
+    }
+
+    private void file(int row) {
+        int id = columns.id(row);
+        all = writable(all);
+        all.add(id);
+        if (columns.eventId(row) != NO_ID) {
+            addTo(byEvent, columns.eventId(row), id);
+        }
+        if (columns.venueId(row) != NO_ID) {
+            addTo(byVenue, columns.venueId(row), id);
+        }
+        if (columns.start(row) != NO_TIME && columns.end(row) != NO_TIME) {
+            int firstDay = DayBuckets.dayOf(columns.start(row));
+            int lastDay = DayBuckets.dayOf(columns.end(row));
+            if (DayBuckets.isLong(firstDay, lastDay)) {
+                longOccurrences = writable(longOccurrences);
+                longOccurrences.add(id);
+            } else {
+                for (int day = firstDay; day <= lastDay; day++) {
+                    addTo(byDay, day, id);
+                }
+            }
+        }
+        if (!Double.isNaN(columns.latitude(row)) && !Double.isNaN(columns.longitude(row))) {
+            addTo(byCell, cellOf(columns.latitude(row), columns.longitude(row)), id);
+        }
+    }
+
+    /**
+     * Takes the occurrence in the row out of every bitmap but those of its attendees.
+     */
+    private void unfile(int row) {
+        int id = columns.id(row);
+        all = writable(all);
+        all.remove(id);
+        if (columns.eventId(row) != NO_ID) {
+            removeFrom(byEvent, columns.eventId(row), id);
+        }
+        if (columns.venueId(row) != NO_ID) {
+            removeFrom(byVenue, columns.venueId(row), id);
+        }
+        if (columns.start(row) != NO_TIME && columns.end(row) != NO_TIME) {
+            int firstDay = DayBuckets.dayOf(columns.start(row));
+            int lastDay = DayBuckets.dayOf(columns.end(row));
+            if (DayBuckets.isLong(firstDay, lastDay)) {
+                longOccurrences = writable(longOccurrences);
+                longOccurrences.remove(id);
+            } else {
+                for (int day = firstDay; day <= lastDay; day++) {
+                    removeFrom(byDay, day, id);
+                }
+            }
+        }
+        if (!Double.isNaN(columns.latitude(row)) && !Double.isNaN(columns.longitude(row))) {
+            removeFrom(byCell, cellOf(columns.latitude(row), columns.longitude(row)), id);
+        }
+    }
+
+    private void forget(int occurrenceId) {
+        int row = columns.rowOf(occurrenceId);
+        if (row >= 0) {
+            unfile(row);
+            columns.remove(occurrenceId);
+        }
+        Set<Integer> attendees = attendeesByOccurrence.remove(occurrenceId);
+        if (attendees != null) {
+            for (int userId : attendees) {
+                removeFrom(byAttendee, userId, occurrenceId);
+            }
+        }
+    }
+
+    private void attend(int occurrenceId, int userId) {
+        Set<Integer> attendees = attendeesByOccurrence.get(occurrenceId);
+        if (attendees == null) {
+            attendees = new HashSet<Integer>();
+            attendeesByOccurrence.put(occurrenceId, attendees);
+        }
+        attendees.add(userId);
+        addTo(byAttendee, userId, occurrenceId);
+    }
+
+    /**
+     * Returns the bitmap, or a copy of it if the last snapshot has it.
+     */
+    private CompressedBitmap writable(CompressedBitmap bitmap) {
+        if (!unpublished.contains(bitmap)) {
+            bitmap = bitmap.copy();
+            unpublished.add(bitmap);
+        }
+        return bitmap;
+    }
+
+    private <K> void addTo(Map<K, CompressedBitmap> bitmaps, K key, int id) {
+        CompressedBitmap bitmap = bitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = new CompressedBitmap();
+            unpublished.add(bitmap);
+            bitmaps.put(key, bitmap);
+        } else if (!unpublished.contains(bitmap)) {
+            bitmap = writable(bitmap);
+            bitmaps.put(key, bitmap);
+        }
+        bitmap.add(id);
+    }
+
+    private <K> void removeFrom(Map<K, CompressedBitmap> bitmaps, K key, int id) {
+        CompressedBitmap bitmap = bitmaps.get(key);
+        if (bitmap != null && bitmap.contains(id)) {
+            if (bitmap.getCardinality() == 1) {
+                bitmaps.remove(key);
+            } else {
+                bitmap = writable(bitmap);
+                bitmap.remove(id);
+                bitmaps.put(key, bitmap);
+            }
+        }
+    }
+
+    /**
+     * Returns the matches that pass the exact check, taking the cheapest way there: checking the matches themselves,
+     * checking the occurrences in the buckets the filter reaches, or, when both are a sizable part of all occurrences,
+     * scanning the columns.
+     */
+    private CompressedBitmap within(Snapshot s, CompressedBitmap matches, RowFilter filter,
+            List<CompressedBitmap> buckets) {
+        long known = matches.getCardinality();
+        long bucketed = 0;
+        for (CompressedBitmap bucket : buckets) {
+            bucketed += bucket.getCardinality();
+        }
+        if (Math.min(known, bucketed) > s.columns.live() / SCAN_FRACTION) {
+            return CompressedBitmap.and(matches, scan(s.columns, filter));
+        } else if (known <= bucketed) {
+            return check(s.columns, matches, filter);
+        }
+        return CompressedBitmap.and(matches, check(s.columns, CompressedBitmap.or(buckets), filter));
+    }
+
+    private static CompressedBitmap check(OccurrenceColumns columns, CompressedBitmap candidates,
+            RowFilter filter) {
+        CompressedBitmap matches = new CompressedBitmap();
+        for (int id : candidates) {
+            int row = columns.rowOf(id);
+            if (row >= 0 && filter.matches(columns.pageOf(row), row & (OccurrenceColumns.PAGE_ROWS - 1))) {
+                matches.add(id);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Runs the filter over every row. Rows are in order of id, so the chunks' matches are added in ascending order.
+     */
+    private CompressedBitmap scan(final OccurrenceColumns columns, final RowFilter filter) {
+        CompressedBitmap matches = new CompressedBitmap();
+        int size = columns.size();
+        if (scanExecutor == null || size <= SCAN_CHUNK) {
+            addAll(matches, filter.scan(columns, 0, size));
+            return matches;
+        }
+
+        List<Future<int[]>> chunks = new ArrayList<Future<int[]>>();
+        for (int from = 0; from < size; from += SCAN_CHUNK) {
+            final int start = from;
+            final int end = Math.min(from + SCAN_CHUNK, size);
+            chunks.add(scanExecutor.submit(new Callable<int[]>() {
+                public int[] call() {
+                    return filter.scan(columns, start, end);
+                }
+            }));
+        }
+        try {
+            for (Future<int[]> chunk : chunks) {
+                addAll(matches, chunk.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning occurrences", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Occurrence scan failed", e.getCause());
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the day bitmaps the window reaches, and the long occurrences. When the window reaches more days than
+     * have occurrences, the occupied days are looked through instead.
+     */
+    private static List<CompressedBitmap> daysOf(Snapshot s, Interval interval) {
+        int firstDay = DayBuckets.dayOf(interval.getStartMillis());
+        int lastDay = DayBuckets.dayOf(interval.getEndMillis());
+        List<CompressedBitmap> days = new ArrayList<CompressedBitmap>();
+        if (lastDay - firstDay + 1 <= s.byDay.size()) {
+            for (int day = firstDay; day <= lastDay; day++) {
+                CompressedBitmap bitmap = s.byDay.get(day);
+                if (bitmap != null) {
+                    days.add(bitmap);
+                }
+            }
+        } else {
+            for (Map.Entry<Integer, CompressedBitmap> day : s.byDay.entrySet()) {
+                if (day.getKey() >= firstDay && day.getKey() <= lastDay) {
+                    days.add(day.getValue());
+                }
+            }
+        }
+        days.add(s.longOccurrences);
+        return days;
+    }
+
+    /**
+     * Returns the cell bitmaps the box enclosing the circle reaches. When the box reaches more cells than have
+     * occurrences, the occupied cells are looked through instead.
+     */
+    private static List<CompressedBitmap> cellsOf(Snapshot s, Circle circle) {
+        BoundingBox box = new BoundingBox(circle);
+        int columnsAround = OccurrencePyramid.columns(CELL_LEVEL);
+        int firstRow = OccurrencePyramid.rowOf(box.south, CELL_LEVEL);
+        int lastRow = OccurrencePyramid.rowOf(box.north, CELL_LEVEL);
+        int firstColumn = OccurrencePyramid.columnOf(box.west, CELL_LEVEL);
+        int lastColumn = box.east >= 180 ? columnsAround - 1 : OccurrencePyramid.columnOf(box.east, CELL_LEVEL);
+        int columnCount = lastColumn - firstColumn + 1;
+        if (box.crossesAntimeridian()) {
+            columnCount = lastColumn < firstColumn ? columnCount + columnsAround : columnsAround;
+        }
+
+        List<CompressedBitmap> cells = new ArrayList<CompressedBitmap>();
+        if ((long) (lastRow - firstRow + 1) * columnCount <= s.byCell.size()) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int i = 0; i < columnCount; i++) {
+                    CompressedBitmap bitmap = s.byCell.get((long) row * columnsAround
+                            + (firstColumn + i) % columnsAround);
+                    if (bitmap != null) {
+                        cells.add(bitmap);
+                    }
+                }
+            }
+        } else {
+            for (Map.Entry<Long, CompressedBitmap> cell : s.byCell.entrySet()) {
+                int row = (int) (cell.getKey() / columnsAround);
+                int column = (int) (cell.getKey() % columnsAround);
+                if (row >= firstRow && row <= lastRow
+                        && (column - firstColumn + columnsAround) % columnsAround < columnCount) {
+                    cells.add(cell.getValue());
+                }
+            }
+        }
+        return cells;
+    }
+
+    private static void addAll(CompressedBitmap bitmap, int[] ids) {
+        for (int id : ids) {
+            bitmap.add(id);
+        }
+    }
+
+    private static <K> CompressedBitmap union(Map<K, CompressedBitmap> bitmaps, Collection<K> keys) {
+        List<CompressedBitmap> matches = new ArrayList<CompressedBitmap>(keys.size());
+        for (K key : new HashSet<K>(keys)) {
+            CompressedBitmap bitmap = bitmaps.get(key);
+            if (bitmap != null) {
+                matches.add(bitmap);
+            }
+        }
+        return CompressedBitmap.or(matches);
+    }
+
+    private static <K> CompressedBitmap bitmapOf(Map<K, CompressedBitmap> bitmaps, K key) {
+        CompressedBitmap bitmap = bitmaps.get(key);
+        return bitmap != null ? bitmap : new CompressedBitmap();
+    }
+
+    private static long cellOf(double latitude, double longitude) {
+        return (long) OccurrencePyramid.rowOf(latitude, CELL_LEVEL) * OccurrencePyramid.columns(CELL_LEVEL)
+                + OccurrencePyramid.columnOf(longitude, CELL_LEVEL);
+    }
+
+    private static int idOf(Integer id) {
+        return id != null ? id : NO_ID;
+    }
+
+    private static long timeOf(Timestamp time) {
+        return time != null ? time.getTime() : NO_TIME;
+    }
+
+    private static double coordinateOf(Double coordinate) {
+        return coordinate != null ? coordinate : Double.NaN;
+    }
+
+    /**
+     * Receives what the filter knows about one occurrence. Times are in milliseconds; a missing event or venue is
+     * NO_ID, a missing time NO_TIME, and missing coordinates NaN.
+     */
+    public interface RowVisitor {
+        void visit(int id, int eventId, int venueId, long start, long end, double latitude, double longitude);
+    }
+
+    /**
+     * What searches read: the filter as of one batch of changes. Nothing here is ever changed.
+     */
+    private static final class Snapshot {
+        final OccurrenceColumns columns;
+        final Map<Integer, CompressedBitmap> byEvent;
+        final Map<Integer, CompressedBitmap> byVenue;
+        final Map<Integer, CompressedBitmap> byAttendee;
+        final Map<Integer, CompressedBitmap> byDay;
+        final Map<Long, CompressedBitmap> byCell;
+        final CompressedBitmap longOccurrences;
+        final CompressedBitmap all;
+
+        Snapshot(OccurrenceColumns columns, Map<Integer, CompressedBitmap> byEvent,
+                Map<Integer, CompressedBitmap> byVenue, Map<Integer, CompressedBitmap> byAttendee,
+                Map<Integer, CompressedBitmap> byDay, Map<Long, CompressedBitmap> byCell,
+                CompressedBitmap longOccurrences, CompressedBitmap all) {
+            this.columns = columns;
+            this.byEvent = byEvent;
+            this.byVenue = byVenue;
+            this.byAttendee = byAttendee;
+            this.byDay = byDay;
+            this.byCell = byCell;
+            this.longOccurrences = longOccurrences;
+            this.all = all;
+        }
+    }
+
+    private static final class Change {
+        final Runnable update;
+        final CountDownLatch applied = new CountDownLatch(1);
+
+        Change(Runnable update) {
+            this.update = update;
+        }
+    }
+
+    /**
+     * An exact check on one row of a page of columns.
+     */
+    abstract static class RowFilter {
+
+        abstract boolean matches(OccurrenceColumns.Page page, int i);
+
+        /**
+         * Returns the ids of the live rows from start up to end that pass the check, in ascending order.
+         */
+        int[] scan(OccurrenceColumns columns, int start, int end) {
+            int[] ids = new int[64];
+            int count = 0;
+            for (int row = start; row < end;) {
+                OccurrenceColumns.Page page = columns.pageOf(row);
+                int i = row & (OccurrenceColumns.PAGE_ROWS - 1);
+                int pageEnd = Math.min(end, row - i + OccurrenceColumns.PAGE_ROWS);
+                for (; row < pageEnd; row++, i++) {
+                    if (matches(page, i) && !page.isRemoved(i)) {
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, 2 * count);
+                        }
+                        ids[count++] = page.id(i);
+                    }
+                }
+            }
+            return Arrays.copyOf(ids, count);
+        }
+    }
+
+    static final class IntervalFilter extends RowFilter {
+        private final long windowStart;
+        private final long windowEnd;
+        private final IntervalMode mode;
+
+        IntervalFilter(Interval interval, IntervalMode mode) {
+            this.windowStart = interval.getStartMillis();
+            this.windowEnd = interval.getEndMillis();
+            this.mode = mode;
+        }
+
+        @Override
+        boolean matches(OccurrenceColumns.Page page, int i) {
+            long start = page.start(i);
+            long end = page.end(i);
+            return start != NO_TIME && end != NO_TIME
+                    && OccurrenceIntervalTree.matches(start, end, windowStart, windowEnd, mode);
+        }
+    }
+
+    /**
+     * The same unit vector check as the database, against the unit vectors stored with the rows.
+     */
+    static final class CircleFilter extends RowFilter {
+        private final double x;
+        private final double y;
+        private final double z;
+        private final double minimumDot;
+
+        CircleFilter(Circle circle) {
+            this.x = Haversine.unitX(circle.centerLatitude, circle.centerLongitude);
+            this.y = Haversine.unitY(circle.centerLatitude, circle.centerLongitude);
+            this.z = Haversine.unitZ(circle.centerLatitude);
+            this.minimumDot = Haversine.cosineOfRadius(circle.radius);
+        }
+
+        @Override
+        boolean matches(OccurrenceColumns.Page page, int i) {
+            // Rows without coordinates have NaN unit vectors, and comparisons with NaN are false, so they never match
+            return page.x(i) * x + page.y(i) * y + page.z(i) * z >= minimumDot;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.joda.time.Interval;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import edu.lmu.cs.wutup.ws.dao.util.TransactionCallbacks;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+
+/**
+ * An in-memory augmented interval tree over occurrence start and end times. The occurrences are kept in arrays sorted
+ * by start time, which are read as an implicit balanced binary tree: the middle of every range is the root of that
+ * range, and each root records the latest end time found in its range so that whole subtrees ending before a window
+ * can be skipped.
+ *
+ * Like the venue R-tree, the arrays are built from the occurrence table on first use and never modified in place.
+ * Occurrences created, rescheduled or deleted since the last build are kept aside and checked linearly until there are
+ * enough of them to rebuild.
+ */
+@Component
+public class OccurrenceIntervalTree {
+
+    static final int MIN_REBUILD_THRESHOLD = 64;
+
+    private static final String LOAD_SQL = "select id, start, end from occurrence "
+            + "where start is not null and end is not null";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, long[]> spans = new HashMap<Integer, long[]>();
+    private final Set<Integer> changed = new HashSet<Integer>();
+    private int[] ids = new int[0];
+    private long[] starts = new long[0];
+    private long[] ends = new long[0];
+    private long[] maxEnds = new long[0];
+    private boolean loaded = false;
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Returns the ids of the occurrences that overlap or fall within the interval, or null if there are more than the
+     * limit, in which case the caller leaves the interval to the occurrence filter, which narrows it by day bucket or
+     * scans the columns.
+     */
+    public List<Integer> findOccurrences(Interval interval, IntervalMode mode, int limit) {
+        ensureLoaded();
+        long windowStart = interval.getStartMillis();
+        long windowEnd = interval.getEndMillis();
+        lock.readLock().lock();
+        try {
+            List<Integer> result = new ArrayList<Integer>();
+            boolean complete;
+            if (mode == IntervalMode.OVERLAP) {
+                complete = collectOverlapping(0, ids.length, windowStart, windowEnd, limit, result);
+            } else {
+                complete = collectContained(windowStart, windowEnd, limit, result);
+            }
+            if (!complete) {
+                return null;
+            }
+            for (int id : changed) {
+                long[] span = spans.get(id);
+                if (span != null && matches(span[0], span[1], windowStart, windowEnd, mode)) {
+                    if (result.size() == limit) {
+                        return null;
+                    }
+                    result.add(id);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records the times of an occurrence once the current transaction commits. An occurrence without both times can
+     * never match a window, so it is removed.
+     */
+    public void put(final int occurrenceId, final Long start, final Long end) {
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                update(occurrenceId, start != null && end != null ? new long[]{start, end} : null);
+            }
+        });
+    }
+
+    /**
+     * Forgets an occurrence once the current transaction commits.
+     */
+    public void remove(final int occurrenceId) {
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                update(occurrenceId, null);
+            }
+        });
+    }
+
+    /**
+     * Drops everything once the current transaction commits, so that the tree is rebuilt from the database on its next
+     * use. For changes such as event deletions that remove occurrences wholesale.
+     */
+    public void invalidate() {
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                lock.writeLock().lock();
+                try {
+                    loaded = false;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        });
+    }
+
+    private void update(int occurrenceId, long[] span) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            if (span == null) {
+                spans.remove(occurrenceId);
+            } else {
+                spans.put(occurrenceId, span);
+            }
+            changed.add(occurrenceId);
+            if (changed.size() > Math.max(MIN_REBUILD_THRESHOLD, spans.size() / 8)) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        lock.readLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                spans.clear();
+                jdbcTemplate.query(LOAD_SQL, new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        spans.put(rs.getInt("id"), new long[]{rs.getTimestamp("start").getTime(),
+                                rs.getTimestamp("end").getTime()});
+                    }
+                });
+                rebuild();
+                loaded = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rebuild() {
+        List<Map.Entry<Integer, long[]>> entries = new ArrayList<Map.Entry<Integer, long[]>>(spans.entrySet());
+        Collections.sort(entries, START_ORDER);
+        ids = new int[entries.size()];
+        starts = new long[entries.size()];
+        ends = new long[entries.size()];
+        maxEnds = new long[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            ids[i] = entries.get(i).getKey();
+            starts[i] = entries.get(i).getValue()[0];
+            ends[i] = entries.get(i).getValue()[1];
+        }
+        computeMaxEnds(0, ids.length);
+        changed.clear();
+    }
+
+    private long computeMaxEnds(int low, int high) {
+        if (low >= high) {
+            return Long.MIN_VALUE;
+        }
+        int middle = (low + high) >>> 1;
+        maxEnds[middle] = Math.max(ends[middle], Math.max(computeMaxEnds(low, middle),
+                computeMaxEnds(middle + 1, high)));
+        return maxEnds[middle];
+    }
+
+    /**
+     * Walks the subtree over [low, high), skipping subtrees that end before the window and, since starts are sorted,
+     * everything right of a node that starts after the window. Returns false once the limit is exceeded.
+     */
+    private boolean collectOverlapping(int low, int high, long windowStart, long windowEnd, int limit,
+            List<Integer> result) {
+        if (low >= high) {
+            return true;
+        }
+        int middle = (low + high) >>> 1;
+        if (maxEnds[middle] <= windowStart) {
+            return true;
+        }
+        if (!collectOverlapping(low, middle, windowStart, windowEnd, limit, result)) {
+            return false;
+        }
+        if (starts[middle] >= windowEnd) {
+            return true;
+        }
+        if (ends[middle] > windowStart && !changed.contains(ids[middle])) {
+            if (result.size() == limit) {
+                return false;
+            }
+            result.add(ids[middle]);
+        }
+        return collectOverlapping(middle + 1, high, windowStart, windowEnd, limit, result);
+    }
+
+    /**
+     * Scans the occurrences starting within the window, found by binary search, for those that also end within it.
+     */
+    private boolean collectContained(long windowStart, long windowEnd, int limit, List<Integer> result) {
+        for (int i = firstStartingAtOrAfter(windowStart); i < ids.length && starts[i] <= windowEnd; i++) {
+            if (ends[i] <= windowEnd && !changed.contains(ids[i])) {
+                if (result.size() == limit) {
+                    return false;
+                }
+                result.add(ids[i]);
+            }
+        }
+        return true;
+    }
+
+    private int firstStartingAtOrAfter(long time) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * An occurrence overlaps a window when each starts before the other ends, and is contained in it when both of its
+     * times are within the window, inclusive. The occurrence filter's interval check uses this too, so that both
+     * ways of answering a window agree.
+     */
+    public static boolean matches(long start, long end, long windowStart, long windowEnd, IntervalMode mode) {
+        if (mode == IntervalMode.OVERLAP) {
+            return start < windowEnd && end > windowStart;
+        }
+        return start >= windowStart && start <= windowEnd && end >= windowStart && end <= windowEnd;
+    }
+
+    private static final Comparator<Map.Entry<Integer, long[]>> START_ORDER =
+            new Comparator<Map.Entry<Integer, long[]>>() {
+        public int compare(Map.Entry<Integer, long[]> a, Map.Entry<Integer, long[]> b) {
+            return a.getValue()[0] < b.getValue()[0] ? -1 : a.getValue()[0] > b.getValue()[0] ? 1
+                    : a.getKey() - b.getKey();
+        }
+    };
+}
@@ -0,0 +1,337 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import edu.lmu.cs.wutup.ws.dao.util.TransactionCallbacks;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
+import edu.lmu.cs.wutup.ws.model.OccurrenceCluster;
+
+/**
+ * A multi-resolution pyramid of occurrence counts for map clustering. Each level is a latitude/longitude grid with
+ * twice the resolution of the one above it; level z has 2^(z+3) columns, about eight cells across a map tile at zoom
+ * z. Every non-empty cell keeps a count, the coordinate sums for its centroid and a few sample occurrence ids. The
+ * finest level keeps all of its ids, so coarser cells can refill their samples from their children when a sampled
+ * occurrence goes away.
+ *
+ * The pyramid is loaded from the database on first use and is kept current by the occurrence, venue and event DAOs.
+ * Changes are applied after the writing transaction commits.
+ */
+@Component
+public class OccurrencePyramid {
+
+    static final int MAX_LEVEL = 16;
+    static final int SAMPLE_SIZE = 5;
+
+    private static final String LOAD_SQL = "select o.id, o.eventId, o.venueId, v.latitude, v.longitude "
+            + "from occurrence o join venue v on o.venueId = v.id "
+            + "where v.latitude is not null and v.longitude is not null";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Map<Long, Cell>> levels = new ArrayList<Map<Long, Cell>>();
+    private final Map<Integer, Placement> placements = new HashMap<Integer, Placement>();
+    private boolean loaded = false;
+
+    public OccurrencePyramid() {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            levels.add(new HashMap<Long, Cell>());
+        }
+    }
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Returns the clusters of the grid for the given map zoom whose cells overlap the box. Zooms beyond the finest
+     * level use the finest level.
+     */
+    public List<OccurrenceCluster> findClusters(BoundingBox box, int zoom) {
+        ensureLoaded();
+        int level = Math.max(0, Math.min(MAX_LEVEL, zoom));
+        lock.readLock().lock();
+        try {
+            Map<Long, Cell> cells = levels.get(level);
+            int columns = columns(level);
+            int firstRow = rowOf(box.south, level);
+            int lastRow = rowOf(box.north, level);
+            int firstColumn = columnOf(box.west, level);
+            int lastColumn = box.east >= 180 ? columns - 1 : columnOf(box.east, level);
+            int columnCount = lastColumn - firstColumn + 1;
+            if (box.crossesAntimeridian()) {
+                columnCount = lastColumn < firstColumn ? columnCount + columns : columns;
+            }
+
+            List<OccurrenceCluster> clusters = new ArrayList<OccurrenceCluster>();
+            if ((long) (lastRow - firstRow + 1) * columnCount <= cells.size()) {
+                for (int row = firstRow; row <= lastRow; row++) {
+                    for (int i = 0; i < columnCount; i++) {
+                        Cell cell = cells.get(keyOf(row, (firstColumn + i) % columns, level));
+                        if (cell != null) {
+                            clusters.add(cell.toCluster());
+                        }
+                    }
+                }
+            } else {
+                // The viewport covers more cells than are occupied, so just check the occupied ones
+                for (Map.Entry<Long, Cell> entry : cells.entrySet()) {
+                    int row = (int) (entry.getKey() / columns);
+                    int column = (int) (entry.getKey() % columns);
+                    if (row >= firstRow && row <= lastRow
+                            && (column - firstColumn + columns) % columns < columnCount) {
+                        clusters.add(entry.getValue().toCluster());
+                    }
+                }
+            }
+            return clusters;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records where an occurrence takes place once the current transaction commits. An occurrence at a venue without
+     * coordinates is removed.
+     */
+    public void put(final int occurrenceId, final int eventId, final int venueId, final Double latitude,
+            final Double longitude) {
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                lock.writeLock().lock();
+                try {
+                    if (loaded) {
+                        remove(placements.remove(occurrenceId));
+                        if (latitude != null && longitude != null) {
+                            add(new Placement(occurrenceId, eventId, venueId, latitude, longitude));
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets an occurrence once the current transaction commits.
+     */
+    public void remove(final int occurrenceId) {
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                lock.writeLock().lock();
+                try {
+                    if (loaded) {
+                        remove(placements.remove(occurrenceId));
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves every occurrence at the venue to its new location once the current transaction commits.
+     */
+    public void moveVenue(final int venueId, final Double latitude, final Double longitude) {
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                lock.writeLock().lock();
+                try {
+                    if (loaded) {
+                        for (Placement p : new ArrayList<Placement>(placements.values())) {
+                            if (p.venueId == venueId) {
+                                remove(placements.remove(p.occurrenceId));
+                                if (latitude != null && longitude != null) {
+                                    add(new Placement(p.occurrenceId, p.eventId, venueId, latitude, longitude));
+                                }
+                            }
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets every occurrence of the event once the current transaction commits; the database removes them along
+     * with the event.
+     */
+    public void removeEvent(final int eventId) {
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                lock.writeLock().lock();
+                try {
+                    if (loaded) {
+                        for (Placement p : new ArrayList<Placement>(placements.values())) {
+                            if (p.eventId == eventId) {
+                                remove(placements.remove(p.occurrenceId));
+                            }
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        });
+    }
+
+    private void ensureLoaded() {
+        lock.readLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                jdbcTemplate.query(LOAD_SQL, new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        add(new Placement(rs.getInt("id"), rs.getInt("eventId"), rs.getInt("venueId"),
+                                rs.getDouble("latitude"), rs.getDouble("longitude")));
+                    }
+                });
+                loaded = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(Placement p) {
+        placements.put(p.occurrenceId, p);
+        for (int level = MAX_LEVEL; level >= 0; level--) {
+            long key = keyOf(rowOf(p.latitude, level), columnOf(p.longitude, level), level);
+            Cell cell = levels.get(level).get(key);
+            if (cell == null) {
+                cell = new Cell();
+                levels.get(level).put(key, cell);
+            }
+            cell.count++;
+            cell.latitudeSum += p.latitude;
+            cell.longitudeSum += p.longitude;
+            if (level == MAX_LEVEL || cell.sampleIds.size() < SAMPLE_SIZE) {
+                cell.sampleIds.add(p.occurrenceId);
+            }
+        }
+    }
+
+    /**
+     * Takes a placement out of every level, finest first, so that coarser cells can refill their samples from
+     * children that are already up to date.
+     */
+    private void remove(Placement p) {
+        if (p == null) {
+            return;
+        }
+        for (int level = MAX_LEVEL; level >= 0; level--) {
+            int row = rowOf(p.latitude, level);
+            int column = columnOf(p.longitude, level);
+            long key = keyOf(row, column, level);
+            Cell cell = levels.get(level).get(key);
+            cell.count--;
+            if (cell.count == 0) {
+                levels.get(level).remove(key);
+                continue;
+            }
+            cell.latitudeSum -= p.latitude;
+            cell.longitudeSum -= p.longitude;
+            if (cell.sampleIds.remove(p.occurrenceId) && level < MAX_LEVEL) {
+                refillSample(cell, row, column, level);
+            }
+        }
+    }
+
+    private void refillSample(Cell cell, int row, int column, int level) {
+        for (int childRow = 2 * row; childRow <= 2 * row + 1; childRow++) {
+            for (int childColumn = 2 * column; childColumn <= 2 * column + 1; childColumn++) {
+                Cell child = levels.get(level + 1).get(keyOf(childRow, childColumn, level + 1));
+                if (child != null) {
+                    for (int id : child.sampleIds) {
+                        if (cell.sampleIds.size() >= Math.min(SAMPLE_SIZE, cell.count)) {
+                            return;
+                        }
+                        cell.sampleIds.add(id);
+                    }
+                }
+            }
+        }
+    }
+
+    static int columns(int level) {
+        return 1 << (level + 3);
+    }
+
+    static int rowOf(double latitude, int level) {
+        int rows = columns(level) / 2;
+        int row = (int) Math.floor((latitude + 90) / 180 * rows);
+        return Math.max(0, Math.min(rows - 1, row));
+    }
+
+    static int columnOf(double longitude, int level) {
+        int columns = columns(level);
+        int column = (int) Math.floor((longitude + 180) / 360 * columns);
+        return (column % columns + columns) % columns;
+    }
+
+    private static long keyOf(int row, int column, int level) {
+        return (long) row * columns(level) + column;
+    }
+
+    /**
+     * Where an occurrence is, along with what it belongs to, so that venue moves and event deletions can find it.
+     */
+    private static final class Placement {
+        final int occurrenceId;
+        final int eventId;
+        final int venueId;
+        final double latitude;
+        final double longitude;
+
+        Placement(int occurrenceId, int eventId, int venueId, double latitude, double longitude) {
+            this.occurrenceId = occurrenceId;
+            this.eventId = eventId;
+            this.venueId = venueId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    private static final class Cell {
+        int count;
+        double latitudeSum;
+        double longitudeSum;
+        final TreeSet<Integer> sampleIds = new TreeSet<Integer>();
+
+        OccurrenceCluster toCluster() {
+            List<Integer> sample = new ArrayList<Integer>(SAMPLE_SIZE);
+            for (int id : sampleIds) {
+                if (sample.size() == SAMPLE_SIZE) {
+                    break;
+                }
+                sample.add(id);
+            }
+            return new OccurrenceCluster(count, latitudeSum / count, longitudeSum / count, sample);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A page of occurrence columns kept outside of the heap, as fixed-width records in a direct buffer, so that the
+ * garbage collector never has to look at it. Each record holds the id, event id, venue id and flags as ints, then the
+ * start and end as longs and the latitude, longitude and unit vector as doubles, each at an offset that is a multiple
+ * of its width.
+ */
+final class OffHeapPage extends OccurrenceColumns.Page {
+
+    static final int RECORD_SIZE = 72;
+
+    private static final int ID = 0;
+    private static final int EVENT_ID = 4;
+    private static final int VENUE_ID = 8;
+    private static final int FLAGS = 12;
+    private static final int START = 16;
+    private static final int END = 24;
+    private static final int LATITUDE = 32;
+    private static final int LONGITUDE = 40;
+    private static final int X = 48;
+    private static final int Y = 56;
+    private static final int Z = 64;
+    private static final int REMOVED = 1;
+
+    private final ByteBuffer records;
+
+    OffHeapPage() {
+        this(ByteBuffer.allocateDirect(OccurrenceColumns.PAGE_ROWS * RECORD_SIZE).order(ByteOrder.nativeOrder()));
+    }
+
+    private OffHeapPage(ByteBuffer records) {
+        this.records = records;
+    }
+
+    @Override
+    int id(int i) {
+        return records.getInt(i * RECORD_SIZE + ID);
+    }
+
+    @Override
+    int eventId(int i) {
+        return records.getInt(i * RECORD_SIZE + EVENT_ID);
+    }
+
+    @Override
+    int venueId(int i) {
+        return records.getInt(i * RECORD_SIZE + VENUE_ID);
+    }
+
+    @Override
+    long start(int i) {
+        return records.getLong(i * RECORD_SIZE + START);
+    }
+
+    @Override
+    long end(int i) {
+        return records.getLong(i * RECORD_SIZE + END);
+    }
+
+    @Override
+    double latitude(int i) {
+        return records.getDouble(i * RECORD_SIZE + LATITUDE);
+    }
+
+    @Override
+    double longitude(int i) {
+        return records.getDouble(i * RECORD_SIZE + LONGITUDE);
+    }
+
+    @Override
+    double x(int i) {
+        return records.getDouble(i * RECORD_SIZE + X);
+    }
+
+    @Override
+    double y(int i) {
+        return records.getDouble(i * RECORD_SIZE + Y);
+    }
+
+    @Override
+    double z(int i) {
+        return records.getDouble(i * RECORD_SIZE + Z);
+    }
+
+    @Override
+    boolean isRemoved(int i) {
+        return (records.getInt(i * RECORD_SIZE + FLAGS) & REMOVED) != 0;
+    }
+
+    @Override
+    void set(int i, int id, int eventId, int venueId, long start, long end, double latitude, double longitude,
+            double x, double y, double z) {
+        int offset = i * RECORD_SIZE;
+        records.putInt(offset + ID, id);
+        records.putInt(offset + EVENT_ID, eventId);
+        records.putInt(offset + VENUE_ID, venueId);
+        records.putInt(offset + FLAGS, 0);
+        records.putLong(offset + START, start);
+        records.putLong(offset + END, end);
+        records.putDouble(offset + LATITUDE, latitude);
+        records.putDouble(offset + LONGITUDE, longitude);
+        records.putDouble(offset + X, x);
+        records.putDouble(offset + Y, y);
+        records.putDouble(offset + Z, z);
+    }
+
+    @Override
+    void setLocation(int i, double latitude, double longitude, double x, double y, double z) {
+        int offset = i * RECORD_SIZE;
+        records.putDouble(offset + LATITUDE, latitude);
+        records.putDouble(offset + LONGITUDE, longitude);
+        records.putDouble(offset + X, x);
+        records.putDouble(offset + Y, y);
+        records.putDouble(offset + Z, z);
+    }
+
+    @Override
+    void setRemoved(int i) {
+        int offset = i * RECORD_SIZE + FLAGS;
+        records.putInt(offset, records.getInt(offset) | REMOVED);
+    }
+
+    @Override
+    OccurrenceColumns.Page copy() {
+        // Filling a buffer moves its position to the end, so the whole of the source is selected explicitly
+        ByteBuffer source = records.duplicate();
+        source.clear();
+        ByteBuffer copy = ByteBuffer.allocateDirect(records.capacity()).order(ByteOrder.nativeOrder());
+        copy.put(source);
+        return new OffHeapPage(copy);
+    }
+}
@@ -0,0 +1,187 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
+import edu.lmu.cs.wutup.ws.dao.util.TransactionCallbacks;
+import edu.lmu.cs.wutup.ws.model.Circle;
+
+/**
+ * An in-memory spatial index over venue locations. Venues are bucketed into fixed-size latitude/longitude grid cells;
+ * a circle search collects the venues in the cells covering the circle, which are the only candidates that can
+ * possibly lie within it. The exact distance check is left to the caller.
+ *
+ * The index is loaded from the venue table on first use and is kept current by the venue DAO. Changes are applied
+ * after the writing transaction commits.
+ */
+@Component
+public class VenueGridIndex {
+
+    static final double CELL_SIZE = 0.1;
+    static final int ROWS = (int) Math.round(180 / CELL_SIZE);
+    static final int COLUMNS = (int) Math.round(360 / CELL_SIZE);
+
+    private static final String LOAD_SQL = "select id, latitude, longitude from venue "
+            + "where latitude is not null and longitude is not null";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Set<Integer>> venuesByCell = new HashMap<Integer, Set<Integer>>();
+    private final Map<Integer, Integer> cellsByVenue = new HashMap<Integer, Integer>();
+    private boolean loaded = false;
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Returns the ids of all venues lying in grid cells that touch the given circle, or null if there are more than
+     * <code>limit</code> of them, in which case the caller is better off not restricting by id at all.
+     */
+    public List<Integer> findCandidates(Circle circle, int limit) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            List<Integer> candidates = new ArrayList<Integer>();
+            for (int cell : coveringCells(circle)) {
+                Set<Integer> venues = venuesByCell.get(cell);
+                if (venues != null) {
+                    if (candidates.size() + venues.size() > limit) {
+                        return null;
+                    }
+                    candidates.addAll(venues);
+                }
+            }
+            return candidates;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records the location of a venue once the current transaction commits. A venue without coordinates is removed.
+     */
+    public void put(final int venueId, final Double latitude, final Double longitude) {
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                apply(venueId, latitude, longitude);
+            }
+        });
+    }
+
+    /**
+     * Forgets a venue once the current transaction commits.
+     */
+    public void remove(final int venueId) {
+        put(venueId, null, null);
+    }
+
+    private void apply(int venueId, Double latitude, Double longitude) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                // The row will be picked up when the index is first loaded
+                return;
+            }
+            Integer oldCell = cellsByVenue.remove(venueId);
+            if (oldCell != null) {
+                Set<Integer> venues = venuesByCell.get(oldCell);
+                venues.remove(venueId);
+                if (venues.isEmpty()) {
+                    venuesByCell.remove(oldCell);
+                }
+            }
+            if (latitude != null && longitude != null) {
+                add(venueId, latitude, longitude);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(int venueId, double latitude, double longitude) {
+        int cell = cellOf(rowOf(latitude), columnOf(longitude));
+        Set<Integer> venues = venuesByCell.get(cell);
+        if (venues == null) {
+            venues = new HashSet<Integer>();
+            venuesByCell.put(cell, venues);
+        }
+        venues.add(venueId);
+        cellsByVenue.put(venueId, cell);
+    }
+
+    private void ensureLoaded() {
+        lock.readLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                jdbcTemplate.query(LOAD_SQL, new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        add(rs.getInt("id"), rs.getDouble("latitude"), rs.getDouble("longitude"));
+                    }
+                });
+                loaded = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Lists the cells overlapping the bounding box of the circle, wrapping around the antimeridian.
+     */
+    static List<Integer> coveringCells(Circle circle) {
+        BoundingBox box = new BoundingBox(circle);
+        int firstColumn = 0;
+        int columnCount = COLUMNS;
+        if (!box.coversAllLongitudes()) {
+            firstColumn = columnOf(box.west);
+            columnCount = (columnOf(box.east) - firstColumn + COLUMNS) % COLUMNS + 1;
+        }
+
+        List<Integer> cells = new ArrayList<Integer>();
+        for (int row = rowOf(box.south); row <= rowOf(box.north); row++) {
+            for (int i = 0; i < columnCount; i++) {
+                cells.add(cellOf(row, (firstColumn + i) % COLUMNS));
+            }
+        }
+        return cells;
+    }
+
+    static int rowOf(double latitude) {
+        int row = (int) Math.floor((latitude + 90) / CELL_SIZE);
+        return Math.max(0, Math.min(ROWS - 1, row));
+    }
+
+    static int columnOf(double longitude) {
+        int column = (int) Math.floor((longitude + 180) / CELL_SIZE);
+        return (column % COLUMNS + COLUMNS) % COLUMNS;
+    }
+
+    private static int cellOf(int row, int column) {
+        return row * COLUMNS + column;
+    }
+}
@@ -0,0 +1,374 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import edu.lmu.cs.wutup.ws.dao.util.Haversine;
+import edu.lmu.cs.wutup.ws.dao.util.TransactionCallbacks;
+
+/**
+ * An in-memory R-tree over venue locations, answering k-nearest-neighbor queries by best-first search. The tree is
+ * bulk loaded (Sort-Tile-Recursive) from the venue table on first use and is never modified in place. Venues created,
+ * moved or deleted since the last load are kept aside and searched linearly; once there are enough of them the tree is
+ * rebuilt from the current locations.
+ */
+@Component
+public class VenueRTree {
+
+    static final int NODE_CAPACITY = 16;
+    static final int MIN_REBUILD_THRESHOLD = 64;
+
+    private static final String LOAD_SQL = "select id, latitude, longitude from venue "
+            + "where latitude is not null and longitude is not null";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, double[]> locations = new HashMap<Integer, double[]>();
+    private final Set<Integer> changed = new HashSet<Integer>();
+    private Node root;
+    private boolean loaded = false;
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * A venue found by a nearest neighbor search, with its distance in miles from the search point.
+     */
+    public static class Neighbor {
+        public final int venueId;
+        public final double distance;
+
+        Neighbor(int venueId, double distance) {
+            this.venueId = venueId;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Returns the (at most) k venues closest to the given point, closest first. Ties are broken by venue id.
+     */
+    public List<Neighbor> findNearest(double latitude, double longitude, int k) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>(64, CANDIDATE_ORDER);
+            if (root != null) {
+                queue.add(new Candidate(0, root));
+            }
+            for (int venueId : changed) {
+                double[] location = locations.get(venueId);
+                if (location != null) {
+                    queue.add(new Candidate(Haversine.distanceInMiles(latitude, location[0], longitude,
+                            location[1]), venueId));
+                }
+            }
+
+            List<Neighbor> neighbors = new ArrayList<Neighbor>(k);
+            while (!queue.isEmpty() && neighbors.size() < k) {
+                Candidate candidate = queue.poll();
+                Node node = candidate.node;
+                if (node == null) {
+                    neighbors.add(new Neighbor(candidate.venueId, candidate.distance));
+                } else if (node.children == null) {
+                    for (int i = 0; i < node.venueIds.length; i++) {
+                        if (!changed.contains(node.venueIds[i])) {
+                            queue.add(new Candidate(Haversine.distanceInMiles(latitude, node.latitudes[i],
+                                    longitude, node.longitudes[i]), node.venueIds[i]));
+                        }
+                    }
+                } else {
+                    for (Node child : node.children) {
+                        queue.add(new Candidate(minimumDistance(latitude, longitude, child), child));
+                    }
+                }
+            }
+            return neighbors;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records the location of a venue once the current transaction commits. A venue without coordinates is removed.
+     */
+    public void put(final int venueId, final Double latitude, final Double longitude) {
+        TransactionCallbacks.runAfterCommit(new Runnable() {
+            public void run() {
+                apply(venueId, latitude, longitude);
+            }
+        });
+    }
+
+    /**
+     * Forgets a venue once the current transaction commits.
+     */
+    public void remove(int venueId) {
+        put(venueId, null, null);
+    }
+
+    private void apply(int venueId, Double latitude, Double longitude) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                // The row will be picked up when the tree is first loaded
+                return;
+            }
+            if (latitude != null && longitude != null) {
+                locations.put(venueId, new double[]{latitude, longitude});
+            } else {
+                locations.remove(venueId);
+            }
+            changed.add(venueId);
+            if (changed.size() > Math.max(MIN_REBUILD_THRESHOLD, locations.size() / 8)) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        lock.readLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                jdbcTemplate.query(LOAD_SQL, new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        locations.put(rs.getInt("id"), new double[]{rs.getDouble("latitude"),
+                                rs.getDouble("longitude")});
+                    }
+                });
+                rebuild();
+                loaded = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rebuild() {
+        List<Node> nodes = new ArrayList<Node>();
+        List<Map.Entry<Integer, double[]>> points = new ArrayList<Map.Entry<Integer, double[]>>(locations.entrySet());
+        for (List<Map.Entry<Integer, double[]>> group : tile(points, POINT_COORDINATES)) {
+            nodes.add(new Node(group));
+        }
+        while (nodes.size() > 1) {
+            List<Node> parents = new ArrayList<Node>();
+            for (List<Node> group : tile(nodes, NODE_COORDINATES)) {
+                parents.add(new Node(group.toArray(new Node[group.size()])));
+            }
+            nodes = parents;
+        }
+        root = nodes.isEmpty() ? null : nodes.get(0);
+        changed.clear();
+    }
+
+    /**
+     * Partitions items into groups of at most NODE_CAPACITY: items are sorted by longitude into vertical slices, and
+     * each slice is sorted by latitude and cut into groups.
+     */
+    private static <T> List<List<T>> tile(List<T> items, final Coordinates<T> coordinates) {
+        int groupCount = (items.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = (int) Math.ceil(Math.sqrt(groupCount)) * NODE_CAPACITY;
+
+        Collections.sort(items, new Comparator<T>() {
+            public int compare(T a, T b) {
+                return Double.compare(coordinates.longitude(a), coordinates.longitude(b));
+            }
+        });
+        List<List<T>> groups = new ArrayList<List<T>>();
+        for (int sliceStart = 0; sliceStart < items.size(); sliceStart += sliceSize) {
+            List<T> slice = items.subList(sliceStart, Math.min(sliceStart + sliceSize, items.size()));
+            Collections.sort(slice, new Comparator<T>() {
+                public int compare(T a, T b) {
+                    return Double.compare(coordinates.latitude(a), coordinates.latitude(b));
+                }
+            });
+            for (int groupStart = 0; groupStart < slice.size(); groupStart += NODE_CAPACITY) {
+                groups.add(new ArrayList<T>(slice.subList(groupStart, Math.min(groupStart + NODE_CAPACITY,
+                        slice.size()))));
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Returns a lower bound, in miles, on the distance from the point to anything inside the node's bounding box. If
+     * the point is east or west of the box, the closest point lies on one of its bounding meridians, either where the
+     * great circle through the point meets that meridian at a right angle or at a corner.
+     */
+    static double minimumDistance(double latitude, double longitude, Node node) {
+        if (longitude >= node.west && longitude <= node.east) {
+            if (latitude < node.south) {
+                return (node.south - latitude) / 180 * Math.PI * Haversine.radiusMiles;
+            } else if (latitude > node.north) {
+                return (latitude - node.north) / 180 * Math.PI * Haversine.radiusMiles;
+            }
+            return 0;
+        }
+        double meridian = nearerMeridian(longitude, node.west, node.east);
+        double cosineOfLongitudeDifference = Math.cos(Math.toRadians(longitude - meridian));
+        double closestLatitude;
+        if (cosineOfLongitudeDifference <= 0) {
+            closestLatitude = latitude > 0 ? 90 : -90;
+        } else {
+            closestLatitude = Math.toDegrees(Math.atan(Math.tan(Math.toRadians(latitude))
+                    / cosineOfLongitudeDifference));
+        }
+        if (closestLatitude > node.south && closestLatitude < node.north) {
+            return Haversine.distanceInMiles(latitude, closestLatitude, longitude, meridian);
+        }
+        return Math.min(Haversine.distanceInMiles(latitude, node.south, longitude, meridian),
+                Haversine.distanceInMiles(latitude, node.north, longitude, meridian));
+    }
+
+    /**
+     * Returns whichever of the two meridians is angularly closer to the longitude, going either way around the globe.
+     */
+    private static double nearerMeridian(double longitude, double west, double east) {
+        return Math.cos(Math.toRadians(longitude - west)) >= Math.cos(Math.toRadians(longitude - east)) ? west : east;
+    }
+
+    /**
+     * A node of the tree. Leaves hold venues, stored as parallel arrays; inner nodes hold children.
+     */
+    static final class Node {
+        final double south;
+        final double north;
+        final double west;
+        final double east;
+        final Node[] children;
+        final int[] venueIds;
+        final double[] latitudes;
+        final double[] longitudes;
+
+        Node(List<Map.Entry<Integer, double[]>> points) {
+            int size = points.size();
+            children = null;
+            venueIds = new int[size];
+            latitudes = new double[size];
+            longitudes = new double[size];
+            double s = 90, n = -90, w = 180, e = -180;
+            for (int i = 0; i < size; i++) {
+                venueIds[i] = points.get(i).getKey();
+                latitudes[i] = points.get(i).getValue()[0];
+                longitudes[i] = points.get(i).getValue()[1];
+                s = Math.min(s, latitudes[i]);
+                n = Math.max(n, latitudes[i]);
+                w = Math.min(w, longitudes[i]);
+                e = Math.max(e, longitudes[i]);
+            }
+            south = s;
+            north = n;
+            west = w;
+            east = e;
+        }
+
+        Node(Node[] children) {
+            this.children = children;
+            venueIds = null;
+            latitudes = null;
+            longitudes = null;
+            double s = 90, n = -90, w = 180, e = -180;
+            for (Node child : children) {
+                s = Math.min(s, child.south);
+                n = Math.max(n, child.north);
+                w = Math.min(w, child.west);
+                e = Math.max(e, child.east);
+            }
+            south = s;
+            north = n;
+            west = w;
+            east = e;
+        }
+    }
+
+    /**
+     * An entry in the best-first search queue: either a node, keyed by the distance to its bounding box, or a venue,
+     * keyed by its actual distance.
+     */
+    private static final class Candidate {
+        final double distance;
+        final Node node;
+        final int venueId;
+
+        Candidate(double distance, Node node) {
+            this.distance = distance;
+            this.node = node;
+            this.venueId = -1;
+        }
+
+        Candidate(double distance, int venueId) {
+            this.distance = distance;
+            this.node = null;
+            this.venueId = venueId;
+        }
+    }
+
+    // Venues come out before nodes at the same distance, and lower ids before higher ones
+    private static final Comparator<Candidate> CANDIDATE_ORDER = new Comparator<Candidate>() {
+        public int compare(Candidate a, Candidate b) {
+            int result = Double.compare(a.distance, b.distance);
+            if (result == 0 && (a.node == null) != (b.node == null)) {
+                result = a.node == null ? -1 : 1;
+            }
+            if (result == 0) {
+                result = a.venueId < b.venueId ? -1 : (a.venueId == b.venueId ? 0 : 1);
+            }
+            return result;
+        }
+    };
+
+    private interface Coordinates<T> {
+        double latitude(T item);
+
+        double longitude(T item);
+    }
+
+    private static final Coordinates<Map.Entry<Integer, double[]>> POINT_COORDINATES =
+            new Coordinates<Map.Entry<Integer, double[]>>() {
+                public double latitude(Map.Entry<Integer, double[]> point) {
+                    return point.getValue()[0];
+                }
+
+                public double longitude(Map.Entry<Integer, double[]> point) {
+                    return point.getValue()[1];
+                }
+            };
+
+    private static final Coordinates<Node> NODE_COORDINATES = new Coordinates<Node>() {
+        public double latitude(Node node) {
+            return (node.south + node.north) / 2;
+        }
+
+        public double longitude(Node node) {
+            return (node.west + node.east) / 2;
+        }
+    };
+}
@@ -8,7 +8,11 @@ public class Haversine {
     public static Double radiusKm = 6373.0;
     
     public static Double getDistanceInMiles(Double latA, Double latB, Double longA, Double longB) {
-        return computeHaversine(latA, latB, longA, longB) * radiusMiles;
+        return distanceInMiles(latA, latB, longA, longB);
+    }
+
+    public static double distanceInMiles(double latA, double latB, double longA, double longB) {
+        return haversine(latA, latB, longA, longB) * radiusMiles;
     }
     
     public static Double getDistanceInKilometers(Double latA, Double latB, Double longA, Double longB) {
@@ -16,6 +20,13 @@ public class Haversine {
     }
     
     public static Double computeHaversine(Double latA, Double latB, Double longA, Double longB) {
+        return haversine(latA, latB, longA, longB);
+    }
+
+    /**
+     * Returns the central angle in radians between two points, without boxing.
+     */
+    public static double haversine(double latA, double latB, double longA, double longB) {
         double latDiff = Math.toRadians(latB - latA);
         double longDiff = Math.toRadians(longB - longA);
         double latOrigin = Math.toRadians(latA);
@@ -24,4 +35,28 @@ public class Haversine {
                 Math.sin(longDiff / 2) * Math.sin(longDiff / 2) * Math.cos(latOrigin) * Math.cos(latDest);
         return 2 * Math.asin(Math.sqrt(a));
     }
+
+    /**
+     * The x coordinate of the point on the unit sphere at the given latitude and longitude, in degrees. Together with
+     * y and z, this lets the distance check of a circle search reduce to a dot product; see {@link #cosineOfRadius}.
+     */
+    public static double unitX(double latitude, double longitude) {
+        return Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(longitude));
+    }
+
+    public static double unitY(double latitude, double longitude) {
+        return Math.cos(Math.toRadians(latitude)) * Math.sin(Math.toRadians(longitude));
+    }
+
+    public static double unitZ(double latitude) {
+        return Math.sin(Math.toRadians(latitude));
+    }
+
+    /**
+     * Returns the cosine of the central angle spanned by the given distance in miles. A point lies within that
+     * distance of a center exactly when the dot product of their unit vectors is at least this value.
+     */
+    public static double cosineOfRadius(double radiusInMiles) {
+        return Math.cos(Math.min(Math.PI, radiusInMiles / radiusMiles));
+    }
 }
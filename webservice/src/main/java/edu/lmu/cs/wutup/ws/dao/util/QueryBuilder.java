@@ -2,52 +2,60 @@ package edu.lmu.cs.wutup.ws.dao.util;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.collections.map.MultiValueMap;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
-import org.joda.time.Interval;
 
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
 import edu.lmu.cs.wutup.ws.model.Circle;
+import edu.lmu.cs.wutup.ws.model.Cursor;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
 
 /**
  * QueryBuilder is a builder that constructs a SQL query. Where clauses represent conditions based on a particular
  * value; the resulting appended string follows Hibernate's format for supplying parameters (i.e., ":identifier"). The
  * functionality of this class is similar to that of Querydsl.
+ *
+ * Every value, including the page size and offset, is passed as a positional parameter, so the text of a query
+ * depends only on its shape: which tables, clauses and ordering it has. Built texts are cached by shape, so repeated
+ * searches hand the driver the same string and the builder does no string work beyond assembling the shape key.
+ * IN lists are padded to a power of two for the same reason.
  */
 public class QueryBuilder {
 
-    private Logger logger = Logger.getLogger(getClass());
+    /**
+     * Upper bound on the number of cached shapes and clause templates. Shapes come from code, not user input, so the
+     * bound is only a guard against a caller that builds clause text out of values; once it is reached, new shapes
+     * are built but not cached.
+     */
+    static final int MAX_CACHED_SHAPES = 1024;
+
+    private static final Logger logger = Logger.getLogger(QueryBuilder.class);
     // Parameters must start with a lowercase ASCII letter.
     private static final Pattern PARAMETER_PATTERN = Pattern.compile("(:[a-z]\\w*)");
-    private StringBuilder stringBuilder;
-    private StringBuilder appendBuilder;
-    private String select;
+    private static final String PAGINATION = " limit ? offset ?";
+    private static final ConcurrentMap<String, String> templates = new ConcurrentHashMap<String, String>();
+    private static final ConcurrentMap<List<Object>, String> queries = new ConcurrentHashMap<List<Object>, String>();
+
+    private List<String> select;
     private String from;
     private String order;
-    private String pagination;
-    private Map<String, Object> andParameters = new LinkedHashMap<String, Object>();
-    private Map<String, Object> orParameters = new LinkedHashMap<String, Object>();
-    private MultiValueMap joinByTypes = new MultiValueMap();
+    private Integer limit;
+    private int offset;
+    private List<Object> andParameters = new ArrayList<Object>();
+    private List<String> joins = new ArrayList<String>();
     private List<String> andClauses = new ArrayList<String>();
-    private List<String> orClauses = new ArrayList<String>();
+    private int alternatives = -1;
+    private String append;
     private String queryString;
 
-    /**
-     * Produces a new query builder.
-     */
-    public QueryBuilder() {
-        stringBuilder = new StringBuilder();
-        appendBuilder = new StringBuilder();
-    }
-
     /**
      * Throws an <code>IllegalStateException</code> if this builder has already built a query. Used to guard the build
      * operations.
@@ -69,17 +77,13 @@ public class QueryBuilder {
      */
     public QueryBuilder append(String text) {
         assertNotBuilt();
-        appendBuilder.append(text);
+        append = append == null ? text : append + text;
         return this;
     }
 
     public QueryBuilder select(String... fields) {
         assertNotBuilt();
-        select = "";
-        for (String field : fields) {
-            select += field + ", ";
-        }
-        select = select.substring(0, select.length() - 2);
+        select = Arrays.asList(fields);
         return this;
     }
 
@@ -92,8 +96,9 @@ public class QueryBuilder {
     private void addJoin(String type, String tableName, String joinCondition) {
         assertNotBuilt();
         if (type != null && tableName != null && joinCondition != null) {
-            joinByTypes.put(type, tableName);
-            joinByTypes.put(type, joinCondition);
+            joins.add(type);
+            joins.add(tableName);
+            joins.add(joinCondition);
         }
     }
 
@@ -113,60 +118,167 @@ public class QueryBuilder {
         return this;
     }
 
+    /**
+     * Adds a clause as an alternative to the one added just before it, so that <code>where(a).where(b).orWhere(c)</code>
+     * reads "a and (b or c)" and the clauses before the group still all have to hold. Further calls add to the same
+     * group. With no clause before it, the clause stands alone.
+     */
     public QueryBuilder orWhere(String condition, Object paramValue) {
         assertNotBuilt();
         if (paramValue != null) {
-            String paramValueString = paramValue.toString();
-            Matcher matcher = PARAMETER_PATTERN.matcher(condition);
-            if (matcher.find()) {
-                orParameters.put(matcher.group(1), paramValueString);
+            String clause = template(condition);
+            int last = andClauses.size() - 1;
+            if (last < 0) {
+                andClauses.add(clause);
+            } else if (alternatives == last) {
+                String group = andClauses.get(last);
+                andClauses.set(last, group.substring(0, group.length() - 1) + " or " + clause + ")");
+            } else {
+                andClauses.set(last, "(" + andClauses.get(last) + " or " + clause + ")");
+                alternatives = last;
             }
-            condition = condition.replace(matcher.group(1), "?");
-            orClauses.add(condition);
+            andParameters.add(paramValue.toString());
         }
         return this;
     }
 
     /**
-     * Adds a clause to the list of clauses, finding at most one named parameter within the clause, and adding it and
-     * its associated value to the parameter map. For example, calling <code>clause(":x > 5", 10)</code> will add the
-     * clause ":x > 5" to clauses, and the mapping <code>["x" => 10]</code> to map.
+     * Adds a clause to the list of clauses, replacing at most one named parameter within the clause with a positional
+     * one, and adding its value to the parameter list. For example, calling <code>where(":x > 5", 10)</code> will add
+     * the clause "? > 5" to clauses, and 10 to the parameters.
      */
     public QueryBuilder where(String condition, Object paramValue) {
         assertNotBuilt();
         if (paramValue != null) {
-            String paramValueString = paramValue.toString();
+            andClauses.add(template(condition));
+            andParameters.add(paramValue.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Returns the condition with its named parameter replaced by "?". Conditions are nearly always literals, so the
+     * regular expression runs once per distinct condition rather than once per query.
+     */
+    private static String template(String condition) {
+        String template = templates.get(condition);
+        if (template == null) {
             Matcher matcher = PARAMETER_PATTERN.matcher(condition);
-            if (matcher.find()) {
-                andParameters.put(matcher.group(1), paramValueString);
+            template = matcher.find() ? condition.replace(matcher.group(1), "?") : condition;
+            if (templates.size() < MAX_CACHED_SHAPES) {
+                templates.putIfAbsent(condition, template);
             }
-            condition = condition.replace(matcher.group(1), "?");
-            andClauses.add(condition);
+        }
+        return template;
+    }
+
+    /**
+     * Adds a clause restricting the field to one of the given values, with one positional parameter per value. An
+     * empty collection matches nothing. The list of parameters is padded to the next power of two by repeating the
+     * last value, so that lists of similar sizes share one query text.
+     */
+    public QueryBuilder whereIn(String field, Collection<?> values) {
+        assertNotBuilt();
+        if (values != null) {
+            if (values.isEmpty()) {
+                andClauses.add("1 = 0");
+                return this;
+            }
+            int size = Integer.highestOneBit(values.size());
+            size = size == values.size() ? size : size << 1;
+            StringBuilder clause = new StringBuilder(field.length() + 6 + 3 * size).append(field).append(" in (");
+            Object last = null;
+            for (Iterator<?> i = values.iterator(); i.hasNext();) {
+                last = i.next();
+                andParameters.add(last);
+            }
+            for (int i = 0; i < size; i++) {
+                clause.append(i == 0 ? "?" : ", ?");
+            }
+            for (int i = values.size(); i < size; i++) {
+                andParameters.add(last);
+            }
+            andClauses.add(clause.append(")").toString());
         }
         return this;
     }
 
+    /**
+     * Restricts venue "v" to the given circle. A latitude/longitude bounding box is emitted ahead of the exact distance
+     * check so that the database can narrow the rows down with the index on venue(latitude, longitude). The exact check
+     * compares the dot product of the stored unit vector of the venue and that of the center with the cosine of the
+     * radius, which needs no function calls per row.
+     */
     public QueryBuilder whereCircle(Circle c) {
+        return whereCircle("v", c);
+    }
+
+    /**
+     * Restricts the table with the given alias, which has the location columns of a venue, to the given circle.
+     */
+    public QueryBuilder whereCircle(String table, Circle c) {
+        assertNotBuilt();
         if (c != null) {
-            return this.where("get_distance_miles(v.latitude, " + c.centerLatitude + ", v.longitude, "
-                    + c.centerLongitude + ") <= :radius", c.radius);
-        } else {
-            return this;
+            BoundingBox box = new BoundingBox(c);
+            andClauses.add(table + ".latitude between ? and ?");
+            andParameters.add(box.south);
+            andParameters.add(box.north);
+            if (box.crossesAntimeridian()) {
+                andClauses.add("(" + table + ".longitude >= ? or " + table + ".longitude <= ?)");
+                andParameters.add(box.west);
+                andParameters.add(box.east);
+            } else if (!box.coversAllLongitudes()) {
+                andClauses.add(table + ".longitude between ? and ?");
+                andParameters.add(box.west);
+                andParameters.add(box.east);
+            }
+            andClauses.add(table + ".x * ? + " + table + ".y * ? + " + table + ".z * ? >= ?");
+            andParameters.add(Haversine.unitX(c.centerLatitude, c.centerLongitude));
+            andParameters.add(Haversine.unitY(c.centerLatitude, c.centerLongitude));
+            andParameters.add(Haversine.unitZ(c.centerLatitude));
+            andParameters.add(Haversine.cosineOfRadius(c.radius));
         }
+        return this;
     }
 
-    public QueryBuilder whereInterval(Interval i) {
+    /**
+     * Restricts the query to the rows after the given key, for keyset pagination of a query ordered by the key column,
+     * ascending or descending, and then by the id column, ascending. Either column may be left out by passing a null
+     * value, in which case the query is ordered by the other alone.
+     */
+    public QueryBuilder whereAfter(String keyColumn, Object key, String idColumn, Object id, boolean descending) {
         assertNotBuilt();
-        if (i != null) {
-            Timestamp startStamp = new Timestamp(i.getStartMillis());
-            Timestamp endStamp = new Timestamp(i.getEndMillis());
+        String after = descending ? " < ?" : " > ?";
+        if (key != null && id != null) {
+            andClauses.add("(" + keyColumn + after + " or (" + keyColumn + " = ? and " + idColumn + " > ?))");
+            andParameters.add(key);
+            andParameters.add(key);
+            andParameters.add(id);
+        } else if (key != null) {
+            andClauses.add(keyColumn + after);
+            andParameters.add(key);
+        } else if (id != null) {
+            andClauses.add(idColumn + " > ?");
+            andParameters.add(id);
+        }
+        return this;
+    }
+
+    /**
+     * Restricts the query to the rows after the cursor, if there is one, for a query ordered by id alone.
+     */
+    public QueryBuilder whereAfter(String idColumn, Cursor c) {
+        return whereAfter(null, idColumn, c, false);
+    }
 
-            andClauses.add("start between ? and ?");
-            andClauses.add("end between ? and ?");
-            andParameters.put(":start1", startStamp);
-            andParameters.put(":end1", endStamp);
-            andParameters.put(":start2", startStamp);
-            andParameters.put(":end2", endStamp);
+    /**
+     * Restricts the query to the rows after the cursor, if there is one, for a query ordered by the time column and
+     * then the id column.
+     */
+    public QueryBuilder whereAfter(String timeColumn, String idColumn, Cursor c, boolean descending) {
+        if (c != null) {
+            Timestamp time = timeColumn != null && c.time != null ? new Timestamp(c.time) : null;
+            whereAfter(timeColumn, time, idColumn, c.id, descending);
         }
         return this;
     }
@@ -175,73 +287,128 @@ public class QueryBuilder {
         return this.where("lower(" + field + ") like lower(:" + paramName + ")", "%" + paramValue.toString() + "%");
     }
 
+    /**
+     * Limits the query to one page. The page size and offset are the last two parameters.
+     */
     public QueryBuilder addPagination(PaginationData p) {
         assertNotBuilt();
         if (p != null) {
-            pagination = "limit " + p.pageSize + " offset " + p.pageSize * p.pageNumber;
+            limit = p.pageSize;
+            offset = p.pageSize * p.pageNumber;
         }
         return this;
     }
 
     /**
-     * Puts the base string, the clauses, and the parameters all together into a query object.
+     * Limits the query to its first rows, however many are needed. The limit and an offset of 0 are the last two
+     * parameters, as for a page.
+     */
+    public QueryBuilder addLimit(int limit) {
+        assertNotBuilt();
+        this.limit = limit;
+        this.offset = 0;
+        return this;
+    }
+
+    /**
+     * Puts the base string, the clauses, and the parameters all together into a query object. The text is looked up
+     * by the shape of the query, and only assembled the first time that shape is seen.
      */
-    @SuppressWarnings("unchecked")
     public String build() {
         assertValidQuery();
-        stringBuilder.append("select " + (select != null ? select : "*")).append(" from " + from);
-
-        if (!joinByTypes.isEmpty()) {
-            // TODO: Ask for help correcting type-safety warnings below
-            Set<String> keySet = joinByTypes.keySet();
-            for (Object key : keySet) {
-                ArrayList<String> a = (ArrayList<String>) joinByTypes.getCollection(key);
-                for (int i = 0; i < a.size(); i += 2) {
-                    stringBuilder.append(" " + key + " " + a.get(i) + " on (" + a.get(i + 1) + ")");
+        if (queryString == null) {
+            List<Object> shape = shape();
+            String query = queries.get(shape);
+            if (query == null) {
+                query = assemble();
+                if (queries.size() < MAX_CACHED_SHAPES) {
+                    String previous = queries.putIfAbsent(shape, query);
+                    query = previous != null ? previous : query;
                 }
             }
+            queryString = query;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("QUERY: " + queryString + " PARAMS: " + getParameters());
+        }
+        return queryString;
+    }
+
+    /**
+     * Returns the parts of the query other than its parameter values. Two builders with equal shapes build the same
+     * text.
+     */
+    private List<Object> shape() {
+        List<Object> shape = new ArrayList<Object>(8 + joins.size() + andClauses.size());
+        shape.add(select);
+        shape.add(from);
+        shape.addAll(joins);
+        shape.addAll(andClauses);
+        shape.add(order);
+        shape.add(limit != null);
+        shape.add(append);
+        return shape;
+    }
+
+    private String assemble() {
+        StringBuilder builder = new StringBuilder(256).append("select ");
+        if (select != null) {
+            for (int i = 0; i < select.size(); i++) {
+                builder.append(i == 0 ? "" : ", ").append(select.get(i));
+            }
+        } else {
+            builder.append("*");
+        }
+        builder.append(" from ").append(from);
+
+        for (int i = 0; i < joins.size(); i += 3) {
+            builder.append(' ').append(joins.get(i)).append(' ').append(joins.get(i + 1))
+                    .append(" on (").append(joins.get(i + 2)).append(')');
         }
 
         boolean first = true;
         for (String clause : andClauses) {
-            stringBuilder.append(first ? " where " : " and ").append(clause);
-            first = false;
-        }
-        for (String clause : orClauses) {
-            stringBuilder.append(first ? " where " : " or ").append(clause);
+            builder.append(first ? " where " : " and ").append(clause);
             first = false;
         }
 
         if (order != null) {
-            stringBuilder.append(" order by " + order);
+            builder.append(" order by ").append(order);
         }
-
-        if (pagination != null) {
-            stringBuilder.append(" " + pagination);
+        if (limit != null) {
+            builder.append(PAGINATION);
+        }
+        if (append != null) {
+            builder.append(append);
         }
-        stringBuilder.append(appendBuilder.toString());
-        logger.info("QUERY: " + getQueryString() + " PARAMS: " + getParameters());
-        return getQueryString();
+        return builder.toString();
     }
 
     /**
-     * Returns the query string that has been built so far.
+     * Returns the query string that has been built, or null if the query has not been built yet.
      */
     public String getQueryString() {
-        return stringBuilder.toString();
+        return queryString;
     }
 
     /**
-     * Retrieves the query parameters that have been added so far.
+     * Retrieves the query parameters that have been added so far, in the order of their placeholders.
      */
-    public Map<String, Object> getParameters() {
-        Map<String, Object> parameters = new LinkedHashMap<String, Object>();
-        parameters.putAll(andParameters);
-        parameters.putAll(orParameters);
-        return parameters;
+    public List<Object> getParameters() {
+        return Arrays.asList(getParametersArray());
     }
 
     public Object[] getParametersArray() {
-        return ArrayUtils.addAll(andParameters.values().toArray(), orParameters.values().toArray());
+        int size = andParameters.size();
+        Object[] parameters = new Object[limit != null ? size + 2 : size];
+        int i = 0;
+        for (Object parameter : andParameters) {
+            parameters[i++] = parameter;
+        }
+        if (limit != null) {
+            parameters[i++] = limit;
+            parameters[i] = offset;
+        }
+        return parameters;
     }
 }
@@ -0,0 +1,25 @@
+package edu.lmu.cs.wutup.ws.dao.util;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Helpers for keeping in-memory structures in step with the database. Changes registered here are applied only once
+ * the surrounding transaction commits, so a rolled back write never leaks into an index. Outside of a transaction the
+ * change is applied immediately.
+ */
+public class TransactionCallbacks {
+
+    public static void runAfterCommit(final Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+}
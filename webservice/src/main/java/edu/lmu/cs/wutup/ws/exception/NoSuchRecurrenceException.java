@@ -0,0 +1,6 @@
+package edu.lmu.cs.wutup.ws.exception;
+
+public class NoSuchRecurrenceException extends RuntimeException {
+
+    private static final long serialVersionUID = 2950478632745871204L;
+}
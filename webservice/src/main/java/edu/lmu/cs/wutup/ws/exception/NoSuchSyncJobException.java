@@ -0,0 +1,7 @@
+package edu.lmu.cs.wutup.ws.exception;
+
+public class NoSuchSyncJobException extends RuntimeException {
+
+    private static final long serialVersionUID = 3862950721348570419L;
+
+}
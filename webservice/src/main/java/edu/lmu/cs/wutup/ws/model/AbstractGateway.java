@@ -1,38 +1,143 @@
 package edu.lmu.cs.wutup.ws.model;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.ParseException;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
 
+/**
+ * Base for the gateways to outside HTTP APIs. All of them share one thread-safe client whose pooled connections are
+ * kept alive between calls, so most calls skip the TCP and TLS handshakes. Every response body is read or discarded
+ * before returning, which is what hands its connection back to the pool.
+ */
 public abstract class AbstractGateway {
 
-    protected static HttpEntity executeGetRequest(String url) throws ClientProtocolException, IOException {
-        HttpClient httpclient = new DefaultHttpClient();
-        HttpGet httpget = new HttpGet(url);
-        HttpResponse response = httpclient.execute(httpget);
-        HttpEntity entity = response.getEntity();
-        
-        return entity;
-    }
-    
-    protected static HttpEntity executePostRequest(String url) throws ClientProtocolException, IOException {
-        HttpClient httpclient = new DefaultHttpClient();
-        HttpPost httppost = new HttpPost(url);
-        HttpResponse response = httpclient.execute(httppost);
-        HttpEntity entity = response.getEntity();
-        
-        return entity;
-    }
-    
-    protected static String stringifyEntity(HttpEntity entity) throws ParseException, IOException {
-        return EntityUtils.toString(entity);
+    static final int MAX_CONNECTIONS = 40;
+    static final int MAX_CONNECTIONS_PER_ROUTE = 10;
+    static final int MAX_CONNECTIONS_PER_API_ROUTE = 20;
+    static final String[] API_HOSTS = {"maps.googleapis.com", "graph.facebook.com"};
+    static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    static final int SOCKET_TIMEOUT_MILLIS = 10000;
+
+    // Servers that don't say how long to keep a connection open may close it first, so don't count on more than this
+    static final long MAX_KEEP_ALIVE_MILLIS = 30000;
+
+    private static final Logger logger = Logger.getLogger(AbstractGateway.class);
+
+    private static final PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+    private static final HttpClient httpclient = createClient();
+
+    private static HttpClient createClient() {
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+        for (String host : API_HOSTS) {
+            connectionManager.setMaxPerRoute(routeTo(httpsUri(host)), MAX_CONNECTIONS_PER_API_ROUTE);
+        }
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT_MILLIS);
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT_MILLIS);
+
+        DefaultHttpClient client = new DefaultHttpClient(connectionManager, params);
+        client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                return duration > 0 && duration < MAX_KEEP_ALIVE_MILLIS ? duration : MAX_KEEP_ALIVE_MILLIS;
+            }
+        });
+        return client;
+    }
+
+    /**
+     * Returns the number of connections leased, waiting to be leased, and available, over all hosts.
+     */
+    public static PoolStats poolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Returns the same numbers for connections to one host over HTTPS.
+     */
+    public static PoolStats poolStats(String host) {
+        return connectionManager.getStats(routeTo(httpsUri(host)));
+    }
+
+    /**
+     * Returns how the pool is being used over all hosts, followed by each of the API hosts, for the status resource.
+     */
+    public static List<ConnectionPoolStatus> poolStatus() {
+        List<ConnectionPoolStatus> status = new ArrayList<ConnectionPoolStatus>();
+        status.add(new ConnectionPoolStatus(null, poolStats()));
+        for (String host : API_HOSTS) {
+            status.add(new ConnectionPoolStatus(host, poolStats(host)));
+        }
+        return status;
+    }
+
+    /**
+     * Returns the route the client takes to the URI, which is direct, to the host and port as written in the URI.
+     */
+    static HttpRoute routeTo(URI uri) {
+        return new HttpRoute(URIUtils.extractHost(uri), null, "https".equalsIgnoreCase(uri.getScheme()));
+    }
+
+    private static URI httpsUri(String host) {
+        return URI.create("https://" + host + "/");
+    }
+
+    protected static String executeGetRequest(String url) throws ClientProtocolException, IOException {
+        return execute(new HttpGet(url));
+    }
+
+    protected static String executePostRequest(String url) throws ClientProtocolException, IOException {
+        return execute(new HttpPost(url));
+    }
+
+    /**
+     * Returns the body of the response, whatever its status. Connections left idle longer than they may be kept alive
+     * are closed first, so that a dead one isn't leased.
+     */
+    private static String execute(HttpRequestBase request) throws ClientProtocolException, IOException {
+        connectionManager.closeExpiredConnections();
+        try {
+            HttpResponse response = httpclient.execute(request);
+            try {
+                return response.getEntity() != null ? EntityUtils.toString(response.getEntity()) : "";
+            } finally {
+                EntityUtils.consume(response.getEntity());
+            }
+        } catch (IOException e) {
+            // The connection may be half read, so drop it rather than return it to the pool
+            request.abort();
+            throw e;
+        } catch (RuntimeException e) {
+            request.abort();
+            throw e;
+        } finally {
+            if (logger.isDebugEnabled()) {
+                logger.debug(request.getURI().getHost() + " pool: "
+                        + connectionManager.getStats(routeTo(request.getURI())));
+            }
+        }
     }
 }
@@ -0,0 +1,39 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import com.google.common.base.Objects;
+
+/**
+ * A user attending an event occurrence, as one row of a bulk registration.
+ */
+public class Attendance {
+
+    public final int occurrenceId;
+    public final int userId;
+
+    public Attendance(int occurrenceId, int userId) {
+        this.occurrenceId = occurrenceId;
+        this.userId = userId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(occurrenceId, userId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Attendance)) {
+            return false;
+        }
+        Attendance other = Attendance.class.cast(obj);
+        return occurrenceId == other.occurrenceId && userId == other.userId;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("occurrenceId", occurrenceId)
+                .add("userId", userId)
+                .toString();
+    }
+}
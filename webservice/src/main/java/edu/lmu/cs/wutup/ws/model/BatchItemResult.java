@@ -0,0 +1,78 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.google.common.base.Objects;
+
+/**
+ * What happened to one item of a batch request: the HTTP status it would have had on its own, and either the id of
+ * what was created or the reason it was not.
+ */
+@XmlRootElement(name = "result")
+public class BatchItemResult {
+
+    private Integer id;
+    private int status;
+    private String error;
+
+    public BatchItemResult() {
+        // No-arg constructor, needed for annotations
+    }
+
+    public BatchItemResult(Integer id, int status, String error) {
+        this.id = id;
+        this.status = status;
+        this.error = error;
+    }
+
+    @XmlElement
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    @XmlElement
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    @XmlElement
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id, status, error);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BatchItemResult)) {
+            return false;
+        }
+        BatchItemResult other = BatchItemResult.class.cast(obj);
+        return Objects.equal(id, other.id) && status == other.status && Objects.equal(error, other.error);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("id", id)
+                .add("status", status)
+                .add("error", error)
+                .toString();
+    }
+}
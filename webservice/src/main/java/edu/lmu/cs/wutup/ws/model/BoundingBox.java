@@ -0,0 +1,109 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import edu.lmu.cs.wutup.ws.dao.util.Haversine;
+
+/**
+ * A latitude/longitude rectangle. When the box crosses the antimeridian, west is greater than east.
+ *
+ * A box can enclose a search circle, in which case anything outside the box is certainly outside the circle and the
+ * box serves as a cheap, indexable prefilter in front of the exact distance check. Longitudes are then widened
+ * according to the latitude of the center, and a circle reaching a pole gives a box spanning every longitude.
+ */
+public class BoundingBox {
+
+    private static final String BAD_LATITUDE = "Latitude out of range: %s";
+    private static final String BAD_LONGITUDE = "Longitude out of range: %s";
+    private static final String INVERTED_LATITUDES = "South %s is north of north %s";
+
+    public final double south;
+    public final double north;
+    public final double west;
+    public final double east;
+
+    public BoundingBox(double south, double west, double north, double east) {
+        Preconditions.checkArgument(south >= -90 && south <= 90, BAD_LATITUDE, south);
+        Preconditions.checkArgument(north >= -90 && north <= 90, BAD_LATITUDE, north);
+        Preconditions.checkArgument(west >= -180 && west <= 180, BAD_LONGITUDE, west);
+        Preconditions.checkArgument(east >= -180 && east <= 180, BAD_LONGITUDE, east);
+        Preconditions.checkArgument(south <= north, INVERTED_LATITUDES, south, north);
+
+        this.south = south;
+        this.west = west;
+        this.north = north;
+        this.east = east;
+    }
+
+    public BoundingBox(Circle circle) {
+        double angularRadius = circle.radius / Haversine.radiusMiles;
+        double latitudeSpan = Math.toDegrees(angularRadius);
+        double lowest = circle.centerLatitude - latitudeSpan;
+        double highest = circle.centerLatitude + latitudeSpan;
+
+        if (lowest <= -90 || highest >= 90) {
+            west = -180;
+            east = 180;
+        } else {
+            double longitudeSpan = Math.toDegrees(Math.asin(Math.sin(angularRadius)
+                    / Math.cos(Math.toRadians(circle.centerLatitude))));
+            if (longitudeSpan >= 180) {
+                west = -180;
+                east = 180;
+            } else {
+                west = normalizeLongitude(circle.centerLongitude - longitudeSpan);
+                east = normalizeLongitude(circle.centerLongitude + longitudeSpan);
+            }
+        }
+        south = Math.max(-90, lowest);
+        north = Math.min(90, highest);
+    }
+
+    /**
+     * Returns whether the box spans every longitude, in which case only the latitudes restrict anything.
+     */
+    public boolean coversAllLongitudes() {
+        return west == -180 && east == 180;
+    }
+
+    /**
+     * Returns whether the box wraps around from 180 to -180 degrees of longitude.
+     */
+    public boolean crossesAntimeridian() {
+        return west > east;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(south, west, north, east);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BoundingBox)) {
+            return false;
+        }
+        BoundingBox other = BoundingBox.class.cast(obj);
+        return south == other.south && west == other.west && north == other.north && east == other.east;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("south", south)
+                .add("west", west)
+                .add("north", north)
+                .add("east", east)
+                .toString();
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        if (longitude > 180) {
+            return longitude - 360;
+        } else if (longitude < -180) {
+            return longitude + 360;
+        }
+        return longitude;
+    }
+}
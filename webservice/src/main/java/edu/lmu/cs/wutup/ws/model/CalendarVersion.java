@@ -0,0 +1,45 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Objects;
+
+/**
+ * How many times a user's calendar feed may have changed, and when it last did.
+ */
+public class CalendarVersion {
+
+    public final int userId;
+    public final int version;
+    public final DateTime lastModified;
+
+    public CalendarVersion(int userId, int version, DateTime lastModified) {
+        this.userId = userId;
+        this.version = version;
+        this.lastModified = lastModified;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(userId, version, lastModified);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CalendarVersion)) {
+            return false;
+        }
+        CalendarVersion other = CalendarVersion.class.cast(obj);
+        return userId == other.userId && version == other.version
+                && Objects.equal(lastModified, other.lastModified);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("userId", userId)
+                .add("version", version)
+                .add("lastModified", lastModified)
+                .toString();
+    }
+}
@@ -0,0 +1,78 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.apache.http.pool.PoolStats;
+
+import com.google.common.base.Objects;
+
+/**
+ * How the gateways' pooled connections to one host, or to all of them when there is no host, are being used.
+ */
+@XmlRootElement(name = "connectionPool")
+public class ConnectionPoolStatus {
+
+    private String host;
+    private int leased;
+    private int pending;
+    private int available;
+    private int max;
+
+    public ConnectionPoolStatus() {
+        // No-arg constructor, needed for annotations
+    }
+
+    public ConnectionPoolStatus(String host, PoolStats stats) {
+        this.host = host;
+        this.leased = stats.getLeased();
+        this.pending = stats.getPending();
+        this.available = stats.getAvailable();
+        this.max = stats.getMax();
+    }
+
+    @XmlElement
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the number of connections in use.
+     */
+    @XmlElement
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * Returns the number of requests waiting for a connection, which stays above zero when the pool is too small.
+     */
+    @XmlElement
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Returns the number of idle connections kept alive for the next request.
+     */
+    @XmlElement
+    public int getAvailable() {
+        return available;
+    }
+
+    @XmlElement
+    public int getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("host", host)
+                .add("leased", leased)
+                .add("pending", pending)
+                .add("available", available)
+                .add("max", max)
+                .toString();
+    }
+}
@@ -0,0 +1,132 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import java.nio.charset.Charset;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * The sort key of the last item of a page, so that the next page can start right after it rather than skip over an
+ * offset. Lists ordered by id only need the id; those ordered by time or distance also carry that value, with the id
+ * breaking ties. When the last item was an expanded instance of a recurring series, which has no id of its own, the id
+ * is that of the series.
+ *
+ * Clients see cursors only as opaque URL-safe tokens, made by <code>encode</code> and read back by
+ * <code>decode</code>.
+ */
+public class Cursor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String BAD_CURSOR = "Malformed cursor: %s";
+
+    public final int id;
+    public final Long time;
+    public final Double distance;
+    public final boolean instance;
+
+    public Cursor(int id, Long time, Double distance, boolean instance) {
+        this.id = id;
+        this.time = time;
+        this.distance = distance;
+        this.instance = instance;
+    }
+
+    public static Cursor afterId(int id) {
+        return new Cursor(id, null, null, false);
+    }
+
+    public static Cursor afterTime(long time, int id) {
+        return new Cursor(id, time, null, false);
+    }
+
+    /**
+     * Returns the cursor just after the given occurrence, including its distance if it has one.
+     */
+    public static Cursor after(EventOccurrence o) {
+        Long start = o.getStart() != null ? o.getStart().getMillis() : null;
+        return o.getId() != null ? new Cursor(o.getId(), start, o.getDistance(), false)
+                : new Cursor(o.getRecurrenceId(), start, o.getDistance(), true);
+    }
+
+    /**
+     * Returns the cursor as a token of the form <code>id[,t&lt;time&gt;][,d&lt;distance&gt;][,s]</code>, base64
+     * encoded with the URL-safe alphabet and no padding.
+     */
+    public String encode() {
+        StringBuilder text = new StringBuilder().append(id);
+        if (time != null) {
+            text.append(",t").append(time);
+        }
+        if (distance != null) {
+            text.append(",d").append(distance);
+        }
+        if (instance) {
+            text.append(",s");
+        }
+        return DatatypeConverter.printBase64Binary(text.toString().getBytes(UTF_8)).replace('+', '-')
+                .replace('/', '_').replace("=", "");
+    }
+
+    /**
+     * Reads a token made by <code>encode</code>.
+     *
+     * @throws IllegalArgumentException
+     *             if the token is not a cursor.
+     */
+    public static Cursor decode(String token) {
+        Preconditions.checkArgument(token != null && token.matches("[A-Za-z0-9_-]+"), BAD_CURSOR, token);
+        StringBuilder base64 = new StringBuilder(token.replace('-', '+').replace('_', '/'));
+        while (base64.length() % 4 != 0) {
+            base64.append('=');
+        }
+        String[] parts = new String(DatatypeConverter.parseBase64Binary(base64.toString()), UTF_8).split(",");
+        try {
+            int id = Integer.parseInt(parts[0]);
+            Long time = null;
+            Double distance = null;
+            boolean instance = false;
+            for (int i = 1; i < parts.length; i++) {
+                String part = parts[i];
+                if (part.startsWith("t") && time == null) {
+                    time = Long.valueOf(part.substring(1));
+                } else if (part.startsWith("d") && distance == null) {
+                    distance = Double.valueOf(part.substring(1));
+                } else if (part.equals("s")) {
+                    instance = true;
+                } else {
+                    throw new IllegalArgumentException(String.format(BAD_CURSOR, token));
+                }
+            }
+            return new Cursor(id, time, distance, instance);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format(BAD_CURSOR, token), e);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id, time, distance, instance);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Cursor)) {
+            return false;
+        }
+        Cursor other = Cursor.class.cast(obj);
+        return id == other.id && Objects.equal(time, other.time) && Objects.equal(distance, other.distance)
+                && instance == other.instance;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("id", id)
+                .add("time", time)
+                .add("distance", distance)
+                .add("instance", instance)
+                .toString();
+    }
+}
@@ -5,6 +5,8 @@ import java.util.ArrayList;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
 import org.joda.time.DateTime;
 
 import com.google.common.base.Objects;
@@ -19,6 +21,9 @@ public class EventOccurrence implements Commentable {
     private DateTime end;
     private ArrayList<User> attendees;
     private ArrayList<Comment> comments;
+    private Double distance;
+    private Integer recurrenceId;
+    private DateTime recurrenceStart;
 
     public EventOccurrence() {
         // No-arg constructor required for annotations
@@ -93,6 +98,46 @@ public class EventOccurrence implements Commentable {
         this.end = end;
     }
 
+    /**
+     * The distance in miles from the center of the search that found this occurrence, when sorting by distance.
+     */
+    @XmlElement
+    @JsonSerialize(include = Inclusion.NON_NULL)
+    public Double getDistance() {
+        return distance;
+    }
+
+    public void setDistance(Double distance) {
+        this.distance = distance;
+    }
+
+    /**
+     * The recurring series this occurrence belongs to, if any. Instances expanded from a series have no id of their
+     * own; a stored occurrence with a series and an instance start replaces that instance.
+     */
+    @XmlElement
+    @JsonSerialize(include = Inclusion.NON_NULL)
+    public Integer getRecurrenceId() {
+        return recurrenceId;
+    }
+
+    public void setRecurrenceId(Integer recurrenceId) {
+        this.recurrenceId = recurrenceId;
+    }
+
+    /**
+     * The start of the series instance this occurrence is, or replaces.
+     */
+    @XmlElement
+    @JsonSerialize(include = Inclusion.NON_NULL)
+    public DateTime getRecurrenceStart() {
+        return recurrenceStart;
+    }
+
+    public void setRecurrenceStart(DateTime recurrenceStart) {
+        this.recurrenceStart = recurrenceStart;
+    }
+
     @XmlElement(name = "attendees")
     public ArrayList<User> getAttendees() {
         return this.attendees;
@@ -124,7 +169,8 @@ public class EventOccurrence implements Commentable {
 
     @Override
     public int hashCode() {
-        return this.id;
+        // Instances expanded from a recurring series have no id
+        return this.id != null ? this.id : 0;
     }
 
     @Override
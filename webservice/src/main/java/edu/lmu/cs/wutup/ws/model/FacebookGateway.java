@@ -19,16 +19,21 @@ import edu.lmu.cs.wutup.ws.exception.RequiredFBNameOrStartTimeMissingException;
 
 public class FacebookGateway extends AbstractGateway {
     public static String acquireAccessToken(String code, String redirectUri) throws ClientProtocolException, IOException {
-        return stringifyEntity(executeGetRequest(constructAccessTokenLandingUrl(code, redirectUri)));
+        return executeGetRequest(constructAccessTokenLandingUrl(code, redirectUri));
     }
 
     public static String acquireUserEvents(String accessToken) throws ParseException, ClientProtocolException,
             IOException {
-        return stringifyEntity(executeGetRequest(constructGetEventsUrl(accessToken)));
+        return executeGetRequest(constructGetEventsUrl(accessToken));
+    }
+
+    public static String acquireUserEvents(String accessToken, DateTime since) throws ParseException,
+            ClientProtocolException, IOException {
+        return executeGetRequest(constructGetEventsUrl(accessToken, since));
     }
 
     public static String acquireResource(String accessToken, String fbResourceId) throws ParseException, ClientProtocolException, IOException {
-        return stringifyEntity(executeGetRequest(constructGetResourceByIdUrl(accessToken, fbResourceId)));
+        return executeGetRequest(constructGetResourceByIdUrl(accessToken, fbResourceId));
     }
     
     public static String createUserEvent(String accessToken, String userFBId, String name, DateTime start,
@@ -48,8 +53,8 @@ public class FacebookGateway extends AbstractGateway {
             throw new RequiredFBNameOrStartTimeMissingException();
         }
 
-        return stringifyEntity(executePostRequest(constructPostEventUrl(accessToken, userFBId, name, start, end, description,
-                location, FBLocationId, privacyType)));
+        return executePostRequest(constructPostEventUrl(accessToken, userFBId, name, start, end, description,
+                location, FBLocationId, privacyType));
     }
 
     private static String constructAccessTokenLandingUrl(String code, String redirectUri) throws UnsupportedEncodingException {
@@ -72,6 +77,10 @@ public class FacebookGateway extends AbstractGateway {
     private static String constructGetEventsUrl(String accessToken) {
         return "https://graph.facebook.com/me/events?access_token=" + accessToken;
     }
+
+    private static String constructGetEventsUrl(String accessToken, DateTime since) {
+        return constructGetEventsUrl(accessToken) + (since != null ? "&since=" + since.getMillis() / 1000 : "");
+    }
     
     private static String constructGetResourceByIdUrl(String accessToken, String fbResourceId) {
         return "https://graph.facebook.com/" + fbResourceId + "?access_token=" + accessToken;
@@ -0,0 +1,58 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Objects;
+
+/**
+ * The access token a user last synchronized their Facebook events with, when the last synchronization that finished
+ * without failures started, or null if none has, and when the ones since then that didn't were tried and how many
+ * there were.
+ */
+public class FacebookSync {
+
+    public final int userId;
+    public final String accessToken;
+    public final DateTime lastSynced;
+    public final DateTime lastAttempted;
+    public final int failedAttempts;
+
+    public FacebookSync(int userId, String accessToken, DateTime lastSynced) {
+        this(userId, accessToken, lastSynced, lastSynced, 0);
+    }
+
+    public FacebookSync(int userId, String accessToken, DateTime lastSynced, DateTime lastAttempted,
+            int failedAttempts) {
+        this.userId = userId;
+        this.accessToken = accessToken;
+        this.lastSynced = lastSynced;
+        this.lastAttempted = lastAttempted;
+        this.failedAttempts = failedAttempts;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(userId, accessToken, lastSynced, lastAttempted, failedAttempts);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof FacebookSync)) {
+            return false;
+        }
+        FacebookSync other = FacebookSync.class.cast(obj);
+        return userId == other.userId && Objects.equal(accessToken, other.accessToken)
+                && Objects.equal(lastSynced, other.lastSynced) && Objects.equal(lastAttempted, other.lastAttempted)
+                && failedAttempts == other.failedAttempts;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("userId", userId)
+                .add("lastSynced", lastSynced)
+                .add("lastAttempted", lastAttempted)
+                .add("failedAttempts", failedAttempts)
+                .toString();
+    }
+}
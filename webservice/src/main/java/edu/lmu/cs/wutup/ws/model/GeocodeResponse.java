@@ -0,0 +1,45 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Objects;
+
+/**
+ * The body of a geocoder response, and when it should no longer be relied on.
+ */
+public class GeocodeResponse {
+
+    public final String body;
+    public final DateTime expires;
+
+    public GeocodeResponse(String body, DateTime expires) {
+        this.body = body;
+        this.expires = expires;
+    }
+
+    public boolean isExpired(DateTime now) {
+        return !expires.isAfter(now);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(body, expires);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof GeocodeResponse)) {
+            return false;
+        }
+        GeocodeResponse other = GeocodeResponse.class.cast(obj);
+        return Objects.equal(body, other.body) && Objects.equal(expires, other.expires);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("body", body)
+                .add("expires", expires)
+                .toString();
+    }
+}
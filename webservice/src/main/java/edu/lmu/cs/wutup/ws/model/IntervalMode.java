@@ -0,0 +1,17 @@
+package edu.lmu.cs.wutup.ws.model;
+
+/**
+ * How an occurrence must relate to a search interval to match it.
+ */
+public enum IntervalMode {
+
+    /**
+     * The occurrence is going on at some point during the interval.
+     */
+    OVERLAP,
+
+    /**
+     * The occurrence starts and ends within the interval.
+     */
+    CONTAINED
+}
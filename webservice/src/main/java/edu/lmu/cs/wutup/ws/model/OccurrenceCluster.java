@@ -0,0 +1,78 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.google.common.base.Objects;
+
+/**
+ * A group of event occurrences close enough together to be drawn as a single map marker: how many there are, where
+ * their center of mass is, and the ids of a few of them.
+ */
+@XmlRootElement(name = "cluster")
+public class OccurrenceCluster {
+
+    private int count;
+    private double latitude;
+    private double longitude;
+    private List<Integer> sampleIds;
+
+    public OccurrenceCluster() {
+        // No-arg constructor, needed for annotations
+    }
+
+    public OccurrenceCluster(int count, double latitude, double longitude, List<Integer> sampleIds) {
+        this.count = count;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.sampleIds = sampleIds;
+    }
+
+    @XmlElement
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    @XmlElement
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(double latitude) {
+        this.latitude = latitude;
+    }
+
+    @XmlElement
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(double longitude) {
+        this.longitude = longitude;
+    }
+
+    @XmlElement
+    public List<Integer> getSampleIds() {
+        return sampleIds;
+    }
+
+    public void setSampleIds(List<Integer> sampleIds) {
+        this.sampleIds = sampleIds;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("count", count)
+                .add("latitude", latitude)
+                .add("longitude", longitude)
+                .add("sampleIds", sampleIds)
+                .toString();
+    }
+}
@@ -0,0 +1,108 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.google.common.base.Objects;
+
+/**
+ * How many occurrences match a search in all, and how many of them are at each venue, of each event, in each category
+ * and on each day. Days are the local dates on which the occurrences start, as yyyy-MM-dd. An occurrence of an event
+ * in several categories counts towards each of them.
+ */
+@XmlRootElement(name = "facets")
+public class OccurrenceFacets {
+
+    private int total;
+    private Map<Integer, Integer> venues = new TreeMap<Integer, Integer>();
+    private Map<Integer, Integer> events = new TreeMap<Integer, Integer>();
+    private Map<Integer, Integer> categories = new TreeMap<Integer, Integer>();
+    private Map<String, Integer> days = new TreeMap<String, Integer>();
+
+    public OccurrenceFacets() {
+        // No-arg constructor, needed for annotations
+    }
+
+    public OccurrenceFacets(int total, Map<Integer, Integer> venues, Map<Integer, Integer> events,
+            Map<Integer, Integer> categories, Map<String, Integer> days) {
+        this.total = total;
+        this.venues = venues;
+        this.events = events;
+        this.categories = categories;
+        this.days = days;
+    }
+
+    @XmlElement
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    @XmlElement
+    public Map<Integer, Integer> getVenues() {
+        return venues;
+    }
+
+    public void setVenues(Map<Integer, Integer> venues) {
+        this.venues = venues;
+    }
+
+    @XmlElement
+    public Map<Integer, Integer> getEvents() {
+        return events;
+    }
+
+    public void setEvents(Map<Integer, Integer> events) {
+        this.events = events;
+    }
+
+    @XmlElement
+    public Map<Integer, Integer> getCategories() {
+        return categories;
+    }
+
+    public void setCategories(Map<Integer, Integer> categories) {
+        this.categories = categories;
+    }
+
+    @XmlElement
+    public Map<String, Integer> getDays() {
+        return days;
+    }
+
+    public void setDays(Map<String, Integer> days) {
+        this.days = days;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(total, venues, events, categories, days);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof OccurrenceFacets)) {
+            return false;
+        }
+        OccurrenceFacets other = OccurrenceFacets.class.cast(obj);
+        return total == other.total && Objects.equal(venues, other.venues) && Objects.equal(events, other.events)
+                && Objects.equal(categories, other.categories) && Objects.equal(days, other.days);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("total", total)
+                .add("venues", venues)
+                .add("events", events)
+                .add("categories", categories)
+                .add("days", days)
+                .toString();
+    }
+}
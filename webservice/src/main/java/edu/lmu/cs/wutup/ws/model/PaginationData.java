@@ -3,7 +3,8 @@ package edu.lmu.cs.wutup.ws.model;
 import com.google.common.base.Preconditions;
 
 /**
- * A container for pagination data.
+ * A container for pagination data. A page is found either by number, skipping the pages before it, or, when a cursor
+ * is given, as the items right after the cursor, in which case the page number is always 0.
  */
 public class PaginationData {
 
@@ -14,6 +15,7 @@ public class PaginationData {
 
     public int pageNumber;
     public int pageSize;
+    public Cursor cursor;
 
     public PaginationData(int pageNumber, int pageSize) {
 
@@ -23,4 +25,12 @@ public class PaginationData {
         this.pageNumber = pageNumber;
         this.pageSize = pageSize;
     }
+
+    /**
+     * Makes the page of items after the given cursor, or the first page if the cursor is null.
+     */
+    public PaginationData(Cursor cursor, int pageSize) {
+        this(0, pageSize);
+        this.cursor = cursor;
+    }
 }
@@ -0,0 +1,114 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Objects;
+
+/**
+ * A recurring series of occurrences of an event at a venue, stored once. The start and end are those of the first
+ * instance; the rule, in RRULE syntax, says when the rest begin, and each lasts as long as the first. Instances are
+ * expanded when searched for, and an occurrence that names the series and one of its instance starts replaces that
+ * instance.
+ */
+@XmlRootElement(name = "recurrence")
+public class Recurrence {
+
+    private Integer id;
+    private Event event;
+    private Venue venue;
+    private DateTime start;
+    private DateTime end;
+    private String rule;
+
+    public Recurrence() {
+        // No-arg constructor required for annotations
+    }
+
+    public Recurrence(Integer id, Event event, Venue venue, DateTime start, DateTime end, String rule) {
+        this.id = id;
+        this.event = event;
+        this.venue = venue;
+        this.start = start;
+        this.end = end;
+        this.rule = rule;
+    }
+
+    @XmlElement
+    public Integer getId() {
+        return this.id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    @XmlElement
+    public Event getEvent() {
+        return this.event;
+    }
+
+    public void setEvent(Event event) {
+        this.event = event;
+    }
+
+    @XmlElement
+    public Venue getVenue() {
+        return this.venue;
+    }
+
+    public void setVenue(Venue venue) {
+        this.venue = venue;
+    }
+
+    @XmlElement
+    public DateTime getStart() {
+        return this.start;
+    }
+
+    public void setStart(DateTime start) {
+        this.start = start;
+    }
+
+    @XmlElement
+    public DateTime getEnd() {
+        return this.end;
+    }
+
+    public void setEnd(DateTime end) {
+        this.end = end;
+    }
+
+    @XmlElement
+    public String getRule() {
+        return this.rule;
+    }
+
+    public void setRule(String rule) {
+        this.rule = rule;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Recurrence && Objects.equal(id, Recurrence.class.cast(obj).id);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("id", this.id)
+                .add("event", this.event)
+                .add("venue", this.venue)
+                .add("start", this.start)
+                .add("end", this.end)
+                .add("rule", this.rule)
+                .toString();
+    }
+}
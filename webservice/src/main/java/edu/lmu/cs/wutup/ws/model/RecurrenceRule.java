@@ -0,0 +1,280 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.joda.time.Months;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * The subset of the iCalendar RRULE (RFC 5545) that recurring series support: a DAILY, WEEKLY or MONTHLY frequency
+ * with an optional INTERVAL, BYDAY for weekly rules, and an end given by COUNT or UNTIL (or neither, for a series that
+ * goes on forever). For example <code>FREQ=WEEKLY;INTERVAL=2;BYDAY=TU,TH;COUNT=10</code>.
+ *
+ * Instances keep the wall-clock time of the first one in its time zone, so a weekly 8pm event stays at 8pm across
+ * daylight saving changes. Weekly rules with BYDAY start their weeks on Monday, and their first instance is the first
+ * matching day on or after the series start. Monthly rules skip months too short to have the series' day.
+ */
+public class RecurrenceRule {
+
+    public enum Frequency {
+        DAILY, WEEKLY, MONTHLY
+    }
+
+    public static final int MAX_COUNT = 10000;
+
+    private static final String BAD_RULE = "Malformed recurrence rule: %s";
+    private static final List<String> DAY_NAMES = Arrays.asList("MO", "TU", "WE", "TH", "FR", "SA", "SU");
+    private static final DateTimeFormatter UNTIL_TIME_FORMAT = DateTimeFormat.forPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZoneUTC();
+    private static final DateTimeFormatter UNTIL_DATE_FORMAT = DateTimeFormat.forPattern("yyyyMMdd");
+
+    private final Frequency frequency;
+    private final int interval;
+    private final Integer count;
+    private final DateTime until;
+    private final List<Integer> days;
+
+    public RecurrenceRule(Frequency frequency, int interval, Integer count, DateTime until, List<Integer> days) {
+        Preconditions.checkArgument(frequency != null, "Frequency is required");
+        Preconditions.checkArgument(interval >= 1, "Interval must be positive: %s", interval);
+        Preconditions.checkArgument(count == null || (count >= 1 && count <= MAX_COUNT), "Count out of range: %s",
+                count);
+        Preconditions.checkArgument(count == null || until == null, "Only one of count and until may be given");
+        Preconditions.checkArgument(days.isEmpty() || frequency == Frequency.WEEKLY, "Days only apply to weekly rules");
+        this.frequency = frequency;
+        this.interval = interval;
+        this.count = count;
+        this.until = until;
+        this.days = Collections.unmodifiableList(new ArrayList<Integer>(new TreeSet<Integer>(days)));
+    }
+
+    /**
+     * Parses a rule, with or without the leading <code>RRULE:</code>.
+     *
+     * @throws IllegalArgumentException
+     *             if the rule is malformed or uses parts outside the supported subset.
+     */
+    public static RecurrenceRule parse(String rule) {
+        Preconditions.checkArgument(rule != null, BAD_RULE, rule);
+        String text = rule.trim().toUpperCase();
+        if (text.startsWith("RRULE:")) {
+            text = text.substring("RRULE:".length());
+        }
+        Frequency frequency = null;
+        int interval = 1;
+        Integer count = null;
+        DateTime until = null;
+        List<Integer> days = new ArrayList<Integer>();
+        try {
+            for (String part : text.split(";")) {
+                String[] pair = part.split("=", 2);
+                Preconditions.checkArgument(pair.length == 2, BAD_RULE, rule);
+                String name = pair[0];
+                String value = pair[1];
+                if (name.equals("FREQ")) {
+                    frequency = Frequency.valueOf(value);
+                } else if (name.equals("INTERVAL")) {
+                    interval = Integer.parseInt(value);
+                } else if (name.equals("COUNT")) {
+                    count = Integer.valueOf(value);
+                } else if (name.equals("UNTIL")) {
+                    until = value.length() == 8
+                            ? UNTIL_DATE_FORMAT.parseLocalDate(value).plusDays(1).toDateTimeAtStartOfDay()
+                                    .minusMillis(1)
+                            : UNTIL_TIME_FORMAT.parseDateTime(value);
+                } else if (name.equals("BYDAY")) {
+                    for (String day : value.split(",")) {
+                        int index = DAY_NAMES.indexOf(day);
+                        Preconditions.checkArgument(index >= 0, BAD_RULE, rule);
+                        days.add(index + DateTimeConstants.MONDAY);
+                    }
+                } else if (!(name.equals("WKST") && value.equals("MO"))) {
+                    throw new IllegalArgumentException(String.format(BAD_RULE, rule));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format(BAD_RULE, rule), e);
+        }
+        return new RecurrenceRule(frequency, interval, count, until, days);
+    }
+
+    public Frequency getFrequency() {
+        return frequency;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public DateTime getUntil() {
+        return until;
+    }
+
+    /**
+     * The Joda days of the week of a weekly rule, Monday first, or an empty list to repeat on the day of the first
+     * instance.
+     */
+    public List<Integer> getDays() {
+        return days;
+    }
+
+    /**
+     * Returns the starts of the instances of a series beginning at <code>first</code> that fall between
+     * <code>from</code> and <code>to</code>, inclusive, in order, and at most <code>limit</code> of them. Rather than
+     * stepping through the series from its beginning, the expansion jumps straight to the period containing
+     * <code>from</code>, so the cost depends only on the size of the window.
+     */
+    public List<DateTime> startsBetween(DateTime first, DateTime from, DateTime to, int limit) {
+        List<DateTime> starts = new ArrayList<DateTime>();
+        DateTime lower = from.isAfter(first) ? from.withZone(first.getZone()) : first;
+        long period = firstPeriodReaching(first, lower);
+        long index = instancesBefore(first, period);
+        for (; starts.size() < limit; period++) {
+            for (DateTime start : instancesIn(first, period)) {
+                if ((count != null && index >= count) || (until != null && start.isAfter(until)) || start.isAfter(to)) {
+                    return starts;
+                }
+                index++;
+                if (!start.isBefore(lower)) {
+                    starts.add(start);
+                    if (starts.size() == limit) {
+                        break;
+                    }
+                }
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * Returns the start of the last instance of a series beginning at <code>first</code>, or null if the series never
+     * ends. For a rule bounded by UNTIL this may be later than the actual last start, but never earlier.
+     */
+    public DateTime lastStart(DateTime first) {
+        if (until != null) {
+            return until;
+        } else if (count == null) {
+            return null;
+        }
+        List<DateTime> starts = startsBetween(first, first, new DateTime(Long.MAX_VALUE / 2), count);
+        return starts.isEmpty() ? first : starts.get(starts.size() - 1);
+    }
+
+    /**
+     * Returns a period number no later than that of the first instance at or after the given time. Periods are days,
+     * weeks or months, counted in steps of the interval from the start of the series.
+     */
+    private long firstPeriodReaching(DateTime first, DateTime time) {
+        LocalDate firstDate = first.toLocalDate();
+        LocalDate date = time.toLocalDate();
+        switch (frequency) {
+        case DAILY:
+            return Days.daysBetween(firstDate, date).getDays() / interval;
+        case WEEKLY:
+            return Days.daysBetween(firstDate.withDayOfWeek(DateTimeConstants.MONDAY), date).getDays() / 7 / interval;
+        default:
+            return Months.monthsBetween(firstDate.withDayOfMonth(1), date.withDayOfMonth(1)).getMonths() / interval;
+        }
+    }
+
+    /**
+     * Counts the instances in the periods before the given one, for rules bounded by COUNT.
+     */
+    private long instancesBefore(DateTime first, long period) {
+        if (period == 0) {
+            return 0;
+        }
+        if (frequency == Frequency.MONTHLY && first.getDayOfMonth() > 28) {
+            long total = 0;
+            for (long p = 0; p < period; p++) {
+                total += instancesIn(first, p).size();
+            }
+            return total;
+        }
+        return instancesIn(first, 0).size() + (period - 1) * (days.isEmpty() ? 1 : days.size());
+    }
+
+    private List<DateTime> instancesIn(DateTime first, long period) {
+        int steps = (int) (period * interval);
+        switch (frequency) {
+        case DAILY:
+            return Collections.singletonList(first.plusDays(steps));
+        case WEEKLY:
+            if (days.isEmpty()) {
+                return Collections.singletonList(first.plusWeeks(steps));
+            }
+            List<DateTime> instances = new ArrayList<DateTime>(days.size());
+            for (int day : days) {
+                DateTime start = first.withDayOfWeek(day).plusWeeks(steps);
+                if (!start.isBefore(first)) {
+                    instances.add(start);
+                }
+            }
+            return instances;
+        default:
+            DateTime start = first.plusMonths(steps);
+            return start.getDayOfMonth() == first.getDayOfMonth() ? Collections.singletonList(start)
+                    : Collections.<DateTime> emptyList();
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(frequency, interval, count, until == null ? null : until.getMillis(), days);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof RecurrenceRule)) {
+            return false;
+        }
+        RecurrenceRule other = RecurrenceRule.class.cast(obj);
+        return frequency == other.frequency && interval == other.interval && Objects.equal(count, other.count)
+                && Objects.equal(until == null ? null : until.getMillis(),
+                        other.until == null ? null : other.until.getMillis())
+                && days.equals(other.days);
+    }
+
+    /**
+     * Returns the rule in RRULE syntax, without the <code>RRULE:</code> prefix.
+     */
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<String>();
+        parts.add("FREQ=" + frequency);
+        if (interval != 1) {
+            parts.add("INTERVAL=" + interval);
+        }
+        if (!days.isEmpty()) {
+            List<String> names = new ArrayList<String>();
+            for (int day : days) {
+                names.add(DAY_NAMES.get(day - DateTimeConstants.MONDAY));
+            }
+            parts.add("BYDAY=" + Joiner.on(',').join(names));
+        }
+        if (count != null) {
+            parts.add("COUNT=" + count);
+        }
+        if (until != null) {
+            parts.add("UNTIL=" + UNTIL_TIME_FORMAT.print(until));
+        }
+        return Joiner.on(';').join(parts);
+    }
+}
@@ -0,0 +1,78 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.google.common.base.Objects;
+
+/**
+ * A synchronization of someone's Facebook events run in the background, and how far it has got.
+ */
+@XmlRootElement(name = "syncJob")
+public class SyncJob extends SyncProgress {
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private String id;
+    private int userId;
+    private State state = State.QUEUED;
+    private String failure;
+
+    public SyncJob() {
+        // No-arg constructor, needed for annotations
+    }
+
+    public SyncJob(String id, int userId) {
+        this.id = id;
+        this.userId = userId;
+    }
+
+    @XmlElement
+    public String getId() {
+        return id;
+    }
+
+    @XmlElement
+    public int getUserId() {
+        return userId;
+    }
+
+    @XmlElement
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * Returns why the job as a whole failed, if it did.
+     */
+    @XmlElement
+    public synchronized String getFailure() {
+        return failure;
+    }
+
+    public synchronized void failed(String failure) {
+        this.failure = failure;
+        this.state = State.FAILED;
+    }
+
+    public synchronized boolean isFinished() {
+        return state == State.DONE || state == State.FAILED;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(this)
+                .add("id", id)
+                .add("userId", userId)
+                .add("state", state)
+                .add("failure", failure)
+                .add("progress", super.toString())
+                .toString();
+    }
+}
@@ -0,0 +1,91 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.google.common.base.Objects;
+
+/**
+ * How far a synchronization of someone's Facebook events has got: how many events there are, how many have been dealt
+ * with, how many of those became new occurrences, and why each of the ones that failed or were rejected did. Failed
+ * events might succeed another time; rejected ones, such as those without a location, never will. It is written by
+ * the thread doing the synchronization and may be read by others while it runs.
+ */
+@XmlRootElement(name = "sync")
+public class SyncProgress {
+
+    private int total;
+    private int processed;
+    private int created;
+    private int failed;
+    private List<String> errors = new ArrayList<String>();
+
+    @XmlElement
+    public synchronized int getTotal() {
+        return total;
+    }
+
+    public synchronized void setTotal(int total) {
+        this.total = total;
+    }
+
+    @XmlElement
+    public synchronized int getProcessed() {
+        return processed;
+    }
+
+    @XmlElement
+    public synchronized int getCreated() {
+        return created;
+    }
+
+    /**
+     * Returns how many events failed for reasons that might not recur, not counting the rejected ones.
+     */
+    @XmlElement
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    @XmlElement
+    public synchronized List<String> getErrors() {
+        return new ArrayList<String>(errors);
+    }
+
+    /**
+     * Records an event that needed nothing new, such as one synchronized before.
+     */
+    public synchronized void eventSkipped() {
+        processed++;
+    }
+
+    public synchronized void eventCreated() {
+        processed++;
+        created++;
+    }
+
+    public synchronized void eventFailed(String error) {
+        processed++;
+        failed++;
+        errors.add(error);
+    }
+
+    public synchronized void eventRejected(String error) {
+        processed++;
+        errors.add(error);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(this)
+                .add("total", total)
+                .add("processed", processed)
+                .add("created", created)
+                .add("failed", failed)
+                .add("errors", errors)
+                .toString();
+    }
+}
@@ -6,6 +6,9 @@ import java.util.Map;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
+
 import com.google.common.base.Objects;
 
 @XmlRootElement
@@ -16,6 +19,7 @@ public class Venue implements Commentable {
     private String address;
     private Double latitude;
     private Double longitude;
+    private Double distance;
     private ArrayList<Comment> comments;
 
     private Map<String, String> propertyMap;
@@ -83,6 +87,20 @@ public class Venue implements Commentable {
         this.longitude = longitude;
     }
 
+    /**
+     * The distance in miles from the point a search was made around, or null when the venue was not found by a
+     * proximity search.
+     */
+    @XmlElement
+    @JsonSerialize(include = Inclusion.NON_NULL)
+    public Double getDistance() {
+        return distance;
+    }
+
+    public void setDistance(Double distance) {
+        this.distance = distance;
+    }
+
     public Map<String, String> getPropertyMap() {
         return propertyMap;
     }
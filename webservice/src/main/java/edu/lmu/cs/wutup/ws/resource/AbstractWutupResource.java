@@ -5,20 +5,35 @@ import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.FORBIDDEN;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
 import org.apache.log4j.Logger;
+import org.codehaus.jackson.jaxrs.JacksonJaxbJsonProvider;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jettison.json.JSONException;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
+import edu.lmu.cs.wutup.ws.cache.SerializedEntityCache;
+import edu.lmu.cs.wutup.ws.cache.SerializedEntityCache.Key;
 import edu.lmu.cs.wutup.ws.exception.LocationNotFoundByGoogleException;
 import edu.lmu.cs.wutup.ws.exception.MalformedDateTimeStringException;
 import edu.lmu.cs.wutup.ws.exception.ServiceException;
+import edu.lmu.cs.wutup.ws.model.BatchItemResult;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
 import edu.lmu.cs.wutup.ws.model.Circle;
+import edu.lmu.cs.wutup.ws.model.Comment;
+import edu.lmu.cs.wutup.ws.model.Cursor;
 import edu.lmu.cs.wutup.ws.model.Event;
 import edu.lmu.cs.wutup.ws.model.EventOccurrence;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
@@ -43,18 +58,58 @@ public abstract class AbstractWutupResource {
     private static final String INSUFFICIENT_OCCURRENCE_DATA = "Not enough data to create event occurrence";
     private static final String TIME_CANNOT_BE_PARSED = "The %s and %s parameters cannot be parsed into a valid DateTime";
     private static final String VENUE_CANNOT_BE_RESOLVED = "The venue provided cannot be resolved to a location";
+    private static final String CENTER_OUT_OF_RANGE = "Center out of range: %s";
+    private static final String BATCH_SIZE_OUT_OF_RANGE = "A batch should have from 1 to %d items";
+
+    private static final Key[] NO_DEPENDENCIES = new Key[0];
+
+    // Configured as the provider Jersey writes JSON with, so cached bytes are the same as those it would write
+    private static final ObjectMapper JSON_MAPPER = new JacksonJaxbJsonProvider().locateMapper(Object.class,
+            MediaType.APPLICATION_JSON_TYPE);
 
     private static final Pattern CENTER_PATTERN = Pattern.compile("-?\\d+(\\.\\d+)?,-?\\d+(\\.\\d+)?");
+    private static final Pattern BOUNDING_BOX_PATTERN = Pattern
+            .compile("-?\\d+(\\.\\d+)?,-?\\d+(\\.\\d+)?,-?\\d+(\\.\\d+)?,-?\\d+(\\.\\d+)?");
     private static final Pattern RADIUS_PATTERN = Pattern.compile("-?\\d+(\\.\\d+)?");
 
     protected static final String DEFAULT_PAGE = "0";
     protected static final String DEFAULT_PAGE_SIZE = "20";
+    protected static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    protected static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Gives the cursor just after an item of a list, in the order of that list.
+     */
+    interface CursorKey<T> {
+        Cursor after(T item);
+    }
+
+    static final CursorKey<Comment> COMMENT_KEY = new CursorKey<Comment>() {
+        public Cursor after(Comment c) {
+            return c.getPostDate() != null ? Cursor.afterTime(c.getPostDate().getMillis(), c.getId())
+                    : Cursor.afterId(c.getId());
+        }
+    };
+
+    /**
+     * Loads an entity to be sent in answer to a lookup by id, and names the other entities whose fields it includes.
+     */
+    abstract static class CachedEntity<T> {
+        abstract T load();
+
+        Key[] dependencies(T entity) {
+            return NO_DEPENDENCIES;
+        }
+    }
 
     Logger logger = Logger.getLogger(getClass());
 
     @Autowired
     GeocodeService geocodeService;
 
+    @Autowired(required = false)
+    SerializedEntityCache entityCache;
+
     /**
      * Throws a service exception with BAD_REQUEST is the value is null (corresponds to a missing required HTTP
      * parameter.
@@ -96,6 +151,22 @@ public abstract class AbstractWutupResource {
         }
     }
 
+    /**
+     * Throws a service exception with BAD_REQUEST if the batch is missing, empty, or larger than MAX_BATCH_SIZE.
+     */
+    void checkBatchSize(List<?> batch) {
+        if (batch == null || batch.isEmpty() || batch.size() > MAX_BATCH_SIZE) {
+            throw new ServiceException(BAD_REQUEST, BATCH_SIZE_OUT_OF_RANGE, MAX_BATCH_SIZE);
+        }
+    }
+
+    /**
+     * Returns the result of a batch item that failed with the given exception, as it would have failed on its own.
+     */
+    BatchItemResult failureOf(ServiceException e) {
+        return new BatchItemResult(null, e.getResponse().getStatus(), (String) e.getResponse().getEntity());
+    }
+
     /**
      * Throws a service exception with BAD_REQUEST if the parameter value doesn't match the regex.
      */
@@ -130,7 +201,11 @@ public abstract class AbstractWutupResource {
      *             with BAD_REQUEST if eventOccurrence is insufficiently specified.
      */
     void checkOccurrenceCanBeCreated(EventOccurrence o) {
-        if (o.getEvent() == null || o.getEvent().getId() == null || o.getVenue() == null || o.getVenue().getId() == null) {
+        if (o == null || o.getEvent() == null || o.getEvent().getId() == null || o.getVenue() == null || o.getVenue().getId() == null) {
+            throw new ServiceException(BAD_REQUEST, INSUFFICIENT_OCCURRENCE_DATA);
+        }
+        // An occurrence replacing an instance of a series must say which instance
+        if ((o.getRecurrenceId() == null) != (o.getRecurrenceStart() == null)) {
             throw new ServiceException(BAD_REQUEST, INSUFFICIENT_OCCURRENCE_DATA);
         }
     }
@@ -205,6 +280,40 @@ public abstract class AbstractWutupResource {
         }
     }
 
+    /**
+     * Reads a required center parameter in the official format of the API into a latitude and longitude; throws a
+     * service exception with BAD_REQUEST if it is missing or malformed, or with FORBIDDEN if it is out of range.
+     */
+    double[] fromCenterParameter(String center) {
+        checkRequiredParameter("center", center);
+        checkParameterSyntax("center", CENTER_PATTERN, center);
+
+        String[] coordinates = center.split(",");
+        double latitude = Double.parseDouble(coordinates[0]);
+        double longitude = Double.parseDouble(coordinates[1]);
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+            throw new ServiceException(FORBIDDEN, CENTER_OUT_OF_RANGE, center);
+        }
+        return new double[]{latitude, longitude};
+    }
+
+    /**
+     * Reads a required bbox parameter, given as "south,west,north,east" in degrees, into a bounding box; throws a
+     * service exception with BAD_REQUEST if it is missing or malformed, or with FORBIDDEN if it is out of range.
+     */
+    BoundingBox fromBoundingBoxParameter(String bbox) {
+        checkRequiredParameter("bbox", bbox);
+        checkParameterSyntax("bbox", BOUNDING_BOX_PATTERN, bbox);
+
+        String[] coordinates = bbox.split(",");
+        try {
+            return new BoundingBox(Double.parseDouble(coordinates[0]), Double.parseDouble(coordinates[1]),
+                    Double.parseDouble(coordinates[2]), Double.parseDouble(coordinates[3]));
+        } catch (IllegalArgumentException e) {
+            throw new ServiceException(FORBIDDEN, e.getMessage());
+        }
+    }
+
     /**
      * Creates an interval object out of strings that will be parsed as longs into DateTimes; throws a service exception
      * with BAD_REQUEST if the strings are malformed or if only partially specified.
@@ -248,4 +357,82 @@ public abstract class AbstractWutupResource {
             throw new ServiceException(FORBIDDEN, e.getMessage());
         }
     }
+
+    /**
+     * Creates a pagination data object as above, except that a cursor, when given, takes the place of the page
+     * number. Throws a service exception with BAD_REQUEST if the cursor is malformed.
+     */
+    PaginationData paginationDataFor(String pageString, String pageSizeString, String cursorString) {
+        PaginationData pagination = paginationDataFor(pageString, pageSizeString);
+        if (cursorString != null) {
+            try {
+                return new PaginationData(Cursor.decode(cursorString), pagination.pageSize);
+            } catch (IllegalArgumentException e) {
+                throw new ServiceException(BAD_REQUEST, MALFORMED_PARAMETER, "cursor");
+            }
+        }
+        return pagination;
+    }
+
+    /**
+     * Responds with a page of items. When the page is full there may be more, so the cursor after its last item is
+     * sent in the X-Next-Cursor header; passing it back as the cursor parameter gets the next page.
+     */
+    <T> Response pageOf(List<T> items, PaginationData pagination, CursorKey<? super T> key) {
+        ResponseBuilder response = Response.ok(items);
+        if (!items.isEmpty() && items.size() >= pagination.pageSize) {
+            response.header(NEXT_CURSOR_HEADER, key.after(items.get(items.size() - 1)).encode());
+        }
+        return response.build();
+    }
+
+    /**
+     * Names the entities an event includes when sent: its creator.
+     */
+    static Key[] dependenciesOf(Event event) {
+        List<Key> keys = new ArrayList<Key>();
+        if (event != null && event.getCreator() != null && event.getCreator().getId() != null) {
+            keys.add(SerializedEntityCache.key(Kind.USER, event.getCreator().getId()));
+        }
+        return keys.toArray(NO_DEPENDENCIES);
+    }
+
+    /**
+     * Names the entities an occurrence includes when sent: its event, the event's creator, and its venue.
+     */
+    static Key[] dependenciesOf(EventOccurrence occurrence) {
+        List<Key> keys = new ArrayList<Key>();
+        Event event = occurrence.getEvent();
+        if (event != null && event.getId() != null) {
+            keys.add(SerializedEntityCache.key(Kind.EVENT, event.getId()));
+        }
+        keys.addAll(Arrays.asList(dependenciesOf(event)));
+        if (occurrence.getVenue() != null && occurrence.getVenue().getId() != null) {
+            keys.add(SerializedEntityCache.key(Kind.VENUE, occurrence.getVenue().getId()));
+        }
+        return keys.toArray(NO_DEPENDENCIES);
+    }
+
+    /**
+     * Responds with an entity looked up by id, sending the bytes serialized for an earlier lookup if they are still
+     * cached, and caching them otherwise. Without a cache the entity is loaded and left to Jersey to write.
+     */
+    <T> Response okCached(Kind kind, int id, CachedEntity<T> entity) {
+        if (entityCache == null) {
+            return Response.ok(entity.load()).build();
+        }
+        byte[] json = entityCache.get(kind, id);
+        if (json == null) {
+            long stamp = entityCache.stamp();
+            T loaded = entity.load();
+            try {
+                json = JSON_MAPPER.writeValueAsBytes(loaded);
+            } catch (IOException e) {
+                logger.warn("Could not serialize " + kind + " " + id + ", sending it uncached", e);
+                return Response.ok(loaded).build();
+            }
+            entityCache.put(kind, id, json, stamp, entity.dependencies(loaded));
+        }
+        return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).build();
+    }
 }
@@ -0,0 +1,144 @@
+package edu.lmu.cs.wutup.ws.resource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import edu.lmu.cs.wutup.ws.dao.EventOccurrenceDao.OccurrenceVisitor;
+import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.Venue;
+
+/**
+ * Writes occurrences as the VEVENTs of an iCalendar (RFC 5545) document, one at a time as they are visited, so the
+ * whole feed never has to be in memory. Lines end in CRLF and are folded at 75 octets without splitting a UTF-8
+ * sequence.
+ */
+class CalendarWriter implements OccurrenceVisitor {
+
+    static final int MAX_LINE_OCTETS = 75;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CRLF = "\r\n";
+    private static final DateTimeFormatter UTC_FORMAT = DateTimeFormat.forPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZoneUTC();
+
+    private final Writer writer;
+    private final String timestamp;
+
+    CalendarWriter(OutputStream output, DateTime lastModified) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8));
+        this.timestamp = UTC_FORMAT.print(lastModified);
+    }
+
+    void begin() throws IOException {
+        writeLine("BEGIN:VCALENDAR");
+        writeLine("VERSION:2.0");
+        writeLine("PRODID:-//LMU//wutup//EN");
+        writeLine("CALSCALE:GREGORIAN");
+    }
+
+    void end() throws IOException {
+        writeLine("END:VCALENDAR");
+        writer.flush();
+    }
+
+    /**
+     * Writes one VEVENT. The visitor interface can't throw checked exceptions, so write failures, which almost always
+     * mean the client has gone away, are rethrown unchecked.
+     */
+    @Override
+    public void visit(EventOccurrence occurrence) {
+        try {
+            writeLine("BEGIN:VEVENT");
+            writeLine("UID:occurrence-" + occurrence.getId() + "@wutup");
+            writeLine("DTSTAMP:" + timestamp);
+            if (occurrence.getStart() != null) {
+                writeLine("DTSTART:" + UTC_FORMAT.print(occurrence.getStart()));
+            }
+            if (occurrence.getEnd() != null) {
+                writeLine("DTEND:" + UTC_FORMAT.print(occurrence.getEnd()));
+            }
+            if (occurrence.getEvent() != null) {
+                writeText("SUMMARY", occurrence.getEvent().getName());
+                writeText("DESCRIPTION", occurrence.getEvent().getDescription());
+            }
+            Venue venue = occurrence.getVenue();
+            if (venue != null) {
+                writeText("LOCATION", venue.getAddress() != null ? venue.getName() + ", " + venue.getAddress()
+                        : venue.getName());
+                if (venue.getLatitude() != null && venue.getLongitude() != null) {
+                    writeLine("GEO:" + venue.getLatitude() + ";" + venue.getLongitude());
+                }
+            }
+            writeLine("END:VEVENT");
+        } catch (IOException e) {
+            throw new WebApplicationException(e);
+        }
+    }
+
+    private void writeText(String name, String value) throws IOException {
+        if (value != null) {
+            writeLine(name + ":" + escape(value));
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        writer.write(fold(line));
+        writer.write(CRLF);
+    }
+
+    static String escape(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '\\':
+            case ';':
+            case ',':
+                result.append('\\').append(c);
+                break;
+            case '\n':
+                result.append("\\n");
+                break;
+            case '\r':
+                break;
+            default:
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Breaks a content line into chunks of at most 75 octets, each continuation starting with a single space.
+     */
+    static String fold(String line) {
+        StringBuilder result = new StringBuilder(line.length() + 8);
+        int octets = 0;
+        for (int i = 0; i < line.length();) {
+            int codePoint = line.codePointAt(i);
+            int width = utf8Length(codePoint);
+            if (octets + width > MAX_LINE_OCTETS) {
+                result.append(CRLF).append(' ');
+                octets = 1;
+            }
+            result.appendCodePoint(codePoint);
+            octets += width;
+            i += Character.charCount(codePoint);
+        }
+        return result.toString();
+    }
+
+    private static int utf8Length(int codePoint) {
+        return codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+    }
+}
@@ -2,6 +2,7 @@ package edu.lmu.cs.wutup.ws.resource;
 
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.CREATED;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 
 import java.net.URI;
@@ -30,17 +31,29 @@ import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
+import edu.lmu.cs.wutup.ws.cache.SerializedEntityCache.Key;
 import edu.lmu.cs.wutup.ws.exception.AttendeeExistsException;
 import edu.lmu.cs.wutup.ws.exception.EventOccurrenceExistsException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchAttendeeOrOccurrenceException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchCommentException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchEventOccurrenceException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchRecurrenceException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchResourceException;
 import edu.lmu.cs.wutup.ws.exception.ServiceException;
+import edu.lmu.cs.wutup.ws.model.Attendance;
+import edu.lmu.cs.wutup.ws.model.BatchItemResult;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
 import edu.lmu.cs.wutup.ws.model.Circle;
 import edu.lmu.cs.wutup.ws.model.Comment;
+import edu.lmu.cs.wutup.ws.model.Cursor;
 import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+import edu.lmu.cs.wutup.ws.model.OccurrenceCluster;
+import edu.lmu.cs.wutup.ws.model.OccurrenceFacets;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
+import edu.lmu.cs.wutup.ws.model.Recurrence;
+import edu.lmu.cs.wutup.ws.model.RecurrenceRule;
 import edu.lmu.cs.wutup.ws.model.User;
 import edu.lmu.cs.wutup.ws.service.EventOccurrenceService;
 
@@ -58,39 +71,134 @@ public class EventOccurrenceResource extends AbstractWutupResource {
     private static final String COMMENT_NOT_FOUND = "Comment %d does not exist for event %d";
     private static final String PARAMETER_NON_INTEGER_LIST = "The parameter %s should be a list of integers";
     private static final String ATTENDEE_ALREADY_EXISTS = "Attendee %d is already registered for event occurrence %d";
+    private static final String UNKNOWN_SORT = "The sort parameter should be 'id' or 'distance'";
+    private static final String UNKNOWN_WINDOW = "The window parameter should be 'overlap' or 'contained'";
+    private static final String RECURRENCE_NOT_FOUND = "Recurrence %d does not exist";
+    private static final String RECURRENCE_EVENT_OR_VENUE_NOT_FOUND = "Recurrence event or venue does not exist";
+    private static final String INSUFFICIENT_RECURRENCE_DATA = "Event, venue, start, end and rule are required, "
+            + "and the end cannot be before the start";
+    private static final String SORT_NEEDS_CENTER = "Sorting by distance requires a center and radius";
+    private static final String OCCURRENCE_EVENT_VENUE_OR_RECURRENCE_NOT_FOUND = "Event occurrence event, venue or "
+            + "recurrence does not exist";
+    private static final String RECURRENCE_INSTANCE_ALREADY_REPLACED = "Recurrence %d already has an occurrence "
+            + "replacing its instance at %s";
+    private static final String ATTENDEE_ID_REQUIRED = "Each attendee should be a user id";
+    private static final String BATCH_CHANGED_CONCURRENTLY = "The batch conflicts with changes made while it was "
+            + "being created; nothing was created";
+
+    private static final int MIN_ZOOM = 0;
+    private static final int MAX_ZOOM = 21;
+
+    private static final String SORT_BY_ID = "id";
+    private static final String SORT_BY_DISTANCE = "distance";
+
+    private static final String WINDOW_OVERLAP = "overlap";
+    private static final String WINDOW_CONTAINED = "contained";
+
+    private static final CursorKey<EventOccurrence> OCCURRENCE_KEY = new CursorKey<EventOccurrence>() {
+        public Cursor after(EventOccurrence o) {
+            return Cursor.after(o);
+        }
+    };
+
+    private static final CursorKey<User> USER_KEY = new CursorKey<User>() {
+        public Cursor after(User u) {
+            return Cursor.afterId(u.getId());
+        }
+    };
 
     @Autowired
     EventOccurrenceService eventOccurrenceService;
 
     @GET
     @Path("/")
-    public List<EventOccurrence> findEventOccurrences(@QueryParam("attendee") Integer attendee,
+    public Response findEventOccurrences(@QueryParam("attendee") Integer attendee,
             @QueryParam("center") String center, @QueryParam("radius") String radiusString,
             @QueryParam("start") String start, @QueryParam("end") String end,
+            @QueryParam("window") @DefaultValue(WINDOW_CONTAINED) String window,
             @QueryParam("eventId") String eventIdString, @QueryParam("venueId") Integer venueId,
+            @QueryParam("sort") @DefaultValue(SORT_BY_ID) String sort,
             @QueryParam("page") @DefaultValue(DEFAULT_PAGE) String pageNumberString,
-            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString) {
+            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString,
+            @QueryParam("cursor") String cursor) {
 
-        ArrayList<Integer> eventIds = null;
+        List<Integer> eventIds = eventIdsFor(eventIdString);
+        PaginationData pagination = paginationDataFor(pageNumberString, pageSizeString, cursor);
+        Circle circle = fromCenterAndRadiusParameters(center, radiusString);
+        Interval interval = makeIntervalFromStartAndEndTime(start, end);
+        IntervalMode intervalMode = intervalModeFor(window);
 
-        if (eventIdString != null) {
-            eventIds = new ArrayList<Integer>();
-            try {
-                String[] eventIdStrings = eventIdString.split(",");
-                for (String s : Arrays.asList(eventIdStrings)) {
-                    eventIds.add(new Integer(s));
-                }
-            } catch (NumberFormatException e) {
-                throw new ServiceException(BAD_REQUEST, PARAMETER_NON_INTEGER_LIST, eventIdString);
+        checkOccurrenceCanBeQueried(attendee, circle, interval, eventIds, venueId);
+
+        if (SORT_BY_DISTANCE.equals(sort)) {
+            if (circle == null) {
+                throw new ServiceException(BAD_REQUEST, SORT_NEEDS_CENTER);
             }
+            return pageOf(eventOccurrenceService.findEventOccurrencesByDistance(attendee, circle, interval,
+                    intervalMode, eventIds, venueId, pagination), pagination, OCCURRENCE_KEY);
+        } else if (!SORT_BY_ID.equals(sort)) {
+            throw new ServiceException(BAD_REQUEST, UNKNOWN_SORT);
         }
-        PaginationData pagination = paginationDataFor(pageNumberString, pageSizeString);
+        return pageOf(eventOccurrenceService.findEventOccurrences(attendee, circle, interval, intervalMode, eventIds,
+                venueId, pagination), pagination, OCCURRENCE_KEY);
+    }
+
+    /**
+     * Returns how many occurrences match the search in all, and by venue, event, category and day, taking the same
+     * filters as the search itself.
+     */
+    @GET
+    @Path("/facets")
+    public OccurrenceFacets findFacets(@QueryParam("attendee") Integer attendee,
+            @QueryParam("center") String center, @QueryParam("radius") String radiusString,
+            @QueryParam("start") String start, @QueryParam("end") String end,
+            @QueryParam("window") @DefaultValue(WINDOW_CONTAINED) String window,
+            @QueryParam("eventId") String eventIdString, @QueryParam("venueId") Integer venueId) {
+
+        List<Integer> eventIds = eventIdsFor(eventIdString);
         Circle circle = fromCenterAndRadiusParameters(center, radiusString);
         Interval interval = makeIntervalFromStartAndEndTime(start, end);
+        IntervalMode intervalMode = intervalModeFor(window);
 
         checkOccurrenceCanBeQueried(attendee, circle, interval, eventIds, venueId);
+        return eventOccurrenceService.findFacets(attendee, circle, interval, intervalMode, eventIds, venueId);
+    }
+
+    private List<Integer> eventIdsFor(String eventIdString) {
+        if (eventIdString == null) {
+            return null;
+        }
+        List<Integer> eventIds = new ArrayList<Integer>();
+        try {
+            for (String s : Arrays.asList(eventIdString.split(","))) {
+                eventIds.add(new Integer(s));
+            }
+        } catch (NumberFormatException e) {
+            throw new ServiceException(BAD_REQUEST, PARAMETER_NON_INTEGER_LIST, eventIdString);
+        }
+        return eventIds;
+    }
+
+    private IntervalMode intervalModeFor(String window) {
+        if (WINDOW_OVERLAP.equals(window)) {
+            return IntervalMode.OVERLAP;
+        } else if (WINDOW_CONTAINED.equals(window)) {
+            return IntervalMode.CONTAINED;
+        }
+        throw new ServiceException(BAD_REQUEST, UNKNOWN_WINDOW);
+    }
 
-        return eventOccurrenceService.findEventOccurrences(attendee, circle, interval, eventIds, venueId, pagination);
+    /**
+     * Returns the occurrences in the bounding box grouped into clusters suitable for drawing at the given map zoom.
+     */
+    @GET
+    @Path("/clusters")
+    public List<OccurrenceCluster> findClusters(@QueryParam("bbox") String bbox,
+            @QueryParam("zoom") String zoomString) {
+        BoundingBox box = fromBoundingBoxParameter(bbox);
+        int zoom = toIntegerRequired("zoom", zoomString);
+        checkRange("zoom", zoom, MIN_ZOOM, MAX_ZOOM);
+        return eventOccurrenceService.findClusters(box, zoom);
     }
 
     @POST
@@ -106,6 +214,107 @@ public class EventOccurrenceResource extends AbstractWutupResource {
         }
     }
 
+    /**
+     * Creates many occurrences at once, answering with a result for each, in order: its id, or the status and message
+     * it would have failed with if posted on its own. Those that can be created are inserted together in one
+     * transaction; those that cannot do not hold the others back.
+     */
+    @POST
+    @Path("/batch")
+    public List<BatchItemResult> createEventOccurrences(List<EventOccurrence> eventOccurrences) {
+        checkBatchSize(eventOccurrences);
+        BatchItemResult[] results = new BatchItemResult[eventOccurrences.size()];
+        List<EventOccurrence> creatable = new ArrayList<EventOccurrence>();
+        List<Integer> positions = new ArrayList<Integer>();
+        for (int i = 0; i < eventOccurrences.size(); i++) {
+            try {
+                checkOccurrenceCanBeCreated(eventOccurrences.get(i));
+                creatable.add(eventOccurrences.get(i));
+                positions.add(i);
+            } catch (ServiceException e) {
+                results[i] = failureOf(e);
+            }
+        }
+
+        List<RuntimeException> failures;
+        try {
+            failures = creatable.isEmpty() ? new ArrayList<RuntimeException>()
+                    : eventOccurrenceService.createEventOccurrences(creatable);
+        } catch (EventOccurrenceExistsException e) {
+            // Another request got in between the checks and the inserts
+            throw new ServiceException(CONFLICT, BATCH_CHANGED_CONCURRENTLY);
+        } catch (NoSuchResourceException e) {
+            throw new ServiceException(CONFLICT, BATCH_CHANGED_CONCURRENTLY);
+        }
+        for (int j = 0; j < creatable.size(); j++) {
+            EventOccurrence o = creatable.get(j);
+            RuntimeException failure = failures.get(j);
+            if (failure == null) {
+                results[positions.get(j)] = new BatchItemResult(o.getId(), CREATED.getStatusCode(), null);
+            } else if (failure instanceof EventOccurrenceExistsException) {
+                results[positions.get(j)] = failureOf(new ServiceException(CONFLICT,
+                        RECURRENCE_INSTANCE_ALREADY_REPLACED, o.getRecurrenceId(), o.getRecurrenceStart()));
+            } else {
+                results[positions.get(j)] = failureOf(new ServiceException(NOT_FOUND,
+                        OCCURRENCE_EVENT_VENUE_OR_RECURRENCE_NOT_FOUND));
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Creates a recurring series, whose instances are found by occurrence searches with a time window without being
+     * stored.
+     */
+    @POST
+    @Path("/recurrences")
+    public Response createRecurrence(Recurrence recurrence, @Context UriInfo uriInfo) {
+        checkRecurrenceCanBeCreated(recurrence);
+        try {
+            int newId = eventOccurrenceService.createRecurrence(recurrence);
+            URI newLocation = uriInfo.getAbsolutePathBuilder().path(newId + "").build();
+            return Response.created(newLocation).type(MediaType.APPLICATION_JSON).entity(newId).build();
+        } catch (NoSuchResourceException e) {
+            throw new ServiceException(NOT_FOUND, RECURRENCE_EVENT_OR_VENUE_NOT_FOUND);
+        }
+    }
+
+    @GET
+    @Path("/recurrences/{id}")
+    public Recurrence findRecurrenceById(@PathParam("id") String idString) {
+        int id = toIntegerRequired("id", idString);
+        try {
+            return eventOccurrenceService.findRecurrenceById(id);
+        } catch (NoSuchRecurrenceException e) {
+            throw new ServiceException(NOT_FOUND, RECURRENCE_NOT_FOUND, id);
+        }
+    }
+
+    @DELETE
+    @Path("/recurrences/{id}")
+    public Response deleteRecurrence(@PathParam("id") String idString) {
+        int id = toIntegerRequired("id", idString);
+        try {
+            eventOccurrenceService.deleteRecurrence(id);
+            return Response.noContent().build();
+        } catch (NoSuchRecurrenceException e) {
+            throw new ServiceException(NOT_FOUND, RECURRENCE_NOT_FOUND, id);
+        }
+    }
+
+    private void checkRecurrenceCanBeCreated(Recurrence r) {
+        if (r.getEvent() == null || r.getEvent().getId() == null || r.getVenue() == null
+                || r.getVenue().getId() == null || r.getStart() == null || r.getEnd() == null || r.getRule() == null
+                || r.getEnd().isBefore(r.getStart())) {
+            throw new ServiceException(BAD_REQUEST, INSUFFICIENT_RECURRENCE_DATA);
+        }
+        try {
+            RecurrenceRule.parse(r.getRule());
+        } catch (IllegalArgumentException e) {
+            throw new ServiceException(BAD_REQUEST, "%s", e.getMessage());
+        }
+    }
+
     @PATCH
     @Path("/{id}")
     public Response updateEventOccurrence(@PathParam("id") String idString, EventOccurrence eventOccurrence) {
@@ -136,14 +345,15 @@ public class EventOccurrenceResource extends AbstractWutupResource {
 
     @GET
     @Path("/{id}/attendees")
-    public List<User> findAttendeesById(@PathParam("id") String idString,
+    public Response findAttendeesById(@PathParam("id") String idString,
             @QueryParam("page") @DefaultValue(DEFAULT_PAGE) String pageNumberString,
-            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString) {
+            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString,
+            @QueryParam("cursor") String cursor) {
 
-        PaginationData pagination = paginationDataFor(pageNumberString, pageSizeString);
+        PaginationData pagination = paginationDataFor(pageNumberString, pageSizeString, cursor);
         int id = toInteger("id", idString);
 
-        return eventOccurrenceService.findAttendeesByEventOccurrenceId(id, pagination);
+        return pageOf(eventOccurrenceService.findAttendeesByEventOccurrenceId(id, pagination), pagination, USER_KEY);
     }
 
     @POST
@@ -161,6 +371,53 @@ public class EventOccurrenceResource extends AbstractWutupResource {
         }
     }
 
+    /**
+     * Registers many users for the occurrence at once, answering with a result for each user, in order: 201 with the
+     * user id if registered, 409 if already registered, or 404 if the user or occurrence does not exist.
+     */
+    @POST
+    @Path("/{id}/attendees/batch")
+    public List<BatchItemResult> registerAttendeesForEventOccurrence(@PathParam("id") String idString,
+            List<Integer> userIds) {
+        int eventOccurrenceId = toIntegerRequired("id", idString);
+        checkBatchSize(userIds);
+        BatchItemResult[] results = new BatchItemResult[userIds.size()];
+        List<Attendance> attendances = new ArrayList<Attendance>();
+        List<Integer> positions = new ArrayList<Integer>();
+        for (int i = 0; i < userIds.size(); i++) {
+            if (userIds.get(i) == null) {
+                results[i] = failureOf(new ServiceException(BAD_REQUEST, ATTENDEE_ID_REQUIRED));
+            } else {
+                attendances.add(new Attendance(eventOccurrenceId, userIds.get(i)));
+                positions.add(i);
+            }
+        }
+
+        List<RuntimeException> failures;
+        try {
+            failures = attendances.isEmpty() ? new ArrayList<RuntimeException>()
+                    : eventOccurrenceService.registerAttendees(attendances);
+        } catch (AttendeeExistsException e) {
+            throw new ServiceException(CONFLICT, BATCH_CHANGED_CONCURRENTLY);
+        } catch (NoSuchAttendeeOrOccurrenceException e) {
+            throw new ServiceException(CONFLICT, BATCH_CHANGED_CONCURRENTLY);
+        }
+        for (int j = 0; j < attendances.size(); j++) {
+            int userId = attendances.get(j).userId;
+            RuntimeException failure = failures.get(j);
+            if (failure == null) {
+                results[positions.get(j)] = new BatchItemResult(userId, CREATED.getStatusCode(), null);
+            } else if (failure instanceof AttendeeExistsException) {
+                results[positions.get(j)] = failureOf(new ServiceException(CONFLICT, ATTENDEE_ALREADY_EXISTS, userId,
+                        eventOccurrenceId));
+            } else {
+                results[positions.get(j)] = failureOf(new ServiceException(NOT_FOUND,
+                        EVENT_OCCURRENCE_OR_USER_NOT_FOUND, eventOccurrenceId, userId));
+            }
+        }
+        return Arrays.asList(results);
+    }
+
     @DELETE
     @Path("/{id}/attendees/{userId}")
     public Response unregisterAttendeeForEventOccurrence(@PathParam("id") String idString,
@@ -177,28 +434,37 @@ public class EventOccurrenceResource extends AbstractWutupResource {
 
     @GET
     @Path("/{id}")
-    public EventOccurrence findEventOccurrenceById(@PathParam("id") String idString) {
+    public Response findEventOccurrenceById(@PathParam("id") String idString) {
         checkRequiredParameter("id", idString);
-        int id = toInteger("id", idString);
+        final int id = toInteger("id", idString);
+
+        return okCached(Kind.OCCURRENCE, id, new CachedEntity<EventOccurrence>() {
+            EventOccurrence load() {
+                try {
+                    return eventOccurrenceService.findEventOccurrenceById(id);
+                } catch (NoSuchEventOccurrenceException ex) {
+                    throw new ServiceException(NOT_FOUND, EVENT_OCCURRENCE_NOT_FOUND, id);
+                }
+            }
 
-        try {
-            return eventOccurrenceService.findEventOccurrenceById(id);
-        } catch (NoSuchEventOccurrenceException ex) {
-            throw new ServiceException(NOT_FOUND, EVENT_OCCURRENCE_NOT_FOUND, id);
-        }
+            Key[] dependencies(EventOccurrence occurrence) {
+                return dependenciesOf(occurrence);
+            }
+        });
     }
 
     /* Begins the Comment implementation. */
     @GET
     @Path("/{id}/comments")
-    public List<Comment> findEventOccurrenceComments(@PathParam("id") String idString,
+    public Response findEventOccurrenceComments(@PathParam("id") String idString,
             @QueryParam("page") @DefaultValue(DEFAULT_PAGE) String pageString,
-            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString) {
+            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString,
+            @QueryParam("cursor") String cursor) {
         checkRequiredParameter("id", idString);
         int id = toInteger("id", idString);
-        PaginationData pagination = paginationDataFor(pageString, pageSizeString);
+        PaginationData pagination = paginationDataFor(pageString, pageSizeString, cursor);
 
-        return eventOccurrenceService.findComments(id, pagination);
+        return pageOf(eventOccurrenceService.findComments(id, pagination), pagination, COMMENT_KEY);
     }
 
     @POST
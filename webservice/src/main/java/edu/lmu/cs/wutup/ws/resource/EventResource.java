@@ -27,12 +27,15 @@ import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
+import edu.lmu.cs.wutup.ws.cache.SerializedEntityCache.Key;
 import edu.lmu.cs.wutup.ws.exception.CommentExistsException;
 import edu.lmu.cs.wutup.ws.exception.EventExistsException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchCommentException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchEventException;
 import edu.lmu.cs.wutup.ws.exception.ServiceException;
 import edu.lmu.cs.wutup.ws.model.Comment;
+import edu.lmu.cs.wutup.ws.model.Cursor;
 import edu.lmu.cs.wutup.ws.model.Event;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
 import edu.lmu.cs.wutup.ws.service.EventService;
@@ -49,27 +52,42 @@ public class EventResource extends AbstractWutupResource {
     private static final String COMMENT_NOT_FOUND = "Comment %d does not exist for event %d";
     private static final String COMMENT_ALREADY_EXISTS = "Comment %d already exists for event %d";
 
+    private static final CursorKey<Event> EVENT_KEY = new CursorKey<Event>() {
+        public Cursor after(Event e) {
+            return Cursor.afterId(e.getId());
+        }
+    };
+
     @Autowired
     EventService eventService;
 
     @GET
     @Path("/{id}")
-    public Event findEventById(@PathParam("id") String idString) {
+    public Response findEventById(@PathParam("id") String idString) {
         checkRequiredParameter("id", idString);
-        int id = toInteger("id", idString);
+        final int id = toInteger("id", idString);
 
-        try {
-            return eventService.findEventById(id);
-        } catch (NoSuchEventException e) {
-            throw new ServiceException(NOT_FOUND, EVENT_NOT_FOUND, id);
-        }
+        return okCached(Kind.EVENT, id, new CachedEntity<Event>() {
+            Event load() {
+                try {
+                    return eventService.findEventById(id);
+                } catch (NoSuchEventException e) {
+                    throw new ServiceException(NOT_FOUND, EVENT_NOT_FOUND, id);
+                }
+            }
+
+            Key[] dependencies(Event event) {
+                return dependenciesOf(event);
+            }
+        });
     }
 
     @GET
     @Path("/")
-    public List<Event> findEvents(@QueryParam("name") String name, @QueryParam("owner") String ownerString,
+    public Response findEvents(@QueryParam("name") String name, @QueryParam("owner") String ownerString,
             @QueryParam("page") @DefaultValue(DEFAULT_PAGE) String pageString,
-            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString) {
+            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString,
+            @QueryParam("cursor") String cursor) {
         ArrayList<Integer> owners = new ArrayList<Integer>();
         if (ownerString != null) {
             String[] ownerStringArray = ownerString.split(",");
@@ -81,8 +99,8 @@ public class EventResource extends AbstractWutupResource {
                 }
             }
         }
-        PaginationData pagination = paginationDataFor(pageString, pageSizeString);
-        return eventService.findEvents(name, owners, pagination);
+        PaginationData pagination = paginationDataFor(pageString, pageSizeString, cursor);
+        return pageOf(eventService.findEvents(name, owners, pagination), pagination, EVENT_KEY);
     }
 
     @POST
@@ -131,15 +149,16 @@ public class EventResource extends AbstractWutupResource {
 
     @GET
     @Path("/{id}/comments")
-    public List<Comment> findEventComments(@PathParam("id") String idString,
+    public Response findEventComments(@PathParam("id") String idString,
             @QueryParam("page") @DefaultValue("0") String pageString,
-            @QueryParam("pageSize") @DefaultValue("10") String pageSizeString) {
+            @QueryParam("pageSize") @DefaultValue("10") String pageSizeString,
+            @QueryParam("cursor") String cursor) {
 
         checkRequiredParameter("id", idString);
         int eventId = toInteger("id", idString);
-        PaginationData pagination = paginationDataFor(pageString, pageSizeString);
+        PaginationData pagination = paginationDataFor(pageString, pageSizeString, cursor);
 
-        return eventService.findComments(eventId, pagination);
+        return pageOf(eventService.findComments(eventId, pagination), pagination, COMMENT_KEY);
     }
 
     @POST
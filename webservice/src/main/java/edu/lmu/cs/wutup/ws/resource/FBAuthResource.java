@@ -1,5 +1,7 @@
 package edu.lmu.cs.wutup.ws.resource;
 
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+
 import java.net.URI;
 
 import javax.ws.rs.Consumes;
@@ -13,10 +15,15 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.stereotype.Component;
 
+import edu.lmu.cs.wutup.ws.exception.NoSuchSyncJobException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchUserException;
+import edu.lmu.cs.wutup.ws.exception.ServiceException;
+import edu.lmu.cs.wutup.ws.model.SyncJob;
 import edu.lmu.cs.wutup.ws.service.FBAuthService;
+import edu.lmu.cs.wutup.ws.service.FacebookSyncService;
 import edu.lmu.cs.wutup.ws.service.UserService;
 
 @Component
@@ -25,12 +32,17 @@ import edu.lmu.cs.wutup.ws.service.UserService;
 @Path("/auth")
 public class FBAuthResource extends AbstractWutupResource {
 
+    private static final String SYNC_JOB_NOT_FOUND = "Synchronization %s does not exist.";
+
     @Autowired
     UserService userService;
 
     @Autowired
     FBAuthService fbService;
 
+    @Autowired
+    FacebookSyncService syncService;
+
     @GET
     @Path("/{facebookId}")
     public Response retrieveUserByFacebookId(@DefaultValue("") @PathParam("facebookId") String facebookId) {
@@ -71,7 +83,7 @@ public class FBAuthResource extends AbstractWutupResource {
 
         try {
             final String accessToken = fbService.getAccessToken(code, redirectUri);
-            fbService.findOrCreateFBUser(accessToken, fbService.getUserIdFromFB(fbService.getFBUser(accessToken)));
+            fbService.findOrCreateFBUser(fbService.getFBUser(accessToken));
             return Response
                     .seeOther(new URI(finalLandingUri))
                     .build();
@@ -105,13 +117,25 @@ public class FBAuthResource extends AbstractWutupResource {
         }
 
         try {
-            fbService.syncUser(fbService.getAccessToken(code, redirectUri));
+            SyncJob job = syncService.submitSync(fbService.getAccessToken(code, redirectUri));
             return Response
-                    .seeOther(new URI(finalLandingUri))
+                    .seeOther(new URI(finalLandingUri + "?syncJob=" + job.getId()))
                     .build();
+        } catch (TaskRejectedException e) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
         } catch (Exception e) {
             logger.error(e);
             return Response.serverError().build();
         }
     }
+
+    @GET
+    @Path("/facebook/sync/{jobId}")
+    public SyncJob findSyncJob(@PathParam("jobId") String jobId) {
+        try {
+            return syncService.findJob(jobId);
+        } catch (NoSuchSyncJobException e) {
+            throw new ServiceException(NOT_FOUND, SYNC_JOB_NOT_FOUND, jobId);
+        }
+    }
 }
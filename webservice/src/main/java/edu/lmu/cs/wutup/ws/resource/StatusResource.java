@@ -0,0 +1,32 @@
+package edu.lmu.cs.wutup.ws.resource;
+
+import java.util.List;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.springframework.stereotype.Component;
+
+import edu.lmu.cs.wutup.ws.model.AbstractGateway;
+import edu.lmu.cs.wutup.ws.model.ConnectionPoolStatus;
+
+/**
+ * Operational status of the service, for whoever is watching it run.
+ */
+@Component
+@Produces({MediaType.APPLICATION_JSON})
+@Path("/status")
+public class StatusResource {
+
+    /**
+     * Returns how the connections the gateways keep to Google and Facebook are being used, over all hosts first. A
+     * pending count that stays above zero means calls are waiting on the pool rather than on the API.
+     */
+    @GET
+    @Path("/gateways")
+    public List<ConnectionPoolStatus> findGatewayStatus() {
+        return AbstractGateway.poolStatus();
+    }
+}
@@ -4,7 +4,10 @@ import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.util.Date;
 import java.util.List;
 
 import javax.ws.rs.Consumes;
@@ -17,8 +20,13 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,12 +34,15 @@ import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
 import edu.lmu.cs.wutup.ws.exception.NoSuchUserException;
 import edu.lmu.cs.wutup.ws.exception.ServiceException;
 import edu.lmu.cs.wutup.ws.exception.UserExistsException;
+import edu.lmu.cs.wutup.ws.model.CalendarVersion;
 import edu.lmu.cs.wutup.ws.model.Comment;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
 import edu.lmu.cs.wutup.ws.model.User;
+import edu.lmu.cs.wutup.ws.service.EventOccurrenceService;
 import edu.lmu.cs.wutup.ws.service.UserService;
 
 @Component
@@ -45,11 +56,15 @@ public class UserResource extends AbstractWutupResource {
     private static final String USER_NOT_FOUND = "User %d does not exist.";
     private static final String USER_NOT_FOUND_BY_QUERY = "No User found by specified query parameters";
     private static final String USER_ALREADY_EXISTS = "User %d already exists";
+    private static final String CALENDAR_MEDIA_TYPE = "text/calendar; charset=UTF-8";
     private static final String USER_UNDER_SPECIFIED = "User is not sufficiently specified for creation.";
 
     @Autowired
     UserService userService;
 
+    @Autowired
+    EventOccurrenceService eventOccurrenceService;
+
     @POST
     @Path("/")
     public Response createUser(User u, @Context UriInfo uriInfo) {
@@ -95,14 +110,18 @@ public class UserResource extends AbstractWutupResource {
 
     @GET
     @Path("/{id}")
-    public User findUserById(@PathParam("id") String idString) {
+    public Response findUserById(@PathParam("id") String idString) {
         checkRequiredParameter("id", idString);
-        int id = toInteger("id", idString);
-        try {
-            return userService.findUserById(id);
-        } catch (NoSuchUserException e) {
-            throw new ServiceException(NOT_FOUND, USER_NOT_FOUND, id);
-        }
+        final int id = toInteger("id", idString);
+        return okCached(Kind.USER, id, new CachedEntity<User>() {
+            User load() {
+                try {
+                    return userService.findUserById(id);
+                } catch (NoSuchUserException e) {
+                    throw new ServiceException(NOT_FOUND, USER_NOT_FOUND, id);
+                }
+            }
+        });
     }
 
     @DELETE
@@ -120,19 +139,60 @@ public class UserResource extends AbstractWutupResource {
 
     @GET
     @Path("/{id}/comments")
-    public List<Comment> findCommentsByUserId(@PathParam("id") String idString,
+    public Response findCommentsByUserId(@PathParam("id") String idString,
             @QueryParam("page") @DefaultValue(DEFAULT_PAGE) String pageString,
-            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString) {
+            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString,
+            @QueryParam("cursor") String cursor) {
         int id = toIntegerRequired("id", idString);
-        PaginationData pagination = paginationDataFor(pageString, pageSizeString);
+        PaginationData pagination = paginationDataFor(pageString, pageSizeString, cursor);
         try {
             User existingUser = userService.findUserById(id);
-            return userService.findCommentsByUser(existingUser, pagination);
+            return pageOf(userService.findCommentsByUser(existingUser, pagination), pagination, COMMENT_KEY);
         } catch (NoSuchUserException e) {
             throw new ServiceException(NOT_FOUND, USER_NOT_FOUND, id);
         }
     }
 
+    /**
+     * Streams the occurrences the user is attending as an iCalendar feed. Every change that could affect the feed
+     * bumps the user's calendar version, so polling clients are answered 304 after a single primary key lookup.
+     */
+    @GET
+    @Path("/{id}/calendar.ics")
+    @Produces(CALENDAR_MEDIA_TYPE)
+    public Response findCalendarByUserId(@PathParam("id") String idString, @Context Request request,
+            @Context HttpHeaders headers) {
+        final int id = toIntegerRequired("id", idString);
+        final CalendarVersion version;
+        try {
+            version = eventOccurrenceService.findCalendarVersion(id);
+        } catch (NoSuchUserException e) {
+            throw new ServiceException(NOT_FOUND, USER_NOT_FOUND, id);
+        }
+
+        EntityTag tag = new EntityTag(id + "-" + version.version);
+        // HTTP dates have whole seconds, so compare against the version time truncated the same way
+        Date lastModified = new Date(version.lastModified.getMillis() / 1000 * 1000);
+        // An entity tag, when sent, is the stronger validator and the date must then be ignored (RFC 2616 14.26)
+        List<String> ifNoneMatch = headers.getRequestHeader(HttpHeaders.IF_NONE_MATCH);
+        ResponseBuilder notModified = ifNoneMatch != null && !ifNoneMatch.isEmpty()
+                ? request.evaluatePreconditions(tag)
+                : request.evaluatePreconditions(lastModified);
+        if (notModified != null) {
+            return notModified.tag(tag).lastModified(lastModified).build();
+        }
+
+        StreamingOutput calendar = new StreamingOutput() {
+            public void write(OutputStream output) throws IOException {
+                CalendarWriter writer = new CalendarWriter(output, version.lastModified);
+                writer.begin();
+                eventOccurrenceService.visitAttendedOccurrences(id, writer);
+                writer.end();
+            }
+        };
+        return Response.ok(calendar).tag(tag).lastModified(lastModified).build();
+    }
+
     public void checkUserHasRequiredFields(User u) {
         if (u.getEmail() == null || u.getFirstName() == null || u.getLastName() == null) {
             throw new ServiceException(BAD_REQUEST, USER_UNDER_SPECIFIED);
@@ -28,6 +28,7 @@ import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
 import edu.lmu.cs.wutup.ws.exception.NoSuchCommentException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchEventException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchPropertyException;
@@ -37,6 +38,7 @@ import edu.lmu.cs.wutup.ws.exception.ServiceException;
 import edu.lmu.cs.wutup.ws.exception.VenueExistsException;
 import edu.lmu.cs.wutup.ws.model.Circle;
 import edu.lmu.cs.wutup.ws.model.Comment;
+import edu.lmu.cs.wutup.ws.model.Cursor;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
 import edu.lmu.cs.wutup.ws.model.Venue;
 import edu.lmu.cs.wutup.ws.service.VenueService;
@@ -54,32 +56,58 @@ public class VenueResource extends AbstractWutupResource {
     private static final String PROPERTY_VENUE_ID_CONFLICT = "Property does not exist for Venue %d, cannot be deleted";
     private static final String INVALID_NUM_OF_PROPERTIES = "Only one property key and value pair must be specified";
 
+    private static final String DEFAULT_NEAREST_COUNT = "10";
+    private static final int MAX_NEAREST_COUNT = 100;
+
+    private static final CursorKey<Venue> VENUE_KEY = new CursorKey<Venue>() {
+        public Cursor after(Venue v) {
+            return Cursor.afterId(v.getId());
+        }
+    };
+
     @Autowired
     VenueService venueService;
 
     @GET
     @Path("/")
-    public List<Venue> findVenues(@QueryParam("name") String name, @QueryParam("event") String eventIdString,
+    public Response findVenues(@QueryParam("name") String name, @QueryParam("event") String eventIdString,
             @QueryParam("center") String center, @QueryParam("radius") String radiusString,
             @QueryParam("page") @DefaultValue(DEFAULT_PAGE) String pageString,
-            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString) {
+            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString,
+            @QueryParam("cursor") String cursor) {
 
         Integer eventId = toInteger("event", eventIdString);
         Circle circle = fromCenterAndRadiusParameters(center, radiusString);
-        PaginationData pagination = paginationDataFor(pageString, pageSizeString);
+        PaginationData pagination = paginationDataFor(pageString, pageSizeString, cursor);
 
-        return venueService.findVenues(name, eventId, circle, pagination);
+        return pageOf(venueService.findVenues(name, eventId, circle, pagination), pagination, VENUE_KEY);
+    }
+
+    @GET
+    @Path("/nearest")
+    public List<Venue> findNearestVenues(@QueryParam("center") String center,
+            @QueryParam("k") @DefaultValue(DEFAULT_NEAREST_COUNT) String kString) {
+
+        double[] coordinates = fromCenterParameter(center);
+        int k = toIntegerRequired("k", kString);
+        checkRange("k", k, 1, MAX_NEAREST_COUNT);
+
+        return venueService.findNearestVenues(coordinates[0], coordinates[1], k);
     }
 
     @GET
     @Path("/{id}")
-    public Venue findVenueById(@PathParam("id") String idString) {
-        int id = toIntegerRequired("id", idString);
-        try {
-            return venueService.findVenueById(id);
-        } catch (NoSuchVenueException e) {
-            throw new ServiceException(NOT_FOUND, VENUE_NOT_FOUND, id);
-        }
+    public Response findVenueById(@PathParam("id") String idString) {
+        final int id = toIntegerRequired("id", idString);
+        return okCached(Kind.VENUE, id, new CachedEntity<Venue>() {
+            Venue load() {
+                try {
+                    return venueService.findVenueById(id);
+                } catch (NoSuchVenueException e) {
+                    throw new ServiceException(NOT_FOUND, VENUE_NOT_FOUND, id);
+                }
+            }
+        });
     }
 
     @POST
@@ -128,14 +156,15 @@ public class VenueResource extends AbstractWutupResource {
 
     @GET
     @Path("/{id}/comments")
-    public List<Comment> findVenueComments(@PathParam("id") String idString,
+    public Response findVenueComments(@PathParam("id") String idString,
             @QueryParam("page") @DefaultValue(DEFAULT_PAGE) String pageString,
-            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString) {
+            @QueryParam("pageSize") @DefaultValue(DEFAULT_PAGE_SIZE) String pageSizeString,
+            @QueryParam("cursor") String cursor) {
 
         int venueId = toIntegerRequired("id", idString);
-        PaginationData pagination = paginationDataFor(pageString, pageSizeString);
+        PaginationData pagination = paginationDataFor(pageString, pageSizeString, cursor);
 
-        return venueService.findComments(venueId, pagination);
+        return pageOf(venueService.findComments(venueId, pagination), pagination, COMMENT_KEY);
     }
 
     @POST
@@ -5,15 +5,25 @@ import java.util.List;
 
 import org.joda.time.Interval;
 
+import edu.lmu.cs.wutup.ws.dao.EventOccurrenceDao.OccurrenceVisitor;
+import edu.lmu.cs.wutup.ws.model.Attendance;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
+import edu.lmu.cs.wutup.ws.model.CalendarVersion;
 import edu.lmu.cs.wutup.ws.model.Circle;
 import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+import edu.lmu.cs.wutup.ws.model.OccurrenceCluster;
+import edu.lmu.cs.wutup.ws.model.OccurrenceFacets;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
+import edu.lmu.cs.wutup.ws.model.Recurrence;
 import edu.lmu.cs.wutup.ws.model.User;
 
 public interface EventOccurrenceService extends CommentService {
 
     int createEventOccurrence(EventOccurrence e);
 
+    List<RuntimeException> createEventOccurrences(List<EventOccurrence> occurrences);
+
     void updateEventOccurrence(EventOccurrence e);
 
     void deleteEventOccurrence(int id);
@@ -26,9 +36,29 @@ public interface EventOccurrenceService extends CommentService {
     EventOccurrence findEventOccurrenceById(int id);
 
     List<EventOccurrence> findEventOccurrences(Integer attendee, Circle circle, Interval interval,
-            List<Integer> eventId, Integer venueId, PaginationData pagination);
+            IntervalMode intervalMode, List<Integer> eventId, Integer venueId, PaginationData pagination);
+
+    List<EventOccurrence> findEventOccurrencesByDistance(Integer attendee, Circle circle, Interval interval,
+            IntervalMode intervalMode, List<Integer> eventId, Integer venueId, PaginationData pagination);
+
+    OccurrenceFacets findFacets(Integer attendee, Circle circle, Interval interval, IntervalMode intervalMode,
+            List<Integer> eventId, Integer venueId);
+
+    List<OccurrenceCluster> findClusters(BoundingBox box, int zoom);
+
+    int createRecurrence(Recurrence r);
+
+    Recurrence findRecurrenceById(int id);
+
+    void deleteRecurrence(int id);
+
+    CalendarVersion findCalendarVersion(int userId);
+
+    void visitAttendedOccurrences(int userId, OccurrenceVisitor visitor);
 
     void registerAttendeeForEventOccurrence(int eventOccurrenceId, int attendeeId);
 
+    List<RuntimeException> registerAttendees(List<Attendance> attendances);
+
     void unregisterAttendeeForEventOccurrence(int eventOccurrenceId, int attendeeId);
 }
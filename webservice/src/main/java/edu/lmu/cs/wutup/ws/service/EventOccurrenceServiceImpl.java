@@ -9,10 +9,18 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import edu.lmu.cs.wutup.ws.dao.EventOccurrenceDao;
+import edu.lmu.cs.wutup.ws.dao.EventOccurrenceDao.OccurrenceVisitor;
+import edu.lmu.cs.wutup.ws.model.Attendance;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
+import edu.lmu.cs.wutup.ws.model.CalendarVersion;
 import edu.lmu.cs.wutup.ws.model.Circle;
 import edu.lmu.cs.wutup.ws.model.Comment;
 import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+import edu.lmu.cs.wutup.ws.model.OccurrenceCluster;
+import edu.lmu.cs.wutup.ws.model.OccurrenceFacets;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
+import edu.lmu.cs.wutup.ws.model.Recurrence;
 import edu.lmu.cs.wutup.ws.model.User;
 
 @Service
@@ -27,6 +35,11 @@ public class EventOccurrenceServiceImpl implements EventOccurrenceService {
         return eventOccurrenceDao.createEventOccurrence(e);
     }
 
+    @Override
+    public List<RuntimeException> createEventOccurrences(List<EventOccurrence> occurrences) {
+        return eventOccurrenceDao.createEventOccurrences(occurrences);
+    }
+
     @Override
     public void updateEventOccurrence(EventOccurrence e) {
         eventOccurrenceDao.updateEventOccurrence(e);
@@ -55,8 +68,52 @@ public class EventOccurrenceServiceImpl implements EventOccurrenceService {
 
     @Override
     public List<EventOccurrence> findEventOccurrences(Integer attendee, Circle circle, Interval interval,
-            List<Integer> eventId, Integer venueId, PaginationData pagination) {
-        return eventOccurrenceDao.findEventOccurrences(attendee, circle, interval, eventId, venueId, pagination);
+            IntervalMode intervalMode, List<Integer> eventId, Integer venueId, PaginationData pagination) {
+        return eventOccurrenceDao.findEventOccurrences(attendee, circle, interval, intervalMode, eventId, venueId,
+                pagination);
+    }
+
+    @Override
+    public List<EventOccurrence> findEventOccurrencesByDistance(Integer attendee, Circle circle, Interval interval,
+            IntervalMode intervalMode, List<Integer> eventId, Integer venueId, PaginationData pagination) {
+        return eventOccurrenceDao.findEventOccurrencesByDistance(attendee, circle, interval, intervalMode, eventId,
+                venueId, pagination);
+    }
+
+    @Override
+    public OccurrenceFacets findFacets(Integer attendee, Circle circle, Interval interval, IntervalMode intervalMode,
+            List<Integer> eventId, Integer venueId) {
+        return eventOccurrenceDao.findFacets(attendee, circle, interval, intervalMode, eventId, venueId);
+    }
+
+    @Override
+    public List<OccurrenceCluster> findClusters(BoundingBox box, int zoom) {
+        return eventOccurrenceDao.findClusters(box, zoom);
+    }
+
+    @Override
+    public int createRecurrence(Recurrence r) {
+        return eventOccurrenceDao.createRecurrence(r);
+    }
+
+    @Override
+    public Recurrence findRecurrenceById(int id) {
+        return eventOccurrenceDao.findRecurrenceById(id);
+    }
+
+    @Override
+    public void deleteRecurrence(int id) {
+        eventOccurrenceDao.deleteRecurrence(id);
+    }
+
+    @Override
+    public CalendarVersion findCalendarVersion(int userId) {
+        return eventOccurrenceDao.findCalendarVersion(userId);
+    }
+
+    @Override
+    public void visitAttendedOccurrences(int userId, OccurrenceVisitor visitor) {
+        eventOccurrenceDao.visitAttendedOccurrences(userId, visitor);
     }
 
     @Override
@@ -64,6 +121,11 @@ public class EventOccurrenceServiceImpl implements EventOccurrenceService {
         eventOccurrenceDao.registerAttendeeForEventOccurrence(eventOccurrenceId, attendeeId);
     }
 
+    @Override
+    public List<RuntimeException> registerAttendees(List<Attendance> attendances) {
+        return eventOccurrenceDao.registerAttendees(attendances);
+    }
+
     @Override
     public void unregisterAttendeeForEventOccurrence(int eventOccurrenceId, int attendeeId) {
         eventOccurrenceDao.unregisterAttendeeForEventOccurrence(eventOccurrenceId, attendeeId);
@@ -12,6 +12,8 @@ import org.joda.time.DateTime;
 
 import com.restfb.types.User;
 
+import edu.lmu.cs.wutup.ws.model.SyncProgress;
+
 public interface FBAuthService {
 
     String getAccessToken(String code, String redirectUri) throws IOException;
@@ -27,12 +29,15 @@ public interface FBAuthService {
 
     String getUserEvents(String accessToken) throws ParseException, ClientProtocolException, IOException;
 
+    String getUserEvents(String accessToken, DateTime since) throws ParseException, ClientProtocolException,
+            IOException;
+
     String getVenueFromFbById(String accessToken, String fbResourceId) throws ParseException, ClientProtocolException,
             IOException;
 
-    edu.lmu.cs.wutup.ws.model.User findOrCreateFBUser(String accessToken, String fbId);
+    edu.lmu.cs.wutup.ws.model.User findOrCreateFBUser(User fbUser);
 
-    edu.lmu.cs.wutup.ws.model.User syncUser(String accessToken);
+    void syncUser(edu.lmu.cs.wutup.ws.model.User u, String accessToken, DateTime since, SyncProgress progress);
 
     String postUserEvent(String accessToken, String name, DateTime start, DateTime end, String description,
             String location, String FBLocationId, String privacyType);
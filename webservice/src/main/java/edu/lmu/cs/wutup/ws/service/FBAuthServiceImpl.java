@@ -9,7 +9,17 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,11 +27,14 @@ import javax.ws.rs.core.Response;
 
 import org.apache.http.ParseException;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.log4j.Logger;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import com.restfb.DefaultFacebookClient;
@@ -35,6 +48,7 @@ import edu.lmu.cs.wutup.ws.exception.NoSuchVenueException;
 import edu.lmu.cs.wutup.ws.model.Event;
 import edu.lmu.cs.wutup.ws.model.EventOccurrence;
 import edu.lmu.cs.wutup.ws.model.FacebookGateway;
+import edu.lmu.cs.wutup.ws.model.SyncProgress;
 import edu.lmu.cs.wutup.ws.model.Venue;
 
 @Service
@@ -56,6 +70,12 @@ public class FBAuthServiceImpl implements FBAuthService {
     @Autowired
     VenueService venueService;
 
+    @Autowired(required = false)
+    @Qualifier("geocodeExecutor")
+    AsyncTaskExecutor geocodeExecutor;
+
+    Logger logger = Logger.getLogger(getClass());
+
     @Override
     public String getAccessToken(String code, String redirectUri) throws IOException, InvalidFBAccessTokenException {
         return extractAccessToken(FacebookGateway.acquireAccessToken(code, redirectUri));
@@ -94,7 +114,13 @@ public class FBAuthServiceImpl implements FBAuthService {
 
     @Override
     public String getUserEvents(String accessToken) throws ParseException, ClientProtocolException, IOException {
-        return acquireUserEvents(accessToken);
+        return getUserEvents(accessToken, null);
+    }
+
+    @Override
+    public String getUserEvents(String accessToken, DateTime since) throws ParseException, ClientProtocolException,
+            IOException {
+        return acquireUserEvents(accessToken, since);
     }
 
     @Override
@@ -102,99 +128,189 @@ public class FBAuthServiceImpl implements FBAuthService {
         return acquireResource(accessToken, fbResourceId);
     }
 
+    /**
+     * Finds the user with the Facebook user's id, creating them from the Facebook user if there is none, so that the
+     * Facebook user is fetched only once.
+     */
     @Override
-    public edu.lmu.cs.wutup.ws.model.User findOrCreateFBUser(String accessToken, String fbId) {
-        edu.lmu.cs.wutup.ws.model.User u;
+    public edu.lmu.cs.wutup.ws.model.User findOrCreateFBUser(User fbUser) {
         try {
-            u = userService.findUserByFacebookId(fbId);
+            return userService.findUserByFacebookId(fbUser.getId());
         } catch (NoSuchUserException e) {
-            User fbUser = getFBUser(accessToken);
-            u = new edu.lmu.cs.wutup.ws.model.User(null, fbUser.getFirstName(), fbUser.getLastName(),
-                    fbUser.getEmail(), fbUser.getName(), null, fbUser.getId());
-            userService.createUser(u);
-            u = userService.findUserByFacebookId(fbUser.getId());
+            return createFBUser(fbUser);
         }
+    }
 
-        return u;
+    private edu.lmu.cs.wutup.ws.model.User createFBUser(User fbUser) {
+        edu.lmu.cs.wutup.ws.model.User u = new edu.lmu.cs.wutup.ws.model.User(null, fbUser.getFirstName(),
+                fbUser.getLastName(), fbUser.getEmail(), fbUser.getName(), null, fbUser.getId());
+        userService.createUser(u);
+        return userService.findUserByFacebookId(fbUser.getId());
     }
 
+    /**
+     * Synchronizes only the events starting after <code>since</code>, or all of them when it is null, for a user
+     * already known to be the owner of the access token.
+     */
     @Override
-    public edu.lmu.cs.wutup.ws.model.User syncUser(String accessToken) {
-        JSONArray events;
+    public void syncUser(edu.lmu.cs.wutup.ws.model.User u, String accessToken, DateTime since, SyncProgress progress) {
+        syncEvents(u, fetchEvents(accessToken, since), progress);
+    }
+
+    private JSONArray fetchEvents(String accessToken, DateTime since) {
         try {
-            events = new JSONObject(getUserEvents(accessToken)).getJSONArray("data");
+            return new JSONObject(getUserEvents(accessToken, since)).getJSONArray("data");
         } catch (JSONException e) {
             throw new FBUserSynchronizationException();
         } catch (IOException e) {
             throw new FBUserSynchronizationException();
         }
+    }
 
-        Event event;
-        EventOccurrence e;
-        JSONObject current;
-        Venue v;
-        String currentName, currentLocation, currentStartTime, currentEndTime;
-        edu.lmu.cs.wutup.ws.model.User u = findOrCreateFBUser(accessToken, getUserIdFromFB(getFBUser(accessToken)));
-
-        for (int x = 0; x < events.length(); x++) {
+    /**
+     * Copies the user's Facebook events into occurrences in stages: reading them all, geocoding their distinct
+     * locations on the geocode executor, finding or creating each distinct event and venue once, then creating the
+     * occurrences not already there in a single batch. An event that fails at any stage is recorded in the progress
+     * and left out.
+     */
+    private void syncEvents(edu.lmu.cs.wutup.ws.model.User u, JSONArray events, SyncProgress progress) {
+        progress.setTotal(events.length());
+
+        List<FacebookEvent> fbEvents = readEvents(events, progress);
+        Map<String, Future<Venue>> resolvedLocations = geocodeLocations(fbEvents);
+
+        Map<String, Event> eventsByName = new HashMap<String, Event>();
+        Map<String, Venue> venuesByName = new HashMap<String, Venue>();
+        Set<List<Object>> seen = new HashSet<List<Object>>();
+        List<EventOccurrence> occurrences = new ArrayList<EventOccurrence>();
+        List<FacebookEvent> sources = new ArrayList<FacebookEvent>();
+        for (FacebookEvent fbEvent : fbEvents) {
             try {
-                current = events.getJSONObject(x);
-                currentName = current.getString("name");
-                currentStartTime = current.getString("start_time");
-                currentLocation = current.getString("location");
-            } catch (JSONException exception) {
-                continue;
+                Venue v = findOrCreateVenue(resolvedLocations.get(fbEvent.location).get(), venuesByName);
+                Event event = findOrCreateEvent(fbEvent.name, u, eventsByName);
+                Timestamp start = new Timestamp(fbEvent.start.getMillis());
+                Timestamp end = new Timestamp(fbEvent.end.getMillis());
+                if (!seen.add(Arrays.<Object>asList(event.getId(), v.getId(), start, end))
+                        || !occurrenceService.findEventOccurrenceByProperties(event.getId(), v.getId(), start, end)
+                                .isEmpty()) {
+                    progress.eventSkipped();
+                    continue;
+                }
+                occurrences.add(new EventOccurrence(event, v, fbEvent.start, fbEvent.end));
+                sources.add(fbEvent);
+            } catch (ExecutionException exception) {
+                progress.eventFailed(fbEvent.describe(exception.getCause()));
+            } catch (Exception exception) {
+                progress.eventFailed(fbEvent.describe(exception));
             }
+        }
 
-            try {
-                currentEndTime = current.getString("end_time");
-            } catch (JSONException exception) {
-                currentEndTime = null;
+        if (!occurrences.isEmpty()) {
+            List<RuntimeException> failures = occurrenceService.createEventOccurrences(occurrences);
+            for (int i = 0; i < failures.size(); i++) {
+                if (failures.get(i) == null) {
+                    progress.eventCreated();
+                } else {
+                    progress.eventFailed(sources.get(i).describe(failures.get(i)));
+                }
             }
+        }
+        logger.info("Synchronized Facebook events of user " + u.getId() + ": " + progress);
+    }
 
+    /**
+     * Reads the events that have a name, start time and location, rejecting the others.
+     */
+    private List<FacebookEvent> readEvents(JSONArray events, SyncProgress progress) {
+        List<FacebookEvent> fbEvents = new ArrayList<FacebookEvent>();
+        for (int x = 0; x < events.length(); x++) {
+            FacebookEvent fbEvent = new FacebookEvent(x);
             try {
-                event = eventService.findEventByName(currentName);
-            } catch (NoSuchEventException exception) {
-                event = new Event(null, currentName, currentName, u);
-                event.setId(Integer.class.cast(eventService.createEvent(event)));
+                JSONObject current = events.getJSONObject(x);
+                fbEvent.name = current.getString("name");
+                fbEvent.location = current.getString("location");
+                fbEvent.start = new DateTime(current.getString("start_time"));
+                String endTime = current.optString("end_time", null);
+                fbEvent.end = endTime != null ? new DateTime(endTime) : fbEvent.start.plusDays(1);
+                fbEvents.add(fbEvent);
+            } catch (JSONException exception) {
+                progress.eventRejected(fbEvent.describe(exception));
+            } catch (IllegalArgumentException exception) {
+                progress.eventRejected(fbEvent.describe(exception));
             }
+        }
+        return fbEvents;
+    }
 
-            try {
-                v = geocodeService.resolveVenue(currentLocation, null, null);
-            } catch (Exception exception) {
-                continue;
+    /**
+     * Starts resolving each distinct location once on the geocode executor, or right away without one.
+     */
+    private Map<String, Future<Venue>> geocodeLocations(List<FacebookEvent> fbEvents) {
+        Map<String, Future<Venue>> resolvedLocations = new HashMap<String, Future<Venue>>();
+        for (FacebookEvent fbEvent : fbEvents) {
+            final String location = fbEvent.location;
+            if (!resolvedLocations.containsKey(location)) {
+                FutureTask<Venue> task = new FutureTask<Venue>(new Callable<Venue>() {
+                    public Venue call() throws Exception {
+                        return geocodeService.resolveVenue(location, null, null);
+                    }
+                });
+                if (geocodeExecutor != null) {
+                    geocodeExecutor.execute(task);
+                } else {
+                    task.run();
+                }
+                resolvedLocations.put(location, task);
             }
+        }
+        return resolvedLocations;
+    }
 
+    private Venue findOrCreateVenue(Venue resolved, Map<String, Venue> venuesByName) {
+        Venue v = venuesByName.get(resolved.getName());
+        if (v == null) {
             try {
-                v = venueService.findVenueByName(v.getName());
+                v = venueService.findVenueByName(resolved.getName());
             } catch (NoSuchVenueException exception) {
-                venueService.createVenue(v);
+                venueService.createVenue(resolved);
+                v = resolved;
             }
+            venuesByName.put(v.getName(), v);
+        }
+        return v;
+    }
 
-            DateTime start;
-            DateTime end;
+    private Event findOrCreateEvent(String name, edu.lmu.cs.wutup.ws.model.User u, Map<String, Event> eventsByName) {
+        Event event = eventsByName.get(name);
+        if (event == null) {
             try {
-                start = new DateTime(currentStartTime);
-                end = (currentEndTime != null ? new DateTime(currentEndTime) : start.plusDays(1));
-                
-                e = new EventOccurrence(event, v, start, end);
-            } catch (Exception exception) {
-                exception.printStackTrace();
-                continue;
+                event = eventService.findEventByName(name);
+            } catch (NoSuchEventException exception) {
+                event = new Event(null, name, name, u);
+                event.setId(Integer.class.cast(eventService.createEvent(event)));
             }
+            eventsByName.put(name, event);
+        }
+        return event;
+    }
 
-            List<EventOccurrence> occurrences = occurrenceService.findEventOccurrenceByProperties(
-                    event.getId(),
-                    v.getId(),
-                    start != null ? new Timestamp(start.getMillis()) : null,
-                    end != null ? new Timestamp(end.getMillis()) : null);
-
-            if (occurrences.size() == 0) {
-                occurrenceService.createEventOccurrence(e);
-            }
+    /**
+     * One of a user's Facebook events, by its position in the list Facebook returned.
+     */
+    private static class FacebookEvent {
+        final int index;
+        String name;
+        String location;
+        DateTime start;
+        DateTime end;
+
+        FacebookEvent(int index) {
+            this.index = index;
         }
 
-        return u;
+        String describe(Throwable failure) {
+            return "Event " + index + (name != null ? " (" + name + ")" : "") + ": " + failure;
+        }
     }
 
     @Override
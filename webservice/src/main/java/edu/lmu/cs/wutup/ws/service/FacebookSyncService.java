@@ -0,0 +1,12 @@
+package edu.lmu.cs.wutup.ws.service;
+
+import edu.lmu.cs.wutup.ws.model.SyncJob;
+
+public interface FacebookSyncService {
+
+    SyncJob submitSync(String accessToken);
+
+    SyncJob findJob(String id);
+
+    void resyncUsers();
+}
@@ -0,0 +1,178 @@
+package edu.lmu.cs.wutup.ws.service;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.lmu.cs.wutup.ws.dao.FacebookSyncDao;
+import edu.lmu.cs.wutup.ws.exception.NoSuchSyncJobException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchUserException;
+import edu.lmu.cs.wutup.ws.model.FacebookSync;
+import edu.lmu.cs.wutup.ws.model.SyncJob;
+import edu.lmu.cs.wutup.ws.model.User;
+
+/**
+ * Synchronizes users' Facebook events as jobs queued on the sync executor, so asking for a synchronization returns as
+ * soon as it is queued. A user has at most one job queued or running at a time, and asking again meanwhile gets that
+ * job back. Jobs can be looked up by id until <code>JOB_TTL_MINUTES</code> after they were queued or finished.
+ *
+ * Each job fetches only the events starting after the user's watermark, which is when the last job without failed
+ * events started: any earlier event has either begun already or was fetched by that job. Rejected events, which would
+ * be rejected every time, don't hold the watermark back. The scheduler calls <code>resyncUsers</code> to queue a job,
+ * with the access token last used, for each user not synchronized within <code>resyncIntervalMillis</code>. After a
+ * job that failed, the wait doubles with each failure in a row, and after <code>MAX_FAILED_ATTEMPTS</code> the user's
+ * token is forgotten, so that tokens are only kept while they work, and the user is left alone until they synchronize
+ * again themselves, with a new token.
+ */
+@Service
+public class FacebookSyncServiceImpl implements FacebookSyncService {
+
+    static final int MAX_JOBS = 10000;
+    static final long JOB_TTL_MINUTES = 60;
+    static final long DEFAULT_RESYNC_INTERVAL_MILLIS = 6L * 60 * 60 * 1000;
+    static final int MAX_FAILED_ATTEMPTS = 5;
+
+    @Autowired
+    FBAuthService fbService;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    FacebookSyncDao syncDao;
+
+    @Autowired(required = false)
+    @Qualifier("syncExecutor")
+    AsyncTaskExecutor syncExecutor;
+
+    Logger logger = Logger.getLogger(getClass());
+
+    private final Cache<String, SyncJob> jobs = CacheBuilder.newBuilder().maximumSize(MAX_JOBS)
+            .expireAfterWrite(JOB_TTL_MINUTES, TimeUnit.MINUTES).build();
+    private final ConcurrentMap<Integer, SyncJob> activeJobs = new ConcurrentHashMap<Integer, SyncJob>();
+    private long resyncIntervalMillis = DEFAULT_RESYNC_INTERVAL_MILLIS;
+
+    public void setResyncIntervalMillis(long resyncIntervalMillis) {
+        this.resyncIntervalMillis = resyncIntervalMillis;
+    }
+
+    /**
+     * Queues a synchronization for the owner of the access token, remembering the token for the ones that follow.
+     * Throws TaskRejectedException if the queue is full.
+     */
+    @Override
+    public SyncJob submitSync(String accessToken) {
+        User u = fbService.findOrCreateFBUser(fbService.getFBUser(accessToken));
+        syncDao.saveAccessToken(u.getId(), accessToken);
+        return submit(u, accessToken);
+    }
+
+    @Override
+    public SyncJob findJob(String id) {
+        SyncJob job = jobs.getIfPresent(id);
+        if (job == null) {
+            throw new NoSuchSyncJobException();
+        }
+        return job;
+    }
+
+    /**
+     * Queues a synchronization for every user due one, stopping when the queue is full; the rest are queued the next
+     * time round.
+     */
+    @Override
+    public void resyncUsers() {
+        DateTime now = new DateTime();
+        for (FacebookSync sync : syncDao.findSyncsBefore(now.minus(resyncIntervalMillis))) {
+            if (!isDue(sync, now)) {
+                continue;
+            }
+            try {
+                submit(userService.findUserById(sync.userId), sync.accessToken);
+            } catch (NoSuchUserException e) {
+                logger.warn("No user " + sync.userId + " to resynchronize");
+            } catch (TaskRejectedException e) {
+                logger.warn("Facebook synchronization queue is full, resynchronizing the others later");
+                return;
+            }
+        }
+    }
+
+    private boolean isDue(FacebookSync sync, DateTime now) {
+        if (sync.failedAttempts == 0 || sync.lastAttempted == null) {
+            return true;
+        }
+        return sync.failedAttempts < MAX_FAILED_ATTEMPTS
+                && !sync.lastAttempted.plus(resyncIntervalMillis << sync.failedAttempts).isAfter(now);
+    }
+
+    private SyncJob submit(final User u, final String accessToken) {
+        final SyncJob job = new SyncJob(UUID.randomUUID().toString(), u.getId());
+        SyncJob active = activeJobs.putIfAbsent(u.getId(), job);
+        if (active != null) {
+            return active;
+        }
+        jobs.put(job.getId(), job);
+
+        Runnable task = new Runnable() {
+            public void run() {
+                runJob(job, u, accessToken);
+            }
+        };
+        if (syncExecutor == null) {
+            task.run();
+        } else {
+            try {
+                syncExecutor.execute(task);
+            } catch (TaskRejectedException e) {
+                job.failed("Too many synchronizations queued");
+                activeJobs.remove(u.getId(), job);
+                throw e;
+            }
+        }
+        return job;
+    }
+
+    private void runJob(SyncJob job, User u, String accessToken) {
+        job.setState(SyncJob.State.RUNNING);
+        DateTime started = new DateTime();
+        FacebookSync sync = null;
+        try {
+            sync = syncDao.findSync(u.getId());
+            fbService.syncUser(u, accessToken, sync != null ? sync.lastSynced : null, job);
+            if (job.getFailed() == 0) {
+                syncDao.saveLastSynced(u.getId(), started);
+            } else {
+                saveFailedAttempt(sync, u.getId(), started);
+            }
+            job.setState(SyncJob.State.DONE);
+        } catch (RuntimeException e) {
+            logger.error("Facebook synchronization " + job.getId() + " of user " + u.getId() + " failed", e);
+            job.failed(e.toString());
+            saveFailedAttempt(sync, u.getId(), started);
+        } finally {
+            jobs.put(job.getId(), job);
+            activeJobs.remove(u.getId(), job);
+        }
+    }
+
+    private void saveFailedAttempt(FacebookSync sync, int userId, DateTime attempted) {
+        syncDao.saveFailedAttempt(userId, attempted);
+        if (sync != null && sync.failedAttempts + 1 >= MAX_FAILED_ATTEMPTS) {
+            logger.warn("Giving up resynchronizing user " + userId + " after " + MAX_FAILED_ATTEMPTS + " failures");
+            syncDao.forgetAccessToken(userId);
+        }
+    }
+}
@@ -7,35 +7,107 @@ import static edu.lmu.cs.wutup.ws.model.GoogleGateway.geocodeAddressToLatLong;
 import static edu.lmu.cs.wutup.ws.model.GoogleGateway.geocodeCoordinatesToAddress;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.http.client.ClientProtocolException;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
+import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.lmu.cs.wutup.ws.dao.GeocodeDao;
 import edu.lmu.cs.wutup.ws.exception.LocationNotFoundByGoogleException;
 import edu.lmu.cs.wutup.ws.exception.MalformedCoordinatesException;
 import edu.lmu.cs.wutup.ws.exception.NoAddressProvidedException;
+import edu.lmu.cs.wutup.ws.model.GeocodeResponse;
 import edu.lmu.cs.wutup.ws.model.LatLong;
 import edu.lmu.cs.wutup.ws.model.Venue;
 
+/**
+ * Geocodes through Google, remembering its responses first in memory, least recently used out first, then in the
+ * database, so that the same handful of addresses are not sent again and again. Addresses are looked up by their text
+ * in lower case with whitespace collapsed, and coordinates rounded to <code>coordinateDecimals</code> places; the
+ * normalized forms are what get sent. Responses with results are kept for <code>ttlMillis</code>, and those saying
+ * there are none, which make lookups fail with LocationNotFoundByGoogleException, for
+ * <code>notFoundTtlMillis</code>. Any other response, such as going over the query limit, is not kept.
+ *
+ * Lookups of the same key at the same time are made once: the first thread makes it and the others wait, up to
+ * <code>lookupTimeoutMillis</code>, for its response or its exception. Within one call, each key is looked up at most
+ * once.
+ */
 @Service
 @Transactional
 public class GeocodeServiceImpl implements GeocodeService {
+
+    static final int MAX_RECENT_RESPONSES = 10000;
+    static final int DEFAULT_COORDINATE_DECIMALS = 5;
+    static final long DEFAULT_TTL_MILLIS = 30L * 24 * 60 * 60 * 1000;
+    static final long DEFAULT_NOT_FOUND_TTL_MILLIS = 24L * 60 * 60 * 1000;
+    static final long DEFAULT_LOOKUP_TIMEOUT_MILLIS = 15000;
+
+    private static final String FOUND = "OK";
+    private static final String NOT_FOUND = "ZERO_RESULTS";
+
     @Autowired
     VenueService venueService;
+
+    @Autowired
+    GeocodeDao geocodeDao;
+
+    private final Cache<String, GeocodeResponse> recentResponses = CacheBuilder.newBuilder()
+            .maximumSize(MAX_RECENT_RESPONSES).build();
+    private int coordinateDecimals = DEFAULT_COORDINATE_DECIMALS;
+    private long ttlMillis = DEFAULT_TTL_MILLIS;
+    private long notFoundTtlMillis = DEFAULT_NOT_FOUND_TTL_MILLIS;
+    private long lookupTimeoutMillis = DEFAULT_LOOKUP_TIMEOUT_MILLIS;
+    private final ConcurrentMap<String, FutureTask<GeocodeResponse>> lookupsInFlight =
+            new ConcurrentHashMap<String, FutureTask<GeocodeResponse>>();
+
+    public void setCoordinateDecimals(int coordinateDecimals) {
+        this.coordinateDecimals = coordinateDecimals;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public void setNotFoundTtlMillis(long notFoundTtlMillis) {
+        this.notFoundTtlMillis = notFoundTtlMillis;
+    }
+
+    public void setLookupTimeoutMillis(long lookupTimeoutMillis) {
+        this.lookupTimeoutMillis = lookupTimeoutMillis;
+    }
     
     public LatLong resolveAddressToLatLong(String address) throws NoAddressProvidedException, LocationNotFoundByGoogleException, IOException {
+        return resolveAddressToLatLong(address, new HashMap<String, String>());
+    }
+
+    private LatLong resolveAddressToLatLong(String address, Map<String, String> responses) throws IOException {
 
         if (address == null || address == "") {
             throw new NoAddressProvidedException();
         }
         
         try {
-            JSONObject r = extractLocationFromJSON(new JSONObject(
-                    geocodeAddressToLatLong(address)));
+            JSONObject r = extractLocationFromJSON(new JSONObject(geocodeAddress(address, responses)));
 
             return new LatLong(r.getDouble("lat"), r.getDouble("lng"));
 
@@ -45,13 +117,17 @@ public class GeocodeServiceImpl implements GeocodeService {
     }
 
     public String resolveLatLongToAddress(Double lat, Double lng) throws MalformedCoordinatesException {
+        return resolveLatLongToAddress(lat, lng, new HashMap<String, String>());
+    }
+
+    private String resolveLatLongToAddress(Double lat, Double lng, Map<String, String> responses) {
 
         if (lat == null || lng == null || lat < -90 || lat > 90 || lng < -180 || lng > 180) {
             throw new MalformedCoordinatesException();
         }
         
         try {
-            return extractAddressFromJSON(new JSONObject(geocodeCoordinatesToAddress(lat, lng)));
+            return extractAddressFromJSON(new JSONObject(geocodeCoordinates(lat, lng, responses)));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -68,20 +144,21 @@ public class GeocodeServiceImpl implements GeocodeService {
         Venue v = new Venue();
         String resolvedName, resolvedAddress;
         LatLong location;
+        Map<String, String> responses = new HashMap<String, String>();
         
         if (lat != null && lng != null) {
             // TODO: Handle resolveLatLongToAddress failure with exception
-            resolvedAddress = resolveLatLongToAddress(lat, lng);
-            location = resolveAddressToLatLong(resolvedAddress);
+            resolvedAddress = resolveLatLongToAddress(lat, lng, responses);
+            location = resolveAddressToLatLong(resolvedAddress, responses);
         } else if (address != null) {
-            location = resolveAddressToLatLong(address);
-            resolvedAddress = resolveLatLongToAddress(location.latitude, location.longitude);
+            location = resolveAddressToLatLong(address, responses);
+            resolvedAddress = resolveLatLongToAddress(location.latitude, location.longitude, responses);
         } else {
             return null;
         }
 
         try {
-            resolvedName = extractNameFromJSON(new JSONObject(geocodeAddressToLatLong(resolvedAddress)));
+            resolvedName = extractNameFromJSON(new JSONObject(geocodeAddress(resolvedAddress, responses)));
         } catch (JSONException e) {
             throw new LocationNotFoundByGoogleException();
         }
@@ -92,4 +169,134 @@ public class GeocodeServiceImpl implements GeocodeService {
 
         return v;
     }
+
+    /**
+     * Returns Google's response to geocoding the address, taking it from the responses already seen in this call if it
+     * is there and adding it if not.
+     */
+    String geocodeAddress(String address, Map<String, String> responses) throws IOException {
+        final String normalized = normalizeAddress(address);
+        return lookUp("address:" + normalized, responses, new Lookup() {
+            String fetch() throws IOException {
+                return fetchAddress(normalized);
+            }
+        });
+    }
+
+    /**
+     * Returns Google's response to reverse geocoding the coordinates, in the same way.
+     */
+    String geocodeCoordinates(double lat, double lng, Map<String, String> responses) throws IOException {
+        final BigDecimal roundedLat = round(lat);
+        final BigDecimal roundedLng = round(lng);
+        String key = "latlng:" + roundedLat.toPlainString() + "," + roundedLng.toPlainString();
+        return lookUp(key, responses, new Lookup() {
+            String fetch() throws IOException {
+                return fetchCoordinates(roundedLat.doubleValue(), roundedLng.doubleValue());
+            }
+        });
+    }
+
+    String fetchAddress(String address) throws IOException {
+        return geocodeAddressToLatLong(address);
+    }
+
+    String fetchCoordinates(double lat, double lng) throws IOException {
+        return geocodeCoordinatesToAddress(lat, lng);
+    }
+
+    static String normalizeAddress(String address) {
+        return address.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ENGLISH);
+    }
+
+    private BigDecimal round(double coordinate) {
+        return BigDecimal.valueOf(coordinate).setScale(coordinateDecimals, RoundingMode.HALF_UP);
+    }
+
+    private String lookUp(final String key, Map<String, String> responses, final Lookup lookup) throws IOException {
+        String body = responses.get(key);
+        if (body == null) {
+            final DateTime now = new DateTime();
+            GeocodeResponse response = recentResponses.getIfPresent(key);
+            if (response == null || response.isExpired(now)) {
+                FutureTask<GeocodeResponse> task = new FutureTask<GeocodeResponse>(new Callable<GeocodeResponse>() {
+                    public GeocodeResponse call() throws IOException {
+                        return load(key, lookup, now);
+                    }
+                });
+                FutureTask<GeocodeResponse> inFlight = lookupsInFlight.putIfAbsent(key, task);
+                if (inFlight == null) {
+                    try {
+                        task.run();
+                    } finally {
+                        lookupsInFlight.remove(key, task);
+                    }
+                    inFlight = task;
+                }
+                response = await(key, inFlight);
+            }
+            body = response.body;
+            responses.put(key, body);
+        }
+        return body;
+    }
+
+    /**
+     * Reads the response from the database, or fetches it and saves it if it should be kept.
+     */
+    private GeocodeResponse load(String key, Lookup lookup, DateTime now) throws IOException {
+        GeocodeResponse response = geocodeDao.findResponse(key, now);
+        if (response == null) {
+            String body = lookup.fetch();
+            Long ttl = ttlOf(body);
+            if (ttl == null) {
+                return new GeocodeResponse(body, now);
+            }
+            response = new GeocodeResponse(body, now.plus(ttl));
+            geocodeDao.saveResponse(key, response);
+        }
+        recentResponses.put(key, response);
+        return response;
+    }
+
+    /**
+     * Waits for a lookup being made by this or another thread, rethrowing whatever it failed with.
+     */
+    private GeocodeResponse await(String key, FutureTask<GeocodeResponse> lookup) throws IOException {
+        try {
+            return lookup.get(lookupTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new InterruptedIOException("Timed out waiting for the geocoder to answer " + key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the geocoder to answer " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Returns how long to keep a response, or null if it should not be kept.
+     */
+    private Long ttlOf(String body) {
+        try {
+            String status = new JSONObject(body).optString("status");
+            return FOUND.equals(status) ? Long.valueOf(ttlMillis) : NOT_FOUND.equals(status) ? Long
+                    .valueOf(notFoundTtlMillis) : null;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private abstract static class Lookup {
+        abstract String fetch() throws IOException;
+    }
 }
@@ -17,6 +17,8 @@ public interface VenueService extends CommentService {
 
     List<Venue> findVenues(String name, Integer eventId, Circle circle, PaginationData pagination);
 
+    List<Venue> findNearestVenues(double latitude, double longitude, int k);
+
     void updateVenue(Venue loc);
 
     void deleteVenue(int venueId);
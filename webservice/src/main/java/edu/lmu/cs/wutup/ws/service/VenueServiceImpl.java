@@ -45,6 +45,11 @@ public class VenueServiceImpl implements VenueService {
         return venueDao.findVenues(name, eventId, circle, pagination);
     }
 
+    @Override
+    public List<Venue> findNearestVenues(double latitude, double longitude, int k) {
+        return venueDao.findNearestVenues(latitude, longitude, k);
+    }
+
     @Override
     public void deleteVenue(int venueId) {
         venueDao.deleteVenue(venueId);
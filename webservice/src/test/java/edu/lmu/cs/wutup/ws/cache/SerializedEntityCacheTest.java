@@ -0,0 +1,62 @@
+package edu.lmu.cs.wutup.ws.cache;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
+
+public class SerializedEntityCacheTest {
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedFirst() {
+        SerializedEntityCache cache = new SerializedEntityCache();
+        cache.setMaxBytes(30);
+        cache.put(Kind.VENUE, 1, new byte[10], cache.stamp());
+        cache.put(Kind.VENUE, 2, new byte[10], cache.stamp());
+        cache.put(Kind.VENUE, 3, new byte[10], cache.stamp());
+        cache.get(Kind.VENUE, 1);
+        cache.put(Kind.VENUE, 4, new byte[10], cache.stamp());
+
+        assertThat(cache.get(Kind.VENUE, 2), nullValue());
+        assertThat(cache.get(Kind.VENUE, 1).length, is(10));
+        assertThat(cache.get(Kind.VENUE, 3).length, is(10));
+        assertThat(cache.get(Kind.VENUE, 4).length, is(10));
+
+        cache.put(Kind.VENUE, 5, new byte[31], cache.stamp());
+        assertThat(cache.get(Kind.VENUE, 5), nullValue());
+        assertThat(cache.size(), is(3));
+    }
+
+    @Test
+    public void invalidatingAnEntityDropsEverythingThatIncludesIt() {
+        SerializedEntityCache cache = new SerializedEntityCache();
+        long stamp = cache.stamp();
+        cache.put(Kind.USER, 3, new byte[1], stamp);
+        cache.put(Kind.EVENT, 2, new byte[1], stamp, SerializedEntityCache.key(Kind.USER, 3));
+        cache.put(Kind.OCCURRENCE, 1, new byte[1], stamp, SerializedEntityCache.key(Kind.EVENT, 2),
+                SerializedEntityCache.key(Kind.VENUE, 4));
+        cache.put(Kind.OCCURRENCE, 5, new byte[1], stamp, SerializedEntityCache.key(Kind.VENUE, 6));
+
+        cache.invalidate(Kind.USER, 3);
+
+        assertThat(cache.get(Kind.USER, 3), nullValue());
+        assertThat(cache.get(Kind.EVENT, 2), nullValue());
+        assertThat(cache.get(Kind.OCCURRENCE, 1), nullValue());
+        assertThat(cache.get(Kind.OCCURRENCE, 5).length, is(1));
+    }
+
+    @Test
+    public void entitiesReadBeforeAnInvalidationAreNotCached() {
+        SerializedEntityCache cache = new SerializedEntityCache();
+        long stamp = cache.stamp();
+        cache.invalidate(Kind.EVENT, 7);
+        cache.put(Kind.EVENT, 7, new byte[1], stamp);
+        assertThat(cache.get(Kind.EVENT, 7), nullValue());
+
+        cache.put(Kind.EVENT, 7, new byte[1], cache.stamp());
+        assertThat(cache.get(Kind.EVENT, 7).length, is(1));
+    }
+}
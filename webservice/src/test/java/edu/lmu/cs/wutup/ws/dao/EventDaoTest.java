@@ -4,6 +4,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.joda.time.DateTime;
@@ -15,6 +16,10 @@ import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
 
+import edu.lmu.cs.wutup.ws.cache.SerializedEntityCache;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrenceFilterIndex;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrenceIntervalTree;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrencePyramid;
 import edu.lmu.cs.wutup.ws.exception.NoSuchEventException;
 import edu.lmu.cs.wutup.ws.model.Comment;
 import edu.lmu.cs.wutup.ws.model.Event;
@@ -42,6 +47,13 @@ public class EventDaoTest {
                 .addScript("init.sql")
                 .build();
         eventDao.jdbcTemplate = new JdbcTemplate(database);
+        eventDao.occurrencePyramid = new OccurrencePyramid();
+        eventDao.occurrencePyramid.setJdbcTemplate(eventDao.jdbcTemplate);
+        eventDao.occurrenceTree = new OccurrenceIntervalTree();
+        eventDao.occurrenceTree.setJdbcTemplate(eventDao.jdbcTemplate);
+        eventDao.occurrenceFilter = new OccurrenceFilterIndex();
+        eventDao.occurrenceFilter.setJdbcTemplate(eventDao.jdbcTemplate);
+        eventDao.entityInvalidator = new SerializedEntityCache();
     }
 
     @Test
@@ -175,6 +187,24 @@ public class EventDaoTest {
         eventDao.updateEvent(new Event(1000, "Unknown", "No Description", katrina));
     }
 
+    @Test
+    public void updatingAnEventBumpsTheCalendarVersionsOfItsAttendees() {
+        String versionSql = "select calendarVersion from user where id=?";
+        int nedInitial = eventDao.jdbcTemplate.queryForInt(versionSql, 2);
+        int jackInitial = eventDao.jdbcTemplate.queryForInt(versionSql, 3);
+        eventDao.updateEvent(new Event(2, "Renamed", null, null));
+        assertThat(eventDao.jdbcTemplate.queryForInt(versionSql, 2), is(nedInitial + 1));
+        assertThat(eventDao.jdbcTemplate.queryForInt(versionSql, 3), is(jackInitial));
+    }
+
+    @Test
+    public void updatingAnEventRefreshesTheSearchRowsOfItsOccurrences() {
+        eventDao.updateEvent(new Event(2, "Renamed", null, null));
+        List<String> names = eventDao.jdbcTemplate.queryForList(
+                "select eventName from occurrence_search where eventId=?", String.class, 2);
+        assertThat(names, is(Arrays.asList("Renamed", "Renamed")));
+    }
+
     @Test
     public void deletingDecrementsSize() {
         int initialCount = eventDao.findNumberOfEvents();
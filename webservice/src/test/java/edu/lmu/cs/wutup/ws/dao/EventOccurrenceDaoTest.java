@@ -1,12 +1,18 @@
 package edu.lmu.cs.wutup.ws.dao;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
@@ -14,17 +20,39 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
-
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.ImmutableMap;
+
+import edu.lmu.cs.wutup.ws.cache.SerializedEntityCache;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrenceFilterIndex;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrenceIntervalTree;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrencePyramid;
+import edu.lmu.cs.wutup.ws.exception.AttendeeExistsException;
+import edu.lmu.cs.wutup.ws.exception.EventOccurrenceExistsException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchAttendeeOrOccurrenceException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchEventOccurrenceException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchRecurrenceException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchResourceException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchUserException;
+import edu.lmu.cs.wutup.ws.model.Attendance;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
 import edu.lmu.cs.wutup.ws.model.Circle;
 import edu.lmu.cs.wutup.ws.model.Comment;
+import edu.lmu.cs.wutup.ws.model.Cursor;
 import edu.lmu.cs.wutup.ws.model.Event;
 import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+import edu.lmu.cs.wutup.ws.model.OccurrenceCluster;
+import edu.lmu.cs.wutup.ws.model.OccurrenceFacets;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
+import edu.lmu.cs.wutup.ws.model.Recurrence;
 import edu.lmu.cs.wutup.ws.model.User;
 import edu.lmu.cs.wutup.ws.model.Venue;
 
@@ -35,6 +63,12 @@ import edu.lmu.cs.wutup.ws.model.Venue;
  */
 public class EventOccurrenceDaoTest {
 
+    private static final Interval NOVEMBER = new Interval(new DateTime(2012, 11, 1, 0, 0), new DateTime(2012, 12, 1,
+            0, 0));
+
+    private static final Interval EARLY_NOVEMBER = new Interval(new DateTime(2012, 11, 1, 0, 0), new DateTime(2012,
+            11, 14, 0, 0));
+
     private EmbeddedDatabase database;
     private EventOccurrenceDaoJdbcImpl eventOccurrenceDao = new EventOccurrenceDaoJdbcImpl();
 
@@ -53,6 +87,13 @@ public class EventOccurrenceDaoTest {
         database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).addScript("schema.sql")
                 .addScript("init.sql").build();
         eventOccurrenceDao.jdbcTemplate = new JdbcTemplate(database);
+        eventOccurrenceDao.occurrencePyramid = new OccurrencePyramid();
+        eventOccurrenceDao.occurrencePyramid.setJdbcTemplate(eventOccurrenceDao.jdbcTemplate);
+        eventOccurrenceDao.occurrenceTree = new OccurrenceIntervalTree();
+        eventOccurrenceDao.occurrenceTree.setJdbcTemplate(eventOccurrenceDao.jdbcTemplate);
+        eventOccurrenceDao.occurrenceFilter = new OccurrenceFilterIndex();
+        eventOccurrenceDao.occurrenceFilter.setJdbcTemplate(eventOccurrenceDao.jdbcTemplate);
+        eventOccurrenceDao.entityInvalidator = new SerializedEntityCache();
     }
 
     @Test
@@ -99,21 +140,21 @@ public class EventOccurrenceDaoTest {
     @Test
     public void findEventOccurrencesByPaginationWorks() {
         assertThat(eventOccurrenceDao.findNumberOfEventOccurrences(), is(10));
-        List<EventOccurrence> eventOccurrences = eventOccurrenceDao.findEventOccurrences(null, null, null, null, null,
-                new PaginationData(0, 3));
+        List<EventOccurrence> eventOccurrences = eventOccurrenceDao.findEventOccurrences(null, null, null,
+                IntervalMode.CONTAINED, null, null, new PaginationData(0, 3));
         assertThat(eventOccurrences.size(), is(3));
-        eventOccurrences = eventOccurrenceDao.findEventOccurrences(null, null, null, null, null, new PaginationData(1,
-                3));
+        eventOccurrences = eventOccurrenceDao.findEventOccurrences(null, null, null, IntervalMode.CONTAINED, null,
+                null, new PaginationData(1, 3));
         assertThat(eventOccurrences.size(), is(3));
-        eventOccurrences = eventOccurrenceDao.findEventOccurrences(null, null, null, null, null, new PaginationData(3,
-                3));
+        eventOccurrences = eventOccurrenceDao.findEventOccurrences(null, null, null, IntervalMode.CONTAINED, null,
+                null, new PaginationData(3, 3));
         assertThat(eventOccurrences.size(), is(1));
     }
 
     @Test
     public void findEventOccurrencesByCircleWorks() {
         List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrences(null, new Circle(34.1127863,
-                -118.3392439, 0.01), null, null, null, new PaginationData(0, 5));
+                -118.3392439, 0.01), null, IntervalMode.CONTAINED, null, null, new PaginationData(0, 5));
         assertThat(occurrences.size(), is(2));
         EventOccurrence e1 = occurrences.get(0);
         EventOccurrence e2 = occurrences.get(1);
@@ -121,20 +162,198 @@ public class EventOccurrenceDaoTest {
         assertThat(e2.getId(), is(7));
     }
 
+    @Test
+    public void findEventOccurrencesByCircleAwayFromAllVenuesIsEmpty() {
+        List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrences(null, new Circle(51.5, -0.12, 50),
+                null, IntervalMode.CONTAINED, null, null, new PaginationData(0, 5));
+        assertThat(occurrences.size(), is(0));
+    }
+
+    @Test
+    public void findEventOccurrencesByDistanceComesClosestFirst() {
+        Circle circle = new Circle(34.1127863, -118.3392439, 10);
+        List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrencesByDistance(null, circle, null,
+                IntervalMode.CONTAINED, null, null, new PaginationData(0, 10));
+        assertThat(idsOf(occurrences), is(Arrays.asList(2, 7, 1, 6, 5, 10, 3, 8)));
+        assertThat(occurrences.get(0).getDistance(), is(0.0));
+        assertThat(occurrences.get(0).getVenue().getName(), is("Hollywood Bowl"));
+        assertTrue(occurrences.get(2).getDistance() > 1 && occurrences.get(2).getDistance() < 1.5);
+    }
+
+    @Test
+    public void findEventOccurrencesByDistancePagesAreConsistent() {
+        Circle circle = new Circle(34.1127863, -118.3392439, 10);
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int page = 0; page < 4; page++) {
+            ids.addAll(idsOf(eventOccurrenceDao.findEventOccurrencesByDistance(null, circle, null,
+                    IntervalMode.CONTAINED, null, null, new PaginationData(page, 3))));
+        }
+        assertThat(ids, is(Arrays.asList(2, 7, 1, 6, 5, 10, 3, 8)));
+    }
+
+    @Test
+    public void findEventOccurrencesByDistanceAppliesOtherFilters() {
+        Circle circle = new Circle(34.1127863, -118.3392439, 10);
+        Interval interval = new Interval(new DateTime(2012, 11, 1, 0, 0), new DateTime(2012, 12, 1, 0, 0));
+        List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrencesByDistance(null, circle, interval,
+                IntervalMode.CONTAINED, null, null, new PaginationData(0, 10));
+        assertThat(idsOf(occurrences), is(Arrays.asList(7, 6, 10, 8)));
+    }
+
+    @Test
+    public void clustersFollowCreatedAndDeletedOccurrences() {
+        BoundingBox losAngeles = new BoundingBox(30, -120, 36, -116);
+        List<OccurrenceCluster> clusters = eventOccurrenceDao.findClusters(losAngeles, 0);
+        assertThat(clusters.size(), is(1));
+        assertThat(clusters.get(0).getCount(), is(8));
+        assertThat(clusters.get(0).getSampleIds(), is(Arrays.asList(1, 2, 3, 5, 6)));
+
+        int newId = eventOccurrenceDao.createEventOccurrence(new EventOccurrence(eventOne, keck, new DateTime(
+                "2012-11-13T08:30:00Z"), new DateTime("2012-11-13T11:30:00Z")));
+        eventOccurrenceDao.deleteEventOccurrence(1);
+        clusters = eventOccurrenceDao.findClusters(losAngeles, 0);
+        assertThat(clusters.get(0).getCount(), is(8));
+        assertThat(clusters.get(0).getSampleIds().size(), is(5));
+        assertFalse(clusters.get(0).getSampleIds().contains(1));
+
+        clusters = eventOccurrenceDao.findClusters(new BoundingBox(34.1019, -118.3262, 34.1020, -118.3261), 16);
+        assertThat(clusters.size(), is(1));
+        assertThat(clusters.get(0).getSampleIds(), is(Arrays.asList(6, newId)));
+        assertEquals(34.1019444, clusters.get(0).getLatitude(), 1e-9);
+    }
+
+    @Test
+    public void clustersAtFinerZoomsSplitApart() {
+        List<OccurrenceCluster> clusters = eventOccurrenceDao.findClusters(new BoundingBox(30, -120, 36, -116), 12);
+        int total = 0;
+        for (OccurrenceCluster cluster : clusters) {
+            total += cluster.getCount();
+        }
+        assertThat(total, is(8));
+        assertTrue(clusters.size() > 1);
+    }
+
+    private static List<Integer> idsOf(List<EventOccurrence> occurrences) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (EventOccurrence o : occurrences) {
+            ids.add(o.getId());
+        }
+        return ids;
+    }
+
     @Test
     public void findEventOccurrencesByDateTimeIntervalWorks() {
         List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrences(null, null, new Interval(
-                new DateTime("2012-01-15T08:30:00"), new DateTime("2012-01-16T11:30:00")), null, null,
-                new PaginationData(0, 5));
+                new DateTime("2012-01-15T08:30:00"), new DateTime("2012-01-16T11:30:00")), IntervalMode.CONTAINED,
+                null, null, new PaginationData(0, 5));
         assertThat(occurrences.size(), is(1));
         EventOccurrence e = occurrences.get(0);
         assertThat(e.getId(), is(1));
     }
 
     @Test
-    public void findEventOccurencesByVenueIdWorks() {
-        List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrences(null, null, null, null, 2,
+    public void findEventOccurrencesOverlappingIntervalIncludesPartialOverlaps() {
+        Interval evening = new Interval(new DateTime("2012-01-16T00:00:00"), new DateTime("2012-01-16T01:00:00"));
+        List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrences(null, null, evening,
+                IntervalMode.OVERLAP, null, null, new PaginationData(0, 5));
+        assertThat(idsOf(occurrences), is(Arrays.asList(1)));
+        occurrences = eventOccurrenceDao.findEventOccurrences(null, null, evening, IntervalMode.CONTAINED, null, null,
                 new PaginationData(0, 5));
+        assertThat(occurrences.size(), is(0));
+    }
+
+    @Test
+    public void findEventOccurrencesByIntervalSeesCreatedUpdatedAndDeletedOccurrences() {
+        Interval night = new Interval(new DateTime("2012-11-13T08:00:00Z"), new DateTime("2012-11-13T12:00:00Z"));
+        eventOccurrenceDao.findEventOccurrences(null, null, night, IntervalMode.OVERLAP, null, null,
+                new PaginationData(0, 5));
+        int newId = eventOccurrenceDao.createEventOccurrence(new EventOccurrence(eventOne, keck, new DateTime(
+                "2012-11-13T08:30:00Z"), new DateTime("2012-11-13T11:30:00Z")));
+        assertThat(idsOf(eventOccurrenceDao.findEventOccurrences(null, null, night, IntervalMode.OVERLAP, null, null,
+                new PaginationData(0, 5))), is(Arrays.asList(newId)));
+
+        EventOccurrence e = eventOccurrenceDao.findEventOccurrenceById(newId);
+        e.setStart(new DateTime("2012-11-14T08:30:00Z"));
+        e.setEnd(new DateTime("2012-11-14T11:30:00Z"));
+        eventOccurrenceDao.updateEventOccurrence(e);
+        assertThat(eventOccurrenceDao.findEventOccurrences(null, null, night, IntervalMode.OVERLAP, null, null,
+                new PaginationData(0, 5)).size(), is(0));
+
+        Interval nextNight = new Interval(night.getStart().plusDays(1), night.getEnd().plusDays(1));
+        assertThat(idsOf(eventOccurrenceDao.findEventOccurrences(null, null, nextNight, IntervalMode.CONTAINED, null,
+                null, new PaginationData(0, 5))), is(Arrays.asList(newId)));
+        eventOccurrenceDao.deleteEventOccurrence(newId);
+        assertThat(eventOccurrenceDao.findEventOccurrences(null, null, nextNight, IntervalMode.CONTAINED, null,
+                null, new PaginationData(0, 5)).size(), is(0));
+    }
+
+    @Test
+    public void facetsCountTheMatchesByVenueEventCategoryAndDay() {
+        OccurrenceFacets facets = eventOccurrenceDao.findFacets(null, null, NOVEMBER, IntervalMode.CONTAINED,
+                Arrays.asList(2, 5, 6), null);
+        assertThat(facets.getTotal(), is(3));
+        assertThat(facets.getVenues(), is((Map<Integer, Integer>) ImmutableMap.of(1, 1, 2, 1, 3, 1)));
+        assertThat(facets.getEvents(), is((Map<Integer, Integer>) ImmutableMap.of(2, 1, 5, 1, 6, 1)));
+        assertThat(facets.getCategories(), is((Map<Integer, Integer>) ImmutableMap.<Integer, Integer>of()));
+        assertThat(facets.getDays(), is((Map<String, Integer>) ImmutableMap.of("2012-11-15", 1, "2012-11-16", 1,
+                "2012-11-17", 1)));
+
+        facets = eventOccurrenceDao.findFacets(null, null, null, null, Arrays.asList(1), null);
+        assertThat(facets.getTotal(), is(0));
+        assertThat(facets.getEvents().isEmpty(), is(true));
+
+        // The sample category belongs to event 1, which has no occurrences
+        eventOccurrenceDao.jdbcTemplate.update("insert into event_category (eventId, categoryId) values (2, 2)");
+        facets = eventOccurrenceDao.findFacets(null, null, null, null, Arrays.asList(2), null);
+        assertThat(facets.getCategories(), is((Map<Integer, Integer>) ImmutableMap.of(2, 2)));
+    }
+
+    @Test
+    public void facetsCountExpandedInstances() {
+        int seriesId = eventOccurrenceDao.createRecurrence(new Recurrence(null, eventOne, uhall, new DateTime(2012,
+                11, 5, 20, 0), new DateTime(2012, 11, 5, 22, 0), "FREQ=WEEKLY;COUNT=3"));
+        OccurrenceFacets facets = eventOccurrenceDao.findFacets(null, null, NOVEMBER, IntervalMode.CONTAINED, null,
+                2);
+        assertThat(seriesId > 0, is(true));
+        assertThat(facets.getTotal(), is(4));
+        assertThat(facets.getVenues(), is((Map<Integer, Integer>) ImmutableMap.of(2, 4)));
+        assertThat(facets.getEvents(), is((Map<Integer, Integer>) ImmutableMap.of(1, 3, 6, 1)));
+        assertThat(facets.getDays().get("2012-11-12"), is(1));
+    }
+
+    @Test
+    public void attendeeSearchesFollowRegistrations() {
+        PaginationData all = new PaginationData(0, 10);
+        assertThat(idsOf(eventOccurrenceDao.findEventOccurrences(2, null, null, IntervalMode.CONTAINED, null, null,
+                all)), is(Arrays.asList(1)));
+        eventOccurrenceDao.registerAttendeeForEventOccurrence(6, 2);
+        eventOccurrenceDao.unregisterAttendeeForEventOccurrence(1, 2);
+        assertThat(idsOf(eventOccurrenceDao.findEventOccurrences(2, null, NOVEMBER, IntervalMode.CONTAINED,
+                Arrays.asList(2), null, all)), is(Arrays.asList(6)));
+        assertThat(idsOf(eventOccurrenceDao.findEventOccurrences(2, null, null, IntervalMode.CONTAINED, null, null,
+                all)), is(Arrays.asList(6)));
+    }
+
+    @Test
+    public void findEventOccurrencesByIntervalWorksWithoutTheTree() {
+        eventOccurrenceDao.occurrenceTree = new OccurrenceIntervalTree() {
+            @Override
+            public List<Integer> findOccurrences(Interval interval, IntervalMode mode, int limit) {
+                return null;
+            }
+        };
+        Interval evening = new Interval(new DateTime("2012-01-16T00:00:00"), new DateTime("2012-01-16T01:00:00"));
+        assertThat(idsOf(eventOccurrenceDao.findEventOccurrences(null, null, evening, IntervalMode.OVERLAP, null,
+                null, new PaginationData(0, 5))), is(Arrays.asList(1)));
+        Interval november = new Interval(new DateTime(2012, 11, 1, 0, 0), new DateTime(2012, 12, 1, 0, 0));
+        assertThat(idsOf(eventOccurrenceDao.findEventOccurrences(null, null, november, IntervalMode.CONTAINED, null,
+                null, new PaginationData(0, 10))), is(Arrays.asList(6, 7, 8, 9, 10)));
+    }
+
+    @Test
+    public void findEventOccurencesByVenueIdWorks() {
+        List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrences(null, null, null,
+                IntervalMode.CONTAINED, null, 2, new PaginationData(0, 5));
         assertThat(occurrences.size(), is(2));
         EventOccurrence e1 = occurrences.get(0);
         EventOccurrence e2 = occurrences.get(1);
@@ -146,8 +365,8 @@ public class EventOccurrenceDaoTest {
     public void findEventOccurencesByOneEventIdWorks() {
         ArrayList<Integer> a = new ArrayList<Integer>();
         a.add(2);
-        List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrences(null, null, null, a, null,
-                new PaginationData(0, 5));
+        List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrences(null, null, null,
+                IntervalMode.CONTAINED, a, null, new PaginationData(0, 5));
         assertThat(occurrences.size(), is(2));
         assertThat(occurrences.get(0).getId(), is(1));
         assertThat(occurrences.get(1).getId(), is(6));
@@ -159,8 +378,8 @@ public class EventOccurrenceDaoTest {
         a.add(1);
         a.add(2);
         a.add(3);
-        List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrences(null, null, null, a, null,
-                new PaginationData(0, 5));
+        List<EventOccurrence> occurrences = eventOccurrenceDao.findEventOccurrences(null, null, null,
+                IntervalMode.CONTAINED, a, null, new PaginationData(0, 5));
         assertThat(occurrences.size(), is(4));
         assertThat(occurrences.get(0).getId(), is(1));
         assertThat(occurrences.get(1).getId(), is(5));
@@ -196,6 +415,94 @@ public class EventOccurrenceDaoTest {
         assertTrue(e.getId().intValue() != 2);
     }
 
+    private List<EventOccurrence> sampleBatch() {
+        List<EventOccurrence> batch = new ArrayList<EventOccurrence>();
+        batch.add(new EventOccurrence(eventOne, keck, new DateTime(2012, 11, 13, 8, 30, 0), new DateTime(2012, 11, 13,
+                11, 30, 0)));
+        batch.add(new EventOccurrence(new Event(999, null), keck, new DateTime(2012, 11, 14, 8, 30, 0), null));
+        batch.add(new EventOccurrence(eventTwo, uhall, new DateTime(2012, 11, 15, 8, 30, 0), new DateTime(2012, 11,
+                15, 11, 30, 0)));
+        return batch;
+    }
+
+    @Test
+    public void createdBatchReportsEachOccurrence() {
+        int initialCount = eventOccurrenceDao.findNumberOfEventOccurrences();
+        List<EventOccurrence> batch = sampleBatch();
+        List<RuntimeException> failures = eventOccurrenceDao.createEventOccurrences(batch);
+        assertThat(failures.get(0), is((RuntimeException) null));
+        assertTrue(failures.get(1) instanceof NoSuchResourceException);
+        assertThat(failures.get(2), is((RuntimeException) null));
+        assertThat(eventOccurrenceDao.findNumberOfEventOccurrences(), is(initialCount + 2));
+        assertThat(eventOccurrenceDao.findEventOccurrenceById(batch.get(0).getId()).getEvent(), is(eventOne));
+        assertThat(eventOccurrenceDao.findEventOccurrenceById(batch.get(2).getId()).getStart(),
+                is(new DateTime(2012, 11, 15, 8, 30, 0)));
+        assertThat(batch.get(1).getId(), is((Integer) null));
+        assertThat(idsOf(eventOccurrenceDao.findEventOccurrences(null, new Circle(34.1127863, -118.3392439, 0.1),
+                new Interval(new DateTime(2012, 11, 15, 0, 0, 0), new DateTime(2012, 11, 16, 0, 0, 0)),
+                IntervalMode.CONTAINED, null, null, new PaginationData(0, 10))), is(Arrays.asList(batch.get(2)
+                .getId())));
+    }
+
+    @Test
+    public void createdBatchInATransactionGetsOneIdPerOccurrence() {
+        List<RuntimeException> failures = null;
+        int initialCount = eventOccurrenceDao.findNumberOfEventOccurrences();
+        for (int round = 0; round < 2; round++) {
+            final List<EventOccurrence> batch = sampleBatch();
+            batch.remove(1);
+            failures = new TransactionTemplate(new DataSourceTransactionManager(database)).execute(
+                    new TransactionCallback<List<RuntimeException>>() {
+                        public List<RuntimeException> doInTransaction(TransactionStatus status) {
+                            return eventOccurrenceDao.createEventOccurrences(batch);
+                        }
+                    });
+            assertThat(failures, is(Arrays.asList((RuntimeException) null, null)));
+            assertTrue(batch.get(0).getId() < batch.get(1).getId());
+            assertThat(eventOccurrenceDao.findEventOccurrenceById(batch.get(1).getId()).getEvent(), is(eventTwo));
+        }
+        assertThat(eventOccurrenceDao.findNumberOfEventOccurrences(), is(initialCount + 4));
+    }
+
+    @Test
+    public void batchedReplacementsOfOneInstanceConflict() {
+        int seriesId = eventOccurrenceDao.createRecurrence(weeklyHackathon());
+        List<EventOccurrence> batch = new ArrayList<EventOccurrence>();
+        for (int day : Arrays.asList(12, 12, 19)) {
+            EventOccurrence moved = new EventOccurrence(new Event(7, null), keck, new DateTime(2012, 11, day + 1, 19,
+                    0, 0), new DateTime(2012, 11, day + 1, 21, 0, 0));
+            moved.setRecurrenceId(seriesId);
+            moved.setRecurrenceStart(new DateTime(2012, 11, day, 20, 0, 0));
+            batch.add(moved);
+        }
+        List<RuntimeException> failures = eventOccurrenceDao.createEventOccurrences(batch);
+        assertThat(failures.get(0), is((RuntimeException) null));
+        assertTrue(failures.get(1) instanceof EventOccurrenceExistsException);
+        assertThat(failures.get(2), is((RuntimeException) null));
+
+        failures = eventOccurrenceDao.createEventOccurrences(batch.subList(2, 3));
+        assertTrue(failures.get(0) instanceof EventOccurrenceExistsException);
+    }
+
+    @Test
+    public void searchRowsFollowTheirOccurrences() {
+        String sql = "select venueName from occurrence_search where id=?";
+        int newId = eventOccurrenceDao.createEventOccurrence(new EventOccurrence(eventOne, keck, new DateTime(
+                "2012-11-13T08:30:00Z"), new DateTime("2012-11-13T11:30:00Z")));
+        assertThat(eventOccurrenceDao.jdbcTemplate.queryForObject(sql, String.class, newId), is("Pantages Theater"));
+
+        EventOccurrence moved = eventOccurrenceDao.findEventOccurrenceById(newId);
+        moved.setVenue(uhall);
+        eventOccurrenceDao.updateEventOccurrence(moved);
+        assertThat(eventOccurrenceDao.jdbcTemplate.queryForObject(sql, String.class, newId), is("Hollywood Bowl"));
+        assertTrue(idsOf(eventOccurrenceDao.findEventOccurrences(null, new Circle(34.1127863, -118.3392439, 0.1),
+                null, IntervalMode.CONTAINED, null, null, new PaginationData(0, 10))).contains(newId));
+
+        eventOccurrenceDao.deleteEventOccurrence(newId);
+        assertThat(eventOccurrenceDao.jdbcTemplate.queryForInt("select count(*) from occurrence_search where id=?",
+                newId), is(0));
+    }
+
     @Test
     public void updatesToCreatedEventOccurrenceCanBeRead() {
         int newId = eventOccurrenceDao.createEventOccurrence(new EventOccurrence(eventOne, keck, new DateTime(
@@ -233,6 +540,14 @@ public class EventOccurrenceDaoTest {
         assertThat(attendees.get(1).getId(), is(2));
     }
 
+    @Test
+    public void findAttendeesAfterCursorSkipsEarlierIds() {
+        List<User> attendees = eventOccurrenceDao.findAttendeesByEventOccurrenceId(1, new PaginationData(
+                Cursor.afterId(1), 5));
+        assertThat(attendees.size(), is(1));
+        assertThat(attendees.get(0).getId(), is(2));
+    }
+
     @Test
     public void findAttendeesByPaginationWorks() {
         List<User> attendees = eventOccurrenceDao.findAttendeesByEventOccurrenceId(1, new PaginationData(0, 2));
@@ -258,6 +573,24 @@ public class EventOccurrenceDaoTest {
         eventOccurrenceDao.registerAttendeeForEventOccurrence(8675309, 2);
     }
 
+    @Test
+    public void registeringAttendeesInBulkReportsEachPair() {
+        int initialVersion = eventOccurrenceDao.findCalendarVersion(3503).version;
+        List<RuntimeException> failures = eventOccurrenceDao.registerAttendees(Arrays.asList(new Attendance(1, 3503),
+                new Attendance(1, 1), new Attendance(1, 8675309), new Attendance(1, 3503), new Attendance(8675309, 3),
+                new Attendance(2, 3503)));
+        assertThat(failures.get(0), is((RuntimeException) null));
+        assertTrue(failures.get(1) instanceof AttendeeExistsException);
+        assertTrue(failures.get(2) instanceof NoSuchAttendeeOrOccurrenceException);
+        assertTrue(failures.get(3) instanceof AttendeeExistsException);
+        assertTrue(failures.get(4) instanceof NoSuchAttendeeOrOccurrenceException);
+        assertThat(failures.get(5), is((RuntimeException) null));
+
+        assertThat(eventOccurrenceDao.findAttendeesByEventOccurrenceId(1, new PaginationData(0, 10)).size(), is(3));
+        assertThat(eventOccurrenceDao.findAttendeesByEventOccurrenceId(2, new PaginationData(0, 10)).size(), is(2));
+        assertThat(eventOccurrenceDao.findCalendarVersion(3503).version, is(initialVersion + 1));
+    }
+
     @Test
     public void unregisterAttendeeDecrementsAttendeeSize() {
         eventOccurrenceDao.unregisterAttendeeForEventOccurrence(1, 1);
@@ -280,6 +613,256 @@ public class EventOccurrenceDaoTest {
         eventOccurrenceDao.unregisterAttendeeForEventOccurrence(8675309, 1);
     }
 
+    @Test
+    public void recurrencesAreExpandedWithinTheWindow() {
+        int seriesId = eventOccurrenceDao.createRecurrence(weeklyHackathon());
+        List<EventOccurrence> found = eventOccurrenceDao.findEventOccurrences(null, null, EARLY_NOVEMBER,
+                IntervalMode.CONTAINED, null, 1, new PaginationData(0, 10));
+        assertThat(found.size(), is(2));
+        for (int i = 0; i < found.size(); i++) {
+            assertThat(found.get(i).getId(), is((Integer) null));
+            assertThat(found.get(i).getRecurrenceId(), is(seriesId));
+            assertThat(found.get(i).getStart(), is(new DateTime(2012, 11, 5 + 7 * i, 20, 0, 0)));
+            assertThat(found.get(i).getEnd(), is(new DateTime(2012, 11, 5 + 7 * i, 22, 0, 0)));
+            assertThat(found.get(i).getEvent().getName(), is("Weekly Hackathon"));
+            assertThat(found.get(i).getVenue().getName(), is("Pantages Theater"));
+        }
+
+        Interval lateJanuary = new Interval(new DateTime(2013, 1, 20, 0, 0), new DateTime(2013, 2, 1, 0, 0));
+        assertThat(eventOccurrenceDao.findEventOccurrences(null, null, lateJanuary, IntervalMode.OVERLAP, null, 1,
+                new PaginationData(0, 10)).size(), is(0));
+        assertThat(eventOccurrenceDao.findEventOccurrences(null, null, null, null, null, 1,
+                new PaginationData(0, 10)).size(), is(2));
+    }
+
+    @Test
+    public void expandedInstancesFollowTheStoredOccurrences() {
+        eventOccurrenceDao.createRecurrence(weeklyHackathon());
+        List<EventOccurrence> found = eventOccurrenceDao.findEventOccurrences(null, null, NOVEMBER,
+                IntervalMode.CONTAINED, null, 1, new PaginationData(0, 10));
+        assertThat(found.size(), is(5));
+        assertThat(found.get(0).getId(), is(6));
+        assertThat(found.get(1).getStart(), is(new DateTime(2012, 11, 5, 20, 0, 0)));
+        assertThat(found.get(4).getStart(), is(new DateTime(2012, 11, 26, 20, 0, 0)));
+
+        List<EventOccurrence> secondPage = eventOccurrenceDao.findEventOccurrences(null, null, NOVEMBER,
+                IntervalMode.CONTAINED, null, 1, new PaginationData(1, 2));
+        assertThat(secondPage.size(), is(2));
+        assertThat(secondPage.get(0).getStart(), is(new DateTime(2012, 11, 12, 20, 0, 0)));
+        assertThat(secondPage.get(1).getStart(), is(new DateTime(2012, 11, 19, 20, 0, 0)));
+    }
+
+    @Test
+    public void storedExceptionsReplaceTheirInstances() {
+        int seriesId = eventOccurrenceDao.createRecurrence(weeklyHackathon());
+        EventOccurrence moved = new EventOccurrence(new Event(7, null), keck, new DateTime(2012, 11, 13, 19, 0, 0),
+                new DateTime(2012, 11, 13, 21, 0, 0));
+        moved.setRecurrenceId(seriesId);
+        moved.setRecurrenceStart(new DateTime(2012, 11, 12, 20, 0, 0));
+        int movedId = eventOccurrenceDao.createEventOccurrence(moved);
+
+        List<EventOccurrence> found = eventOccurrenceDao.findEventOccurrences(null, null, EARLY_NOVEMBER,
+                IntervalMode.CONTAINED, null, 1, new PaginationData(0, 10));
+        assertThat(found.size(), is(2));
+        assertThat(found.get(0).getId(), is(movedId));
+        assertThat(found.get(0).getRecurrenceId(), is(seriesId));
+        assertThat(found.get(0).getRecurrenceStart(), is(new DateTime(2012, 11, 12, 20, 0, 0)));
+        assertThat(found.get(0).getStart(), is(new DateTime(2012, 11, 13, 19, 0, 0)));
+
+        eventOccurrenceDao.deleteRecurrence(seriesId);
+        found = eventOccurrenceDao.findEventOccurrences(null, null, EARLY_NOVEMBER, IntervalMode.CONTAINED, null, 1,
+                new PaginationData(0, 10));
+        assertThat(found.size(), is(1));
+        assertThat(found.get(0).getRecurrenceId(), is((Integer) null));
+    }
+
+    @Test
+    public void expandedInstancesAreFoundByCircleAndSortedByDistance() {
+        eventOccurrenceDao.createRecurrence(weeklyHackathon());
+        Circle nearUhall = new Circle(34.1127863, -118.3392439, 2);
+        List<EventOccurrence> found = eventOccurrenceDao.findEventOccurrencesByDistance(null, nearUhall, NOVEMBER,
+                IntervalMode.OVERLAP, null, null, new PaginationData(0, 10));
+        assertThat(found.size(), is(6));
+        assertThat(found.get(0).getId(), is(7));
+        assertThat(found.get(1).getId(), is(6));
+        assertThat(found.get(2).getRecurrenceId(), is(notNullValue()));
+        assertThat(found.get(2).getDistance(), is(found.get(1).getDistance()));
+        assertThat(found.get(5).getStart(), is(new DateTime(2012, 11, 26, 20, 0, 0)));
+
+        Circle farAway = new Circle(40.0, -100.0, 1);
+        assertThat(eventOccurrenceDao.findEventOccurrencesByDistance(null, farAway, NOVEMBER, IntervalMode.OVERLAP,
+                null, null, new PaginationData(0, 10)).size(), is(0));
+    }
+
+    private static List<String> keysOf(List<EventOccurrence> occurrences) {
+        List<String> keys = new ArrayList<String>();
+        for (EventOccurrence o : occurrences) {
+            keys.add(o.getId() != null ? "" + o.getId() : o.getRecurrenceId() + "@" + o.getStart().getMillis());
+        }
+        return keys;
+    }
+
+    private List<EventOccurrence> walkByCursor(Circle circle, Interval interval, IntervalMode mode, Integer venueId,
+            boolean byDistance, int pageSize) {
+        List<EventOccurrence> all = new ArrayList<EventOccurrence>();
+        Cursor cursor = null;
+        while (true) {
+            PaginationData pagination = cursor == null ? new PaginationData(0, pageSize) : new PaginationData(cursor,
+                    pageSize);
+            List<EventOccurrence> page = byDistance ? eventOccurrenceDao.findEventOccurrencesByDistance(null, circle,
+                    interval, mode, null, venueId, pagination) : eventOccurrenceDao.findEventOccurrences(null, circle,
+                    interval, mode, null, venueId, pagination);
+            all.addAll(page);
+            if (page.size() < pageSize) {
+                return all;
+            }
+            cursor = Cursor.after(page.get(page.size() - 1));
+        }
+    }
+
+    @Test
+    public void cursorPagesFollowOnFromTheLastOccurrence() {
+        List<EventOccurrence> found = walkByCursor(null, null, IntervalMode.CONTAINED, null, false, 3);
+        assertThat(idsOf(found), is(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10)));
+
+        Circle circle = new Circle(34.1127863, -118.3392439, 10);
+        found = walkByCursor(circle, null, IntervalMode.CONTAINED, null, true, 3);
+        assertThat(idsOf(found), is(Arrays.asList(2, 7, 1, 6, 5, 10, 3, 8)));
+    }
+
+    @Test
+    public void cursorPagesStepThroughExpandedInstances() {
+        eventOccurrenceDao.createRecurrence(weeklyHackathon());
+        List<EventOccurrence> all = eventOccurrenceDao.findEventOccurrences(null, null, NOVEMBER,
+                IntervalMode.CONTAINED, null, 1, new PaginationData(0, 10));
+        for (int pageSize = 1; pageSize <= 3; pageSize++) {
+            assertThat(keysOf(walkByCursor(null, NOVEMBER, IntervalMode.CONTAINED, 1, false, pageSize)),
+                    is(keysOf(all)));
+        }
+
+        Circle nearUhall = new Circle(34.1127863, -118.3392439, 2);
+        all = eventOccurrenceDao.findEventOccurrencesByDistance(null, nearUhall, NOVEMBER, IntervalMode.OVERLAP, null,
+                null, new PaginationData(0, 10));
+        for (int pageSize = 1; pageSize <= 3; pageSize++) {
+            assertThat(keysOf(walkByCursor(nearUhall, NOVEMBER, IntervalMode.OVERLAP, null, true, pageSize)),
+                    is(keysOf(all)));
+        }
+    }
+
+    @Test
+    public void searchesAreOrderedByIdWhetherOrNotSeriesMatch() {
+        int early = eventOccurrenceDao.createEventOccurrence(new EventOccurrence(new Event(7, null), keck,
+                new DateTime(2012, 11, 1, 12, 0, 0), new DateTime(2012, 11, 1, 14, 0, 0)));
+        int unscheduled = eventOccurrenceDao.createEventOccurrence(new EventOccurrence(new Event(7, null), keck, null,
+                null));
+        assertThat(idsOf(walkByCursor(null, null, IntervalMode.CONTAINED, null, false, 4)),
+                is(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, early, unscheduled)));
+
+        List<EventOccurrence> firstPage = eventOccurrenceDao.findEventOccurrences(null, null, NOVEMBER,
+                IntervalMode.CONTAINED, null, null, new PaginationData(0, 3));
+        assertThat(idsOf(firstPage), is(Arrays.asList(6, 7, 8)));
+
+        int seriesId = eventOccurrenceDao.createRecurrence(weeklyHackathon());
+        List<EventOccurrence> found = eventOccurrenceDao.findEventOccurrences(null, null, NOVEMBER,
+                IntervalMode.CONTAINED, null, null, new PaginationData(0, 20));
+        assertThat(keysOf(found), is(Arrays.asList("6", "7", "8", "9", "10", "" + early,
+                seriesId + "@" + new DateTime(2012, 11, 5, 20, 0, 0).getMillis(),
+                seriesId + "@" + new DateTime(2012, 11, 12, 20, 0, 0).getMillis(),
+                seriesId + "@" + new DateTime(2012, 11, 19, 20, 0, 0).getMillis(),
+                seriesId + "@" + new DateTime(2012, 11, 26, 20, 0, 0).getMillis())));
+        assertThat(idsOf(eventOccurrenceDao.findEventOccurrences(null, null, NOVEMBER, IntervalMode.CONTAINED, null,
+                null, new PaginationData(Cursor.after(firstPage.get(2)), 3))), is(Arrays.asList(9, 10, early)));
+        assertThat(keysOf(eventOccurrenceDao.findEventOccurrences(null, null, NOVEMBER, IntervalMode.CONTAINED, null,
+                null, new PaginationData(Cursor.after(found.get(7)), 5))), is(keysOf(found.subList(8, 10))));
+    }
+
+    @Test
+    public void eventIdsAreCombinedWithOtherFilters() {
+        List<EventOccurrence> found = eventOccurrenceDao.findEventOccurrences(null, null, NOVEMBER,
+                IntervalMode.CONTAINED, Arrays.asList(2, 99), null, new PaginationData(0, 10));
+        assertThat(idsOf(found), is(Arrays.asList(6)));
+    }
+
+    @Test
+    public void createdRecurrenceCanBeFoundAndDeleted() {
+        int seriesId = eventOccurrenceDao.createRecurrence(weeklyHackathon());
+        Recurrence r = eventOccurrenceDao.findRecurrenceById(seriesId);
+        assertThat(r.getEvent().getId(), is(7));
+        assertThat(r.getVenue().getId(), is(1));
+        assertThat(r.getStart(), is(new DateTime(2012, 11, 5, 20, 0, 0)));
+        assertThat(r.getRule(), is("FREQ=WEEKLY;COUNT=10"));
+        eventOccurrenceDao.deleteRecurrence(seriesId);
+        try {
+            eventOccurrenceDao.findRecurrenceById(seriesId);
+            fail();
+        } catch (NoSuchRecurrenceException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = NoSuchRecurrenceException.class)
+    public void deletingNonExistentRecurrenceThrowsException() {
+        eventOccurrenceDao.deleteRecurrence(8675309);
+    }
+
+    @Test(expected = NoSuchResourceException.class)
+    public void creatingRecurrenceOfNonExistentEventThrowsException() {
+        Recurrence r = weeklyHackathon();
+        r.setEvent(new Event(8675309, null));
+        eventOccurrenceDao.createRecurrence(r);
+    }
+
+    private Recurrence weeklyHackathon() {
+        return new Recurrence(null, new Event(7, null), keck, new DateTime(2012, 11, 5, 20, 0, 0),
+                new DateTime(2012, 11, 5, 22, 0, 0), "FREQ=WEEKLY;COUNT=10");
+    }
+
+    @Test
+    public void attendanceChangesBumpTheCalendarVersion() {
+        int initial = eventOccurrenceDao.findCalendarVersion(3).version;
+        eventOccurrenceDao.registerAttendeeForEventOccurrence(1, 3);
+        assertThat(eventOccurrenceDao.findCalendarVersion(3).version, is(initial + 1));
+        eventOccurrenceDao.unregisterAttendeeForEventOccurrence(1, 3);
+        assertThat(eventOccurrenceDao.findCalendarVersion(3).version, is(initial + 2));
+    }
+
+    @Test
+    public void occurrenceChangesBumpTheCalendarVersionsOfAttendeesOnly() {
+        int dondiInitial = eventOccurrenceDao.findCalendarVersion(1).version;
+        int nedInitial = eventOccurrenceDao.findCalendarVersion(2).version;
+        eventOccurrenceDao.updateEventOccurrence(new EventOccurrence(2, null, null, sampleDateTime, null));
+        assertThat(eventOccurrenceDao.findCalendarVersion(1).version, is(dondiInitial + 1));
+        assertThat(eventOccurrenceDao.findCalendarVersion(2).version, is(nedInitial));
+        eventOccurrenceDao.deleteEventOccurrence(1);
+        assertThat(eventOccurrenceDao.findCalendarVersion(1).version, is(dondiInitial + 2));
+        assertThat(eventOccurrenceDao.findCalendarVersion(2).version, is(nedInitial + 1));
+    }
+
+    @Test(expected = NoSuchUserException.class)
+    public void findCalendarVersionOfNonExistentUserThrowsException() {
+        eventOccurrenceDao.findCalendarVersion(8675309);
+    }
+
+    @Test
+    public void visitingAttendedOccurrencesGoesInStartOrder() {
+        final List<Integer> visited = new ArrayList<Integer>();
+        eventOccurrenceDao.visitAttendedOccurrences(1, new EventOccurrenceDao.OccurrenceVisitor() {
+            public void visit(EventOccurrence occurrence) {
+                visited.add(occurrence.getId());
+                assertThat(occurrence.getVenue().getName(), is(notNullValue()));
+            }
+        });
+        assertThat(visited, is(Arrays.asList(1, 2)));
+
+        visited.clear();
+        eventOccurrenceDao.visitAttendedOccurrences(3, new EventOccurrenceDao.OccurrenceVisitor() {
+            public void visit(EventOccurrence occurrence) {
+                visited.add(occurrence.getId());
+            }
+        });
+        assertThat(visited.size(), is(0));
+    }
+
     @Test
     public void findMaxKeyValueForOccurrenceCommentsWorks() {
         int maxValue = eventOccurrenceDao.findMaxKeyValueForComments();
@@ -312,6 +895,15 @@ public class EventOccurrenceDaoTest {
         assertThat(comments.get(1).getId(), is(2));
     }
 
+    @Test
+    public void commentsAfterCursorBreakTiesById() {
+        long knownCommentTime = new DateTime(2012, 4, 18, 0, 0, 0).getMillis();
+        List<Comment> comments = eventOccurrenceDao.findComments(1, new PaginationData(Cursor.afterTime(
+                knownCommentTime, 1), 10));
+        assertThat(comments.size(), is(1));
+        assertThat(comments.get(0).getId(), is(2));
+    }
+
     @Test
     public void addCommentIncrementsSize() {
         int initialCount = eventOccurrenceDao.findComments(1, new PaginationData(0, 10)).size();
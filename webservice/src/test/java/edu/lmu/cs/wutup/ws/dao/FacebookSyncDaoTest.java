@@ -0,0 +1,85 @@
+package edu.lmu.cs.wutup.ws.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import edu.lmu.cs.wutup.ws.model.FacebookSync;
+
+public class FacebookSyncDaoTest {
+
+    private EmbeddedDatabase database;
+    private FacebookSyncDaoJdbcImpl syncDao = new FacebookSyncDaoJdbcImpl();
+    private DateTime now = new DateTime(2012, 11, 1, 12, 0, 0);
+
+    @Before
+    public void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .addScript("schema.sql")
+                .addScript("init.sql")
+                .build();
+        syncDao.jdbcTemplate = new JdbcTemplate(database);
+    }
+
+    @Test
+    public void savingATokenAgainReplacesItAndKeepsTheWatermark() {
+        assertThat(syncDao.findSync(1), nullValue());
+
+        syncDao.saveAccessToken(1, "first");
+        assertThat(syncDao.findSync(1), is(new FacebookSync(1, "first", null)));
+
+        syncDao.saveLastSynced(1, now);
+        syncDao.saveAccessToken(1, "second");
+        assertThat(syncDao.findSync(1), is(new FacebookSync(1, "second", now)));
+    }
+
+    @Test
+    public void failedAttemptsAreCountedUntilASyncOrANewToken() {
+        syncDao.saveAccessToken(1, "token");
+        syncDao.saveLastSynced(1, now);
+        syncDao.saveFailedAttempt(1, now.plusHours(1));
+        syncDao.saveFailedAttempt(1, now.plusHours(2));
+        assertThat(syncDao.findSync(1), is(new FacebookSync(1, "token", now, now.plusHours(2), 2)));
+
+        syncDao.saveLastSynced(1, now.plusHours(3));
+        assertThat(syncDao.findSync(1), is(new FacebookSync(1, "token", now.plusHours(3))));
+
+        syncDao.saveFailedAttempt(1, now.plusHours(4));
+        syncDao.saveAccessToken(1, "new token");
+        assertThat(syncDao.findSync(1).failedAttempts, is(0));
+    }
+
+    @Test
+    public void usersNeverSynchronizedOrSynchronizedBeforeTheTimeAreFound() {
+        syncDao.saveAccessToken(1, "never");
+        syncDao.saveAccessToken(2, "long ago");
+        syncDao.saveLastSynced(2, now.minusDays(1));
+        syncDao.saveAccessToken(3, "just now");
+        syncDao.saveLastSynced(3, now);
+
+        assertThat(syncDao.findSyncsBefore(now), is(Arrays.asList(new FacebookSync(1, "never", null),
+                new FacebookSync(2, "long ago", now.minusDays(1)))));
+
+        syncDao.forgetAccessToken(1);
+        assertThat(syncDao.findSync(1), is(new FacebookSync(1, null, null)));
+        assertThat(syncDao.findSyncsBefore(now), is(Arrays.asList(new FacebookSync(2, "long ago",
+                now.minusDays(1)))));
+    }
+
+    @After
+    public void tearDownDatabase() {
+        database.shutdown();
+    }
+}
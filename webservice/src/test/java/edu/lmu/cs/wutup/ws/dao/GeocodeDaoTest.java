@@ -0,0 +1,57 @@
+package edu.lmu.cs.wutup.ws.dao;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import edu.lmu.cs.wutup.ws.model.GeocodeResponse;
+
+public class GeocodeDaoTest {
+
+    private EmbeddedDatabase database;
+    private GeocodeDaoJdbcImpl geocodeDao = new GeocodeDaoJdbcImpl();
+    private DateTime now = new DateTime(2012, 11, 1, 12, 0, 0);
+
+    @Before
+    public void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .addScript("schema.sql")
+                .addScript("init.sql")
+                .build();
+        geocodeDao.jdbcTemplate = new JdbcTemplate(database);
+    }
+
+    @Test
+    public void savedResponsesAreFoundUntilTheyExpire() {
+        GeocodeResponse response = new GeocodeResponse("{\"status\":\"OK\"}", now.plusHours(1));
+        geocodeDao.saveResponse("address:1 lmu drive", response);
+
+        assertThat(geocodeDao.findResponse("address:1 lmu drive", now), is(response));
+        assertThat(geocodeDao.findResponse("address:1 lmu drive", now.plusHours(1)), nullValue());
+        assertThat(geocodeDao.findResponse("address:2 lmu drive", now), nullValue());
+    }
+
+    @Test
+    public void savingAgainReplacesTheResponse() {
+        geocodeDao.saveResponse("latlng:1,2", new GeocodeResponse("{\"status\":\"ZERO_RESULTS\"}", now.minusHours(1)));
+        GeocodeResponse response = new GeocodeResponse("{\"status\":\"OK\"}", now.plusDays(30));
+        geocodeDao.saveResponse("latlng:1,2", response);
+
+        assertThat(geocodeDao.findResponse("latlng:1,2", now), is(response));
+    }
+
+    @After
+    public void tearDownDatabase() {
+        database.shutdown();
+    }
+}
@@ -4,6 +4,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.joda.time.DateTime;
@@ -15,6 +16,7 @@ import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
 
+import edu.lmu.cs.wutup.ws.cache.SerializedEntityCache;
 import edu.lmu.cs.wutup.ws.exception.NoSuchUserException;
 import edu.lmu.cs.wutup.ws.exception.UserExistsException;
 import edu.lmu.cs.wutup.ws.model.Comment;
@@ -35,6 +37,7 @@ public class UserDaoTest {
                 .addScript("init.sql")
                 .build();
         userDao.jdbcTemplate = new JdbcTemplate(database);
+        userDao.entityInvalidator = new SerializedEntityCache();
     }
 
     @Test
@@ -112,6 +115,14 @@ public class UserDaoTest {
         assertThat(newer.getNickname(), is(u.getNickname()));
     }
 
+    @Test
+    public void updatingAnEventOwnerRefreshesTheSearchRowsOfTheirOccurrences() {
+        userDao.updateUser(new User(7, null, null, "olga@example.com", null, null, null));
+        List<String> emails = userDao.jdbcTemplate.queryForList(
+                "select ownerEmail from occurrence_search where eventId=?", String.class, 2);
+        assertThat(emails, is(Arrays.asList("olga@example.com", "olga@example.com")));
+    }
+
     @Test
     public void getMaxIdValueReturnsCorrectValue() {
         userDao.createUser(new User(9999, "abcde@gmail.com"));
@@ -4,6 +4,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +18,11 @@ import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
 
+import edu.lmu.cs.wutup.ws.cache.SerializedEntityCache;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrenceFilterIndex;
+import edu.lmu.cs.wutup.ws.dao.index.OccurrencePyramid;
+import edu.lmu.cs.wutup.ws.dao.index.VenueGridIndex;
+import edu.lmu.cs.wutup.ws.dao.index.VenueRTree;
 import edu.lmu.cs.wutup.ws.exception.NoSuchVenueException;
 import edu.lmu.cs.wutup.ws.model.Circle;
 import edu.lmu.cs.wutup.ws.model.Comment;
@@ -42,6 +48,15 @@ public class VenueDaoTest {
                 .addScript("init.sql")
                 .build();
         venueDao.jdbcTemplate = new JdbcTemplate(database);
+        venueDao.venueIndex = new VenueGridIndex();
+        venueDao.venueIndex.setJdbcTemplate(venueDao.jdbcTemplate);
+        venueDao.venueTree = new VenueRTree();
+        venueDao.venueTree.setJdbcTemplate(venueDao.jdbcTemplate);
+        venueDao.occurrencePyramid = new OccurrencePyramid();
+        venueDao.occurrencePyramid.setJdbcTemplate(venueDao.jdbcTemplate);
+        venueDao.occurrenceFilter = new OccurrenceFilterIndex();
+        venueDao.occurrenceFilter.setJdbcTemplate(venueDao.jdbcTemplate);
+        venueDao.entityInvalidator = new SerializedEntityCache();
     }
 
     @Test
@@ -86,6 +101,14 @@ public class VenueDaoTest {
         assertThat(v.getAddress(), is("this is an address"));
     }
 
+    @Test
+    public void updatingAVenueRefreshesTheSearchRowsOfItsOccurrences() {
+        venueDao.updateVenue(new Venue(1, "Pantages", null));
+        List<String> names = venueDao.jdbcTemplate.queryForList(
+                "select venueName from occurrence_search where venueId=?", String.class, 1);
+        assertThat(names, is(Arrays.asList("Pantages", "Pantages")));
+    }
+
     @Test(expected = NoSuchVenueException.class)
     public void updatingNonExistentVenueThrowsException() {
         venueDao.updateVenue(new Venue(1000, "Unknown PLace", "Unknown Address"));
@@ -160,6 +183,73 @@ public class VenueDaoTest {
         assertThat(venues.size(), is(0));
     }
 
+    @Test
+    public void createdVenueIsFoundByCircleSearch() {
+        venueDao.findVenues(null, null, new Circle(51.5, -0.12, 10), new PaginationData(0, 10));
+        venueDao.createVenue(new Venue(null, "Globe", "21 New Globe Walk, London", 51.508, -0.097, null));
+        List<Venue> venues = venueDao.findVenues(null, null, new Circle(51.5, -0.12, 10), new PaginationData(0, 10));
+        assertThat(venues.size(), is(1));
+        assertThat(venues.get(0).getName(), is("Globe"));
+    }
+
+    @Test
+    public void movedVenueIsFoundOnlyAtItsNewLocation() {
+        Circle farAway = new Circle(-34.149885, 62.000001, 10);
+        Circle hollywood = new Circle(34.1019444, -118.3261111, 0.5);
+        assertThat(venueDao.findVenues(null, null, farAway, new PaginationData(0, 10)).size(), is(1));
+
+        venueDao.updateVenue(new Venue(10, null, null, 34.1019, -118.3260, null));
+        assertThat(venueDao.findVenues(null, null, farAway, new PaginationData(0, 10)).size(), is(0));
+        List<Venue> venues = venueDao.findVenues(null, null, hollywood, new PaginationData(0, 10));
+        assertThat(venues.size(), is(2));
+    }
+
+    @Test
+    public void findNearestVenuesReturnsClosestFirstWithDistances() {
+        List<Venue> venues = venueDao.findNearestVenues(34.1127863, -118.3392439, 3);
+        assertThat(venues.size(), is(3));
+        assertThat(venues.get(0).getId(), is(2));
+        assertThat(venues.get(0).getDistance(), is(0.0));
+        assertThat(venues.get(0).getName(), is("Hollywood Bowl"));
+        assertTrue(venues.get(1).getDistance() <= venues.get(2).getDistance());
+    }
+
+    @Test
+    public void findNearestVenuesFollowsCreatesAndDeletes() {
+        venueDao.findNearestVenues(-34.0, 62.0, 1);
+        venueDao.createVenue(new Venue(null, "Closer Palace", "1 Near St", -34.0, 62.0, null));
+        List<Venue> venues = venueDao.findNearestVenues(-34.0, 62.0, 2);
+        assertThat(venues.get(0).getName(), is("Closer Palace"));
+        assertThat(venues.get(1).getId(), is(10));
+
+        venueDao.deleteVenue(venues.get(0).getId());
+        assertThat(venueDao.findNearestVenues(-34.0, 62.0, 1).get(0).getId(), is(10));
+    }
+
+    @Test
+    public void findNearestVenuesReturnsEverythingWhenKIsLarge() {
+        assertThat(venueDao.findNearestVenues(0, 0, 100).size(), is(venueDao.findNumberOfVenues()));
+    }
+
+    @Test
+    public void updatingOnlyLatitudeKeepsCircleSearchAccurate() {
+        venueDao.updateVenue(new Venue(10, null, null, -34.0, null, null));
+        Circle circle = new Circle(-34.0, 62.000001, 1);
+        List<Venue> venues = venueDao.findVenues(null, null, circle, new PaginationData(0, 10));
+        assertThat(venues.size(), is(1));
+        assertThat(venues.get(0).getLongitude(), is(62.000001));
+    }
+
+    @Test
+    public void deletedVenueIsNoLongerFoundByCircleSearch() {
+        Circle farAway = new Circle(-34.149885, 62.000001, 10);
+        assertThat(venueDao.findVenues(null, null, farAway, new PaginationData(0, 10)).size(), is(1));
+        venueDao.deleteComment(10, 1);
+        venueDao.deleteComment(10, 2);
+        venueDao.deleteVenue(10);
+        assertThat(venueDao.findVenues(null, null, farAway, new PaginationData(0, 10)).size(), is(0));
+    }
+
     @Test
     public void testGetProperies() {
         Map<String, String> properties = venueDao.findProperties(2);
@@ -0,0 +1,102 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class CompressedBitmapTest {
+
+    @Test
+    public void valuesComeBackInAscendingOrder() {
+        CompressedBitmap bitmap = CompressedBitmap.of(Arrays.asList(70000, 3, 65536, 1, 3, 0));
+        assertThat(Lists.newArrayList(bitmap), is(Arrays.asList(0, 1, 3, 65536, 70000)));
+        assertThat(bitmap.getCardinality(), is(5));
+        assertThat(bitmap.contains(65536), is(true));
+        assertThat(bitmap.contains(2), is(false));
+
+        bitmap.remove(65536);
+        bitmap.remove(70000);
+        bitmap.remove(5);
+        assertThat(Lists.newArrayList(bitmap), is(Arrays.asList(0, 1, 3)));
+        assertThat(new CompressedBitmap().isEmpty(), is(true));
+    }
+
+    @Test
+    public void denseGroupsSwitchContainersBothWays() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int value = 0; value < 3 * CompressedBitmap.ARRAY_LIMIT; value += 2) {
+            bitmap.add(value);
+            expected.add(value);
+        }
+        assertThat(Lists.newArrayList(bitmap), is(expected));
+        for (int value = 0; value < 3 * CompressedBitmap.ARRAY_LIMIT; value += 4) {
+            bitmap.remove(value);
+            expected.remove(Integer.valueOf(value));
+        }
+        assertThat(Lists.newArrayList(bitmap), is(expected));
+        assertThat(bitmap.getCardinality(), is(expected.size()));
+    }
+
+    @Test
+    public void operationsAgreeWithSortedSets() {
+        Random random = new Random(2012);
+        for (int round = 0; round < 40; round++) {
+            TreeSet<Integer> a = randomSet(random);
+            TreeSet<Integer> b = randomSet(random);
+            CompressedBitmap bitmapA = CompressedBitmap.of(a);
+            CompressedBitmap bitmapB = CompressedBitmap.of(b);
+
+            TreeSet<Integer> both = new TreeSet<Integer>(a);
+            both.retainAll(b);
+            TreeSet<Integer> either = new TreeSet<Integer>(a);
+            either.addAll(b);
+            assertThat(Lists.newArrayList(CompressedBitmap.and(bitmapA, bitmapB)), is(Lists.newArrayList(both)));
+            assertThat(Lists.newArrayList(CompressedBitmap.or(bitmapA, bitmapB)), is(Lists.newArrayList(either)));
+            assertThat(CompressedBitmap.or(bitmapA, bitmapB).getCardinality(), is(either.size()));
+
+            // The operands are left alone, and the results share nothing with them
+            CompressedBitmap union = CompressedBitmap.or(Arrays.asList(bitmapA, bitmapB, new CompressedBitmap()));
+            for (int value : a) {
+                union.remove(value);
+            }
+            assertThat(Lists.newArrayList(bitmapA), is(Lists.newArrayList(a)));
+            assertThat(Lists.newArrayList(bitmapB), is(Lists.newArrayList(b)));
+        }
+    }
+
+    @Test
+    public void emptyOperandsGiveEmptyResults() {
+        CompressedBitmap values = CompressedBitmap.of(Arrays.asList(1, 2, 3));
+        assertThat(CompressedBitmap.and(values, new CompressedBitmap()).isEmpty(), is(true));
+        assertThat(Lists.newArrayList(CompressedBitmap.or(values, new CompressedBitmap())), is(Arrays.asList(1, 2,
+                3)));
+        assertThat(CompressedBitmap.or(Collections.<CompressedBitmap>emptyList()).isEmpty(), is(true));
+    }
+
+    /**
+     * Returns a set of values spread over a few groups, each either sparse or dense enough for a bitmap container.
+     */
+    private static TreeSet<Integer> randomSet(Random random) {
+        TreeSet<Integer> values = new TreeSet<Integer>();
+        for (int group = 0; group < 4; group++) {
+            if (random.nextBoolean()) {
+                int count = random.nextBoolean() ? random.nextInt(100) : 3000 + random.nextInt(10000);
+                for (int i = 0; i < count; i++) {
+                    values.add(group << 16 | random.nextInt(1 << 16));
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,26 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+public class DayBucketsTest {
+
+    @Test
+    public void daysAreLocalCalendarDaysFromTheEpoch() {
+        assertThat(DayBuckets.dayOf(new DateTime(1970, 1, 1, 0, 0, 0).getMillis()), is(0));
+        assertThat(DayBuckets.dayOf(new DateTime(1970, 1, 1, 23, 59, 59).getMillis()), is(0));
+        assertThat(DayBuckets.dayOf(new DateTime(2012, 11, 13, 23, 30, 0).getMillis()) + 1,
+                is(DayBuckets.dayOf(new DateTime(2012, 11, 14, 0, 30, 0).getMillis())));
+    }
+
+    @Test
+    public void occurrencesSpanningMoreThanTheMaximumAreLong() {
+        int day = DayBuckets.dayOf(new DateTime(2012, 11, 1, 12, 0, 0).getMillis());
+        assertThat(DayBuckets.isLong(day, day), is(false));
+        assertThat(DayBuckets.isLong(day, day + DayBuckets.MAX_DAY_SPAN - 1), is(false));
+        assertThat(DayBuckets.isLong(day, day + DayBuckets.MAX_DAY_SPAN), is(true));
+    }
+}
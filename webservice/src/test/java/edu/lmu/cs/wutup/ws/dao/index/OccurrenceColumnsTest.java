@@ -0,0 +1,126 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import edu.lmu.cs.wutup.ws.dao.util.Haversine;
+
+public class OccurrenceColumnsTest {
+
+    @Test
+    public void rowsAreFoundById() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            OccurrenceColumns columns = new OccurrenceColumns(offHeap);
+            columns.put(5, 1, 2, 100L, 200L, 34.0, -118.0);
+            columns.put(3, OccurrenceColumns.NO_ID, 4, OccurrenceColumns.NO_TIME, OccurrenceColumns.NO_TIME,
+                    Double.NaN, Double.NaN);
+            columns.put(9, 6, 7, 300L, 400L, 35.0, -119.0);
+
+            assertThat(columns.live(), is(3));
+            assertThat(columns.id(columns.rowOf(3)), is(3));
+            assertThat(columns.venueId(columns.rowOf(3)), is(4));
+            assertThat(columns.eventId(columns.rowOf(3)), is(OccurrenceColumns.NO_ID));
+            assertThat(Double.isNaN(columns.latitude(columns.rowOf(3))), is(true));
+            assertThat(Double.isNaN(columns.x(columns.rowOf(3))), is(true));
+            assertThat(columns.start(columns.rowOf(9)), is(300L));
+            assertThat(columns.end(columns.rowOf(9)), is(400L));
+            assertThat(columns.rowOf(4), is(-1));
+
+            columns.put(5, 1, 8, 100L, 200L, 36.0, -117.0);
+            assertThat(columns.live(), is(3));
+            assertThat(columns.venueId(columns.rowOf(5)), is(8));
+            assertThat(columns.latitude(columns.rowOf(5)), is(36.0));
+            columns.moveTo(columns.rowOf(5), 1.0, 2.0);
+            assertThat(columns.longitude(columns.rowOf(5)), is(2.0));
+            assertThat(columns.x(columns.rowOf(5)), is(Haversine.unitX(1.0, 2.0)));
+            assertThat(columns.y(columns.rowOf(5)), is(Haversine.unitY(1.0, 2.0)));
+            assertThat(columns.z(columns.rowOf(5)), is(Haversine.unitZ(1.0)));
+        }
+    }
+
+    @Test
+    public void removedRowsAreGoneUntilPutBack() {
+        OccurrenceColumns columns = new OccurrenceColumns(true);
+        columns.put(1, 1, 1, 0L, 1L, 0.0, 0.0);
+        columns.put(2, 2, 2, 0L, 1L, 0.0, 0.0);
+        columns.remove(1);
+        columns.remove(7);
+        assertThat(columns.rowOf(1), is(-1));
+        assertThat(columns.live(), is(1));
+
+        columns.put(1, 3, 3, 0L, 1L, 0.0, 0.0);
+        assertThat(columns.eventId(columns.rowOf(1)), is(3));
+        assertThat(columns.live(), is(2));
+    }
+
+    @Test
+    public void snapshotsDoNotChange() {
+        OccurrenceColumns columns = new OccurrenceColumns(true);
+        for (int id = 1; id <= OccurrenceColumns.PAGE_ROWS + 10; id++) {
+            columns.put(id, 1, 1, 0L, 1L, 0.0, 0.0);
+        }
+        OccurrenceColumns snapshot = columns.snapshot();
+        columns.put(1, 2, 2, 0L, 1L, 0.0, 0.0);
+        columns.remove(2);
+        columns.put(OccurrenceColumns.PAGE_ROWS + 20, 3, 3, 0L, 1L, 0.0, 0.0);
+
+        assertThat(snapshot.eventId(snapshot.rowOf(1)), is(1));
+        assertThat(snapshot.rowOf(2) >= 0, is(true));
+        assertThat(snapshot.rowOf(OccurrenceColumns.PAGE_ROWS + 20), is(-1));
+        assertThat(snapshot.live(), is(OccurrenceColumns.PAGE_ROWS + 10));
+        assertThat(columns.eventId(columns.rowOf(1)), is(2));
+        assertThat(columns.rowOf(2), is(-1));
+        assertThat(columns.live(), is(OccurrenceColumns.PAGE_ROWS + 10));
+    }
+
+    @Test
+    public void columnsAgreeWithAMapThroughUpdates() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            Random random = new Random(2012);
+            OccurrenceColumns columns = new OccurrenceColumns(offHeap);
+            TreeMap<Integer, Integer> venues = new TreeMap<Integer, Integer>();
+            OccurrenceColumns snapshot = columns.snapshot();
+            TreeMap<Integer, Integer> snapshotVenues = new TreeMap<Integer, Integer>();
+            for (int i = 0; i < 20000; i++) {
+                int id = random.nextInt(10000);
+                if (random.nextInt(3) == 0) {
+                    columns.remove(id);
+                    venues.remove(id);
+                } else {
+                    int venueId = random.nextInt(100);
+                    columns.put(id, 1, venueId, 0L, 1L, 0.0, 0.0);
+                    venues.put(id, venueId);
+                }
+                if (i % 5000 == 0) {
+                    snapshot = columns.snapshot();
+                    snapshotVenues = new TreeMap<Integer, Integer>(venues);
+                }
+            }
+
+            assertAgree(columns, venues);
+            assertAgree(snapshot, snapshotVenues);
+        }
+    }
+
+    private static void assertAgree(OccurrenceColumns columns, TreeMap<Integer, Integer> venues) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int row = 0; row < columns.size(); row++) {
+            if (columns.isLive(row)) {
+                ids.add(columns.id(row));
+                assertThat(columns.venueId(row), is(venues.get(columns.id(row))));
+            }
+        }
+        assertThat(ids, is((List<Integer>) new ArrayList<Integer>(venues.keySet())));
+        assertThat(columns.live(), is(venues.size()));
+        for (int id = 0; id < 10000; id++) {
+            assertThat(columns.rowOf(id) >= 0, is(venues.containsKey(id)));
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.google.common.collect.Lists;
+
+import edu.lmu.cs.wutup.ws.dao.util.Haversine;
+import edu.lmu.cs.wutup.ws.model.Attendance;
+import edu.lmu.cs.wutup.ws.model.Circle;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+
+public class OccurrenceFilterIndexTest {
+
+    private static final Interval NOVEMBER = new Interval(new DateTime(2012, 11, 1, 0, 0), new DateTime(2012, 12, 1,
+            0, 0));
+    private static final Circle HOLLYWOOD = new Circle(34.1019444, -118.3261111, 1.5);
+
+    private EmbeddedDatabase database;
+    private OccurrenceFilterIndex filter = new OccurrenceFilterIndex();
+
+    @Before
+    public void setUp() {
+        database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .addScript("schema.sql")
+                .addScript("init.sql")
+                .build();
+        filter.setJdbcTemplate(new JdbcTemplate(database));
+    }
+
+    @After
+    public void tearDownDatabase() {
+        filter.shutdown();
+        database.shutdown();
+    }
+
+    @Test
+    public void filterIsLoadedFromTheDatabase() {
+        assertThat(find(null, null, null, null, null, null), is(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10)));
+        assertThat(find(1, null, null, null, null, null), is(Arrays.asList(1, 2)));
+        assertThat(find(null, null, null, null, Arrays.asList(2, 6), null), is(Arrays.asList(1, 2, 6, 7)));
+        assertThat(find(null, null, null, null, null, 3), is(Arrays.asList(3, 8)));
+        assertThat(find(null, null, NOVEMBER, IntervalMode.CONTAINED, null, null), is(Arrays.asList(6, 7, 8, 9,
+                10)));
+        assertThat(find(null, HOLLYWOOD, null, null, null, null), is(Arrays.asList(1, 2, 6, 7)));
+        final List<Double> latitudes = new ArrayList<Double>();
+        filter.visit(CompressedBitmap.of(Arrays.asList(4, 99)), new OccurrenceFilterIndex.RowVisitor() {
+            public void visit(int id, int eventId, int venueId, long start, long end, double latitude,
+                    double longitude) {
+                latitudes.add(latitude);
+            }
+        });
+        assertThat(latitudes, is(Arrays.asList(0.0)));
+    }
+
+    @Test
+    public void offHeapFilterAnswersTheSame() {
+        filter.setOffHeap(true);
+        filterIsLoadedFromTheDatabase();
+        filterFollowsChanges();
+    }
+
+    @Test
+    public void searchesAlreadyMadeDoNotSeeLaterChanges() {
+        CompressedBitmap everything = filter.findOccurrences(null, null, null, null, null, null, null);
+        CompressedBitmap atVenueTwo = filter.findOccurrences(null, null, null, null, null, 2, null);
+        filter.remove(2);
+        filter.put(11, 2, 2, null, null, null, null);
+        assertThat(Lists.newArrayList(everything), is(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10)));
+        assertThat(Lists.newArrayList(atVenueTwo), is(Arrays.asList(2, 7)));
+        assertThat(find(null, null, null, null, null, 2), is(Arrays.asList(7, 11)));
+    }
+
+    @Test
+    public void changesFromManyThreadsAllArrive() throws InterruptedException {
+        find(null, null, null, null, null, null);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int first = 100 + 100 * t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int id = first; id < first + 100; id++) {
+                        filter.put(id, 1, 9, null, null, null, null);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(find(null, null, null, null, null, 9).size(), is(400));
+    }
+
+    @Test
+    public void writesDoNotWaitLongForAStalledWriter() throws InterruptedException {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        filter.setJdbcTemplate(new JdbcTemplate(database) {
+            @Override
+            public void query(String sql, RowCallbackHandler handler) {
+                loading.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.query(sql, handler);
+            }
+        });
+        filter.setApplyWaitMillis(50);
+        Thread loader = new Thread() {
+            @Override
+            public void run() {
+                filter.preload();
+            }
+        };
+        loader.start();
+
+        try {
+            assertThat(loading.await(5, TimeUnit.SECONDS), is(true));
+            long started = System.currentTimeMillis();
+            filter.put(11, 2, 2, null, null, null, null);
+            assertThat(System.currentTimeMillis() - started < 2000, is(true));
+        } finally {
+            release.countDown();
+            loader.join();
+        }
+        filter.setApplyWaitMillis(OccurrenceFilterIndex.DEFAULT_APPLY_WAIT_MILLIS);
+        filter.put(12, 2, 2, null, null, null, null);
+        assertThat(find(null, null, null, null, null, 2), is(Arrays.asList(2, 7, 11, 12)));
+    }
+
+    @Test
+    public void filtersAreCombined() {
+        assertThat(find(null, HOLLYWOOD, NOVEMBER, IntervalMode.OVERLAP, Arrays.asList(2, 5, 6), null),
+                is(Arrays.asList(6, 7)));
+        assertThat(find(null, HOLLYWOOD, NOVEMBER, IntervalMode.OVERLAP, Arrays.asList(2, 5, 6), 2),
+                is(Arrays.asList(7)));
+        assertThat(find(1, HOLLYWOOD, NOVEMBER, null, null, null), is(Collections.<Integer>emptyList()));
+        assertThat(find(null, null, null, null, new ArrayList<Integer>(), null),
+                is(Collections.<Integer>emptyList()));
+        assertThat(find(null, null, NOVEMBER, IntervalMode.OVERLAP, null, null, Arrays.asList(2, 7, 9)),
+                is(Arrays.asList(7, 9)));
+    }
+
+    @Test
+    public void filterFollowsChanges() {
+        find(null, null, null, null, null, null);
+        filter.put(11, 2, 2, new Timestamp(new DateTime(2012, 11, 20, 10, 0).getMillis()), new Timestamp(
+                new DateTime(2013, 3, 1, 0, 0).getMillis()), 34.1127863, -118.3392439);
+        filter.addAttendees(Arrays.asList(new Attendance(11, 5), new Attendance(6, 5)));
+        assertThat(find(5, HOLLYWOOD, NOVEMBER, IntervalMode.OVERLAP, Arrays.asList(2), null), is(Arrays.asList(6,
+                11)));
+        assertThat(find(null, null, NOVEMBER, IntervalMode.CONTAINED, null, 2), is(Arrays.asList(7)));
+
+        filter.moveVenue(2, -34.149885, 62.000001);
+        assertThat(find(null, HOLLYWOOD, null, null, null, null), is(Arrays.asList(1, 6)));
+        filter.removeAttendee(6, 5);
+        assertThat(find(5, null, null, null, null, null), is(Arrays.asList(11)));
+        filter.remove(11);
+        assertThat(find(5, null, null, null, null, null), is(Collections.<Integer>emptyList()));
+        filter.removeEvent(2);
+        assertThat(find(null, null, null, null, null, null), is(Arrays.asList(2, 3, 4, 5, 7, 8, 9, 10)));
+    }
+
+    @Test
+    public void searchesAgreeWithBruteForceThroughUpdates() {
+        Random random = new Random(2012);
+        Map<Integer, long[]> spans = new HashMap<Integer, long[]>();
+        Map<Integer, double[]> locations = new HashMap<Integer, double[]>();
+        find(null, null, null, null, null, null);
+        for (int id = 1; id <= 10; id++) {
+            filter.remove(id);
+        }
+        long base = new DateTime(2012, 1, 1, 0, 0).getMillis();
+        for (int i = 0; i < 3000; i++) {
+            int id = 100 + random.nextInt(1000);
+            if (random.nextInt(4) == 0) {
+                filter.remove(id);
+                spans.remove(id);
+                locations.remove(id);
+            } else {
+                long start = base + (long) random.nextInt(365 * 24) * 3600000L;
+                long end = start + (random.nextInt(10) == 0 ? random.nextInt(100) * 86400000L : random.nextInt(
+                        48 * 3600000));
+                double latitude = 33 + random.nextDouble() * 2;
+                double longitude = -119 + random.nextDouble() * 2;
+                filter.put(id, 1, 1, new Timestamp(start), new Timestamp(end), latitude, longitude);
+                spans.put(id, new long[]{start, end});
+                locations.put(id, new double[]{latitude, longitude});
+            }
+        }
+
+        assertSearchesAgree(random, base, spans, locations);
+    }
+
+    @Test
+    public void parallelScansAgreeWithBruteForce() {
+        Random random = new Random(1971);
+        Map<Integer, long[]> spans = new HashMap<Integer, long[]>();
+        Map<Integer, double[]> locations = new HashMap<Integer, double[]>();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(3);
+        executor.initialize();
+        filter.setScanExecutor(executor);
+        try {
+            find(null, null, null, null, null, null);
+            for (int id = 1; id <= 10; id++) {
+                filter.remove(id);
+            }
+            long base = new DateTime(2012, 1, 1, 0, 0).getMillis();
+            for (int id = 100; id < 100 + 3 * OccurrenceFilterIndex.SCAN_CHUNK; id++) {
+                long start = base + (long) random.nextInt(60 * 24) * 3600000L;
+                long end = start + random.nextInt(48 * 3600000);
+                double latitude = 33 + random.nextDouble() * 2;
+                double longitude = -119 + random.nextDouble() * 2;
+                filter.put(id, 1, 1, new Timestamp(start), new Timestamp(end), latitude, longitude);
+                spans.put(id, new long[]{start, end});
+                locations.put(id, new double[]{latitude, longitude});
+            }
+            for (int id = 100; id < 100 + 3 * OccurrenceFilterIndex.SCAN_CHUNK; id += 7) {
+                filter.remove(id);
+                spans.remove(id);
+                locations.remove(id);
+            }
+            assertSearchesAgree(random, base, spans, locations);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Checks searches over random windows and circles, some wide enough to scan every occurrence, against checking
+     * every occurrence by hand. The ten occurrences from the test data are expected to have been removed.
+     */
+    private void assertSearchesAgree(Random random, long base, Map<Integer, long[]> spans,
+            Map<Integer, double[]> locations) {
+        for (int i = 0; i < 50; i++) {
+            long windowStart = base + (long) random.nextInt(365 * 24) * 3600000L;
+            Interval window = new Interval(windowStart, windowStart + random.nextInt(30 * 24) * 3600000L);
+            IntervalMode mode = random.nextBoolean() ? IntervalMode.OVERLAP : IntervalMode.CONTAINED;
+            Circle circle = new Circle(33 + random.nextDouble() * 2, -119 + random.nextDouble() * 2,
+                    1 + random.nextInt(50));
+            List<Integer> expected = new ArrayList<Integer>();
+            for (Map.Entry<Integer, long[]> span : spans.entrySet()) {
+                double[] location = locations.get(span.getKey());
+                double dot = Haversine.unitX(location[0], location[1])
+                        * Haversine.unitX(circle.centerLatitude, circle.centerLongitude)
+                        + Haversine.unitY(location[0], location[1])
+                        * Haversine.unitY(circle.centerLatitude, circle.centerLongitude)
+                        + Haversine.unitZ(location[0]) * Haversine.unitZ(circle.centerLatitude);
+                if (OccurrenceIntervalTree.matches(span.getValue()[0], span.getValue()[1], window.getStartMillis(),
+                        window.getEndMillis(), mode) && dot >= Haversine.cosineOfRadius(circle.radius)) {
+                    expected.add(span.getKey());
+                }
+            }
+            Collections.sort(expected);
+            assertThat(find(null, circle, window, mode, null, null), is(expected));
+        }
+    }
+
+    private List<Integer> find(Integer attendee, Circle circle, Interval interval, IntervalMode mode,
+            List<Integer> eventIds, Integer venueId) {
+        return find(attendee, circle, interval, mode, eventIds, venueId, null);
+    }
+
+    private List<Integer> find(Integer attendee, Circle circle, Interval interval, IntervalMode mode,
+            List<Integer> eventIds, Integer venueId, List<Integer> candidates) {
+        return Lists.newArrayList(filter.findOccurrences(attendee, circle, interval, mode, eventIds, venueId,
+                candidates));
+    }
+}
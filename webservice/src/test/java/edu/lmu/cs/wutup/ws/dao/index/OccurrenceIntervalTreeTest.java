@@ -0,0 +1,116 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+
+public class OccurrenceIntervalTreeTest {
+
+    private EmbeddedDatabase database;
+    private OccurrenceIntervalTree tree = new OccurrenceIntervalTree();
+
+    @Before
+    public void setUp() {
+        database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .addScript("schema.sql")
+                .addScript("init.sql")
+                .build();
+        tree.setJdbcTemplate(new JdbcTemplate(database));
+    }
+
+    @Test
+    public void treeIsLoadedFromTheDatabase() {
+        Interval november = new Interval(new DateTime(2012, 11, 1, 0, 0), new DateTime(2012, 12, 1, 0, 0));
+        assertThat(sorted(tree.findOccurrences(november, IntervalMode.CONTAINED, 100)), is(Arrays.asList(6, 7, 8, 9,
+                10)));
+        Interval lateNight = new Interval(new DateTime(2012, 1, 16, 1, 0), new DateTime(2012, 1, 16, 2, 0));
+        assertThat(tree.findOccurrences(lateNight, IntervalMode.OVERLAP, 100), is(Arrays.asList(1)));
+        assertThat(tree.findOccurrences(lateNight, IntervalMode.CONTAINED, 100).size(), is(0));
+    }
+
+    @Test
+    public void tooManyMatchesGivesNull() {
+        Interval year = new Interval(new DateTime(2012, 1, 1, 0, 0), new DateTime(2013, 1, 1, 0, 0));
+        assertThat(tree.findOccurrences(year, IntervalMode.OVERLAP, 9), is(nullValue()));
+        assertThat(tree.findOccurrences(year, IntervalMode.OVERLAP, 10).size(), is(10));
+    }
+
+    @Test
+    public void searchAgreesWithBruteForceThroughUpdatesAndRebuilds() {
+        Random random = new Random(2012);
+        Map<Integer, long[]> expected = new HashMap<Integer, long[]>();
+        tree.findOccurrences(new Interval(0, 1), IntervalMode.OVERLAP, 1);
+        for (int id = 1; id <= 10; id++) {
+            tree.remove(id);
+        }
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 400; i++) {
+                int id = 100 + random.nextInt(1500);
+                if (random.nextInt(10) == 0) {
+                    tree.remove(id);
+                    expected.remove(id);
+                } else {
+                    long start = random.nextInt(1000000);
+                    long end = start + random.nextInt(random.nextInt(10) == 0 ? 200000 : 5000);
+                    tree.put(id, start, end);
+                    expected.put(id, new long[]{start, end});
+                }
+            }
+            for (int i = 0; i < 50; i++) {
+                long windowStart = random.nextInt(1000000);
+                Interval window = new Interval(windowStart, windowStart + random.nextInt(20000));
+                for (IntervalMode mode : IntervalMode.values()) {
+                    assertThat(sorted(tree.findOccurrences(window, mode, Integer.MAX_VALUE)),
+                            is(bruteForce(expected, window, mode)));
+                }
+            }
+        }
+    }
+
+    private static List<Integer> bruteForce(Map<Integer, long[]> spans, Interval window, IntervalMode mode) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Map.Entry<Integer, long[]> entry : spans.entrySet()) {
+            long start = entry.getValue()[0];
+            long end = entry.getValue()[1];
+            boolean matches = mode == IntervalMode.OVERLAP
+                    ? start < window.getEndMillis() && end > window.getStartMillis()
+                    : start >= window.getStartMillis() && end <= window.getEndMillis();
+            if (matches) {
+                ids.add(entry.getKey());
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static List<Integer> sorted(List<Integer> ids) {
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @After
+    public void tearDownDatabase() {
+        database.shutdown();
+    }
+}
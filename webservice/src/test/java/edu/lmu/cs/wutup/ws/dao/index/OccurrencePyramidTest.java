@@ -0,0 +1,140 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
+import edu.lmu.cs.wutup.ws.model.OccurrenceCluster;
+
+public class OccurrencePyramidTest {
+
+    private static final BoundingBox WORLD = new BoundingBox(-90, -180, 90, 180);
+
+    private EmbeddedDatabase database;
+    private OccurrencePyramid pyramid = new OccurrencePyramid();
+
+    @Before
+    public void setUp() {
+        database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .addScript("schema.sql")
+                .addScript("init.sql")
+                .build();
+        pyramid.setJdbcTemplate(new JdbcTemplate(database));
+    }
+
+    @Test
+    public void pyramidIsLoadedFromTheDatabase() {
+        List<OccurrenceCluster> clusters = pyramid.findClusters(WORLD, 0);
+        assertThat(clusters.size(), is(2));
+        assertThat(totalCount(clusters), is(10));
+    }
+
+    @Test
+    public void everyLevelAgreesWithTheOccurrencesAfterRandomUpdates() {
+        Random random = new Random(2012);
+        Map<Integer, double[]> expected = new HashMap<Integer, double[]>();
+        pyramid.findClusters(WORLD, 0);
+        for (int id = 1; id <= 10; id++) {
+            pyramid.remove(id);
+        }
+        for (int i = 0; i < 2000; i++) {
+            int id = 100 + random.nextInt(500);
+            if (random.nextInt(4) == 0) {
+                pyramid.remove(id);
+                expected.remove(id);
+            } else {
+                double latitude = 30 + random.nextDouble() * 10;
+                double longitude = -125 + random.nextDouble() * 10;
+                pyramid.put(id, 1, id, latitude, longitude);
+                expected.put(id, new double[]{latitude, longitude});
+            }
+        }
+
+        for (int zoom = 0; zoom <= OccurrencePyramid.MAX_LEVEL; zoom += 4) {
+            List<OccurrenceCluster> clusters = pyramid.findClusters(WORLD, zoom);
+            assertThat(totalCount(clusters), is(expected.size()));
+            Set<Integer> seen = new HashSet<Integer>();
+            for (OccurrenceCluster cluster : clusters) {
+                assertThat(cluster.getSampleIds().size(), is(Math.min(OccurrencePyramid.SAMPLE_SIZE,
+                        cluster.getCount())));
+                double latitudeSum = 0;
+                for (int id : cluster.getSampleIds()) {
+                    assertTrue(expected.containsKey(id));
+                    assertTrue(seen.add(id));
+                }
+                for (double[] location : expected.values()) {
+                    if (OccurrencePyramid.rowOf(location[0], zoom) == OccurrencePyramid.rowOf(cluster.getLatitude(),
+                            zoom)
+                            && OccurrencePyramid.columnOf(location[1], zoom) == OccurrencePyramid.columnOf(
+                                    cluster.getLongitude(), zoom)) {
+                        latitudeSum += location[0];
+                    }
+                }
+                assertEquals(cluster.getLatitude(), latitudeSum / cluster.getCount(), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void viewportOnlyReturnsOverlappingCells() {
+        pyramid.findClusters(WORLD, 0);
+        pyramid.put(100, 1, 100, 10.0, 179.95);
+        pyramid.put(101, 1, 101, 10.0, -179.95);
+        pyramid.put(102, 1, 102, 10.0, 0.0);
+
+        List<OccurrenceCluster> clusters = pyramid.findClusters(new BoundingBox(9, 179, 11, -179), 10);
+        assertThat(clusters.size(), is(2));
+        assertThat(totalCount(clusters), is(2));
+        assertThat(totalCount(pyramid.findClusters(new BoundingBox(9, -1, 11, 1), 10)), is(1));
+        assertThat(pyramid.findClusters(new BoundingBox(12, -1, 13, 1), 10).size(), is(0));
+    }
+
+    @Test
+    public void movingAVenueMovesItsOccurrences() {
+        pyramid.findClusters(WORLD, 0);
+        pyramid.moveVenue(4, 34.1, -118.3);
+        List<OccurrenceCluster> clusters = pyramid.findClusters(WORLD, 0);
+        assertThat(clusters.size(), is(1));
+        assertThat(clusters.get(0).getCount(), is(10));
+    }
+
+    @Test
+    public void removingAnEventRemovesItsOccurrences() {
+        pyramid.findClusters(WORLD, 0);
+        pyramid.removeEvent(2);
+        List<OccurrenceCluster> clusters = pyramid.findClusters(new BoundingBox(30, -120, 36, -116), 0);
+        assertThat(clusters.get(0).getCount(), is(6));
+        assertThat(clusters.get(0).getSampleIds(), is(Arrays.asList(2, 3, 5, 7, 8)));
+    }
+
+    private static int totalCount(List<OccurrenceCluster> clusters) {
+        int total = 0;
+        for (OccurrenceCluster cluster : clusters) {
+            total += cluster.getCount();
+        }
+        return total;
+    }
+
+    @After
+    public void tearDownDatabase() {
+        database.shutdown();
+    }
+}
@@ -0,0 +1,96 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import edu.lmu.cs.wutup.ws.model.Circle;
+
+public class VenueGridIndexTest {
+
+    private EmbeddedDatabase database;
+    private VenueGridIndex index = new VenueGridIndex();
+
+    @Before
+    public void setUp() {
+        database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .addScript("schema.sql")
+                .addScript("init.sql")
+                .build();
+        index.jdbcTemplate = new JdbcTemplate(database);
+    }
+
+    @Test
+    public void candidatesIncludeNearbyVenuesOnly() {
+        List<Integer> candidates = index.findCandidates(new Circle(34.1127863, -118.3392439, 1), 100);
+        assertTrue(candidates.contains(1));
+        assertTrue(candidates.contains(2));
+        assertFalse(candidates.contains(4));
+        assertFalse(candidates.contains(10));
+    }
+
+    @Test
+    public void tooManyCandidatesYieldsNull() {
+        assertThat(index.findCandidates(new Circle(34.1127863, -118.3392439, 50), 3), nullValue());
+    }
+
+    @Test
+    public void putAndRemoveAreReflectedInCandidates() {
+        Circle london = new Circle(51.5, -0.12, 5);
+        assertThat(index.findCandidates(london, 100).size(), is(0));
+        index.put(500, 51.51, -0.1);
+        assertThat(index.findCandidates(london, 100).contains(500), is(true));
+        index.put(500, 34.1, -118.3);
+        assertThat(index.findCandidates(london, 100).size(), is(0));
+        index.put(501, 51.49, -0.13);
+        index.remove(501);
+        assertThat(index.findCandidates(london, 100).size(), is(0));
+    }
+
+    @Test
+    public void circlesWrapAroundTheAntimeridian() {
+        Circle circle = new Circle(0.0, 179.995, 5);
+        assertThat(index.findCandidates(circle, 100).size(), is(0));
+        index.put(600, 0.0, 179.99);
+        index.put(601, 0.0, -179.99);
+        List<Integer> candidates = index.findCandidates(circle, 100);
+        assertTrue(candidates.contains(600));
+        assertTrue(candidates.contains(601));
+    }
+
+    @Test
+    public void circlesReachingAPoleCoverAllLongitudes() {
+        Circle circle = new Circle(89.95, 90.0, 10);
+        assertThat(index.findCandidates(circle, 100).size(), is(0));
+        index.put(700, 89.9, 0.0);
+        index.put(701, 89.9, 180.0);
+        List<Integer> candidates = index.findCandidates(circle, 100);
+        assertTrue(candidates.contains(700));
+        assertTrue(candidates.contains(701));
+    }
+
+    @Test
+    public void rowsAndColumnsStayInRange() {
+        assertThat(VenueGridIndex.rowOf(-90), is(0));
+        assertThat(VenueGridIndex.rowOf(90), is(VenueGridIndex.ROWS - 1));
+        assertThat(VenueGridIndex.columnOf(-180), is(0));
+        assertThat(VenueGridIndex.columnOf(180), is(0));
+    }
+
+    @After
+    public void tearDownDatabase() {
+        database.shutdown();
+    }
+}
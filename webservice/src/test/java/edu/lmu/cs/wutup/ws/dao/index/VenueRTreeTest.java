@@ -0,0 +1,113 @@
+package edu.lmu.cs.wutup.ws.dao.index;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import edu.lmu.cs.wutup.ws.dao.index.VenueRTree.Neighbor;
+import edu.lmu.cs.wutup.ws.dao.util.Haversine;
+
+public class VenueRTreeTest {
+
+    private EmbeddedDatabase database;
+    private VenueRTree tree = new VenueRTree();
+
+    @Before
+    public void setUp() {
+        database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .addScript("schema.sql")
+                .addScript("init.sql")
+                .build();
+        tree.setJdbcTemplate(new JdbcTemplate(database));
+    }
+
+    @Test
+    public void nearestVenuesComeClosestFirst() {
+        List<Neighbor> neighbors = tree.findNearest(34.1019444, -118.3261111, 3);
+        assertThat(neighbors.size(), is(3));
+        assertThat(neighbors.get(0).venueId, is(1));
+        assertThat(neighbors.get(0).distance, is(0.0));
+        assertThat(neighbors.get(1).venueId, is(2));
+        assertTrue(neighbors.get(1).distance <= neighbors.get(2).distance);
+    }
+
+    @Test
+    public void searchAgreesWithBruteForceThroughUpdatesAndRebuilds() {
+        Random random = new Random(2012);
+        Map<Integer, double[]> expected = new HashMap<Integer, double[]>();
+        tree.findNearest(0, 0, 1);
+        for (int venueId : new int[]{1, 2, 3, 4, 5, 6, 7, 8, 10, 11}) {
+            tree.remove(venueId);
+        }
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 400; i++) {
+                int venueId = 100 + random.nextInt(1500);
+                if (random.nextInt(10) == 0) {
+                    tree.remove(venueId);
+                    expected.remove(venueId);
+                } else {
+                    double latitude = random.nextDouble() * 180 - 90;
+                    double longitude = random.nextDouble() * 360 - 180;
+                    tree.put(venueId, latitude, longitude);
+                    expected.put(venueId, new double[]{latitude, longitude});
+                }
+            }
+            for (int i = 0; i < 20; i++) {
+                double latitude = random.nextDouble() * 180 - 90;
+                double longitude = random.nextDouble() * 360 - 180;
+                List<Neighbor> neighbors = tree.findNearest(latitude, longitude, 10);
+                List<Double> distances = bruteForce(expected, latitude, longitude);
+                assertThat(neighbors.size(), is(10));
+                for (int j = 0; j < neighbors.size(); j++) {
+                    assertThat(neighbors.get(j).distance, is(distances.get(j)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void searchFindsVenuesAcrossTheAntimeridian() {
+        tree.findNearest(0, 0, 1);
+        tree.put(900, 0.0, 179.9);
+        tree.put(901, 0.0, -179.95);
+        List<Neighbor> neighbors = tree.findNearest(0, -179.99, 2);
+        assertThat(neighbors.get(0).venueId, is(901));
+        assertThat(neighbors.get(1).venueId, is(900));
+    }
+
+    private static List<Double> bruteForce(Map<Integer, double[]> locations, final double latitude,
+            final double longitude) {
+        List<Double> distances = new ArrayList<Double>();
+        for (double[] location : locations.values()) {
+            distances.add(Haversine.distanceInMiles(latitude, location[0], longitude, location[1]));
+        }
+        Collections.sort(distances, new Comparator<Double>() {
+            public int compare(Double a, Double b) {
+                return Double.compare(a, b);
+            }
+        });
+        return distances;
+    }
+
+    @After
+    public void tearDownDatabase() {
+        database.shutdown();
+    }
+}
@@ -0,0 +1,128 @@
+package edu.lmu.cs.wutup.ws.dao.util;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import edu.lmu.cs.wutup.ws.model.Circle;
+
+/**
+ * Compares the bare distance-function query shape for circle searches with the current one (an indexed bounding box
+ * followed by a dot product against precomputed unit vectors), over a synthetic venue table. Not a unit test; run it by hand, optionally passing the number of venues (default one
+ * million) and the number of searches (default 100):
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=edu.lmu.cs.wutup.ws.dao.util.CircleQueryBenchmark -Dexec.args="1000000 100"
+ * </pre>
+ *
+ * Both query plans are printed, so it is easy to see that only the new shape uses the venue(latitude, longitude)
+ * index.
+ */
+public class CircleQueryBenchmark {
+
+    private static final int BATCH_SIZE = 10000;
+
+    public static void main(String[] args) {
+        int venueCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int searchCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .addScript("schema.sql")
+                .build();
+        try {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+            long start = System.currentTimeMillis();
+            populate(jdbcTemplate, venueCount, new Random(42));
+            jdbcTemplate.execute("analyze");
+            System.out.printf("Inserted %d venues in %d ms%n", venueCount, System.currentTimeMillis() - start);
+
+            List<Circle> circles = new ArrayList<Circle>();
+            Random random = new Random(7);
+            for (int i = 0; i < searchCount; i++) {
+                circles.add(new Circle(random.nextDouble() * 170 - 85, random.nextDouble() * 360 - 180,
+                        1 + random.nextDouble() * 24));
+            }
+
+            Circle sample = circles.get(0);
+            System.out.println("Old plan: " + plan(jdbcTemplate, oldQuery(sample), new Object[]{sample.radius}));
+            QueryBuilder builder = newQuery(sample);
+            System.out.println("New plan: " + plan(jdbcTemplate, builder.build(), builder.getParametersArray()));
+
+            // Warm up both shapes before timing them
+            run(jdbcTemplate, circles.subList(0, Math.min(5, circles.size())), true);
+            run(jdbcTemplate, circles.subList(0, Math.min(5, circles.size())), false);
+
+            report("Old", run(jdbcTemplate, circles, true), circles.size());
+            report("New", run(jdbcTemplate, circles, false), circles.size());
+        } finally {
+            database.shutdown();
+        }
+    }
+
+    private static void populate(JdbcTemplate jdbcTemplate, int venueCount, final Random random) {
+        for (int done = 0; done < venueCount; done += BATCH_SIZE) {
+            final int size = Math.min(BATCH_SIZE, venueCount - done);
+            jdbcTemplate.batchUpdate("insert into venue (name, address, latitude, longitude, x, y, z) "
+                    + "values (?,?,?,?,?,?,?)", new BatchPreparedStatementSetter() {
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            double latitude = random.nextDouble() * 180 - 90;
+                            double longitude = random.nextDouble() * 360 - 180;
+                            ps.setString(1, "Venue");
+                            ps.setString(2, "Address");
+                            ps.setDouble(3, latitude);
+                            ps.setDouble(4, longitude);
+                            ps.setDouble(5, Haversine.unitX(latitude, longitude));
+                            ps.setDouble(6, Haversine.unitY(latitude, longitude));
+                            ps.setDouble(7, Haversine.unitZ(latitude));
+                        }
+
+                        public int getBatchSize() {
+                            return size;
+                        }
+                    });
+        }
+    }
+
+    private static String oldQuery(Circle c) {
+        return "select v.* from venue v where get_distance_miles(v.latitude, " + c.centerLatitude
+                + ", v.longitude, " + c.centerLongitude + ") <= ?";
+    }
+
+    private static QueryBuilder newQuery(Circle c) {
+        return new QueryBuilder().select("v.*").from("venue v").whereCircle(c);
+    }
+
+    private static String plan(JdbcTemplate jdbcTemplate, String query, Object[] parameters) {
+        return jdbcTemplate.queryForObject("explain " + query, parameters, String.class);
+    }
+
+    /**
+     * Runs every search and returns the elapsed time in milliseconds.
+     */
+    private static long run(JdbcTemplate jdbcTemplate, List<Circle> circles, boolean old) {
+        long start = System.currentTimeMillis();
+        for (Circle c : circles) {
+            if (old) {
+                jdbcTemplate.queryForList(oldQuery(c), c.radius);
+            } else {
+                QueryBuilder builder = newQuery(c);
+                jdbcTemplate.queryForList(builder.build(), builder.getParametersArray());
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static void report(String label, long millis, int searches) {
+        System.out.printf("%s shape: %d searches in %d ms (%.2f ms per search)%n", label, searches, millis,
+                (double) millis / searches);
+    }
+}
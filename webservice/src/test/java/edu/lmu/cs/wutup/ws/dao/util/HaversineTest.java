@@ -18,4 +18,15 @@ public class HaversineTest {
         Double distance = Haversine.getDistanceInMiles(38.898556, 38.897147, -170.037852, -77.043934);
         assertThat(Math.floor(distance), is(Math.floor(4751.893)));
     }
+
+    @Test
+    public void dotProductThresholdAgreesWithDistance() {
+        double latA = 34.1127863, longA = -118.3392439, latB = 34.0522, longB = -118.2437;
+        double dot = Haversine.unitX(latA, longA) * Haversine.unitX(latB, longB)
+                + Haversine.unitY(latA, longA) * Haversine.unitY(latB, longB)
+                + Haversine.unitZ(latA) * Haversine.unitZ(latB);
+        double distance = Haversine.distanceInMiles(latA, latB, longA, longB);
+        assertThat(dot >= Haversine.cosineOfRadius(distance + 0.01), is(true));
+        assertThat(dot >= Haversine.cosineOfRadius(distance - 0.01), is(false));
+    }
 }
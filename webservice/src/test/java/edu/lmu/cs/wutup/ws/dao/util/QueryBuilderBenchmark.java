@@ -0,0 +1,71 @@
+package edu.lmu.cs.wutup.ws.dao.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.lmu.cs.wutup.ws.model.Circle;
+import edu.lmu.cs.wutup.ws.model.PaginationData;
+
+/**
+ * Measures how many occurrence search queries the builder can produce per second, and how many bytes each one
+ * allocates, for a typical search: a circle, two events and a page. Not a unit test; run it by hand, optionally
+ * passing the number of queries per round (default one million) and the number of rounds (default 5):
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=edu.lmu.cs.wutup.ws.dao.util.QueryBuilderBenchmark -Dexec.args="1000000 5"
+ * </pre>
+ *
+ * The first round includes warm-up; allocation is only reported on JVMs that expose per-thread allocation counts.
+ */
+public class QueryBuilderBenchmark {
+
+    public static void main(String[] args) {
+        int queryCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int roundCount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Random random = new Random(42);
+        Circle[] circles = new Circle[1024];
+        for (int i = 0; i < circles.length; i++) {
+            circles[i] = new Circle(random.nextDouble() * 170 - 85, random.nextDouble() * 340 - 170,
+                    1 + random.nextDouble() * 24);
+        }
+
+        for (int round = 1; round <= roundCount; round++) {
+            long bytesBefore = allocatedBytes();
+            long before = System.nanoTime();
+            int checksum = 0;
+            for (int i = 0; i < queryCount; i++) {
+                int j = i & (circles.length - 1);
+                QueryBuilder query = new QueryBuilder()
+                        .select("o.id", "o.start", "o.end", "o.venueId", "v.name as venueName", "o.eventId")
+                        .from("occurrence o")
+                        .joinOn("venue v", "o.venueId = v.id")
+                        .joinOn("event e", "o.eventId = e.id")
+                        .whereCircle(circles[j])
+                        .whereIn("o.eventId", Arrays.asList(j, j + 1))
+                        .order("o.id")
+                        .addPagination(new PaginationData(j & 7, 20));
+                checksum += query.build().length() + query.getParametersArray().length;
+            }
+            long nanos = System.nanoTime() - before;
+            long bytes = allocatedBytes() - bytesBefore;
+            System.out.printf("Round %d: %.0f queries/s, %.0f ns per query%s (checksum %d)%n", round,
+                    queryCount * 1e9 / nanos, (double) nanos / queryCount,
+                    bytesBefore < 0 ? "" : String.format(", %.0f bytes per query", (double) bytes / queryCount),
+                    checksum);
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by this thread so far, or -1 if the JVM can't say.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
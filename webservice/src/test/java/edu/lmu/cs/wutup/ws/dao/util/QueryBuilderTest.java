@@ -1,13 +1,16 @@
 package edu.lmu.cs.wutup.ws.dao.util;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
-import org.joda.time.DateTime;
-import org.joda.time.Interval;
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import org.junit.Test;
 
 import edu.lmu.cs.wutup.ws.model.Circle;
+import edu.lmu.cs.wutup.ws.model.Cursor;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
 
 public class QueryBuilderTest {
@@ -47,28 +50,6 @@ public class QueryBuilderTest {
 
     }
 
-    @Test
-    public void queryWithWhereIntervalIsCorrect() {
-        QueryBuilder query = new QueryBuilder().select("o.id", "o.start", "o.end", "o.venueId", "v.name as venueName",
-                "v.address", "v.latitude", "v.longitude", "o.eventId", "e.name as eventName", "e.description",
-                "address", "u.id as userId", "u.firstName", "u.lastName", "u.email", "u.nickname")
-                .whereInterval(new Interval(new DateTime("2012-01-15T08:30:00"), new DateTime("2012-01-16T11:30:00")))
-                .from("occurrence o")
-                .joinOn("venue v", "o.venueId = v.id")
-                .joinOn("event e", "o.eventId = e.id")
-                .joinOn("user u", "e.ownerId = u.id");
-        Object[] parameters = query.getParametersArray();
-        assertThat(query.build(), equalTo("select o.id, o.start, o.end, o.venueId, v.name as venueName, v.address, "
-                + "v.latitude, v.longitude, o.eventId, e.name as eventName, e.description, address, u.id as "
-                + "userId, u.firstName, u.lastName, u.email, u.nickname from occurrence o join venue v on "
-                + "(o.venueId = v.id) join event e on (o.eventId = e.id) join user u on (e.ownerId = u.id) where "
-                + "start between ? and ? and end between ? and ?"));
-        assertThat(parameters[0].toString(), equalTo("2012-01-15 08:30:00.0"));
-        assertThat(parameters[1].toString(), equalTo("2012-01-16 11:30:00.0"));
-        assertThat(parameters[2].toString(), equalTo("2012-01-15 08:30:00.0"));
-        assertThat(parameters[3].toString(), equalTo("2012-01-16 11:30:00.0"));
-    }
-
     @Test
     public void queryWithWhereCircleIsCorrect() {
         QueryBuilder query = new QueryBuilder().select("*")
@@ -79,8 +60,26 @@ public class QueryBuilderTest {
                 .joinOn("user u", "e.ownerId = u.id");
         assertThat(query.build(), equalTo("select * from occurrence o join venue v on (o.venueId = v.id) join "
                 + "event e on (o.eventId = e.id) join user u on (e.ownerId = u.id) where "
-                + "get_distance_miles(v.latitude, 65.0, v.longitude, 120.0) <= ?"));
-        assertThat(query.getParametersArray()[0].toString(), equalTo("80.0"));
+                + "v.latitude between ? and ? and v.longitude between ? and ? and "
+                + "v.x * ? + v.y * ? + v.z * ? >= ?"));
+        Object[] parameters = query.getParametersArray();
+        assertThat(parameters.length, equalTo(8));
+        assertThat((Double) parameters[7], equalTo(Math.cos(80 / Haversine.radiusMiles)));
+    }
+
+    @Test
+    public void queryWithWhereCircleAcrossAntimeridianIsCorrect() {
+        QueryBuilder query = new QueryBuilder().from("venue v").whereCircle(new Circle(0, 179.9, 50));
+        assertThat(query.build(), equalTo("select * from venue v where v.latitude between ? and ? and "
+                + "(v.longitude >= ? or v.longitude <= ?) and "
+                + "v.x * ? + v.y * ? + v.z * ? >= ?"));
+    }
+
+    @Test
+    public void queryWithWhereCircleAtPoleOmitsLongitudes() {
+        QueryBuilder query = new QueryBuilder().from("venue v").whereCircle(new Circle(89.5, 0, 50));
+        assertThat(query.build(), equalTo("select * from venue v where v.latitude between ? and ? and "
+                + "v.x * ? + v.y * ? + v.z * ? >= ?"));
     }
 
     @Test
@@ -89,11 +88,24 @@ public class QueryBuilderTest {
                 .where("name = :name1", "ric")
                 .orWhere("name = :name2", "part");
         Object[] parameters = query.getParametersArray();
-        assertThat(query.build(), equalTo("select * from event where name = ? or name = ?"));
+        assertThat(query.build(), equalTo("select * from event where (name = ? or name = ?)"));
         assertThat(parameters[0].toString(), equalTo("ric"));
         assertThat(parameters[1].toString(), equalTo("part"));
     }
 
+    @Test
+    public void orWhereOnlyWidensTheClauseBeforeIt() {
+        QueryBuilder query = new QueryBuilder().from("event")
+                .where("ownerId = :owner", 3)
+                .where("name = :name1", "ric")
+                .orWhere("name = :name2", "part")
+                .orWhere("name = :name3", "y")
+                .where("id > :id", 10);
+        assertThat(query.build(), equalTo("select * from event where ownerId = ? and (name = ? or name = ? or "
+                + "name = ?) and id > ?"));
+        assertThat(query.getParameters(), equalTo(Arrays.<Object>asList("3", "ric", "part", "y", "10")));
+    }
+
     @Test
     public void queryWithSingleLikeIsCorrect() {
         QueryBuilder query = new QueryBuilder().from("event").like("name", "name", "RIC");
@@ -113,8 +125,10 @@ public class QueryBuilderTest {
 
     @Test
     public void addPaginationHasCorrectLimitAndOffset() {
-        String query = new QueryBuilder().from("event").addPagination(new PaginationData(0, 3)).build();
-        assertThat(query, equalTo("select * from event limit 3 offset 0"));
+        QueryBuilder query = new QueryBuilder().from("event").where("name = :name", "Rich")
+                .addPagination(new PaginationData(2, 3));
+        assertThat(query.build(), equalTo("select * from event where name = ? limit ? offset ?"));
+        assertThat(query.getParametersArray(), equalTo(new Object[]{"Rich", 3, 6}));
     }
 
     @Test
@@ -145,4 +159,84 @@ public class QueryBuilderTest {
                 equalTo("select * from event inner join eventOccurrence on (event.id = eventOccurrence.id) where name = ?"));
         assertThat(query.getParametersArray()[0].toString(), equalTo("Rich"));
     }
+
+    @Test
+    public void queryWithWhereInHasOneParameterPerValue() {
+        QueryBuilder query = new QueryBuilder().from("venue").where("name = :name", "Roxy")
+                .whereIn("id", Arrays.asList(3, 5, 8, 13));
+        assertThat(query.build(), equalTo("select * from venue where name = ? and id in (?, ?, ?, ?)"));
+        assertThat(query.getParametersArray(), equalTo(new Object[]{"Roxy", 3, 5, 8, 13}));
+    }
+
+    @Test
+    public void whereInPadsToAPowerOfTwoWithTheLastValue() {
+        QueryBuilder query = new QueryBuilder().from("venue").whereIn("id", Arrays.asList(3, 5, 8));
+        assertThat(query.build(), equalTo("select * from venue where id in (?, ?, ?, ?)"));
+        assertThat(query.getParametersArray(), equalTo(new Object[]{3, 5, 8, 8}));
+
+        query = new QueryBuilder().from("venue").whereIn("id", Arrays.asList(3));
+        assertThat(query.build(), equalTo("select * from venue where id in (?)"));
+    }
+
+    @Test
+    public void queryWithEmptyWhereInMatchesNothing() {
+        String query = new QueryBuilder().from("venue").whereIn("id", new ArrayList<Integer>()).build();
+        assertThat(query, equalTo("select * from venue where 1 = 0"));
+    }
+
+    @Test
+    public void queriesOfTheSameShapeShareTheirText() {
+        QueryBuilder near = new QueryBuilder().select("v.*").from("venue v").whereCircle(new Circle(34, -118, 5))
+                .where("v.name = :name", "Roxy").addPagination(new PaginationData(0, 10));
+        QueryBuilder far = new QueryBuilder().select("v.*").from("venue v").whereCircle(new Circle(-20, 40, 50))
+                .where("v.name = :name", "Pantages").addPagination(new PaginationData(4, 25));
+        assertSame(near.build(), far.build());
+        assertThat(near.getParametersArray()[8], equalTo((Object) "Roxy"));
+        assertThat(far.getParametersArray()[8], equalTo((Object) "Pantages"));
+        assertThat(far.getParametersArray()[10], equalTo((Object) 100));
+    }
+
+    @Test
+    public void queriesOfDifferentShapesHaveDifferentText() {
+        String ordered = new QueryBuilder().from("event").where("name = :name", "Rich").order("id").build();
+        String unordered = new QueryBuilder().from("event").where("name = :name", "Rich").build();
+        String paged = new QueryBuilder().from("event").where("name = :name", "Rich").order("id")
+                .addPagination(new PaginationData(0, 5)).build();
+        assertThat(ordered, equalTo("select * from event where name = ? order by id"));
+        assertThat(unordered, equalTo("select * from event where name = ?"));
+        assertThat(paged, equalTo("select * from event where name = ? order by id limit ? offset ?"));
+    }
+
+    @Test
+    public void buildingTwiceReturnsTheSameText() {
+        QueryBuilder query = new QueryBuilder().from("event").where("name = :name", "Rich");
+        assertSame(query.build(), query.build());
+        assertThat(query.getQueryString(), equalTo("select * from event where name = ?"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void builtQueriesCannotBeChanged() {
+        QueryBuilder query = new QueryBuilder().from("event");
+        query.build();
+        query.where("name = :name", "Rich");
+    }
+
+    @Test
+    public void cursorsSeekPastTheLastKey() {
+        QueryBuilder ascending = new QueryBuilder().from("comment")
+                .whereAfter("timestamp", "id", Cursor.afterTime(1000L, 4), false).order("timestamp, id");
+        assertThat(ascending.build(), equalTo(
+                "select * from comment where (timestamp > ? or (timestamp = ? and id > ?)) order by timestamp, id"));
+        assertThat(ascending.getParametersArray()[2], equalTo((Object) 4));
+
+        QueryBuilder descending = new QueryBuilder().from("comment")
+                .whereAfter("timestamp", "id", Cursor.afterTime(1000L, 4), true);
+        assertThat(descending.build(), equalTo(
+                "select * from comment where (timestamp < ? or (timestamp = ? and id > ?))"));
+
+        assertThat(new QueryBuilder().from("event").whereAfter("id", Cursor.afterId(9)).build(),
+                equalTo("select * from event where id > ?"));
+        assertThat(new QueryBuilder().from("event").whereAfter("id", null).build(),
+                equalTo("select * from event"));
+    }
 }
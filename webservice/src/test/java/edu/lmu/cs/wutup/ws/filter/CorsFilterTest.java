@@ -26,6 +26,13 @@ public class CorsFilterTest {
         assertThat(response.getHeader("Access-Control-Allow-Origin"), is("*"));
     }
 
+    @Test
+    public void responsesExposeTheNextCursorHeader() throws Exception {
+        request.setMethod("GET");
+        filter.doFilterInternal(request, response, chain);
+        assertThat(response.getHeader("Access-Control-Expose-Headers"), is("X-Next-Cursor"));
+    }
+
     @Test
     public void optionsRequestHasCompleteSetOfHeaders() throws Exception {
         request.setMethod("OPTIONS");
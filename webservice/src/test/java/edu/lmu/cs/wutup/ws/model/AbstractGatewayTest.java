@@ -0,0 +1,36 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.net.URI;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.impl.conn.DefaultHttpRoutePlanner;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.Test;
+
+public class AbstractGatewayTest {
+
+    @Test
+    public void routesAreTheOnesTheClientTakes() throws Exception {
+        DefaultHttpRoutePlanner planner = new DefaultHttpRoutePlanner(SchemeRegistryFactory.createDefault());
+        for (String url : new String[]{"https://maps.googleapis.com/maps/api/geocode/json?address=LMU",
+                "https://graph.facebook.com/me/events", "http://example.com:8080/"}) {
+            URI uri = URI.create(url);
+            assertThat(AbstractGateway.routeTo(uri),
+                    is(planner.determineRoute(URIUtils.extractHost(uri), new HttpGet(uri), new BasicHttpContext())));
+        }
+    }
+
+    @Test
+    public void apiHostsGetTheirOwnLimit() {
+        for (String host : AbstractGateway.API_HOSTS) {
+            assertThat(AbstractGateway.poolStats(host).getMax(), is(AbstractGateway.MAX_CONNECTIONS_PER_API_ROUTE));
+            assertThat(AbstractGateway.poolStats(host).getLeased(), is(0));
+        }
+        assertThat(AbstractGateway.poolStats().getMax(), is(AbstractGateway.MAX_CONNECTIONS));
+    }
+}
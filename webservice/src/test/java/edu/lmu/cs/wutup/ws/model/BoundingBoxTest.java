@@ -0,0 +1,51 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.lmu.cs.wutup.ws.dao.util.Haversine;
+
+public class BoundingBoxTest {
+
+    @Test
+    public void boxEnclosesTheCircle() {
+        Circle circle = new Circle(34.1, -118.3, 10);
+        BoundingBox box = new BoundingBox(circle);
+        assertTrue(box.south < 34.1 && box.north > 34.1);
+        assertTrue(box.west < -118.3 && box.east > -118.3);
+        assertFalse(box.crossesAntimeridian());
+        assertFalse(box.coversAllLongitudes());
+
+        // Points on the edges of the box, level with the center, are just about on the circle
+        assertThat(Math.round(Haversine.getDistanceInMiles(34.1, box.north, -118.3, -118.3)), is(10L));
+        assertThat(Math.round(Haversine.getDistanceInMiles(34.1, 34.1, -118.3, box.east)) <= 10, is(true));
+    }
+
+    @Test
+    public void longitudesWidenAwayFromTheEquator() {
+        BoundingBox equator = new BoundingBox(new Circle(0, 0, 50));
+        BoundingBox north = new BoundingBox(new Circle(60, 0, 50));
+        assertTrue(north.east - north.west > 1.9 * (equator.east - equator.west));
+        assertTrue(Math.abs((north.north - north.south) - (equator.north - equator.south)) < 1e-9);
+    }
+
+    @Test
+    public void boxWrapsAroundTheAntimeridian() {
+        BoundingBox box = new BoundingBox(new Circle(10, -179.9, 30));
+        assertTrue(box.crossesAntimeridian());
+        assertTrue(box.west > 179);
+        assertTrue(box.east < -179);
+    }
+
+    @Test
+    public void boxReachingAPoleCoversAllLongitudes() {
+        BoundingBox box = new BoundingBox(new Circle(-89.5, 45, 40));
+        assertTrue(box.coversAllLongitudes());
+        assertFalse(box.crossesAntimeridian());
+        assertThat(box.south, is(-90.0));
+    }
+}
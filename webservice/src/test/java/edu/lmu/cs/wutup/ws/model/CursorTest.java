@@ -0,0 +1,48 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+public class CursorTest {
+
+    @Test
+    public void cursorsRoundTrip() {
+        for (Cursor c : Arrays.asList(Cursor.afterId(7), Cursor.afterTime(1350000000000L, 3),
+                new Cursor(12, -5L, 1.25, true), new Cursor(4, null, 0.0, false))) {
+            String token = c.encode();
+            assertTrue(token, token.matches("[A-Za-z0-9_-]+"));
+            assertThat(Cursor.decode(token), is(c));
+        }
+    }
+
+    @Test
+    public void expandedInstancesAreMarkedWithTheirSeries() {
+        EventOccurrence instance = new EventOccurrence(new Event(7, null), null, new DateTime(2012, 11, 5, 20, 0, 0),
+                null);
+        instance.setRecurrenceId(3);
+        Cursor c = Cursor.after(instance);
+        assertThat(c.id, is(3));
+        assertThat(c.instance, is(true));
+        assertThat(c.time, is(new DateTime(2012, 11, 5, 20, 0, 0).getMillis()));
+    }
+
+    @Test
+    public void malformedCursorsAreRejected() {
+        for (String token : Arrays.asList("", "a+b", "not a cursor", Cursor.afterId(1).encode() + "=",
+                "eA", "MSx4OQ")) {
+            try {
+                Cursor.decode(token);
+                fail(token);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+}
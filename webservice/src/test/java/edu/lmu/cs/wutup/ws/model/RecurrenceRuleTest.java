@@ -0,0 +1,106 @@
+package edu.lmu.cs.wutup.ws.model;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+public class RecurrenceRuleTest {
+
+    private DateTime monday = new DateTime(2012, 11, 5, 20, 0, 0);
+
+    @Test
+    public void rulesRoundTrip() {
+        for (String rule : Arrays.asList("FREQ=DAILY", "FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,WE;COUNT=10",
+                "FREQ=MONTHLY;UNTIL=20121231T235959Z")) {
+            assertThat(RecurrenceRule.parse(rule).toString(), is(rule));
+        }
+        assertThat(RecurrenceRule.parse("RRULE:freq=weekly;byday=we,mo;wkst=mo"),
+                is(RecurrenceRule.parse("FREQ=WEEKLY;BYDAY=MO,WE")));
+    }
+
+    @Test
+    public void malformedRulesAreRejected() {
+        for (String rule : Arrays.asList("", "FREQ=YEARLY", "INTERVAL=2", "FREQ=DAILY;BYDAY=MO",
+                "FREQ=DAILY;COUNT=2;UNTIL=20121231", "FREQ=DAILY;INTERVAL=0", "FREQ=DAILY;COUNT=x",
+                "FREQ=WEEKLY;BYDAY=XX", "FREQ=DAILY;BYMONTH=1", "FREQ=DAILY;COUNT=100000")) {
+            try {
+                RecurrenceRule.parse(rule);
+                fail(rule);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void weeklyRulesRepeatOnTheirDays() {
+        RecurrenceRule rule = RecurrenceRule.parse("FREQ=WEEKLY;BYDAY=MO,WE;COUNT=5");
+        assertThat(rule.startsBetween(monday, monday.minusYears(1), monday.plusYears(1), 100), is(Arrays.asList(
+                monday, monday.plusDays(2), monday.plusDays(7), monday.plusDays(9), monday.plusDays(14))));
+        assertThat(rule.startsBetween(monday, monday.plusDays(8), monday.plusYears(1), 100), is(Arrays.asList(
+                monday.plusDays(9), monday.plusDays(14))));
+        assertThat(rule.startsBetween(monday, monday.plusDays(8), monday.plusYears(1), 1), is(Arrays.asList(
+                monday.plusDays(9))));
+        assertThat(rule.lastStart(monday), is(monday.plusDays(14)));
+    }
+
+    @Test
+    public void instancesKeepTheirWallClockTimeAcrossDaylightSavingChanges() {
+        DateTimeZone losAngeles = DateTimeZone.forID("America/Los_Angeles");
+        DateTime first = new DateTime(2012, 10, 29, 20, 0, 0, losAngeles);
+        List<DateTime> starts = RecurrenceRule.parse("FREQ=WEEKLY").startsBetween(first, first, first.plusWeeks(1),
+                10);
+        assertThat(starts.get(1).getHourOfDay(), is(20));
+        assertThat(starts.get(1).getMillis() - first.getMillis(), is((7 * 24 + 1) * 3600000L));
+    }
+
+    @Test
+    public void monthlyRulesSkipShortMonths() {
+        DateTime first = new DateTime(2012, 1, 31, 12, 0, 0);
+        RecurrenceRule rule = RecurrenceRule.parse("FREQ=MONTHLY;COUNT=4");
+        assertThat(rule.startsBetween(first, first, first.plusYears(1), 10), is(Arrays.asList(first,
+                first.withMonthOfYear(3), first.withMonthOfYear(5), first.withMonthOfYear(7))));
+        assertThat(rule.startsBetween(first, first.withMonthOfYear(4), first.plusYears(1), 10), is(Arrays.asList(
+                first.withMonthOfYear(5), first.withMonthOfYear(7))));
+    }
+
+    @Test
+    public void untilIsInclusive() {
+        RecurrenceRule rule = RecurrenceRule.parse("FREQ=DAILY;UNTIL=20121107");
+        assertThat(rule.startsBetween(monday, monday, monday.plusYears(1), 10).size(), is(3));
+        assertThat(RecurrenceRule.parse("FREQ=DAILY").lastStart(monday), is(nullValue()));
+    }
+
+    @Test
+    public void jumpingToTheWindowAgreesWithSteppingThroughTheSeries() {
+        Random random = new Random(2012);
+        List<String> rules = Arrays.asList("FREQ=DAILY;INTERVAL=3;COUNT=40", "FREQ=WEEKLY;INTERVAL=2;COUNT=30",
+                "FREQ=WEEKLY;BYDAY=TU,SA,SU;COUNT=50", "FREQ=WEEKLY;INTERVAL=3;BYDAY=MO,FR", "FREQ=MONTHLY;COUNT=20",
+                "FREQ=MONTHLY;INTERVAL=5;UNTIL=20200101");
+        for (int i = 0; i < 200; i++) {
+            RecurrenceRule rule = RecurrenceRule.parse(rules.get(random.nextInt(rules.size())));
+            DateTime first = new DateTime(2012, 1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24),
+                    0, 0).plusDays(random.nextInt(4));
+            DateTime from = first.plusHours(random.nextInt(24 * 400) - 24 * 30);
+            DateTime to = from.plusHours(random.nextInt(24 * 200));
+
+            List<DateTime> expected = new ArrayList<DateTime>();
+            for (DateTime start : rule.startsBetween(first, first, to, Integer.MAX_VALUE)) {
+                if (!start.isBefore(from)) {
+                    expected.add(start);
+                }
+            }
+            assertThat(rule.toString(), rule.startsBetween(first, from, to, Integer.MAX_VALUE), is(expected));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package edu.lmu.cs.wutup.ws.resource;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import edu.lmu.cs.wutup.ws.model.Event;
+import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.Venue;
+
+public class CalendarWriterTest {
+
+    @Test
+    public void textIsEscaped() {
+        assertThat(CalendarWriter.escape("a\\b;c,d\r\ne"), is("a\\\\b\\;c\\,d\\ne"));
+    }
+
+    @Test
+    public void shortLinesAreNotFolded() {
+        assertThat(CalendarWriter.fold("SUMMARY:Party"), is("SUMMARY:Party"));
+    }
+
+    @Test
+    public void longLinesAreFoldedAt75Octets() throws Exception {
+        StringBuilder line = new StringBuilder("DESCRIPTION:");
+        for (int i = 0; i < 200; i++) {
+            line.append(i % 3 == 0 ? "\u00e9" : i % 7 == 0 ? "\u6f22" : "x");
+        }
+        String folded = CalendarWriter.fold(line.toString());
+        String[] pieces = folded.split("\r\n");
+        assertTrue(pieces.length > 1);
+        StringBuilder unfolded = new StringBuilder(pieces[0]);
+        for (int i = 0; i < pieces.length; i++) {
+            assertTrue(pieces[i].getBytes("UTF-8").length <= CalendarWriter.MAX_LINE_OCTETS);
+            if (i > 0) {
+                assertTrue(pieces[i].startsWith(" "));
+                unfolded.append(pieces[i].substring(1));
+            }
+        }
+        assertThat(unfolded.toString(), is(line.toString()));
+    }
+
+    @Test
+    public void occurrencesAreWrittenAsEvents() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DateTime stamp = new DateTime(2012, 11, 1, 12, 0, 0, DateTimeZone.UTC);
+        CalendarWriter writer = new CalendarWriter(output, stamp);
+        writer.begin();
+        writer.visit(new EventOccurrence(7, new Event(2, "Party, Inc.", "Fun; games", null),
+                new Venue(1, "Pantages", "6233 Hollywood Bl", 34.1, -118.3, null),
+                new DateTime(2012, 1, 15, 20, 0, 0, DateTimeZone.UTC), null));
+        writer.end();
+
+        assertThat(output.toString("UTF-8"), is("BEGIN:VCALENDAR\r\n"
+                + "VERSION:2.0\r\n"
+                + "PRODID:-//LMU//wutup//EN\r\n"
+                + "CALSCALE:GREGORIAN\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "UID:occurrence-7@wutup\r\n"
+                + "DTSTAMP:20121101T120000Z\r\n"
+                + "DTSTART:20120115T200000Z\r\n"
+                + "SUMMARY:Party\\, Inc.\r\n"
+                + "DESCRIPTION:Fun\\; games\r\n"
+                + "LOCATION:Pantages\\, 6233 Hollywood Bl\r\n"
+                + "GEO:34.1;-118.3\r\n"
+                + "END:VEVENT\r\n"
+                + "END:VCALENDAR\r\n"));
+    }
+}
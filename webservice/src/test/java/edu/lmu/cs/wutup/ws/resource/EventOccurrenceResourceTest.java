@@ -3,12 +3,16 @@ package edu.lmu.cs.wutup.ws.resource;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.ws.rs.core.Response;
@@ -19,14 +23,27 @@ import org.joda.time.DateTime;
 import org.joda.time.Interval;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 
+import edu.lmu.cs.wutup.ws.exception.AttendeeExistsException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchAttendeeOrOccurrenceException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchEventOccurrenceException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchRecurrenceException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchResourceException;
 import edu.lmu.cs.wutup.ws.exception.ServiceException;
+import edu.lmu.cs.wutup.ws.model.Attendance;
+import edu.lmu.cs.wutup.ws.model.BatchItemResult;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
 import edu.lmu.cs.wutup.ws.model.Circle;
 import edu.lmu.cs.wutup.ws.model.Comment;
+import edu.lmu.cs.wutup.ws.model.Cursor;
 import edu.lmu.cs.wutup.ws.model.Event;
 import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
+import edu.lmu.cs.wutup.ws.model.OccurrenceCluster;
+import edu.lmu.cs.wutup.ws.model.OccurrenceFacets;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
+import edu.lmu.cs.wutup.ws.model.Recurrence;
 import edu.lmu.cs.wutup.ws.model.User;
 import edu.lmu.cs.wutup.ws.model.Venue;
 import edu.lmu.cs.wutup.ws.service.EventOccurrenceService;
@@ -41,6 +58,8 @@ public class EventOccurrenceResourceTest {
     List<EventOccurrence> sampleEventOccurrenceList = new ArrayList<EventOccurrence>();
     List<User> sampleUserList = new ArrayList<User>();
     List<Comment> sampleEventOccurrenceCommentList = new ArrayList<Comment>();
+    Recurrence sampleRecurrence = new Recurrence(null, new Event(7, "Weekly Hackathon"), new Venue(1, "Pantages",
+            null), new DateTime(2012, 11, 5, 20, 0), new DateTime(2012, 11, 5, 22, 0), "FREQ=WEEKLY;COUNT=10");
     UriInfo sampleUriInfo;
 
     @Before
@@ -86,39 +105,69 @@ public class EventOccurrenceResourceTest {
         a.add(new Integer(1));
         when(
                 service.findEventOccurrences(null, new Circle(1.0, 1.0, 1.0),
-                        new Interval(1L, 1L), a, null, new PaginationData(0, 5))).thenReturn(
+                        new Interval(1L, 1L), IntervalMode.CONTAINED, a, null, new PaginationData(0, 5))).thenReturn(
                 sampleEventOccurrenceList);
-        List<EventOccurrence> result = resource.findEventOccurrences(null, "1.0,1.0", "1.0", "1",
-                "1", "1", null, "0", "5");
+        List<EventOccurrence> result = entityOf(resource.findEventOccurrences(null, "1.0,1.0", "1.0", "1",
+                "1", "contained", "1", null, "id", "0", "5", null));
         assertThat(result, is(sampleEventOccurrenceList));
     }
 
+    @Test
+    public void fullPagesOfAttendeesCarryTheNextCursor() {
+        List<User> attendees = new ArrayList<User>();
+        attendees.add(new User(4, "ann@example.com"));
+        attendees.add(new User(9, "bob@example.com"));
+        when(service.findAttendeesByEventOccurrenceId(eq(1), any(PaginationData.class))).thenReturn(attendees);
+        Response full = resource.findAttendeesById("1", "0", "2", null);
+        assertThat((String) full.getMetadata().getFirst(AbstractWutupResource.NEXT_CURSOR_HEADER),
+                is(Cursor.afterId(9).encode()));
+
+        Response partial = resource.findAttendeesById("1", "0", "5", Cursor.afterId(2).encode());
+        assertThat(partial.getMetadata().containsKey(AbstractWutupResource.NEXT_CURSOR_HEADER), is(false));
+    }
+
+    @Test
+    public void malformedCursorThrowsException() {
+        try {
+            resource.findAttendeesById("1", "0", "5", "not a cursor");
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
     @Test
     public void findingEventOccurrencesByTimeIntervalReturnsAsList() {
         when(
-                service.findEventOccurrences(null, null, new Interval(1326196800L, 1328356800L), null, null,
+                service.findEventOccurrences(null, null, new Interval(1326196800L, 1328356800L),
+                        IntervalMode.CONTAINED, null, null,
                         new PaginationData(0, 10))).thenReturn(sampleEventOccurrenceList);
-        List<EventOccurrence> result = resource.findEventOccurrences(null, null, null, "1326196800", "1328356800",
-                null, null, "0", "10");
+        List<EventOccurrence> result = entityOf(resource.findEventOccurrences(null, null, null, "1326196800", "1328356800",
+                "contained",
+                null, null, "id", "0", "10", null));
         assertThat(result, is(sampleEventOccurrenceList));
     }
 
     @Test
     public void findingEventOccurrencesByCircleReturnsAsList() {
         when(
-                service.findEventOccurrences(null, new Circle(20.0, 30.0, 100.0), null, null, null, new PaginationData(
+                service.findEventOccurrences(null, new Circle(20.0, 30.0, 100.0), null, IntervalMode.CONTAINED, null,
+                        null, new PaginationData(
                         0, 10))).thenReturn(sampleEventOccurrenceList);
-        List<EventOccurrence> result = resource.findEventOccurrences(null, "20.0,30.0", "100.0", null, null, null,
-                null, "0", "10");
+        List<EventOccurrence> result = entityOf(resource.findEventOccurrences(null, "20.0,30.0", "100.0", null, null,
+                "contained", null,
+                null, "id", "0", "10", null));
         assertThat(result, is(sampleEventOccurrenceList));
     }
 
     @Test
     public void findingEventOccurrencesByVenueIdReturnsAsList() {
         Integer venueId = new Integer(2);
-        when(service.findEventOccurrences(null, null, null, null, venueId, new PaginationData(0, 10))).thenReturn(
+        when(service.findEventOccurrences(null, null, null, IntervalMode.CONTAINED, null, venueId,
+                new PaginationData(0, 10))).thenReturn(
                 sampleEventOccurrenceList);
-        List<EventOccurrence> result = resource.findEventOccurrences(null, null, null, null, null, null, 2, "0", "10");
+        List<EventOccurrence> result = entityOf(resource.findEventOccurrences(null, null, null, null, null, "contained", null,
+                2, "id", "0", "10", null));
         assertThat(result, is(sampleEventOccurrenceList));
     }
 
@@ -126,9 +175,11 @@ public class EventOccurrenceResourceTest {
     public void findingEventOccurrencesByEventIdReturnsAsList() {
         ArrayList<Integer> a = new ArrayList<Integer>();
         a.add(new Integer(2));
-        when(service.findEventOccurrences(null, null, null, a, null, new PaginationData(0, 10))).thenReturn(
+        when(service.findEventOccurrences(null, null, null, IntervalMode.CONTAINED, a, null, new PaginationData(0,
+                10))).thenReturn(
                 sampleEventOccurrenceList);
-        List<EventOccurrence> result = resource.findEventOccurrences(null, null, null, null, null, "2", null, "0", "10");
+        List<EventOccurrence> result = entityOf(resource.findEventOccurrences(null, null, null, null, null, "contained", "2",
+                null, "id", "0", "10", null));
         assertThat(result, is(sampleEventOccurrenceList));
     }
 
@@ -137,16 +188,136 @@ public class EventOccurrenceResourceTest {
         ArrayList<Integer> a = new ArrayList<Integer>();
         a.add(new Integer(2));
         a.add(new Integer(3));
-        when(service.findEventOccurrences(null, null, null, a, null, new PaginationData(0, 10))).thenReturn(
+        when(service.findEventOccurrences(null, null, null, IntervalMode.CONTAINED, a, null, new PaginationData(0,
+                10))).thenReturn(
                 sampleEventOccurrenceList);
-        List<EventOccurrence> result = resource.findEventOccurrences(null, null, null, null, null, "2,3", null, "0", "10");
+        List<EventOccurrence> result = entityOf(resource.findEventOccurrences(null, null, null, null, null, "contained", "2,3",
+                null, "id", "0", "10", null));
         assertThat(result, is(sampleEventOccurrenceList));
     }
 
+    @Test
+    public void findingEventOccurrencesByDistanceDelegatesToService() {
+        Circle circle = new Circle(20.0, 30.0, 100.0);
+        resource.findEventOccurrences(null, "20.0,30.0", "100.0", null, null, "contained", null, null, "distance",
+                "1", "10", null);
+        verify(service).findEventOccurrencesByDistance(eq((Integer) null), eq(circle), eq((Interval) null),
+                eq(IntervalMode.CONTAINED),
+                eq((List<Integer>) null), eq((Integer) null), any(PaginationData.class));
+    }
+
+    @Test
+    public void findingEventOccurrencesByDistanceWithoutCircleProduces400() {
+        try {
+            resource.findEventOccurrences(null, null, null, null, null, "contained", null, 2, "distance", "0", "10", null);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void findingEventOccurrencesWithUnknownSortProduces400() {
+        try {
+            resource.findEventOccurrences(null, null, null, null, null, "contained", null, 2, "popularity", "0", "10", null);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void findingEventOccurrencesByOverlapPassesModeToService() {
+        resource.findEventOccurrences(null, null, null, "1326196800", "1328356800", "overlap", null, null, "id", "0",
+                "10", null);
+        verify(service).findEventOccurrences(eq((Integer) null), eq((Circle) null),
+                eq(new Interval(1326196800L, 1328356800L)), eq(IntervalMode.OVERLAP), eq((List<Integer>) null),
+                eq((Integer) null), any(PaginationData.class));
+    }
+
+    @Test
+    public void findingEventOccurrencesWithUnknownWindowProduces400() {
+        try {
+            resource.findEventOccurrences(null, null, null, "1326196800", "1328356800", "during", null, null, "id",
+                    "0", "10", null);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void findingFacetsTakesTheSearchFilters() {
+        OccurrenceFacets facets = new OccurrenceFacets();
+        when(service.findFacets(null, new Circle(20.0, 30.0, 100.0), new Interval(1326196800L, 1328356800L),
+                IntervalMode.OVERLAP, Arrays.asList(2, 3), 4)).thenReturn(facets);
+        assertThat(resource.findFacets(null, "20.0,30.0", "100.0", "1326196800", "1328356800", "overlap", "2,3", 4),
+                is(facets));
+    }
+
+    @Test
+    public void findingFacetsWithoutQueryOrWithBadEventIdsProduces400() {
+        try {
+            resource.findFacets(null, null, null, null, null, "contained", null, null);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+        try {
+            resource.findFacets(null, null, null, null, null, "contained", "2,x", null);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void findingClustersDelegatesToService() {
+        List<OccurrenceCluster> clusters = new ArrayList<OccurrenceCluster>();
+        when(service.findClusters(new BoundingBox(33.5, -119, 34.5, -118), 10)).thenReturn(clusters);
+        assertThat(resource.findClusters("33.5,-119,34.5,-118", "10"), is(clusters));
+    }
+
+    @Test
+    public void findingClustersWithMalformedBoxProduces400() {
+        try {
+            resource.findClusters("33.5,-119,34.5", "10");
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void findingClustersWithoutZoomProduces400() {
+        try {
+            resource.findClusters("33.5,-119,34.5,-118", null);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void findingClustersOutOfRangeProduces403() {
+        try {
+            resource.findClusters("33.5,-119,94.5,-118", "10");
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(403));
+        }
+        try {
+            resource.findClusters("33.5,-119,34.5,-118", "30");
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(403));
+        }
+    }
+
     @Test
     public void findingEventOccurrencesWithoutQueryThrowsException() {
         try {
-            resource.findEventOccurrences(null, null, null, null, null, null, null, "0", "10");
+            resource.findEventOccurrences(null, null, null, null, null, "contained", null, null, "id", "0", "10", null);
         } catch(ServiceException e) {
             assertThat(e.getResponse().getStatus(), is(400));
         }
@@ -165,6 +336,136 @@ public class EventOccurrenceResourceTest {
         resource.createEventOccurrence(sampleEventOccurrence, sampleUriInfo);
     }
 
+    @Test
+    public void creatingExceptionWithoutInstanceStartProduces400() {
+        EventOccurrence exception = new EventOccurrence(null, new Event(300, "People Party"), new Venue(300,
+                "Party Place", "1 LMU Dr."));
+        exception.setRecurrenceId(5);
+        try {
+            resource.createEventOccurrence(exception, sampleUriInfo);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void creatingBatchReportsEachOccurrenceInOrder() {
+        EventOccurrence first = new EventOccurrence(11, new Event(300, "People Party"), new Venue(300, "Party Place",
+                "1 LMU Dr."));
+        EventOccurrence noVenue = new EventOccurrence(null, new Event(300, "People Party"), null);
+        EventOccurrence missingEvent = new EventOccurrence(null, new Event(999, "Gone"), new Venue(300,
+                "Party Place", "1 LMU Dr."));
+        when(service.createEventOccurrences(Arrays.asList(first, missingEvent))).thenReturn(
+                Arrays.asList(null, (RuntimeException) new NoSuchResourceException()));
+
+        List<BatchItemResult> results = resource.createEventOccurrences(Arrays.asList(first, noVenue, missingEvent));
+        assertThat(results.size(), is(3));
+        assertThat(results.get(0), is(new BatchItemResult(11, 201, null)));
+        assertThat(results.get(1).getStatus(), is(400));
+        assertThat(results.get(2).getStatus(), is(404));
+        assertThat(results.get(2).getId(), is((Integer) null));
+    }
+
+    @Test
+    public void creatingBatchWithOnlyBadOccurrencesCreatesNothing() {
+        List<BatchItemResult> results = resource.createEventOccurrences(Arrays.asList((EventOccurrence) null));
+        assertThat(results.get(0).getStatus(), is(400));
+        verify(service, never()).createEventOccurrences(Mockito.<List<EventOccurrence>>any());
+    }
+
+    @Test
+    public void creatingEmptyBatchThrowsException() {
+        try {
+            resource.createEventOccurrences(new ArrayList<EventOccurrence>());
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void registeringAttendeesInBulkReportsEachUserInOrder() {
+        when(service.registerAttendees(Arrays.asList(new Attendance(5, 1), new Attendance(5, 2), new Attendance(5,
+                99)))).thenReturn(Arrays.asList(null, new AttendeeExistsException(),
+                (RuntimeException) new NoSuchAttendeeOrOccurrenceException()));
+        List<BatchItemResult> results = resource.registerAttendeesForEventOccurrence("5", Arrays.asList(1, 2, null,
+                99));
+        assertThat(results.get(0), is(new BatchItemResult(1, 201, null)));
+        assertThat(results.get(1).getStatus(), is(409));
+        assertThat(results.get(2).getStatus(), is(400));
+        assertThat(results.get(3).getStatus(), is(404));
+    }
+
+    @Test
+    public void registeringTooManyAttendeesThrowsException() {
+        try {
+            resource.registerAttendeesForEventOccurrence("5", Arrays.asList(new Integer[1001]));
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void creatingRecurrenceReturns201WithLocationHeader() {
+        when(service.createRecurrence(sampleRecurrence)).thenReturn(4);
+        Response response = resource.createRecurrence(sampleRecurrence, sampleUriInfo);
+        assertThat(response.getStatus(), is(201));
+        assertThat(response.getMetadata().getFirst("Location").toString(), is("http://example.com/4"));
+    }
+
+    @Test
+    public void creatingRecurrenceWithBadRuleProduces400() {
+        sampleRecurrence.setRule("FREQ=FORTNIGHTLY");
+        try {
+            resource.createRecurrence(sampleRecurrence, sampleUriInfo);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+        verify(service, never()).createRecurrence(any(Recurrence.class));
+    }
+
+    @Test
+    public void creatingRecurrenceEndingBeforeItStartsProduces400() {
+        sampleRecurrence.setEnd(sampleRecurrence.getStart().minusHours(1));
+        try {
+            resource.createRecurrence(sampleRecurrence, sampleUriInfo);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void creatingRecurrenceOfNonExistentEventProduces404() {
+        when(service.createRecurrence(sampleRecurrence)).thenThrow(new NoSuchResourceException());
+        try {
+            resource.createRecurrence(sampleRecurrence, sampleUriInfo);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(404));
+        }
+    }
+
+    @Test
+    public void findingNonExistentRecurrenceProduces404() {
+        when(service.findRecurrenceById(8)).thenThrow(new NoSuchRecurrenceException());
+        try {
+            resource.findRecurrenceById("8");
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(404));
+        }
+    }
+
+    @Test
+    public void deletingRecurrenceProducesHttp204() {
+        assertThat(resource.deleteRecurrence("8").getStatus(), is(204));
+        verify(service).deleteRecurrence(8);
+    }
+
     @Test
     public void updatingEventOccurrenceProducesHttp204() {
         Response response = resource.updateEventOccurrence("1", sampleEventOccurrence);
@@ -240,7 +541,7 @@ public class EventOccurrenceResourceTest {
         a.add(new Integer(2));
         when(service.findAttendeesByEventOccurrenceId(2, new PaginationData(0, 10))).thenReturn(
                 sampleUserList);
-        List<User> attendees = resource.findAttendeesById("2", "0", "10");
+        List<User> attendees = entityOf(resource.findAttendeesById("2", "0", "10", null));
         assertThat(attendees, is(sampleUserList));
     }
 
@@ -282,14 +583,14 @@ public class EventOccurrenceResourceTest {
     @Test
     public void findingCommentsByEventIdReturnsList() {
         when(service.findComments(1, new PaginationData(1, 10))).thenReturn(sampleEventOccurrenceCommentList);
-        List<Comment> result = resource.findEventOccurrenceComments("1", "1", "10");
+        List<Comment> result = entityOf(resource.findEventOccurrenceComments("1", "1", "10", null));
         assertThat(result, is(sampleEventOccurrenceCommentList));
     }
 
     @Test
     public void findingCommentsWithPageSizeTooHighProducesHttp403() {
         try {
-            resource.findEventOccurrenceComments("1", "1", "51");
+            resource.findEventOccurrenceComments("1", "1", "51", null);
             fail();
         } catch (ServiceException e) {
             assertThat(e.getResponse().getStatus(), is(403));
@@ -299,10 +600,15 @@ public class EventOccurrenceResourceTest {
     @Test
     public void findingCommentsWithPageSizeTooLowProducesHttp403() {
         try {
-            resource.findEventOccurrenceComments("1", "0", "0");
+            resource.findEventOccurrenceComments("1", "0", "0", null);
             fail();
         } catch (ServiceException e) {
             assertThat(e.getResponse().getStatus(), is(403));
         }
     }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> entityOf(Response response) {
+        return (List<T>) response.getEntity();
+    }
 }
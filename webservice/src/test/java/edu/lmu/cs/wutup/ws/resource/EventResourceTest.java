@@ -82,7 +82,7 @@ public class EventResourceTest {
     @Test
     public void findingAllEventsWithPageSizeTooHighProducesHttp403() {
         try {
-            resource.findEvents(null, null, "1", "51");
+            resource.findEvents(null, null, "1", "51", null);
             fail();
         } catch (ServiceException e) {
             assertThat(e.getResponse().getStatus(), is(403));
@@ -92,7 +92,7 @@ public class EventResourceTest {
     @Test
     public void findingAllEventsWithPageSizeTooLowProducesHttp403() {
         try {
-            resource.findEvents(null, null, "0", "0");
+            resource.findEvents(null, null, "0", "0", null);
             fail();
         } catch (ServiceException e) {
             assertThat(e.getResponse().getStatus(), is(403));
@@ -102,7 +102,7 @@ public class EventResourceTest {
     @Test
     public void findingEventsByQueryPropagatesToService() {
         when(service.findEvents("Poker", null, new PaginationData(0, 3))).thenReturn(sampleEventList);
-        List<Event> events = resource.findEvents("Poker", null, "0", "3");
+        List<Event> events = entityOf(resource.findEvents("Poker", null, "0", "3", null));
         assertThat(events, is(sampleEventList));
     }
 
@@ -228,14 +228,14 @@ public class EventResourceTest {
     @Test
     public void findingCommentsByEventIdReturnsList() {
         when(service.findComments(1, new PaginationData(1, 10))).thenReturn(sampleEventCommentList);
-        List<Comment> result = resource.findEventComments("1", "1", "10");
+        List<Comment> result = entityOf(resource.findEventComments("1", "1", "10", null));
         assertThat(result, is(sampleEventCommentList));
     }
 
     @Test
     public void findingCommentsWithPageSizeTooHighProducesHttp403() {
         try {
-            resource.findEventComments("1", "1", "51");
+            resource.findEventComments("1", "1", "51", null);
             fail();
         } catch (ServiceException e) {
             assertThat(e.getResponse().getStatus(), is(403));
@@ -245,10 +245,15 @@ public class EventResourceTest {
     @Test
     public void findingCommentsWithPageSizeTooLowProducesHttp403() {
         try {
-            resource.findEventComments("1", "0", "0");
+            resource.findEventComments("1", "0", "0", null);
             fail();
         } catch (ServiceException e) {
             assertThat(e.getResponse().getStatus(), is(403));
         }
     }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> entityOf(Response response) {
+        return (List<T>) response.getEntity();
+    }
 }
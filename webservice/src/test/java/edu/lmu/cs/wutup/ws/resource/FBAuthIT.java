@@ -33,6 +33,14 @@ public class FBAuthIT {
             get("/wutup/auth/facebook/sync?error=someerrorstring");
     }
 
+    @Test
+    public void syncJobsThatDoNotExistAreNotFound() {
+        expect().
+            statusCode(404).
+        when().
+            get("/wutup/auth/facebook/sync/nosuchjob");
+    }
+
     @Ignore
     @Test
     public void getFacebookEventsWithFBCodeSucceeds() {
@@ -0,0 +1,31 @@
+package edu.lmu.cs.wutup.ws.resource;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.lmu.cs.wutup.ws.model.ConnectionPoolStatus;
+
+public class StatusResourceTest {
+
+    StatusResource resource = new StatusResource();
+
+    @Test
+    public void gatewayStatusCoversAllHostsThenEachApiHost() {
+        List<ConnectionPoolStatus> status = resource.findGatewayStatus();
+        assertThat(status.size(), is(3));
+        assertThat(status.get(0).getHost(), nullValue());
+        assertThat(status.get(0).getMax(), is(40));
+        assertThat(status.get(1).getHost(), is("maps.googleapis.com"));
+        assertThat(status.get(2).getHost(), is("graph.facebook.com"));
+        for (ConnectionPoolStatus pool : status) {
+            assertThat(pool.getLeased(), is(0));
+            assertThat(pool.getPending(), is(0));
+        }
+        assertThat(status.get(1).getMax(), is(20));
+    }
+}
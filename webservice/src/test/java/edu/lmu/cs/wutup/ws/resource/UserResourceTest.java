@@ -1,25 +1,44 @@
 package edu.lmu.cs.wutup.ws.resource;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
+import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
 
+import edu.lmu.cs.wutup.ws.cache.EntityInvalidator.Kind;
+import edu.lmu.cs.wutup.ws.cache.SerializedEntityCache;
+import edu.lmu.cs.wutup.ws.dao.EventOccurrenceDao.OccurrenceVisitor;
 import edu.lmu.cs.wutup.ws.exception.NoSuchUserException;
 import edu.lmu.cs.wutup.ws.exception.ServiceException;
 import edu.lmu.cs.wutup.ws.exception.UserExistsException;
+import edu.lmu.cs.wutup.ws.model.CalendarVersion;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
 import edu.lmu.cs.wutup.ws.model.User;
+import edu.lmu.cs.wutup.ws.service.EventOccurrenceService;
 import edu.lmu.cs.wutup.ws.service.UserService;
 
 public class UserResourceTest {
@@ -29,12 +48,20 @@ public class UserResourceTest {
     UriInfo sampleUriInfo;
     User sampleUser = new User(1, "john", "crown",  "heyheyhey@gmail.com", "lolol", "haha");
     PaginationData samplePagination = new PaginationData(0, 10);
+    CalendarVersion sampleVersion = new CalendarVersion(1, 4, new DateTime(2012, 11, 1, 12, 0, 0));
+    EventOccurrenceService occurrenceService;
+    Request request;
+    HttpHeaders headers;
 
     @Before
     public void setUp() {
         resource = new UserResource();
         service = mock(UserService.class);
         resource.userService = service;
+        occurrenceService = mock(EventOccurrenceService.class);
+        resource.eventOccurrenceService = occurrenceService;
+        request = mock(Request.class);
+        headers = mock(HttpHeaders.class);
         sampleUriInfo = mock(UriInfo.class);
         UriBuilder uriBuilder = UriBuilder.fromUri("http://example.com");
         when(sampleUriInfo.getAbsolutePathBuilder()).thenReturn(uriBuilder);
@@ -112,12 +139,27 @@ public class UserResourceTest {
     @Test
     public void getUserByIdReturnsWithRequestedUser() {
         when(service.findUserById(sampleUser.getId())).thenReturn(sampleUser);
-        User u = resource.findUserById("1");
+        User u = (User) resource.findUserById("1").getEntity();
         verify(service).findUserById(sampleUser.getId());
         assertThat(u.getId(), is(1));
         assertThat(u.getEmail(), is("heyheyhey@gmail.com"));
     }
 
+    @Test
+    public void getUserByIdSendsCachedJsonUntilTheUserChanges() throws Exception {
+        resource.entityCache = new SerializedEntityCache();
+        when(service.findUserById(sampleUser.getId())).thenReturn(sampleUser);
+        byte[] first = (byte[]) resource.findUserById("1").getEntity();
+        byte[] second = (byte[]) resource.findUserById("1").getEntity();
+        verify(service, times(1)).findUserById(sampleUser.getId());
+        assertThat(second, is(first));
+        assertThat(new String(first, "UTF-8"), containsString("\"firstname\":\"john\""));
+
+        resource.entityCache.invalidate(Kind.USER, 1);
+        resource.findUserById("1");
+        verify(service, times(2)).findUserById(sampleUser.getId());
+    }
+
     @Test
     public void getNonExistantUserByIdResponds404() {
         try {
@@ -138,4 +180,50 @@ public class UserResourceTest {
             assertThat(e.getResponse().getStatus(), is(400));
         }
     }
+
+    @Test
+    public void calendarIsStreamedWithValidators() throws Exception {
+        when(occurrenceService.findCalendarVersion(1)).thenReturn(sampleVersion);
+        Response response = resource.findCalendarByUserId("1", request, headers);
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getMetadata().getFirst("ETag"), is((Object) new EntityTag("1-4")));
+        assertThat(response.getMetadata().getFirst("Last-Modified"),
+                is((Object) sampleVersion.lastModified.toDate()));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StreamingOutput.class.cast(response.getEntity()).write(output);
+        verify(occurrenceService).visitAttendedOccurrences(eq(1), any(CalendarWriter.class));
+        assertThat(output.toString("UTF-8"), containsString("BEGIN:VCALENDAR\r\n"));
+        assertThat(output.toString("UTF-8"), containsString("END:VCALENDAR\r\n"));
+    }
+
+    @Test
+    public void calendarWithMatchingEntityTagResponds304() {
+        when(occurrenceService.findCalendarVersion(1)).thenReturn(sampleVersion);
+        when(headers.getRequestHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(Arrays.asList("\"1-4\""));
+        when(request.evaluatePreconditions(new EntityTag("1-4"))).thenReturn(Response.notModified());
+        Response response = resource.findCalendarByUserId("1", request, headers);
+        assertThat(response.getStatus(), is(304));
+        verify(request, never()).evaluatePreconditions(any(Date.class));
+        verify(occurrenceService, never()).visitAttendedOccurrences(eq(1), any(OccurrenceVisitor.class));
+    }
+
+    @Test
+    public void calendarNotModifiedSinceResponds304() {
+        when(occurrenceService.findCalendarVersion(1)).thenReturn(sampleVersion);
+        when(request.evaluatePreconditions(sampleVersion.lastModified.toDate())).thenReturn(Response.notModified());
+        Response response = resource.findCalendarByUserId("1", request, headers);
+        assertThat(response.getStatus(), is(304));
+    }
+
+    @Test
+    public void calendarOfNonExistentUserResponds404() {
+        try {
+            doThrow(new NoSuchUserException()).when(occurrenceService).findCalendarVersion(1);
+            resource.findCalendarByUserId("1", request, headers);
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(404));
+        }
+    }
 }
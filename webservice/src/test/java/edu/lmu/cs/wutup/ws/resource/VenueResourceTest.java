@@ -55,6 +55,52 @@ public class VenueResourceTest {
         sampleProperties.put(samplePropertyKey, samplePropertyValue);
     }
 
+    @Test
+    public void findNearestVenuesDelegatesToService() {
+        when(service.findNearestVenues(34.5, -118.25, 10)).thenReturn(sampleVenueList);
+        assertThat(resource.findNearestVenues("34.5,-118.25", "10"), is(sampleVenueList));
+    }
+
+    @Test
+    public void findNearestVenuesWithoutCenterProduces400() {
+        try {
+            resource.findNearestVenues(null, "10");
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void findNearestVenuesWithMalformedCenterProduces400() {
+        try {
+            resource.findNearestVenues("north,pole", "10");
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void findNearestVenuesWithCenterOutOfRangeProduces403() {
+        try {
+            resource.findNearestVenues("91,0", "10");
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(403));
+        }
+    }
+
+    @Test
+    public void findNearestVenuesWithTooLargeKProduces403() {
+        try {
+            resource.findNearestVenues("34.5,-118.25", "1000");
+            fail();
+        } catch (ServiceException e) {
+            assertThat(e.getResponse().getStatus(), is(403));
+        }
+    }
+
     @Test
     public void getVenuePropertiesWithNonIntegerProduces400() {
         try {
@@ -129,14 +175,14 @@ public class VenueResourceTest {
     @Test
     public void findingCommentsByVenueIdReturnsList() {
         when(service.findComments(1, new PaginationData(1, 10))).thenReturn(sampleVenueCommentList);
-        List<Comment> result = resource.findVenueComments("1", "1", "10");
+        List<Comment> result = entityOf(resource.findVenueComments("1", "1", "10", null));
         assertThat(result, is(sampleVenueCommentList));
     }
 
     @Test
     public void findingCommentsWithPageSizeTooHighProducesHttp403() {
         try {
-            resource.findVenueComments("1", "1", "51");
+            resource.findVenueComments("1", "1", "51", null);
             fail();
         } catch (ServiceException e) {
             assertThat(e.getResponse().getStatus(), is(403));
@@ -146,10 +192,15 @@ public class VenueResourceTest {
     @Test
     public void findingCommentsWithPageSizeTooLowProducesHttp403() {
         try {
-            resource.findVenueComments("1", "0", "0");
+            resource.findVenueComments("1", "0", "0", null);
             fail();
         } catch (ServiceException e) {
             assertThat(e.getResponse().getStatus(), is(403));
         }
     }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> entityOf(Response response) {
+        return (List<T>) response.getEntity();
+    }
 }
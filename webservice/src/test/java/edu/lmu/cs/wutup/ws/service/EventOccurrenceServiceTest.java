@@ -16,13 +16,18 @@ import org.junit.Before;
 import org.junit.Test;
 
 import edu.lmu.cs.wutup.ws.dao.EventOccurrenceDao;
+import edu.lmu.cs.wutup.ws.dao.EventOccurrenceDao.OccurrenceVisitor;
 import edu.lmu.cs.wutup.ws.exception.EventOccurrenceExistsException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchAttendeeOrOccurrenceException;
 import edu.lmu.cs.wutup.ws.exception.NoSuchEventOccurrenceException;
+import edu.lmu.cs.wutup.ws.model.BoundingBox;
+import edu.lmu.cs.wutup.ws.model.Circle;
 import edu.lmu.cs.wutup.ws.model.Comment;
 import edu.lmu.cs.wutup.ws.model.Event;
 import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.IntervalMode;
 import edu.lmu.cs.wutup.ws.model.PaginationData;
+import edu.lmu.cs.wutup.ws.model.Recurrence;
 import edu.lmu.cs.wutup.ws.model.User;
 import edu.lmu.cs.wutup.ws.model.Venue;
 
@@ -69,8 +74,51 @@ public class EventOccurrenceServiceTest {
     public void findingEventOccurrenceDelegatesToDao() {
         int venueId = sampleEventOccurrence.getVenue().getId();
         List<Integer> sampleIntegerList = new ArrayList<Integer>();
-        service.findEventOccurrences(null, null, null, sampleIntegerList, venueId, samplePagination);
-        verify(dao).findEventOccurrences(null, null, null, sampleIntegerList, venueId, samplePagination);
+        service.findEventOccurrences(null, null, null, IntervalMode.CONTAINED, sampleIntegerList, venueId,
+                samplePagination);
+        verify(dao).findEventOccurrences(null, null, null, IntervalMode.CONTAINED, sampleIntegerList, venueId,
+                samplePagination);
+    }
+
+    @Test
+    public void findEventOccurrencesByDistanceDelegatesToDao() {
+        Circle circle = new Circle(34.0, -118.0, 5);
+        service.findEventOccurrencesByDistance(null, circle, null, IntervalMode.CONTAINED, null, null,
+                samplePagination);
+        verify(dao).findEventOccurrencesByDistance(null, circle, null, IntervalMode.CONTAINED, null, null,
+                samplePagination);
+    }
+
+    @Test
+    public void findClustersDelegatesToDao() {
+        BoundingBox box = new BoundingBox(33.5, -119, 34.5, -118);
+        service.findClusters(box, 10);
+        verify(dao).findClusters(box, 10);
+    }
+
+    @Test
+    public void recurrenceMethodsDelegateToDao() {
+        Recurrence r = new Recurrence(null, sampleEventOccurrence.getEvent(), sampleEventOccurrence.getVenue(),
+                new DateTime(2012, 11, 5, 20, 0), new DateTime(2012, 11, 5, 22, 0), "FREQ=DAILY");
+        service.createRecurrence(r);
+        verify(dao).createRecurrence(r);
+        service.findRecurrenceById(3);
+        verify(dao).findRecurrenceById(3);
+        service.deleteRecurrence(3);
+        verify(dao).deleteRecurrence(3);
+    }
+
+    @Test
+    public void findCalendarVersionDelegatesToDao() {
+        service.findCalendarVersion(1);
+        verify(dao).findCalendarVersion(1);
+    }
+
+    @Test
+    public void visitAttendedOccurrencesDelegatesToDao() {
+        OccurrenceVisitor visitor = mock(OccurrenceVisitor.class);
+        service.visitAttendedOccurrences(1, visitor);
+        verify(dao).visitAttendedOccurrences(1, visitor);
     }
 
     @Test
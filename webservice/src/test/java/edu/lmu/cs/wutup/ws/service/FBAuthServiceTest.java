@@ -0,0 +1,164 @@
+package edu.lmu.cs.wutup.ws.service;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import edu.lmu.cs.wutup.ws.exception.EventOccurrenceExistsException;
+import edu.lmu.cs.wutup.ws.exception.FBUserSynchronizationException;
+import edu.lmu.cs.wutup.ws.exception.LocationNotFoundByGoogleException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchEventException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchVenueException;
+import edu.lmu.cs.wutup.ws.model.Event;
+import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.SyncProgress;
+import edu.lmu.cs.wutup.ws.model.Venue;
+
+public class FBAuthServiceTest {
+
+    static final String EVENTS = "{\"data\" : ["
+            + "{\"name\" : \"Concert\", \"location\" : \"Gersten\", \"start_time\" : \"2012-10-01T19:00:00\"},"
+            + "{\"name\" : \"Concert\", \"location\" : \"Gersten\", \"start_time\" : \"2012-10-02T19:00:00\"},"
+            + "{\"name\" : \"Lecture\", \"location\" : \"Gersten\", \"start_time\" : \"2012-10-03T19:00:00\","
+            + " \"end_time\" : \"2012-10-03T21:00:00\"},"
+            + "{\"name\" : \"No location\", \"start_time\" : \"2012-10-04T19:00:00\"},"
+            + "{\"name\" : \"Nowhere\", \"location\" : \"Atlantis\", \"start_time\" : \"2012-10-05T19:00:00\"}"
+            + "]}";
+
+    FBAuthServiceImpl service;
+    EventService eventService;
+    EventOccurrenceService occurrenceService;
+    UserService userService;
+    VenueService venueService;
+    GeocodeService geocodeService;
+    edu.lmu.cs.wutup.ws.model.User user = new edu.lmu.cs.wutup.ws.model.User(8, "kim@example.com", null, "1234");
+    DateTime requestedSince;
+
+    @Before
+    public void setUp() throws Exception {
+        service = new FBAuthServiceImpl() {
+            @Override
+            public String getUserEvents(String accessToken, DateTime since) {
+                requestedSince = since;
+                return EVENTS;
+            }
+        };
+        service.eventService = eventService = mock(EventService.class);
+        service.occurrenceService = occurrenceService = mock(EventOccurrenceService.class);
+        service.userService = userService = mock(UserService.class);
+        service.venueService = venueService = mock(VenueService.class);
+        service.geocodeService = geocodeService = mock(GeocodeService.class);
+
+        when(geocodeService.resolveVenue("Gersten", null, null)).thenReturn(
+                new Venue(null, "Gersten Pavilion", "1 LMU Drive"));
+        when(geocodeService.resolveVenue("Atlantis", null, null)).thenThrow(new LocationNotFoundByGoogleException());
+        when(venueService.findVenueByName("Gersten Pavilion")).thenReturn(new Venue(3, "Gersten Pavilion", "1 LMU Drive"));
+        when(eventService.findEventByName("Concert")).thenReturn(new Event(5, "Concert"));
+        when(eventService.findEventByName("Lecture")).thenThrow(new NoSuchEventException());
+        when(eventService.createEvent(any(Event.class))).thenReturn(6);
+        when(occurrenceService.findEventOccurrenceByProperties(anyInt(), anyInt(), any(Timestamp.class),
+                any(Timestamp.class))).thenReturn(new ArrayList<EventOccurrence>());
+        when(occurrenceService.createEventOccurrences(anyListOf(EventOccurrence.class))).thenAnswer(
+                new Answer<List<RuntimeException>>() {
+                    public List<RuntimeException> answer(InvocationOnMock invocation) {
+                        List<?> occurrences = (List<?>) invocation.getArguments()[0];
+                        return new ArrayList<RuntimeException>(Arrays.asList(new RuntimeException[occurrences.size()]));
+                    }
+                });
+    }
+
+    @Test
+    public void eachLocationEventAndVenueIsResolvedOnceAndOccurrencesAreCreatedTogether() throws Exception {
+        SyncProgress progress = new SyncProgress();
+        service.syncUser(user, "token", null, progress);
+
+        verify(geocodeService, times(1)).resolveVenue("Gersten", null, null);
+        verify(venueService, times(1)).findVenueByName("Gersten Pavilion");
+        verify(venueService, never()).createVenue(any(Venue.class));
+        verify(eventService, times(1)).findEventByName("Concert");
+        verify(eventService, times(1)).createEvent(any(Event.class));
+        verify(eventService, never()).findEventByName("Nowhere");
+        verify(occurrenceService, times(1)).createEventOccurrences(anyListOf(EventOccurrence.class));
+        verify(occurrenceService, never()).createEventOccurrence(any(EventOccurrence.class));
+
+        assertThat(progress.getTotal(), is(5));
+        assertThat(progress.getProcessed(), is(5));
+        assertThat(progress.getCreated(), is(3));
+        assertThat(progress.getFailed(), is(1));
+        assertThat(progress.getErrors().size(), is(2));
+        assertThat(progress.getErrors().get(0).startsWith("Event 3 (No location)"), is(true));
+        assertThat(progress.getErrors().get(1).startsWith("Event 4 (Nowhere)"), is(true));
+    }
+
+    @Test
+    public void occurrencesAlreadyThereAreSkippedAndFailedInsertsReported() throws Exception {
+        when(occurrenceService.findEventOccurrenceByProperties(eq(5), eq(3),
+                eq(new Timestamp(new DateTime("2012-10-01T19:00:00").getMillis())),
+                any(Timestamp.class))).thenReturn(Arrays.asList(new EventOccurrence()));
+        when(occurrenceService.createEventOccurrences(anyListOf(EventOccurrence.class))).thenReturn(
+                Arrays.<RuntimeException>asList(null, new EventOccurrenceExistsException()));
+
+        SyncProgress progress = new SyncProgress();
+        service.syncUser(user, "token", null, progress);
+
+        assertThat(progress.getProcessed(), is(5));
+        assertThat(progress.getCreated(), is(1));
+        assertThat(progress.getErrors().size(), is(3));
+        assertThat(progress.getErrors().get(2).startsWith("Event 2 (Lecture)"), is(true));
+    }
+
+    @Test
+    public void locationsAreGeocodedOnTheExecutorWhenThereIsOne() throws Exception {
+        service.geocodeExecutor = new TaskExecutorAdapter(new SimpleAsyncTaskExecutor());
+        when(venueService.findVenueByName("Gersten Pavilion")).thenThrow(new NoSuchVenueException());
+
+        SyncProgress progress = new SyncProgress();
+        service.syncUser(user, "token", null, progress);
+
+        verify(venueService, times(1)).createVenue(any(Venue.class));
+        assertThat(progress.getCreated(), is(3));
+        assertThat(progress.getErrors().size(), is(2));
+    }
+
+    @Test(expected = FBUserSynchronizationException.class)
+    public void unreadableEventsFailTheWholeSync() throws Exception {
+        service = new FBAuthServiceImpl() {
+            @Override
+            public String getUserEvents(String accessToken, DateTime since) throws IOException {
+                throw new IOException();
+            }
+        };
+        service.syncUser(user, "token", null, new SyncProgress());
+    }
+
+    @Test
+    public void onlyEventsSinceTheLastSyncAreRequested() throws Exception {
+        DateTime lastSynced = new DateTime("2012-10-01T00:00:00");
+        service.syncUser(user, "token", lastSynced, new SyncProgress());
+
+        assertThat(requestedSince, is(lastSynced));
+        verify(userService, never()).findUserByFacebookId("1234");
+    }
+}
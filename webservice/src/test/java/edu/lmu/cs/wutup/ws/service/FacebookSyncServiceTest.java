@@ -0,0 +1,215 @@
+package edu.lmu.cs.wutup.ws.service;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import edu.lmu.cs.wutup.ws.dao.FacebookSyncDao;
+import edu.lmu.cs.wutup.ws.exception.FBUserSynchronizationException;
+import edu.lmu.cs.wutup.ws.exception.NoSuchSyncJobException;
+import edu.lmu.cs.wutup.ws.model.Event;
+import edu.lmu.cs.wutup.ws.model.EventOccurrence;
+import edu.lmu.cs.wutup.ws.model.FacebookSync;
+import edu.lmu.cs.wutup.ws.model.SyncJob;
+import edu.lmu.cs.wutup.ws.model.SyncProgress;
+import edu.lmu.cs.wutup.ws.model.User;
+import edu.lmu.cs.wutup.ws.model.Venue;
+
+public class FacebookSyncServiceTest {
+
+    static final String EVENTS_WITHOUT_A_LOCATION = "{\"data\" : ["
+            + "{\"name\" : \"Concert\", \"location\" : \"Gersten\", \"start_time\" : \"2012-10-01T19:00:00\"},"
+            + "{\"name\" : \"No location\", \"start_time\" : \"2012-10-04T19:00:00\"}"
+            + "]}";
+
+    FacebookSyncServiceImpl service;
+    FBAuthService fbService;
+    UserService userService;
+    FacebookSyncDao syncDao;
+    User user = new User(8, "kim@example.com", null, "1234");
+
+    @Before
+    public void setUp() {
+        service = new FacebookSyncServiceImpl();
+        service.fbService = fbService = mock(FBAuthService.class);
+        service.userService = userService = mock(UserService.class);
+        service.syncDao = syncDao = mock(FacebookSyncDao.class);
+
+        when(fbService.findOrCreateFBUser(any(com.restfb.types.User.class))).thenReturn(user);
+        when(userService.findUserById(8)).thenReturn(user);
+    }
+
+    @Test
+    public void jobsRunFromTheWatermarkAndMoveItOnlyWhenNoEventFailed() {
+        DateTime watermark = new DateTime(2012, 11, 1, 12, 0, 0);
+        when(syncDao.findSync(8)).thenReturn(new FacebookSync(8, "token", watermark));
+
+        SyncJob job = service.submitSync("token");
+
+        verify(fbService, times(1)).getFBUser("token");
+        verify(syncDao).saveAccessToken(8, "token");
+        verify(fbService).syncUser(eq(user), eq("token"), eq(watermark), any(SyncProgress.class));
+        verify(syncDao).saveLastSynced(eq(8), any(DateTime.class));
+        assertThat(job.getState(), is(SyncJob.State.DONE));
+        assertThat(service.findJob(job.getId()), sameInstance(job));
+
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) {
+                ((SyncProgress) invocation.getArguments()[3]).eventFailed("Event 0: not found");
+                return null;
+            }
+        }).when(fbService).syncUser(eq(user), eq("token"), any(DateTime.class), any(SyncProgress.class));
+        assertThat(service.submitSync("token").getState(), is(SyncJob.State.DONE));
+        verify(syncDao, times(1)).saveLastSynced(eq(8), any(DateTime.class));
+        verify(syncDao).saveFailedAttempt(eq(8), any(DateTime.class));
+    }
+
+    @Test
+    public void eventsWithoutALocationDoNotHoldTheWatermarkBack() throws Exception {
+        FBAuthServiceImpl realFbService = new FBAuthServiceImpl() {
+            @Override
+            public String getUserEvents(String accessToken, DateTime since) {
+                return EVENTS_WITHOUT_A_LOCATION;
+            }
+        };
+        realFbService.eventService = mock(EventService.class);
+        realFbService.occurrenceService = mock(EventOccurrenceService.class);
+        realFbService.venueService = mock(VenueService.class);
+        realFbService.geocodeService = mock(GeocodeService.class);
+        when(realFbService.geocodeService.resolveVenue("Gersten", null, null)).thenReturn(
+                new Venue(3, "Gersten Pavilion", "1 LMU Drive"));
+        when(realFbService.venueService.findVenueByName("Gersten Pavilion")).thenReturn(
+                new Venue(3, "Gersten Pavilion", "1 LMU Drive"));
+        when(realFbService.eventService.findEventByName("Concert")).thenReturn(new Event(5, "Concert"));
+        when(realFbService.occurrenceService.createEventOccurrences(anyListOf(EventOccurrence.class))).thenReturn(
+                Arrays.<RuntimeException>asList((RuntimeException) null));
+        service.fbService = realFbService;
+        when(syncDao.findSyncsBefore(any(DateTime.class))).thenReturn(
+                Arrays.asList(new FacebookSync(8, "stored", null)));
+
+        service.resyncUsers();
+
+        verify(syncDao).saveLastSynced(eq(8), any(DateTime.class));
+        verify(syncDao, never()).saveFailedAttempt(anyInt(), any(DateTime.class));
+    }
+
+    @Test
+    public void usersWhoseSyncsKeepFailingAreRetriedLessOftenThenNotAtAll() {
+        DateTime now = new DateTime();
+        long interval = FacebookSyncServiceImpl.DEFAULT_RESYNC_INTERVAL_MILLIS;
+        when(userService.findUserById(anyInt())).thenReturn(user);
+        when(syncDao.findSyncsBefore(any(DateTime.class))).thenReturn(Arrays.asList(
+                new FacebookSync(1, "waiting", null, now.minus(interval * 3), 2),
+                new FacebookSync(2, "retried", null, now.minus(interval * 5), 2),
+                new FacebookSync(3, "dead", null, now.minus(interval * 1000),
+                        FacebookSyncServiceImpl.MAX_FAILED_ATTEMPTS)));
+
+        service.resyncUsers();
+
+        verify(fbService, never()).syncUser(eq(user), eq("waiting"), any(DateTime.class), any(SyncProgress.class));
+        verify(fbService).syncUser(eq(user), eq("retried"), any(DateTime.class), any(SyncProgress.class));
+        verify(fbService, never()).syncUser(eq(user), eq("dead"), any(DateTime.class), any(SyncProgress.class));
+    }
+
+    @Test
+    public void tokensAreForgottenWhenTheSyncsUsingThemAreGivenUp() {
+        doThrow(new FBUserSynchronizationException()).when(fbService).syncUser(eq(user), eq("token"),
+                any(DateTime.class), any(SyncProgress.class));
+        when(syncDao.findSync(8)).thenReturn(new FacebookSync(8, "token", null, null,
+                FacebookSyncServiceImpl.MAX_FAILED_ATTEMPTS - 2));
+
+        service.submitSync("token");
+        verify(syncDao, never()).forgetAccessToken(anyInt());
+
+        when(syncDao.findSync(8)).thenReturn(new FacebookSync(8, "token", null, null,
+                FacebookSyncServiceImpl.MAX_FAILED_ATTEMPTS - 1));
+        service.submitSync("token");
+        verify(syncDao).forgetAccessToken(8);
+    }
+
+    @Test
+    public void aFailedSyncFailsTheJob() {
+        doThrow(new FBUserSynchronizationException()).when(fbService).syncUser(eq(user), eq("token"),
+                any(DateTime.class), any(SyncProgress.class));
+
+        SyncJob job = service.submitSync("token");
+
+        assertThat(job.getState(), is(SyncJob.State.FAILED));
+        assertThat(job.getFailure().contains("FBUserSynchronizationException"), is(true));
+        verify(syncDao, never()).saveLastSynced(anyInt(), any(DateTime.class));
+        verify(syncDao).saveFailedAttempt(eq(8), any(DateTime.class));
+    }
+
+    @Test
+    public void aUserHasOneJobAtATime() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws InterruptedException {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(fbService).syncUser(eq(user), eq("token"), any(DateTime.class), any(SyncProgress.class));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        service.syncExecutor = new TaskExecutorAdapter(executor);
+
+        try {
+            SyncJob first = service.submitSync("token");
+            assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+            assertThat(first.getState(), is(SyncJob.State.RUNNING));
+            assertThat(service.submitSync("token"), sameInstance(first));
+
+            release.countDown();
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+            assertThat(first.getState(), is(SyncJob.State.DONE));
+            verify(fbService, times(1)).syncUser(eq(user), eq("token"), any(DateTime.class), any(SyncProgress.class));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void usersDueASyncAreResynchronizedWithTheirStoredTokens() {
+        when(syncDao.findSyncsBefore(any(DateTime.class))).thenReturn(
+                Arrays.asList(new FacebookSync(8, "stored", null)));
+
+        service.resyncUsers();
+
+        verify(fbService, never()).getFBUser(anyString());
+        verify(fbService).syncUser(eq(user), eq("stored"), (DateTime) isNull(), any(SyncProgress.class));
+    }
+
+    @Test(expected = NoSuchSyncJobException.class)
+    public void unknownJobsAreNotFound() {
+        service.findJob("nope");
+    }
+}
@@ -3,13 +3,149 @@ package edu.lmu.cs.wutup.ws.service;
 import static edu.lmu.cs.wutup.ws.model.GoogleGateway.extractLocationFromJSON;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
+import org.joda.time.DateTime;
+import org.junit.Before;
 import org.junit.Test;
 
+import edu.lmu.cs.wutup.ws.dao.GeocodeDao;
+import edu.lmu.cs.wutup.ws.exception.LocationNotFoundByGoogleException;
+import edu.lmu.cs.wutup.ws.model.GeocodeResponse;
+import edu.lmu.cs.wutup.ws.model.LatLong;
+import edu.lmu.cs.wutup.ws.model.Venue;
+
 public class GeocodeServiceTest {
 
+    static final String FOUND = "{\"results\" : [{\"geometry\" : {\"location\" : {\"lat\" : 33.9682680, "
+            + "\"lng\" : -118.4219410}}, \"formatted_address\" : \"1 LMU Drive\", \"address_components\" : []}], "
+            + "\"status\" : \"OK\"}";
+    static final String NOT_FOUND = "{\"results\" : [], \"status\" : \"ZERO_RESULTS\"}";
+    static final String OVER_LIMIT = "{\"results\" : [], \"status\" : \"OVER_QUERY_LIMIT\"}";
+
+    GeocodeServiceImpl service;
+    GeocodeDao dao;
+    volatile String body;
+    volatile IOException failure;
+    volatile CountDownLatch release;
+    List<String> fetched;
+
+    @Before
+    public void setUp() {
+        fetched = Collections.synchronizedList(new ArrayList<String>());
+        service = new GeocodeServiceImpl() {
+            @Override
+            String fetchAddress(String address) throws IOException {
+                fetched.add(address);
+                if (release != null) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                return body;
+            }
+
+            @Override
+            String fetchCoordinates(double lat, double lng) throws IOException {
+                fetched.add(lat + "," + lng);
+                return body;
+            }
+        };
+        dao = mock(GeocodeDao.class);
+        service.geocodeDao = dao;
+    }
+
+    @Test
+    public void addressesWrittenDifferentlyAreFetchedOnce() throws IOException {
+        body = FOUND;
+        LatLong first = service.resolveAddressToLatLong("  1 LMU\tDrive ");
+        LatLong second = service.resolveAddressToLatLong("1 lmu drive");
+
+        assertThat(fetched, is(Arrays.asList("1 lmu drive")));
+        assertThat(second.latitude, is(first.latitude));
+        assertThat(first.longitude, is(-118.4219410));
+        verify(dao).saveResponse(eq("address:1 lmu drive"), any(GeocodeResponse.class));
+    }
+
+    @Test
+    public void nearbyCoordinatesAreFetchedOnceRounded() throws IOException {
+        body = FOUND;
+        service.resolveLatLongToAddress(33.968268, -118.421941);
+        assertThat(service.resolveLatLongToAddress(33.9682681, -118.4219409), is("1 LMU Drive"));
+
+        assertThat(fetched, is(Arrays.asList("33.96827,-118.42194")));
+    }
+
+    @Test
+    public void locationsNotFoundAreRemembered() throws IOException {
+        body = NOT_FOUND;
+        for (int i = 0; i < 2; i++) {
+            try {
+                service.resolveAddressToLatLong("nowhere");
+                fail();
+            } catch (LocationNotFoundByGoogleException e) {
+                // Expected
+            }
+        }
+        assertThat(fetched.size(), is(1));
+        verify(dao).saveResponse(eq("address:nowhere"), any(GeocodeResponse.class));
+    }
+
+    @Test
+    public void failuresAreNotRemembered() throws IOException {
+        body = OVER_LIMIT;
+        service.geocodeAddress("1 LMU Drive", new HashMap<String, String>());
+        service.geocodeAddress("1 LMU Drive", new HashMap<String, String>());
+
+        assertThat(fetched.size(), is(2));
+        verify(dao, never()).saveResponse(anyString(), any(GeocodeResponse.class));
+    }
+
+    @Test
+    public void responsesSavedEarlierAreNotFetched() throws IOException {
+        when(dao.findResponse(eq("address:1 lmu drive"), any(DateTime.class))).thenReturn(
+                new GeocodeResponse(FOUND, new DateTime().plusDays(1)));
+        assertThat(service.resolveAddressToLatLong("1 LMU Drive").latitude, is(33.9682680));
+        assertThat(fetched.size(), is(0));
+    }
+
+    @Test
+    public void expiredResponsesAreFetchedAgain() throws IOException {
+        body = FOUND;
+        service.setTtlMillis(-1);
+        service.geocodeAddress("1 LMU Drive", new HashMap<String, String>());
+        service.geocodeAddress("1 LMU Drive", new HashMap<String, String>());
+        assertThat(fetched.size(), is(2));
+    }
+
 //    GeocodeServiceImpl service = new GeocodeServiceImpl();
 //
 //    @Test(expected=NoAddressProvidedException.class)
@@ -22,6 +158,85 @@ public class GeocodeServiceTest {
 //        service.resolveAddressToLatLong(null);
 //    }
 
+    @Test
+    public void concurrentLookupsOfTheSameAddressAreFetchedOnce() throws Exception {
+        body = FOUND;
+        release = new CountDownLatch(1);
+        List<Future<LatLong>> results = resolveAtOnce(8, "1 LMU Drive");
+        release.countDown();
+
+        for (Future<LatLong> result : results) {
+            assertThat(result.get().latitude, is(33.9682680));
+        }
+        assertThat(fetched.size(), is(1));
+    }
+
+    @Test
+    public void aFailedLookupFailsEveryoneWaitingForIt() throws Exception {
+        failure = new IOException("Connection reset");
+        release = new CountDownLatch(1);
+        List<Future<LatLong>> results = resolveAtOnce(8, "1 LMU Drive");
+        release.countDown();
+
+        for (Future<LatLong> result : results) {
+            try {
+                result.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), is((Throwable) failure));
+            }
+        }
+        assertThat(fetched.size(), is(1));
+    }
+
+    @Test
+    public void waitingForALookupTimesOut() throws Exception {
+        body = FOUND;
+        release = new CountDownLatch(1);
+        service.setLookupTimeoutMillis(50);
+        List<Future<LatLong>> first = resolveAtOnce(1, "1 LMU Drive");
+        try {
+            service.resolveAddressToLatLong("1 LMU Drive");
+            fail();
+        } catch (InterruptedIOException e) {
+            // Expected
+        }
+        release.countDown();
+        assertThat(first.get(0).get().latitude, is(33.9682680));
+    }
+
+    @Test
+    public void resolvingAVenueNeverFetchesTheSameThingTwice() throws IOException, JSONException {
+        body = FOUND;
+        service.setTtlMillis(-1);
+        Venue venue = service.resolveVenue(null, 33.968268, -118.421941);
+
+        assertThat(venue.getAddress(), is("1 LMU Drive"));
+        assertThat(fetched, is(Arrays.asList("33.96827,-118.42194", "1 lmu drive")));
+    }
+
+    /**
+     * Starts resolving the address on as many threads at once, returning once the first lookup has started.
+     */
+    private List<Future<LatLong>> resolveAtOnce(int threads, final String address) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<LatLong>> results = new ArrayList<Future<LatLong>>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(new Callable<LatLong>() {
+                public LatLong call() throws IOException {
+                    return service.resolveAddressToLatLong(address);
+                }
+            }));
+        }
+        executor.shutdown();
+        while (fetched.isEmpty()) {
+            Thread.sleep(10);
+        }
+        // Give the other threads time to find the lookup in flight
+        Thread.sleep(200);
+        return results;
+    }
+
     @Test
     public void googleGatewayProperlyParsesGoogleJSONResponse() throws JSONException {
         JSONObject j = extractLocationFromJSON(new JSONObject("{\"results\" : [{\"geometry\" :" +
@@ -31,5 +246,4 @@ public class GeocodeServiceTest {
         assertThat(j.getDouble("lat"), is(33.9682680));
         assertThat(j.getDouble("lng"), is(-118.4219410));
     }
-    
 }
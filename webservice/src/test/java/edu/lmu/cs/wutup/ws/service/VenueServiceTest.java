@@ -37,6 +37,12 @@ public class VenueServiceTest {
         samplePropertyMap.put(samplePropertyKey, samplePropertyValue);
     }
 
+    @Test
+    public void findNearestVenuesDelegatesToDao() {
+        service.findNearestVenues(34.0, -118.0, 5);
+        verify(dao).findNearestVenues(34.0, -118.0, 5);
+    }
+
     @Test
     public void creationDelegatesToDao() {
         service.createVenue(sampleVenue);
@@ -29,6 +29,7 @@ insert into venue (id, name, address, latitude, longitude) values (7, 'House of
 insert into venue (id, name, address, latitude, longitude) values (8, 'Carousel Restaurant', '304 N Brand Bl, Glendale, CA 91203', 34.149885, -118.255108);
 insert into venue (id, name, address, latitude, longitude) values (10, 'Far Away Palace', '71 Longa way, SomeTown, ZX 90145', -34.149885, 62.000001);
 insert into venue (id, name, address, latitude, longitude) values (11, 'Some trailer park', '2800 East Observatory Rd, Los Angeles, CA 90027', 0, 0);
+update venue set x = cos(radians(latitude)) * cos(radians(longitude)), y = cos(radians(latitude)) * sin(radians(longitude)), z = sin(radians(latitude));
 
 insert into venue_property (venueId, key, value) values (1, 'seating capacity', '2703');
 insert into venue_property (venueId, key, value) values (1, 'since', '1930-06-04');
@@ -51,6 +52,13 @@ insert into occurrence (id, eventId, venueId, start, end) values (7, 6, 2, '2012
 insert into occurrence (id, eventId, venueId, start, end) values (8, 5, 3, '2012-11-17 03:00:00', '2012-11-17 17:30:00');
 insert into occurrence (id, eventId, venueId, start, end) values (9, 8, 4, '2012-11-18 04:00:00', '2012-11-18 18:30:00');
 insert into occurrence (id, eventId, venueId, start, end) values (10, 3, 5, '2012-11-19 05:00:00', '2012-11-19 19:30:00');
+insert into occurrence_search (id, eventId, venueId, start, end, recurrenceId, recurrenceStart,
+  venueName, address, latitude, longitude, x, y, z, eventName, description, ownerId, ownerFirstName, ownerLastName,
+  ownerEmail, ownerNickname, ownerFacebookId)
+  select o.id, o.eventId, o.venueId, o.start, o.end, o.recurrenceId, o.recurrenceStart, v.name,
+  v.address, v.latitude, v.longitude, v.x, v.y, v.z, e.name, e.description, u.id, u.firstName, u.lastName, u.email,
+  u.nickname, u.facebookId
+  from occurrence o join venue v on o.venueId = v.id join event e on o.eventId = e.id join user u on e.ownerId = u.id;
 
 insert into category (id, name, parentId) values (1, 'Theater', null);
 insert into category (id, name, parentId) values (2, 'Club', null);
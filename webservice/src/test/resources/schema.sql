@@ -2,13 +2,17 @@ drop table if exists user;
 drop table if exists event;
 drop table if exists venue;
 drop table if exists venue_property;
+drop table if exists occurrence_search;
 drop table if exists occurrence;
+drop table if exists recurrence;
 drop table if exists category;
 drop table if exists event_category;
 drop table if exists attendee;
 drop table if exists event_comment;
 drop table if exists occurrence_comment;
 drop table if exists venue_comment;
+drop table if exists geocode_response;
+drop table if exists facebook_sync;
 drop alias if exists get_distance_miles;
 drop alias if exists get_distance_km;
 
@@ -23,6 +27,8 @@ create table user (
   email varchar(512),
   nickname varchar(512),
   sessionId varchar(512),
+  calendarVersion integer default 0 not null,
+  calendarUpdated timestamp default current_timestamp() not null,
   primary key(id)
 );
 
@@ -41,9 +47,14 @@ create table venue (
   address varchar(512),
   latitude double,
   longitude double,
+  x double,
+  y double,
+  z double,
   primary key(id)
 );
 
+create index venue_latitude_longitude on venue(latitude, longitude);
+
 create table venue_property (
   venueId integer not null,
   key varchar(128),
@@ -52,17 +63,70 @@ create table venue_property (
   foreign key(venueId) references venue(Id)
 );
 
+create table recurrence (
+  id integer auto_increment not null,
+  eventId integer not null,
+  venueId integer not null,
+  start datetime not null,
+  end datetime not null,
+  rule varchar(255) not null,
+  lastEnd datetime,
+  primary key(id),
+  foreign key(eventId) references event(id) on delete cascade,
+  foreign key(venueId) references venue(id)
+);
+create index recurrence_start on recurrence(start);
+
 create table occurrence (
   id integer auto_increment not null,
   eventId integer,
   venueId integer,
   start datetime,
   end datetime,
+  recurrenceId integer,
+  recurrenceStart datetime,
   primary key(id),
+  unique(recurrenceId, recurrenceStart),
   foreign key(eventId) references event(id) on delete cascade,
-  foreign key(venueId) references venue(id)
+  foreign key(venueId) references venue(id),
+  foreign key(recurrenceId) references recurrence(id) on delete set null
 );
 
+-- One row per occurrence with its venue, event and event owner, kept up to date by the DAOs, so that searches read
+-- a single table
+create table occurrence_search (
+  id integer not null,
+  eventId integer not null,
+  venueId integer not null,
+  start datetime,
+  end datetime,
+  recurrenceId integer,
+  recurrenceStart datetime,
+  venueName varchar(512),
+  address varchar(512),
+  latitude double,
+  longitude double,
+  x double,
+  y double,
+  z double,
+  eventName varchar(512),
+  description varchar(512),
+  ownerId integer not null,
+  ownerFirstName varchar(512),
+  ownerLastName varchar(512),
+  ownerEmail varchar(512),
+  ownerNickname varchar(512),
+  ownerFacebookId varchar(512),
+  primary key(id),
+  foreign key(id) references occurrence(id) on delete cascade,
+  foreign key(recurrenceId) references recurrence(id) on delete set null
+);
+-- Searches are answered from the occurrence filter index; these serve the refreshes, which replace all the rows of an
+-- event, venue or owner at once
+create index occurrence_search_event on occurrence_search(eventId);
+create index occurrence_search_venue on occurrence_search(venueId);
+create index occurrence_search_owner on occurrence_search(ownerId);
+
 create table category (
   id integer auto_increment not null,
   name varchar(512),
@@ -118,3 +182,22 @@ create table venue_comment (
   foreign key(subjectId) references venue(id),
   foreign key(authorId) references user(id)
 );
+
+create table geocode_response (
+  cacheKey varchar(512) not null,
+  response clob,
+  expires datetime not null,
+  primary key(cacheKey)
+);
+
+-- The token each user last synchronized with, kept so that the scheduler can synchronize them again without them.
+-- It is never returned by the API, and is set to null once synchronizing with it has failed too many times in a row
+create table facebook_sync (
+  userId integer not null,
+  accessToken varchar(512),
+  lastSynced datetime,
+  lastAttempted datetime,
+  failedAttempts integer default 0 not null,
+  primary key(userId),
+  foreign key(userId) references user(id)
+);